@@ -0,0 +1,58 @@
+package org.auscope.portal.gsml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks BoreholeFilter string generation (including the large ID restrictions generated for hylogged boreholes)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BoreholeFilterBenchmark {
+
+    /** The number of borehole ID's the filter is restricted to */
+    @Param({"0", "500"})
+    public int restrictToIds;
+
+    private List<String> idList;
+    private FilterBoundingBox bbox;
+
+    @Setup
+    public void setup() {
+        idList = new ArrayList<String>(restrictToIds);
+        for (int i = 0; i < restrictToIds; i++) {
+            idList.add("http://example.org/resource/feature/borehole/" + i);
+        }
+        bbox = new FilterBoundingBox("EPSG:4326", new double[] {110.0, -45.0}, new double[] {155.0, -10.0});
+    }
+
+    @Benchmark
+    public String getFilterStringAllRecords() {
+        return new BoreholeFilter("borehole", "custodian", "1990-01-01", "2010-12-31", idList)
+                .getFilterStringAllRecords();
+    }
+
+    @Benchmark
+    public String getFilterStringBoundingBox() {
+        return new BoreholeFilter("borehole", "custodian", "1990-01-01", "2010-12-31", idList)
+                .getFilterStringBoundingBox(bbox);
+    }
+}
@@ -0,0 +1,51 @@
+package org.auscope.portal.mineraloccurrence;
+
+import java.util.concurrent.TimeUnit;
+
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks MineralOccurrenceFilter string generation for each measure type ("Any" generates a fragment for every
+ * measure)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MineralOccurrenceFilterBenchmark {
+
+    @Param({"Any", "Reserve"})
+    public String measureType;
+
+    private FilterBoundingBox bbox;
+
+    @Setup
+    public void setup() {
+        bbox = new FilterBoundingBox("EPSG:4326", new double[] {110.0, -45.0}, new double[] {155.0, -10.0});
+    }
+
+    @Benchmark
+    public String getFilterStringAllRecords() {
+        return new MineralOccurrenceFilter("Gold", measureType, "1000", "urn:ogc:def:uom:UCUM:t", "10",
+                "urn:ogc:def:uom:UCUM:t").getFilterStringAllRecords();
+    }
+
+    @Benchmark
+    public String getFilterStringBoundingBox() {
+        return new MineralOccurrenceFilter("Gold", measureType, "1000", "urn:ogc:def:uom:UCUM:t", "10",
+                "urn:ogc:def:uom:UCUM:t").getFilterStringBoundingBox(bbox);
+    }
+}
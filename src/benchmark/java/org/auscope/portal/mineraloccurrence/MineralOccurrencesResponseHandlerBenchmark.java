@@ -0,0 +1,42 @@
+package org.auscope.portal.mineraloccurrence;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.auscope.portal.core.test.ResourceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks MineralOccurrencesResponseHandler.getMines on a recorded GetFeature response
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MineralOccurrencesResponseHandlerBenchmark {
+
+    private MineralOccurrencesResponseHandler handler;
+    private String mineResponse;
+
+    @Setup
+    public void setup() throws Exception {
+        handler = new MineralOccurrencesResponseHandler();
+        mineResponse = ResourceUtil.loadResourceAsString("org/auscope/portal/erml/mine/mineGetFeatureResponse.xml");
+    }
+
+    @Benchmark
+    public List<Mine> getMines() throws Exception {
+        return handler.getMines(mineResponse);
+    }
+}
@@ -0,0 +1,98 @@
+package org.auscope.portal.nvcl;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+
+import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Benchmarks the getLogCollection parsing used by NVCLDataService (NVCLCollectionParser) against the DOM/XPath parsing
+ * it replaced (as a baseline) for a large synthetic getLogCollection response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NVCLCollectionParserBenchmark {
+
+    /** The number of logs in the response */
+    @Param({"500"})
+    public int logCount;
+
+    private byte[] xml;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<LogCollection>\n");
+        for (int i = 0; i < logCount; i++) {
+            sb.append("  <Log>\n");
+            sb.append("    <LogID>").append(String.format("%08x-fe38-457c-be42-3b165fd98c7", i)).append("</LogID>\n");
+            sb.append("    <logName>Grp").append(i % 7).append("_uTSAS_").append(i).append("</logName>\n");
+            sb.append("    <ispublic>").append(i % 10 == 0 ? "false" : "true").append("</ispublic>\n");
+            sb.append("    <SampleCount>").append(i * 13).append("</SampleCount>\n");
+            sb.append("  </Log>\n");
+        }
+        sb.append("</LogCollection>\n");
+        xml = sb.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public List<GetLogCollectionResponse> parseLogCollection() throws Exception {
+        return NVCLCollectionParser.parseLogCollection(new ByteArrayInputStream(xml), "logName", true);
+    }
+
+    /**
+     * The DOM/XPath approach previously used by NVCLDataService.getLogCollection
+     */
+    @Benchmark
+    public List<GetLogCollectionResponse> parseLogCollectionDomBaseline() throws Exception {
+        Document responseDoc = DOMUtil.buildDomFromStream(new ByteArrayInputStream(xml));
+        XPathExpression expr = DOMUtil.compileXPathExpr("LogCollection/Log");
+        NodeList nodeList = (NodeList) expr.evaluate(responseDoc, XPathConstants.NODESET);
+
+        List<GetLogCollectionResponse> responseObjs = new ArrayList<GetLogCollectionResponse>();
+        XPathExpression exprLogId = DOMUtil.compileXPathExpr("LogID");
+        XPathExpression exprLogName = DOMUtil.compileXPathExpr("logName");
+        XPathExpression exprispublic = DOMUtil.compileXPathExpr("ispublic");
+        XPathExpression exprSampleCount = DOMUtil.compileXPathExpr("SampleCount");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+
+            String logId = (String) exprLogId.evaluate(node, XPathConstants.STRING);
+            String logName = (String) exprLogName.evaluate(node, XPathConstants.STRING);
+            String sampleCountString = (String) exprSampleCount.evaluate(node, XPathConstants.STRING);
+            String ispub = (String) exprispublic.evaluate(node, XPathConstants.STRING);
+
+            int sampleCount = 0;
+            if (sampleCountString != null && !sampleCountString.isEmpty()) {
+                sampleCount = Integer.parseInt(sampleCountString);
+            }
+            if (ispub == null || ispub.isEmpty() || ispub.equals("true")) {
+                responseObjs.add(new GetLogCollectionResponse(logId, logName, sampleCount));
+            }
+        }
+        return responseObjs;
+    }
+}
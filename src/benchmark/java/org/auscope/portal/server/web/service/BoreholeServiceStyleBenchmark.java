@@ -0,0 +1,57 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.auscope.portal.gsml.BoreholeFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the borehole SLD (with and without the rule for hylogged boreholes)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BoreholeServiceStyleBenchmark {
+
+    private BoreholeService service;
+    private String filter;
+    private String hyloggerFilter;
+
+    @Setup
+    public void setup() {
+        //Styles are built without making any requests
+        service = new BoreholeService(null, null);
+
+        List<String> hyloggedIds = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            hyloggedIds.add("http://example.org/resource/feature/borehole/" + i);
+        }
+        filter = new BoreholeFilter("borehole", "custodian", null, null, null).getFilterStringAllRecords();
+        hyloggerFilter = new BoreholeFilter("borehole", "custodian", null, null, hyloggedIds)
+                .getFilterStringAllRecords();
+    }
+
+    @Benchmark
+    public String getStyle() {
+        return service.getStyle(filter, "#2242c7", null, null, BoreholeService.GSMLP_4_0_NAMESPACE);
+    }
+
+    @Benchmark
+    public String getStyleHylogged() {
+        return service.getStyle(filter, "#2242c7", hyloggerFilter, "#FF0000", BoreholeService.GSMLP_4_0_NAMESPACE);
+    }
+}
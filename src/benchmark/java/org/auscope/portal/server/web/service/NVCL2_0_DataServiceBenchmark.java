@@ -0,0 +1,90 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.web.NVCL2_0_DataServiceMethodMaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks NVCL2_0_DataService.getNVCL2_0_CSVBinned against a synthetic downloadscalars CSV (served from memory so
+ * only the parsing and binning is measured).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NVCL2_0_DataServiceBenchmark {
+
+    private static final String SERVICE_URL = "http://example.org/NVCLDataServices/";
+    private static final String[] LOG_IDS = new String[] {"log-1", "log-2", "log-3"};
+    private static final String[] MINERALS = new String[] {"SULPHATE", "KAOLIN", "WHITE-MICA", "CHLORITE", "CARBONATE"};
+
+    /**
+     * Responds to every request with the same response
+     */
+    private static class FixtureServiceCaller extends HttpServiceCaller {
+        private byte[] response;
+
+        public FixtureServiceCaller(byte[] response) {
+            super(60000);
+            this.response = response;
+        }
+
+        @Override
+        public InputStream getMethodResponseAsStream(HttpRequestBase method) throws Exception {
+            return new ByteArrayInputStream(response);
+        }
+    }
+
+    /** The number of samples in the borehole */
+    @Param({"1000", "100000"})
+    public int samples;
+
+    @Param({"1.0", "25.0"})
+    public double binSizeMetres;
+
+    private NVCL2_0_DataService service;
+
+    /**
+     * Generates a downloadscalars response with two categorical logs and one numeric log sampled every 5cm
+     */
+    private static byte[] generateCSV(int samples) throws Exception {
+        StringBuilder sb = new StringBuilder("StartDepth,EndDepth,Grp1_uTSAS,Min1_uTSAS,Reflectance\n");
+        for (int i = 0; i < samples; i++) {
+            double depth = 100.0 + i * 0.05;
+            sb.append(depth).append(',').append(depth).append(',');
+            sb.append(i % 17 == 0 ? "null" : MINERALS[(i / 40) % MINERALS.length]).append(',');
+            sb.append(MINERALS[(i / 7) % MINERALS.length]).append(',');
+            sb.append(i % 23 == 0 ? "null" : Double.toString(0.2 + (i % 100) / 250.0)).append('\n');
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        service = new NVCL2_0_DataService(new FixtureServiceCaller(generateCSV(samples)),
+                new NVCL2_0_DataServiceMethodMaker());
+    }
+
+    @Benchmark
+    public BinnedCSVResponse getNVCL2_0_CSVBinned() throws Exception {
+        return service.getNVCL2_0_CSVBinned(SERVICE_URL, LOG_IDS, binSizeMetres);
+    }
+}
@@ -0,0 +1,41 @@
+package org.auscope.portal.xslt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.auscope.portal.core.test.ResourceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks GmlToHtml.convert on a recorded GetFeature response
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GmlToHtmlBenchmark {
+
+    private GmlToHtml gmlToHtml;
+    private String wfs;
+
+    @Setup
+    public void setup() throws Exception {
+        gmlToHtml = new GmlToHtml();
+        wfs = ResourceUtil.loadResourceAsString("org/auscope/portal/erml/mine/mineGetFeatureResponse.xml");
+    }
+
+    @Benchmark
+    public String convert() {
+        return gmlToHtml.convert(wfs, "http://example.org/wfs");
+    }
+}
@@ -0,0 +1,24 @@
+package org.auscope.portal.gsml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A GeoJSON object that is generated (typically from a GML response) as it is written
+ */
+public interface GeoJSONSource extends Closeable {
+
+    /**
+     * Writes this source to output as a GeoJSON FeatureCollection. The output will not be flushed or closed.
+     *
+     * @param output
+     *            Where the GeoJSON will be written
+     * @return The number of features written
+     * @throws XMLStreamException
+     *             If the underlying response is not well formed XML
+     */
+    int transcode(Writer output) throws IOException, XMLStreamException;
+}
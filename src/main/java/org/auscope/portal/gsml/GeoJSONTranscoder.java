@@ -0,0 +1,457 @@
+package org.auscope.portal.gsml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Pull (StAX) transcoder for turning a GML wfs:FeatureCollection into a GeoJSON FeatureCollection.
+ *
+ * This is intended for the point feature layers (boreholes, mines, geosamples) where the client only needs each
+ * feature's location and a few descriptive values. Each feature is written as:
+ *
+ * {"type":"Feature","id":gml:id,"geometry":{"type":"Point","coordinates":[x,y]},"properties":{...}}
+ *
+ * The geometry is the first gml:Point found anywhere in the feature (or null if there is none). The properties are the
+ * text content (or xlink:href) of every leaf element in the feature keyed by local name, with repeated names collected
+ * into arrays. Every other GML geometry (and gml:Envelope) is skipped.
+ *
+ * The root element is read on construction so that a response that isn't a FeatureCollection can be rejected before
+ * anything has been written.
+ */
+public class GeoJSONTranscoder implements GeoJSONSource {
+
+    /** The outputFormat value that selects GeoJSON (rather than the raw GML) */
+    public static final String OUTPUT_FORMAT = "geojson";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final String GML_NAMESPACE_PREFIX = "http://www.opengis.net/gml";
+    private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    /** The elements beneath a FeatureCollection that contain features (WFS 1.x and 2.0) */
+    private static final Set<String> MEMBER_ELEMENTS = new HashSet<String>(Arrays.asList("featureMember",
+            "featureMembers", "member"));
+
+    /** The EPSG codes of geographic CRS's whose URN/URI forms use a latitude/longitude axis order */
+    private static final Set<String> LAT_LON_CODES = new HashSet<String>(Arrays.asList("4326", "4283", "4258",
+            "7844"));
+
+    /**
+     * Receives the features read by readFeatures
+     */
+    public interface FeatureHandler {
+        /**
+         * Called for each feature in the FeatureCollection
+         *
+         * @param id
+         *            The gml:id (or fid) of the feature. Can be null.
+         * @param point
+         *            The longitude/latitude of the feature's first gml:Point. Can be null.
+         * @param properties
+         *            The feature's properties (see GeoJSONTranscoder). Null if properties aren't being read.
+         */
+        void handleFeature(String id, double[] point, Map<String, Object> properties) throws IOException;
+    }
+
+    private XMLStreamReader reader;
+    private Closeable source;
+
+    /**
+     * Creates a transcoder for a GML response stream. The stream will be closed when this transcoder is closed.
+     *
+     * @param gml
+     *            The raw GML response
+     * @throws XMLStreamException
+     *             If the response is not a (well formed) FeatureCollection
+     */
+    public GeoJSONTranscoder(InputStream gml) throws XMLStreamException {
+        this.source = gml;
+        this.reader = INPUT_FACTORY.createXMLStreamReader(gml);
+        readRoot();
+    }
+
+    /**
+     * Creates a transcoder for a GML response
+     *
+     * @param gml
+     *            The GML response
+     * @throws XMLStreamException
+     *             If the response is not a (well formed) FeatureCollection
+     */
+    public GeoJSONTranscoder(String gml) throws XMLStreamException {
+        StringReader stringReader = new StringReader(gml);
+        this.source = stringReader;
+        this.reader = INPUT_FACTORY.createXMLStreamReader(stringReader);
+        readRoot();
+    }
+
+    /**
+     * Returns true if outputFormat selects GeoJSON
+     *
+     * @param outputFormat
+     *            [Optional] The requested output format
+     * @return
+     */
+    public static boolean isGeoJSON(String outputFormat) {
+        return OUTPUT_FORMAT.equalsIgnoreCase(outputFormat);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private void readRoot() throws XMLStreamException {
+        try {
+            reader.nextTag();
+            if (!"FeatureCollection".equals(reader.getLocalName())) {
+                throw new XMLStreamException("Expected a FeatureCollection but found " + reader.getName());
+            }
+        } catch (XMLStreamException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private static boolean isGmlObject(String namespaceURI, String localName) {
+        return namespaceURI != null && namespaceURI.startsWith(GML_NAMESPACE_PREFIX) && !localName.isEmpty()
+                && Character.isUpperCase(localName.charAt(0));
+    }
+
+    private static String getGmlId(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String localName = reader.getAttributeLocalName(i);
+            String namespaceURI = reader.getAttributeNamespace(i);
+            if (("id".equals(localName) && namespaceURI != null && namespaceURI.startsWith(GML_NAMESPACE_PREFIX))
+                    || ("fid".equals(localName) && (namespaceURI == null || namespaceURI.isEmpty()))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the remainder of the FeatureCollection to output as a GeoJSON FeatureCollection. The output will not be
+     * flushed or closed.
+     *
+     * @param output
+     *            Where the GeoJSON will be written
+     * @return The number of features written
+     * @throws XMLStreamException
+     *             If the response is not well formed XML
+     */
+    @Override
+    public int transcode(final Writer output) throws IOException, XMLStreamException {
+        output.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        int count = readFeatures(new FeatureHandler() {
+            private boolean first = true;
+
+            @Override
+            public void handleFeature(String id, double[] point, Map<String, Object> properties) throws IOException {
+                if (!first) {
+                    output.write(',');
+                }
+                first = false;
+                writeFeature(output, id, point, properties);
+            }
+        }, true);
+        output.write("]}");
+
+        return count;
+    }
+
+    /**
+     * Reads the remainder of the FeatureCollection, passing each feature to handler.
+     *
+     * @param handler
+     *            Receives each feature
+     * @param readProperties
+     *            If false, only the id and location of each feature will be read
+     * @return The number of features read
+     * @throws XMLStreamException
+     *             If the response is not well formed XML
+     */
+    public int readFeatures(FeatureHandler handler, boolean readProperties) throws IOException, XMLStreamException {
+        int count = 0;
+        int depth = 1; //The root element has already been read
+        boolean inMember = false;
+
+        //State for the feature currently being read (if any)
+        String id = null;
+        double[] point = null;
+        Map<String, Object> properties = null;
+        int featureDepth = -1;
+        int skipDepth = -1; //Everything beneath this depth is ignored
+        int pointDepth = -1; //The depth of the gml:Point currently being read
+        String srsName = null;
+        String leafName = null; //The element whose text is being read
+        String href = null;
+        StringBuilder text = new StringBuilder();
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                leafName = null;
+                if (skipDepth >= 0) {
+                    break;
+                }
+
+                String localName = reader.getLocalName();
+                if (depth == 2) {
+                    inMember = MEMBER_ELEMENTS.contains(localName);
+                } else if (depth == 3 && inMember) {
+                    featureDepth = depth;
+                    id = getGmlId(reader);
+                    point = null;
+                    properties = readProperties ? new LinkedHashMap<String, Object>() : null;
+                } else if (pointDepth >= 0) {
+                    if ("pos".equals(localName) || "coordinates".equals(localName)) {
+                        leafName = localName;
+                        text.setLength(0);
+                    }
+                } else if (featureDepth >= 0) {
+                    if (isGmlObject(reader.getNamespaceURI(), localName)) {
+                        if (point == null && "Point".equals(localName)) {
+                            pointDepth = depth;
+                            srsName = reader.getAttributeValue(null, "srsName");
+                        } else {
+                            skipDepth = depth;
+                        }
+                    } else if (readProperties) {
+                        leafName = localName;
+                        href = reader.getAttributeValue(XLINK_NAMESPACE, "href");
+                        text.setLength(0);
+                    }
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (leafName != null) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (depth == skipDepth) {
+                    skipDepth = -1;
+                } else if (depth == pointDepth) {
+                    pointDepth = -1;
+                } else if (pointDepth >= 0 && leafName != null) {
+                    point = parsePoint(leafName, text.toString(), srsName);
+                } else if (leafName != null) {
+                    String value = text.toString().trim();
+                    if (value.isEmpty() && href != null) {
+                        value = href;
+                    }
+                    if (!value.isEmpty()) {
+                        addProperty(properties, leafName, value);
+                    }
+                } else if (depth == featureDepth) {
+                    handler.handleFeature(id, point, properties);
+                    count++;
+                    featureDepth = -1;
+                    properties = null;
+                }
+                leafName = null;
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addProperty(Map<String, Object> properties, String name, String value) {
+        Object existing = properties.get(name);
+        if (existing == null) {
+            properties.put(name, value);
+        } else if (existing instanceof List) {
+            ((List<String>) existing).add(value);
+        } else {
+            List<String> values = new ArrayList<String>();
+            values.add((String) existing);
+            values.add(value);
+            properties.put(name, values);
+        }
+    }
+
+    /**
+     * Parses the first position of a gml:pos or gml:coordinates into a longitude/latitude (x/y) pair
+     *
+     * @return null if the position cannot be parsed
+     */
+    private static double[] parsePoint(String elementName, String value, String srsName) {
+        String[] ordinates;
+        if ("coordinates".equals(elementName)) {
+            //GML2 style "x,y x,y" which is always x/y ordered
+            ordinates = value.trim().split("\\s+")[0].split(",");
+        } else {
+            ordinates = value.trim().split("\\s+");
+        }
+        if (ordinates.length < 2) {
+            return null;
+        }
+
+        double[] point = new double[2];
+        try {
+            point[0] = Double.parseDouble(ordinates[0]);
+            point[1] = Double.parseDouble(ordinates[1]);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (Double.isNaN(point[0]) || Double.isInfinite(point[0]) || Double.isNaN(point[1])
+                || Double.isInfinite(point[1])) {
+            return null;
+        }
+
+        if ("pos".equals(elementName) && isLatLon(srsName)) {
+            double swap = point[0];
+            point[0] = point[1];
+            point[1] = swap;
+        }
+        return point;
+    }
+
+    /**
+     * Returns true if srsName is a URN/URI reference to a geographic CRS (whose official axis order is lat/lon). The
+     * "EPSG:xxxx" and "...epsg.xml#xxxx" forms are always treated as lon/lat.
+     */
+    private static boolean isLatLon(String srsName) {
+        if (srsName == null) {
+            return false;
+        }
+        String lower = srsName.toLowerCase();
+        if (!lower.startsWith("urn:") && !lower.startsWith("http://www.opengis.net/def/crs/")) {
+            return false;
+        }
+        int lastSeparator = Math.max(lower.lastIndexOf(':'), lower.lastIndexOf('/'));
+        return lower.contains("epsg") && LAT_LON_CODES.contains(lower.substring(lastSeparator + 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeFeature(Writer output, String id, double[] point, Map<String, Object> properties)
+            throws IOException {
+        output.write("{\"type\":\"Feature\"");
+        if (id != null) {
+            output.write(",\"id\":");
+            writeString(output, id);
+        }
+        output.write(",\"geometry\":");
+        if (point == null) {
+            output.write("null");
+        } else {
+            output.write("{\"type\":\"Point\",\"coordinates\":[");
+            output.write(Double.toString(point[0]));
+            output.write(',');
+            output.write(Double.toString(point[1]));
+            output.write("]}");
+        }
+
+        output.write(",\"properties\":{");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            if (!first) {
+                output.write(',');
+            }
+            first = false;
+            writeString(output, entry.getKey());
+            output.write(':');
+            if (entry.getValue() instanceof List) {
+                output.write('[');
+                List<String> values = (List<String>) entry.getValue();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        output.write(',');
+                    }
+                    writeString(output, values.get(i));
+                }
+                output.write(']');
+            } else {
+                writeString(output, (String) entry.getValue());
+            }
+        }
+        output.write("}}");
+    }
+
+    /**
+     * Writes s as a quoted, escaped JSON string
+     */
+    static void writeString(Writer output, String s) throws IOException {
+        output.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                output.write("\\\"");
+                break;
+            case '\\':
+                output.write("\\\\");
+                break;
+            case '/':
+                //Don't let a "</script>" in the data end an enclosing script block
+                output.write(i > 0 && s.charAt(i - 1) == '<' ? "\\/" : "/");
+                break;
+            case '\n':
+                output.write("\\n");
+                break;
+            case '\r':
+                output.write("\\r");
+                break;
+            case '\t':
+                output.write("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    output.write("\\u");
+                    output.write(HEX_DIGITS.charAt((c >> 12) & 0xF));
+                    output.write(HEX_DIGITS.charAt((c >> 8) & 0xF));
+                    output.write(HEX_DIGITS.charAt((c >> 4) & 0xF));
+                    output.write(HEX_DIGITS.charAt(c & 0xF));
+                } else {
+                    output.write(c);
+                }
+            }
+        }
+        output.write('"');
+    }
+
+    /**
+     * Closes the underlying parser and GML source
+     */
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            //Nothing we can do about it
+        } finally {
+            IOUtils.closeQuietly(source);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.auscope.portal.gsml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+
+/**
+ * Aggregates the point features of a GML FeatureCollection into the cells of a regular longitude/latitude grid.
+ *
+ * Each occupied cell is written as a single GeoJSON point feature located at the centroid of the features in that
+ * cell:
+ *
+ * {"type":"Feature","id":representativeId,"geometry":{"type":"Point","coordinates":[x,y]},
+ * "properties":{"count":n,"representativeId":representativeId}}
+ *
+ * where representativeId is the gml:id of the first feature read in that cell. The enclosing FeatureCollection also
+ * has "clustered":true, "unlocated":m (m being the number of features without a gml:Point) and "truncated":t members.
+ * t is true if the features were limited to a maximum number (and that many were read), in which case the counts are
+ * only lower bounds.
+ *
+ * The grid is anchored at 0,0 so that a feature falls into the same cell regardless of the extent of the query. Views
+ * at or beyond MAX_CLUSTER_ZOOM aren't clustered at all (see forView).
+ *
+ * A client's maxFeatures limits how many features it will draw, which doesn't apply to clusters (and would make their
+ * counts meaningless). Features for a view should be requested with getMaxFeatures instead.
+ */
+public class GridClusterer implements GeoJSONSource {
+
+    /** The outputFormat value that selects clustered GeoJSON */
+    public static final String OUTPUT_FORMAT = "geojson-cluster";
+
+    /** The approximate number of cells along each axis of a clustered view */
+    public static final int GRID_CELLS = 16;
+
+    /** Views at (or beyond) this zoom level are never clustered (see getZoomLevel) */
+    public static final int MAX_CLUSTER_ZOOM = 9;
+
+    /** The maximum number of features that will be requested for a clustered view (see getMaxFeatures) */
+    public static final int MAX_CLUSTERED_FEATURES = 50000;
+
+    /** The extent (in degrees) of a view at zoom level 0 */
+    private static final double ZOOM_0_EXTENT = 360.0;
+
+    /**
+     * The features aggregated in a single cell
+     */
+    private static class Cluster {
+        private int count;
+        private double sumX;
+        private double sumY;
+        private String representativeId;
+    }
+
+    private GeoJSONTranscoder features;
+    private double cellSize;
+    private int maxFeatures;
+    private Map<Long, Cluster> clusters;
+    private int read;
+    private int unlocated;
+
+    /**
+     * Creates a clusterer for a GML FeatureCollection that wasn't limited to a maximum number of features. The
+     * transcoder will be closed when this clusterer is closed.
+     *
+     * @param features
+     *            The (unread) features to cluster
+     * @param cellSize
+     *            The width and height (in degrees) of each grid cell
+     */
+    public GridClusterer(GeoJSONTranscoder features, double cellSize) {
+        this(features, cellSize, 0);
+    }
+
+    /**
+     * Creates a clusterer for a GML FeatureCollection. The transcoder will be closed when this clusterer is closed.
+     *
+     * @param features
+     *            The (unread) features to cluster
+     * @param cellSize
+     *            The width and height (in degrees) of each grid cell
+     * @param maxFeatures
+     *            The maximum number of features that were requested (0 for unlimited). Used for reporting truncation.
+     */
+    public GridClusterer(GeoJSONTranscoder features, double cellSize, int maxFeatures) {
+        this.features = features;
+        this.cellSize = cellSize;
+        this.maxFeatures = maxFeatures;
+        this.clusters = new LinkedHashMap<Long, Cluster>();
+    }
+
+    /**
+     * Returns true if outputFormat selects clustered GeoJSON
+     *
+     * @param outputFormat
+     *            [Optional] The requested output format
+     * @return
+     */
+    public static boolean isCluster(String outputFormat) {
+        return OUTPUT_FORMAT.equalsIgnoreCase(outputFormat);
+    }
+
+    /**
+     * Gets the largest side (in degrees) of a view. A missing or malformed view is treated as the whole world.
+     */
+    private static double getExtent(FilterBoundingBox bbox) {
+        if (bbox == null || bbox.getLowerCornerPoints() == null || bbox.getUpperCornerPoints() == null
+                || bbox.getLowerCornerPoints().length < 2 || bbox.getUpperCornerPoints().length < 2) {
+            return ZOOM_0_EXTENT;
+        }
+
+        double[] lower = bbox.getLowerCornerPoints();
+        double[] upper = bbox.getUpperCornerPoints();
+        double extent = Math.max(Math.abs(upper[0] - lower[0]), Math.abs(upper[1] - lower[1]));
+        return Double.isNaN(extent) || Double.isInfinite(extent) ? ZOOM_0_EXTENT : extent;
+    }
+
+    /**
+     * Gets the zoom level of a view ie the largest z (up to MAX_CLUSTER_ZOOM) such that 360 / 2^z is at least the
+     * largest side of the view.
+     *
+     * @param bbox
+     *            [Optional] The view. If not set, the whole world is assumed.
+     * @return
+     */
+    public static int getZoomLevel(FilterBoundingBox bbox) {
+        double extent = getExtent(bbox);
+        int zoom = 0;
+        while (zoom < MAX_CLUSTER_ZOOM && ZOOM_0_EXTENT / (1 << (zoom + 1)) >= extent) {
+            zoom++;
+        }
+        return zoom;
+    }
+
+    /**
+     * Returns true if a view should be clustered (rather than showing every feature)
+     *
+     * @param bbox
+     *            [Optional] The view. If not set, the whole world is assumed.
+     * @return
+     */
+    public static boolean isClustered(FilterBoundingBox bbox) {
+        return getZoomLevel(bbox) < MAX_CLUSTER_ZOOM;
+    }
+
+    /**
+     * Gets the grid cell size (in degrees) for a view. The cell size only changes with the zoom level so clusters
+     * remain stable while a view is panned.
+     *
+     * @param bbox
+     *            [Optional] The view. If not set, the whole world is assumed.
+     * @return
+     */
+    public static double getCellSize(FilterBoundingBox bbox) {
+        return ZOOM_0_EXTENT / (1 << getZoomLevel(bbox)) / GRID_CELLS;
+    }
+
+    /**
+     * Gets the maximum number of features to request for a view. Clustered views ignore the client's limit (up to
+     * MAX_CLUSTERED_FEATURES) so that their counts are complete.
+     *
+     * @param bbox
+     *            [Optional] The view. If not set, the whole world is assumed.
+     * @param maxFeatures
+     *            The client's limit
+     * @return
+     */
+    public static int getMaxFeatures(FilterBoundingBox bbox, int maxFeatures) {
+        return isClustered(bbox) ? MAX_CLUSTERED_FEATURES : maxFeatures;
+    }
+
+    /**
+     * Gets the GeoJSON for displaying features in a view. Zoomed out views get the features clustered, otherwise every
+     * feature is returned. The features must have been requested with getMaxFeatures.
+     *
+     * @param features
+     *            The (unread) features in the view
+     * @param bbox
+     *            [Optional] The view. If not set, the whole world is assumed.
+     * @return
+     */
+    public static GeoJSONSource forView(GeoJSONTranscoder features, FilterBoundingBox bbox) {
+        if (isClustered(bbox)) {
+            return new GridClusterer(features, getCellSize(bbox), MAX_CLUSTERED_FEATURES);
+        }
+        return features;
+    }
+
+    private void addFeature(String id, double[] point) {
+        read++;
+        if (point == null) {
+            unlocated++;
+            return;
+        }
+
+        long column = (long) Math.floor(point[0] / cellSize);
+        long row = (long) Math.floor(point[1] / cellSize);
+        Long key = Long.valueOf((column << 32) ^ (row & 0xFFFFFFFFL));
+        Cluster cluster = clusters.get(key);
+        if (cluster == null) {
+            cluster = new Cluster();
+            cluster.representativeId = id;
+            clusters.put(key, cluster);
+        }
+        cluster.count++;
+        cluster.sumX += point[0];
+        cluster.sumY += point[1];
+    }
+
+    /**
+     * Reads every feature and then writes the clusters to output as a GeoJSON FeatureCollection. The output will not be
+     * flushed or closed.
+     *
+     * @param output
+     *            Where the GeoJSON will be written
+     * @return The number of clusters written
+     * @throws XMLStreamException
+     *             If the response is not well formed XML
+     */
+    @Override
+    public int transcode(Writer output) throws IOException, XMLStreamException {
+        features.readFeatures(new GeoJSONTranscoder.FeatureHandler() {
+            @Override
+            public void handleFeature(String id, double[] point, Map<String, Object> properties) {
+                addFeature(id, point);
+            }
+        }, false);
+
+        output.write("{\"type\":\"FeatureCollection\",\"clustered\":true,\"unlocated\":");
+        output.write(Integer.toString(unlocated));
+        output.write(",\"truncated\":");
+        output.write(Boolean.toString(maxFeatures > 0 && read >= maxFeatures));
+        output.write(",\"features\":[");
+        boolean first = true;
+        for (Cluster cluster : clusters.values()) {
+            if (!first) {
+                output.write(',');
+            }
+            first = false;
+
+            output.write("{\"type\":\"Feature\"");
+            if (cluster.representativeId != null) {
+                output.write(",\"id\":");
+                GeoJSONTranscoder.writeString(output, cluster.representativeId);
+            }
+            output.write(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+            output.write(Double.toString(cluster.sumX / cluster.count));
+            output.write(',');
+            output.write(Double.toString(cluster.sumY / cluster.count));
+            output.write("]},\"properties\":{\"count\":");
+            output.write(Integer.toString(cluster.count));
+            if (cluster.representativeId != null) {
+                output.write(",\"representativeId\":");
+                GeoJSONTranscoder.writeString(output, cluster.representativeId);
+            }
+            output.write("}}");
+        }
+        output.write("]}");
+
+        return clusters.size();
+    }
+
+    /**
+     * Closes the underlying GML source
+     */
+    @Override
+    public void close() {
+        features.close();
+    }
+}
@@ -2,6 +2,10 @@ package org.auscope.portal.gsml;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.joda.time.DateTime;
@@ -18,6 +22,12 @@ import org.springframework.stereotype.Service;
 @Service
 public class SF0BoreholeFilter extends BoreholeFilter {
 	protected Boolean justNVCL;
+	protected boolean compactIDList;
+
+    /** The prefix that turns a borehole ID into its gml:id */
+    private static final String FEATURE_ID_PREFIX = "gsml.borehole.";
+    /** Numeric ID suffixes longer than this can't be parsed as a long so are never grouped into ranges */
+    private static final int MAX_RANGE_DIGITS = 18;
     // ----------------------------------------------------------- Constructors
 
     public SF0BoreholeFilter() {
@@ -30,6 +40,16 @@ public class SF0BoreholeFilter extends BoreholeFilter {
         this.justNVCL = justNVCL;
     }
 
+    /**
+     * @param compactIDList
+     *            If true, ids will be restricted to using a small number of ID range comparisons (instead of one
+     *            gml:id comparison per ID) so that large ID lists can be cheaply evaluated by the WMS.
+     */
+    public SF0BoreholeFilter(String boreholeName, String custodian, String dateOfDrillingStart, String dateOfDrillingEnd,List<String> ids,  Boolean justNVCL, boolean compactIDList) {
+        this(boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, ids, justNVCL);
+        this.compactIDList = compactIDList;
+    }
+
     // --------------------------------------------------------- Public Methods
 
     @Override
@@ -90,7 +110,9 @@ public class SF0BoreholeFilter extends BoreholeFilter {
                     this.generateFunctionDateParse(utcDateofDrillingEnd)));
         }
 
-        if (this.restrictToIDList != null && !this.restrictToIDList.isEmpty()) {
+        if (this.restrictToIDList != null && !this.restrictToIDList.isEmpty() && this.compactIDList) {
+            parameterFragments.add(this.generateIDRangeFragment(this.restrictToIDList));
+        } else if (this.restrictToIDList != null && !this.restrictToIDList.isEmpty()) {
             List<String> idFragments = new ArrayList<String>();
             for (String id : restrictToIDList) {
                 if (id != null && id.length() > 0) {
@@ -110,4 +132,147 @@ public class SF0BoreholeFilter extends BoreholeFilter {
                 .generateAndComparisonFragment(parameterFragments
                         .toArray(new String[parameterFragments.size()])));
     }
+
+    // -------------------------------------------------------- Private Methods
+
+    private String generateFunctionFragment(String name, String... args) {
+        StringBuilder fragment = new StringBuilder("<ogc:Function name=\"" + name + "\">");
+        for (String arg : args) {
+            fragment.append(arg);
+        }
+        return fragment.append("</ogc:Function>").toString();
+    }
+
+    private String generateLiteralFragment(Object literal) {
+        return "<ogc:Literal>" + escapeXml(literal.toString()) + "</ogc:Literal>";
+    }
+
+    /**
+     * Escapes the XML special characters in s (ID's are read from remote services so can contain anything)
+     */
+    private static String escapeXml(String s) {
+        StringBuilder escaped = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '&':
+                escaped.append("&amp;");
+                break;
+            case '<':
+                escaped.append("&lt;");
+                break;
+            case '>':
+                escaped.append("&gt;");
+                break;
+            case '"':
+                escaped.append("&quot;");
+                break;
+            case '\'':
+                escaped.append("&apos;");
+                break;
+            default:
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private String generateComparisonFragment(String operator, String expression, String literalExpression) {
+        return "<ogc:" + operator + ">" + expression + literalExpression + "</ogc:" + operator + ">";
+    }
+
+    /**
+     * AUS-2445 - GeoServer runs out of memory evaluating a gml:id comparison for every scanned borehole, so instead ID's
+     * are grouped by their non numeric prefix (and the width of their numeric suffix) and each group is matched with a
+     * regex test plus a handful of PropertyIsBetween comparisons over contiguous runs of that suffix.
+     *
+     * eg WTB5, WTB6, WTB7 and WTB9 becomes (id() matches "gsml.borehole.WTB[0-9]{1}") AND ((suffix BETWEEN 5 AND 7) OR
+     * (suffix = 9)). ID's that can't be grouped are compared against the id() function directly. Only the listed ID's
+     * will ever be matched.
+     */
+    protected String generateIDRangeFragment(List<String> ids) {
+        //Group the numeric suffixes by prefix + suffix width (so that 006 and 6 are never confused)
+        Map<String, TreeSet<Long>> groups = new TreeMap<String, TreeSet<Long>>();
+        List<String> ungrouped = new ArrayList<String>();
+        for (String id : ids) {
+            if (id == null || id.isEmpty()) {
+                continue;
+            }
+
+            String gmlId = FEATURE_ID_PREFIX + id;
+            int suffixStart = gmlId.length();
+            while (suffixStart > 0 && Character.isDigit(gmlId.charAt(suffixStart - 1))) {
+                suffixStart--;
+            }
+            int digits = gmlId.length() - suffixStart;
+            if (digits == 0 || digits > MAX_RANGE_DIGITS) {
+                ungrouped.add(gmlId);
+                continue;
+            }
+
+            String groupKey = digits + ":" + gmlId.substring(0, suffixStart);
+            TreeSet<Long> group = groups.get(groupKey);
+            if (group == null) {
+                group = new TreeSet<Long>();
+                groups.put(groupKey, group);
+            }
+            group.add(Long.parseLong(gmlId.substring(suffixStart)));
+        }
+
+        String idFunction = generateFunctionFragment("id");
+        List<String> fragments = new ArrayList<String>();
+        for (Map.Entry<String, TreeSet<Long>> group : groups.entrySet()) {
+            String key = group.getKey();
+            int separator = key.indexOf(':');
+            int digits = Integer.parseInt(key.substring(0, separator));
+            String prefix = key.substring(separator + 1);
+
+            //Not worth the overhead of a range comparison
+            if (group.getValue().size() == 1) {
+                ungrouped.add(String.format("%1$s%2$0" + digits + "d", prefix, group.getValue().first()));
+                continue;
+            }
+
+            String suffixFunction = generateFunctionFragment("parseLong", generateFunctionFragment("strSubstringStart",
+                    idFunction, generateLiteralFragment(prefix.length())));
+            List<String> rangeFragments = new ArrayList<String>();
+            Long rangeStart = null;
+            Long rangeEnd = null;
+            for (Long value : group.getValue()) {
+                if (rangeEnd != null && value == rangeEnd + 1) {
+                    rangeEnd = value;
+                    continue;
+                }
+                if (rangeStart != null) {
+                    rangeFragments.add(generateRangeFragment(suffixFunction, rangeStart, rangeEnd));
+                }
+                rangeStart = value;
+                rangeEnd = value;
+            }
+            rangeFragments.add(generateRangeFragment(suffixFunction, rangeStart, rangeEnd));
+
+            String prefixTest = this.generateComparisonFragment("PropertyIsEqualTo", generateFunctionFragment(
+                    "strMatches", idFunction, generateLiteralFragment(Pattern.quote(prefix) + "[0-9]{" + digits + "}")),
+                    generateLiteralFragment(true));
+            fragments.add(this.generateAndComparisonFragment(prefixTest, this.generateOrComparisonFragment(
+                    rangeFragments.toArray(new String[rangeFragments.size()]))));
+        }
+
+        for (String gmlId : ungrouped) {
+            fragments.add(this.generateComparisonFragment("PropertyIsEqualTo", idFunction, generateLiteralFragment(gmlId)));
+        }
+
+        return this.generateOrComparisonFragment(fragments.toArray(new String[fragments.size()]));
+    }
+
+    private String generateRangeFragment(String expression, long start, long end) {
+        if (start == end) {
+            return this.generateComparisonFragment("PropertyIsEqualTo", expression, generateLiteralFragment(start));
+        }
+
+        return "<ogc:PropertyIsBetween>" + expression
+                + "<ogc:LowerBoundary>" + generateLiteralFragment(start) + "</ogc:LowerBoundary>"
+                + "<ogc:UpperBoundary>" + generateLiteralFragment(end) + "</ogc:UpperBoundary>"
+                + "</ogc:PropertyIsBetween>";
+    }
 }
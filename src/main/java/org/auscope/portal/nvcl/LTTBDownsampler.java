@@ -0,0 +1,286 @@
+package org.auscope.portal.nvcl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
+import org.auscope.portal.server.domain.nvcldataservice.CategoricalColumnBuffer;
+import org.auscope.portal.server.domain.nvcldataservice.DoubleColumnBuffer;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Downsamples a stream of NVCL scalar samples for plotting using the Largest-Triangle-Three-Buckets (LTTB) algorithm.
+ *
+ * The raw (depth, value) samples for each numeric column are collected into primitive column buffers as they are read
+ * and are then reduced to at most a target number of points that preserve the visual shape of the log. LTTB has no
+ * meaning for non numeric columns so they are aggregated into fixed size depth bins using a ScalarBinAggregator instead.
+ *
+ * The result is presented as a BinnedCSVResponse so it can be consumed in exactly the same way as binned data.
+ *
+ * Already binned numeric data (eg the finest level of a cached bin pyramid) can also be downsampled, see downsample(
+ * BinnedCSVResponse, Bin, int).
+ */
+public class LTTBDownsampler {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private String[] names;
+    private int targetPoints;
+    private boolean[] numeric;
+    private DoubleColumnBuffer[] depths;
+    private DoubleColumnBuffer[] values;
+    private ScalarBinAggregator binAggregator;
+
+    /**
+     * Creates a new downsampler
+     *
+     * @param names
+     *            The names of each scalar column that will be downsampled
+     * @param targetPoints
+     *            The maximum number of points to return for each numeric column
+     * @param binSizeMetres
+     *            The size of each bin in metres (for non numeric columns)
+     */
+    public LTTBDownsampler(String[] names, int targetPoints, double binSizeMetres) {
+        this.names = names;
+        this.targetPoints = targetPoints;
+        this.binAggregator = new ScalarBinAggregator(names, binSizeMetres);
+
+        int columns = names.length;
+        numeric = new boolean[columns];
+        depths = new DoubleColumnBuffer[columns];
+        values = new DoubleColumnBuffer[columns];
+        for (int i = 0; i < columns; i++) {
+            numeric[i] = true;
+            depths[i] = new DoubleColumnBuffer(INITIAL_BUFFER_SIZE);
+            values[i] = new DoubleColumnBuffer(INITIAL_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Adds a single sample row to this downsampler. Rows must be added in order of increasing depth.
+     *
+     * @param depth
+     *            The start depth of the sample in metres
+     * @param row
+     *            The raw values for the sample. Missing values can be null, empty or MISSING_DATA_STRING
+     * @param offset
+     *            The index in row of the value for the first scalar column
+     */
+    public void addSample(double depth, String[] row, int offset) {
+        binAggregator.addSample(depth, row, offset);
+
+        for (int i = 0; i < names.length; i++) {
+            if (!numeric[i]) {
+                continue;
+            }
+
+            String rawData = row[offset + i];
+            if (rawData == null || rawData.isEmpty() || rawData.equals(ScalarBinAggregator.MISSING_DATA_STRING)) {
+                continue; //skip missing data
+            }
+
+            try {
+                values[i].append(Double.parseDouble(rawData));
+                depths[i].append(depth);
+            } catch (NumberFormatException nfe) {
+                //OK - this column isn't actually numeric, the bin aggregator will handle it from here
+                numeric[i] = false;
+                depths[i] = null;
+                values[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Completes downsampling and builds a response containing the downsampled points for each numeric column (and the
+     * binned values for each non numeric column). No further samples should be added after calling this method.
+     *
+     * @return
+     */
+    public BinnedCSVResponse toResponse() {
+        BinnedCSVResponse binnedResponse = binAggregator.toResponse();
+        Bin[] bins = binnedResponse.getBinnedValues();
+        for (int i = 0; i < names.length; i++) {
+            if (!numeric[i]) {
+                continue;
+            }
+
+            int[] indexes = largestTriangleThreeBuckets(depths[i], values[i], targetPoints);
+            DoubleColumnBuffer sampledDepths = new DoubleColumnBuffer(indexes.length);
+            DoubleColumnBuffer sampledValues = new DoubleColumnBuffer(indexes.length);
+            for (int index : indexes) {
+                sampledDepths.append(depths[i].getDouble(index));
+                sampledValues.append(values[i].getDouble(index));
+            }
+
+            bins[i] = binnedResponse.new Bin(names[i], sampledDepths, true, new CategoricalColumnBuffer(), sampledValues);
+        }
+
+        return binnedResponse;
+    }
+
+    /**
+     * Selects at most threshold points from the series (x, y) using the Largest-Triangle-Three-Buckets algorithm. The
+     * first and last points are always selected. If the series has no more than threshold points (or threshold is less
+     * than 3) every point is selected.
+     *
+     * @param x
+     *            The x values of the series in increasing order
+     * @param y
+     *            The y values of the series
+     * @param threshold
+     *            The maximum number of points to select
+     * @return The indexes of the selected points in increasing order
+     */
+    public static int[] largestTriangleThreeBuckets(DoubleColumnBuffer x, DoubleColumnBuffer y, int threshold) {
+        int length = x.size();
+        if (threshold >= length || threshold < 3) {
+            int[] all = new int[length];
+            for (int i = 0; i < length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] sampled = new int[threshold];
+        int sampledCount = 0;
+
+        //The first and last points are always kept, every other point is bucketed
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int a = 0;
+        sampled[sampledCount++] = a;
+
+        for (int i = 0; i < threshold - 2; i++) {
+            //Calculate the average point of the next bucket
+            int avgRangeStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+            int avgRangeEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, length);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgRangeStart; j < avgRangeEnd; j++) {
+                avgX += x.getDouble(j);
+                avgY += y.getDouble(j);
+            }
+            int avgRangeLength = avgRangeEnd - avgRangeStart;
+            avgX /= avgRangeLength;
+            avgY /= avgRangeLength;
+
+            //Pick the point in this bucket that forms the largest triangle with the previously selected point and the
+            //average of the next bucket
+            int rangeStart = (int) Math.floor(i * bucketSize) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * bucketSize) + 1;
+            double pointAX = x.getDouble(a);
+            double pointAY = y.getDouble(a);
+            double maxArea = -1;
+            int nextA = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((pointAX - avgX) * (y.getDouble(j) - pointAY) - (pointAX - x.getDouble(j)) * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    nextA = j;
+                }
+            }
+
+            sampled[sampledCount++] = nextA;
+            a = nextA;
+        }
+
+        sampled[sampledCount++] = length - 1;
+        return sampled;
+    }
+
+    /**
+     * Downsamples the (start depth, average value) points of a numeric bin to at most targetPoints points. The bin
+     * itself is not modified.
+     *
+     * @param response
+     *            The response that the downsampled bin will belong to
+     * @param bin
+     *            The numeric bin to downsample
+     * @param targetPoints
+     *            The maximum number of points to return
+     * @return
+     */
+    public static Bin downsample(BinnedCSVResponse response, Bin bin, int targetPoints) {
+        DoubleColumnBuffer depths = bin.getStartDepths();
+        DoubleColumnBuffer values = bin.getNumericValues();
+        int[] indexes = largestTriangleThreeBuckets(depths, values, targetPoints);
+        DoubleColumnBuffer sampledDepths = new DoubleColumnBuffer(indexes.length);
+        DoubleColumnBuffer sampledValues = new DoubleColumnBuffer(indexes.length);
+        for (int index : indexes) {
+            sampledDepths.append(depths.getDouble(index));
+            sampledValues.append(values.getDouble(index));
+        }
+
+        return response.new Bin(bin.getName(), sampledDepths, true, new CategoricalColumnBuffer(), sampledValues);
+    }
+
+    /**
+     * Parses a NVCL downloadscalars CSV response (StartDepth, EndDepth, scalar1, scalar2...) line by line into a
+     * downsampled BinnedCSVResponse. The reader will be closed by this method.
+     *
+     * @param csvReader
+     *            The raw CSV data
+     * @param targetPoints
+     *            The maximum number of points to return for each numeric column
+     * @param binSizeMetres
+     *            The size of each bin in metres (for non numeric columns)
+     * @return
+     * @throws IOException
+     */
+    public static BinnedCSVResponse downsample(Reader csvReader, int targetPoints, double binSizeMetres) throws IOException {
+        CSVReader reader = new CSVReader(csvReader, ',', '\'', 0);
+        try {
+            String[] headerLine = reader.readNext();
+            if (headerLine == null || headerLine.length <= 2) {
+                throw new IOException("No or malformed CSV header sent");
+            }
+
+            String[] names = new String[headerLine.length - 2];
+            System.arraycopy(headerLine, 2, names, 0, names.length);
+            LTTBDownsampler downsampler = new LTTBDownsampler(names, targetPoints, binSizeMetres);
+
+            String[] dataLine = null;
+            while ((dataLine = reader.readNext()) != null) {
+                if (dataLine.length != headerLine.length) {
+                    continue; //skip malformed lines
+                }
+
+                downsampler.addSample(Double.parseDouble(dataLine[0]), dataLine, 2);
+            }
+
+            return downsampler.toResponse();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Downsamples every merged row from merger into a BinnedCSVResponse. The merger will NOT be closed by this method.
+     *
+     * @param merger
+     *            The source of (merged) CSV rows
+     * @param targetPoints
+     *            The maximum number of points to return for each numeric column
+     * @param binSizeMetres
+     *            The size of each bin in metres (for non numeric columns)
+     * @return
+     * @throws IOException
+     */
+    public static BinnedCSVResponse downsample(ScalarCSVMerger merger, int targetPoints, double binSizeMetres) throws IOException {
+        String[] headerLine = merger.getHeader();
+        String[] names = new String[headerLine.length - 2];
+        System.arraycopy(headerLine, 2, names, 0, names.length);
+        LTTBDownsampler downsampler = new LTTBDownsampler(names, targetPoints, binSizeMetres);
+
+        String[] dataLine = null;
+        while ((dataLine = merger.readNext()) != null) {
+            downsampler.addSample(Double.parseDouble(dataLine[0]), dataLine, 2);
+        }
+
+        return downsampler.toResponse();
+    }
+}
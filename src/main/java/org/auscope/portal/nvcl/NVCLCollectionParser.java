@@ -0,0 +1,176 @@
+package org.auscope.portal.nvcl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.auscope.portal.server.domain.nvcldataservice.GetDatasetCollectionResponse;
+import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
+
+/**
+ * Pull (StAX) parsers for the NVCLDataService getDatasetCollection and getLogCollection responses.
+ *
+ * These produce the same results as evaluating "DatasetCollection/Dataset" (or "LogCollection/Log") and then each field
+ * name as XPath against a DOM of the response, without ever building the DOM. A field's value is the concatenated text
+ * of the first matching child element (or the empty string if there is no such child).
+ */
+public class NVCLCollectionParser {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final int DATASET_ID = 0;
+    private static final int DATASET_NAME = 1;
+    private static final int OM_URL = 2;
+
+    private static final int LOG_ID = 0;
+    private static final int LOG_NAME = 1;
+    private static final int SAMPLE_COUNT = 2;
+    private static final int IS_PUBLIC = 3;
+
+    private NVCLCollectionParser() {
+        //Utility class
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Parses a getDatasetCollection response
+     *
+     * @param xml
+     *            The raw response (will not be closed)
+     * @return
+     * @throws XMLStreamException
+     *             If the response is not well formed XML
+     */
+    public static List<GetDatasetCollectionResponse> parseDatasetCollection(InputStream xml) throws XMLStreamException {
+        List<String[]> records = readRecords(xml, "DatasetCollection", "Dataset", new String[] {"DatasetID", "DatasetName", "OmUrl"});
+
+        List<GetDatasetCollectionResponse> responseObjs = new ArrayList<GetDatasetCollectionResponse>(records.size());
+        for (String[] record : records) {
+            responseObjs.add(new GetDatasetCollectionResponse(record[DATASET_ID], record[DATASET_NAME], record[OM_URL]));
+        }
+        return responseObjs;
+    }
+
+    /**
+     * Parses a getLogCollection response
+     *
+     * @param xml
+     *            The raw response (will not be closed)
+     * @param logNameElement
+     *            The name of the element holding each log name (the NVCLDataService returns LogName for mosaic requests
+     *            and logName otherwise)
+     * @param publicOnly
+     *            If true, logs whose ispublic element is set to anything other than "true" will be omitted
+     * @return
+     * @throws XMLStreamException
+     *             If the response is not well formed XML
+     * @throws NumberFormatException
+     *             If a SampleCount is not an integer
+     */
+    public static List<GetLogCollectionResponse> parseLogCollection(InputStream xml, String logNameElement, boolean publicOnly)
+            throws XMLStreamException {
+        List<String[]> records = readRecords(xml, "LogCollection", "Log", new String[] {"LogID", logNameElement, "SampleCount", "ispublic"});
+
+        List<GetLogCollectionResponse> responseObjs = new ArrayList<GetLogCollectionResponse>(records.size());
+        for (String[] record : records) {
+            String ispub = record[IS_PUBLIC];
+            if (publicOnly && !ispub.isEmpty() && !ispub.equals("true")) {
+                continue;
+            }
+
+            int sampleCount = 0;
+            if (!record[SAMPLE_COUNT].isEmpty()) {
+                sampleCount = Integer.parseInt(record[SAMPLE_COUNT]);
+            }
+            responseObjs.add(new GetLogCollectionResponse(record[LOG_ID], record[LOG_NAME], sampleCount));
+        }
+        return responseObjs;
+    }
+
+    /**
+     * Reads the text of the specified fields from every record element directly beneath the root element.
+     *
+     * @return A list of records, each with a value (never null) for each field in fields
+     */
+    private static List<String[]> readRecords(InputStream xml, String rootName, String recordName, String[] fields)
+            throws XMLStreamException {
+        List<String[]> records = new ArrayList<String[]>();
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(xml);
+        try {
+            boolean rootMatched = false;
+            int depth = 0;
+            String[] record = null; //the record currently being read (if any)
+            int field = -1; //the index of the field currently being read (if any)
+            StringBuilder text = new StringBuilder();
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (depth == 1) {
+                        rootMatched = rootName.equals(reader.getLocalName());
+                    } else if (depth == 2 && rootMatched && recordName.equals(reader.getLocalName())) {
+                        record = new String[fields.length];
+                    } else if (depth == 3 && record != null) {
+                        field = indexOf(fields, reader.getLocalName());
+                        //Only the first occurrence of a field counts
+                        if (field >= 0 && record[field] != null) {
+                            field = -1;
+                        }
+                        text.setLength(0);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (field >= 0) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 3 && field >= 0) {
+                        record[field] = text.toString();
+                        field = -1;
+                    } else if (depth == 2 && record != null) {
+                        for (int i = 0; i < fields.length; i++) {
+                            if (record[i] == null) {
+                                record[i] = "";
+                            }
+                        }
+                        records.add(record);
+                        record = null;
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,286 @@
+package org.auscope.portal.nvcl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
+import org.auscope.portal.server.domain.nvcldataservice.CategoricalColumnBuffer;
+import org.auscope.portal.server.domain.nvcldataservice.DoubleColumnBuffer;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Aggregates a stream of NVCL scalar samples into fixed size depth bins in a single pass.
+ *
+ * Samples are fed in (in increasing depth order) one row at a time. Only the working state for the current bin is held
+ * in memory, completed bins are appended directly into primitive column buffers that back the resulting
+ * BinnedCSVResponse.
+ *
+ * Non numeric columns are dictionary encoded - each unique string is assigned an int code the first time it's seen
+ * and the current bin is tracked as an array of counts indexed by code (along with the running most common code).
+ */
+public class ScalarBinAggregator {
+
+    /** The value that the NVCL services use to represent a missing sample */
+    public static final String MISSING_DATA_STRING = "null";
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private double binSizeMetres;
+    private String[] names;
+    private boolean[] numeric;
+
+    //Working state for the current bin
+    private double currentBinStartDepth = -Double.MAX_VALUE;
+    private int currentBinSize = 0;
+    private double[] numericTotal;
+    private int[] numericCount;
+    private int[][] codeCounts;
+    private int[] dominantCode;
+    private int[] dominantCount;
+
+    //Completed bins for each column
+    private DoubleColumnBuffer[] startDepths;
+    private DoubleColumnBuffer[] numericValues;
+    private CategoricalColumnBuffer[] stringValues;
+
+    /**
+     * Creates a new aggregator
+     *
+     * @param names
+     *            The names of each scalar column that will be aggregated
+     * @param binSizeMetres
+     *            The size of each bin in metres
+     */
+    public ScalarBinAggregator(String[] names, double binSizeMetres) {
+        this.names = names;
+        this.binSizeMetres = binSizeMetres;
+
+        int columns = names.length;
+        numeric = new boolean[columns];
+        numericTotal = new double[columns];
+        numericCount = new int[columns];
+        codeCounts = new int[columns][];
+        dominantCode = new int[columns];
+        dominantCount = new int[columns];
+        startDepths = new DoubleColumnBuffer[columns];
+        numericValues = new DoubleColumnBuffer[columns];
+        stringValues = new CategoricalColumnBuffer[columns];
+        for (int i = 0; i < columns; i++) {
+            numeric[i] = true;
+            startDepths[i] = new DoubleColumnBuffer(INITIAL_BUFFER_SIZE);
+            numericValues[i] = new DoubleColumnBuffer(INITIAL_BUFFER_SIZE);
+            stringValues[i] = new CategoricalColumnBuffer();
+        }
+    }
+
+    /**
+     * Gets the size of each bin in metres
+     *
+     * @return
+     */
+    public double getBinSizeMetres() {
+        return binSizeMetres;
+    }
+
+    /**
+     * Adds a single sample row to this aggregator. Rows must be added in order of increasing depth.
+     *
+     * @param depth
+     *            The start depth of the sample in metres
+     * @param row
+     *            The raw values for the sample. Missing values can be null, empty or MISSING_DATA_STRING
+     * @param offset
+     *            The index in row of the value for the first scalar column
+     */
+    public void addSample(double depth, String[] row, int offset) {
+        //If we've exceeded our current bin size - save the data and start a new bin
+        if (depth - currentBinStartDepth >= binSizeMetres) {
+            if (currentBinStartDepth == -Double.MAX_VALUE) {
+                currentBinStartDepth = depth;
+            }
+
+            flushBin();
+            currentBinStartDepth = depth;
+            currentBinSize = 0;
+        }
+
+        //Build up our current bin
+        boolean dataAdded = false;
+        for (int i = 0; i < names.length; i++) {
+            String rawBinData = row[offset + i];
+            if (rawBinData == null || rawBinData.isEmpty() || rawBinData.equals(MISSING_DATA_STRING)) {
+                continue; //skip missing data
+            }
+            dataAdded = true;
+
+            if (numeric[i]) {
+                try {
+                    numericTotal[i] += Double.parseDouble(rawBinData);
+                    numericCount[i]++;
+                    continue;
+                } catch (NumberFormatException nfe) {
+                    //OK - this column isn't actually numeric
+                    numeric[i] = false;
+                }
+            }
+
+            int code = stringValues[i].encode(rawBinData);
+            if (codeCounts[i] == null) {
+                codeCounts[i] = new int[Math.max(code + 1, 8)];
+            } else if (code >= codeCounts[i].length) {
+                codeCounts[i] = Arrays.copyOf(codeCounts[i], Math.max(code + 1, codeCounts[i].length * 2));
+            }
+
+            int count = ++codeCounts[i][code];
+            if (count > dominantCount[i]) {
+                dominantCount[i] = count;
+                dominantCode[i] = code;
+            }
+        }
+
+        if (dataAdded) {
+            currentBinSize++;
+        }
+    }
+
+    /**
+     * Writes the current working bin into the completed column buffers and resets the working state
+     */
+    private void flushBin() {
+        for (int i = 0; i < names.length; i++) {
+            if (numeric[i]) {
+                if (numericCount[i] > 0) {
+                    numericValues[i].append(numericTotal[i] / numericCount[i]);
+                    startDepths[i].append(currentBinStartDepth);
+                }
+            } else if (dominantCount[i] > 0) {
+                startDepths[i].append(currentBinStartDepth);
+                stringValues[i].appendBin(codeCounts[i], codeCounts[i].length, dominantCode[i]);
+            }
+
+            numericTotal[i] = 0.0;
+            numericCount[i] = 0;
+            if (dominantCount[i] > 0) {
+                Arrays.fill(codeCounts[i], 0);
+                dominantCount[i] = 0;
+                dominantCode[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Completes aggregation (including any partial bin at the end of the data) and builds a response backed by the
+     * aggregated column buffers. No further samples should be added after calling this method.
+     *
+     * @return
+     */
+    public BinnedCSVResponse toResponse() {
+        //If we've got a partial bin at the end - let's include the data
+        if (currentBinSize > 0) {
+            flushBin();
+            currentBinSize = 0;
+        }
+
+        BinnedCSVResponse binnedResponse = new BinnedCSVResponse();
+        Bin[] bins = new Bin[names.length];
+        for (int i = 0; i < names.length; i++) {
+            bins[i] = binnedResponse.new Bin(names[i], startDepths[i], numeric[i], stringValues[i], numericValues[i]);
+        }
+
+        binnedResponse.setBinnedValues(bins);
+        binnedResponse.setBinSize(binSizeMetres);
+        return binnedResponse;
+    }
+
+    /**
+     * Parses a NVCL downloadscalars CSV response (StartDepth, EndDepth, scalar1, scalar2...) line by line into a
+     * BinnedCSVResponse. The reader will be closed by this method.
+     *
+     * @param csvReader
+     *            The raw CSV data
+     * @param binSizeMetres
+     *            The size of each bin in metres
+     * @return
+     * @throws IOException
+     */
+    public static BinnedCSVResponse aggregate(Reader csvReader, double binSizeMetres) throws IOException {
+        return aggregate(csvReader, new double[] {binSizeMetres})[0];
+    }
+
+    /**
+     * Parses a NVCL downloadscalars CSV response (StartDepth, EndDepth, scalar1, scalar2...) line by line into a
+     * BinnedCSVResponse for each of the specified bin sizes. The CSV data is only read once. The reader will be closed
+     * by this method.
+     *
+     * @param csvReader
+     *            The raw CSV data
+     * @param binSizesMetres
+     *            The size of each bin in metres for each response
+     * @return A response for each element in binSizesMetres (in the same order)
+     * @throws IOException
+     */
+    public static BinnedCSVResponse[] aggregate(Reader csvReader, double[] binSizesMetres) throws IOException {
+        CSVReader reader = new CSVReader(csvReader, ',', '\'', 0);
+        try {
+            String[] headerLine = reader.readNext();
+            if (headerLine == null || headerLine.length <= 2) {
+                throw new IOException("No or malformed CSV header sent");
+            }
+
+            String[] names = new String[headerLine.length - 2];
+            System.arraycopy(headerLine, 2, names, 0, names.length);
+            ScalarBinAggregator[] aggregators = new ScalarBinAggregator[binSizesMetres.length];
+            for (int i = 0; i < aggregators.length; i++) {
+                aggregators[i] = new ScalarBinAggregator(names, binSizesMetres[i]);
+            }
+
+            String[] dataLine = null;
+            while ((dataLine = reader.readNext()) != null) {
+                if (dataLine.length != headerLine.length) {
+                    continue; //skip malformed lines
+                }
+
+                double depth = Double.parseDouble(dataLine[0]);
+                for (ScalarBinAggregator aggregator : aggregators) {
+                    aggregator.addSample(depth, dataLine, 2);
+                }
+            }
+
+            BinnedCSVResponse[] responses = new BinnedCSVResponse[aggregators.length];
+            for (int i = 0; i < aggregators.length; i++) {
+                responses[i] = aggregators[i].toResponse();
+            }
+            return responses;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Aggregates every merged row from merger into a BinnedCSVResponse. The merger will NOT be closed by this method.
+     *
+     * @param merger
+     *            The source of (merged) CSV rows
+     * @param binSizeMetres
+     *            The size of each bin in metres
+     * @return
+     * @throws IOException
+     */
+    public static BinnedCSVResponse aggregate(ScalarCSVMerger merger, double binSizeMetres) throws IOException {
+        String[] headerLine = merger.getHeader();
+        String[] names = new String[headerLine.length - 2];
+        System.arraycopy(headerLine, 2, names, 0, names.length);
+        ScalarBinAggregator aggregator = new ScalarBinAggregator(names, binSizeMetres);
+
+        String[] dataLine = null;
+        while ((dataLine = merger.readNext()) != null) {
+            aggregator.addSample(Double.parseDouble(dataLine[0]), dataLine, 2);
+        }
+
+        return aggregator.toResponse();
+    }
+}
@@ -0,0 +1,165 @@
+package org.auscope.portal.nvcl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Merge joins a number of NVCL downloadscalars CSV responses (StartDepth, EndDepth, scalar1, scalar2...) by depth into a
+ * single stream of rows.
+ *
+ * Each source must be sorted by increasing StartDepth. Rows are only read from each source as they are needed so the
+ * sources are never held in memory. Where a source has no row at a particular depth, its scalar values will be reported
+ * as ScalarBinAggregator.MISSING_DATA_STRING.
+ */
+public class ScalarCSVMerger implements Closeable {
+
+    private CSVReader[] readers;
+    private int[] columnOffsets;
+    private int[] columnCounts;
+    private String[] header;
+
+    //The next unconsumed row (and its parsed depth) for each source. Null rows indicate an exhausted source
+    private String[][] nextRows;
+    private double[] nextDepths;
+
+    /**
+     * Creates a new merger. The header of each source is read immediately.
+     *
+     * @param sources
+     *            The raw CSV data for each source (at least one). Will be closed when this merger is closed (or if this
+     *            constructor throws)
+     * @throws IOException
+     *             If there are no sources or any source has a missing or malformed header
+     */
+    public ScalarCSVMerger(List<Reader> sources) throws IOException {
+        int sourceCount = sources.size();
+        if (sourceCount == 0) {
+            throw new IOException("No CSV sources to merge");
+        }
+
+        readers = new CSVReader[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            readers[i] = new CSVReader(sources.get(i), ',', '\'', 0);
+        }
+
+        boolean opened = false;
+        try {
+            String[][] headers = new String[sourceCount][];
+            int totalColumns = 2;
+            for (int i = 0; i < sourceCount; i++) {
+                headers[i] = readers[i].readNext();
+                if (headers[i] == null || headers[i].length <= 2) {
+                    throw new IOException("No or malformed CSV header sent");
+                }
+                totalColumns += headers[i].length - 2;
+            }
+
+            header = new String[totalColumns];
+            header[0] = headers[0][0];
+            header[1] = headers[0][1];
+            columnOffsets = new int[sourceCount];
+            columnCounts = new int[sourceCount];
+            int offset = 2;
+            for (int i = 0; i < sourceCount; i++) {
+                columnOffsets[i] = offset;
+                columnCounts[i] = headers[i].length - 2;
+                System.arraycopy(headers[i], 2, header, offset, columnCounts[i]);
+                offset += columnCounts[i];
+            }
+
+            nextRows = new String[sourceCount][];
+            nextDepths = new double[sourceCount];
+            for (int i = 0; i < sourceCount; i++) {
+                advance(i);
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Reads the next well formed row from the specified source
+     */
+    private void advance(int source) throws IOException {
+        String[] row = null;
+        while ((row = readers[source].readNext()) != null) {
+            if (row.length == columnCounts[source] + 2) {
+                break; //skip malformed lines
+            }
+        }
+
+        nextRows[source] = row;
+        if (row != null) {
+            try {
+                nextDepths[source] = Double.parseDouble(row[0]);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Malformed StartDepth in CSV row: " + row[0], ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the merged header - StartDepth, EndDepth followed by the scalar names from each source (in source order)
+     *
+     * @return
+     */
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads the next merged row (formatted according to getHeader) or returns null if every source is exhausted.
+     *
+     * @return
+     * @throws IOException
+     */
+    public String[] readNext() throws IOException {
+        double depth = Double.MAX_VALUE;
+        int first = -1;
+        for (int i = 0; i < nextRows.length; i++) {
+            if (nextRows[i] != null && (first < 0 || nextDepths[i] < depth)) {
+                depth = nextDepths[i];
+                first = i;
+            }
+        }
+
+        if (first < 0) {
+            return null;
+        }
+
+        String[] merged = new String[header.length];
+        merged[0] = nextRows[first][0];
+        merged[1] = nextRows[first][1];
+        for (int i = 0; i < nextRows.length; i++) {
+            if (nextRows[i] != null && nextDepths[i] == depth) {
+                System.arraycopy(nextRows[i], 2, merged, columnOffsets[i], columnCounts[i]);
+                advance(i);
+            } else {
+                for (int j = 0; j < columnCounts[i]; j++) {
+                    merged[columnOffsets[i] + j] = ScalarBinAggregator.MISSING_DATA_STRING;
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Closes every source
+     */
+    @Override
+    public void close() {
+        for (CSVReader reader : readers) {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+}
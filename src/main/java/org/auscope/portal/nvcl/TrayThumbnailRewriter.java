@@ -0,0 +1,181 @@
+package org.auscope.portal.nvcl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An OutputStream filter that patches a NVCL 2.0 tray thumbnail HTML page as it's written (without buffering the page).
+ *
+ * The thumbnail page uses relative links (./Display_Tray_Thumb.html) which break when the page is proxied through the
+ * portal so they are rewritten to point at the NVCL data service. Every img tag that isn't already constrained is also
+ * given a style restricting it to a third of the page width.
+ *
+ * Only ASCII patterns are matched so any ASCII compatible character encoding (eg UTF-8 or ISO-8859-1) will pass
+ * through unchanged. close() must be called to write any partially matched bytes held at the end of the stream.
+ */
+public class TrayThumbnailRewriter extends FilterOutputStream {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] IMG_TAG = "<img".getBytes(ASCII);
+    private static final String IMG_STYLE = "style=\"max-width: 33%";
+    private static final byte[] IMG_STYLE_INSERT = " style=\"max-width: 33%;height: auto;width: auto\\9;\" ".getBytes(ASCII);
+    private static final String RELATIVE_THUMB_URL = "./Display_Tray_Thumb.html";
+    /** img tags longer than this will be written without modification */
+    private static final int MAX_TAG_LENGTH = 8 * 1024;
+
+    private int imgMatched = 0;
+    private ByteArrayOutputStream tagBuffer = null;
+
+    /**
+     * Creates a new rewriter
+     *
+     * @param out
+     *            Where the patched HTML will be written
+     * @param serviceUrl
+     *            The NVCL data service URL that relative thumbnail links will be made absolute against
+     */
+    public TrayThumbnailRewriter(OutputStream out, String serviceUrl) {
+        super(new ReplacingOutputStream(out, RELATIVE_THUMB_URL.getBytes(ASCII), (serviceUrl + "Display_Tray_Thumb.html").getBytes(ASCII)));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        //Inside an img tag - hold onto it until it closes so we can see if it's already styled
+        if (tagBuffer != null) {
+            tagBuffer.write(b);
+            if (b == '>') {
+                writeImgTag(true);
+            } else if (tagBuffer.size() > MAX_TAG_LENGTH) {
+                writeImgTag(false);
+            }
+            return;
+        }
+
+        if (b == IMG_TAG[imgMatched]) {
+            imgMatched++;
+            if (imgMatched == IMG_TAG.length) {
+                imgMatched = 0;
+                tagBuffer = new ByteArrayOutputStream();
+            }
+            return;
+        }
+
+        //"<img" has no repeated prefix so a mismatch just means we write out what we've held onto
+        out.write(IMG_TAG, 0, imgMatched);
+        imgMatched = 0;
+        if (b == IMG_TAG[0]) {
+            imgMatched = 1;
+        } else {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * Writes the buffered img tag (and resets the tag buffer)
+     */
+    private void writeImgTag(boolean complete) throws IOException {
+        byte[] tag = tagBuffer.toByteArray();
+        tagBuffer = null;
+
+        //The tag contents are ASCII compatible for our purposes so decoding as ISO-8859-1 is safe
+        boolean styled = new String(tag, Charset.forName("ISO-8859-1")).contains(IMG_STYLE);
+        if (complete && !styled) {
+            //Avoid doubling up on the whitespace that originally followed "<img"
+            int start = 0;
+            while (start < tag.length && (tag[start] == ' ' || tag[start] == '\t')) {
+                start++;
+            }
+            out.write(IMG_TAG);
+            out.write(IMG_STYLE_INSERT);
+            out.write(tag, start, tag.length - start);
+        } else {
+            out.write(IMG_TAG);
+            out.write(tag);
+        }
+    }
+
+    /**
+     * Writes any partially matched bytes before closing the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (tagBuffer != null) {
+            writeImgTag(false);
+        }
+        out.write(IMG_TAG, 0, imgMatched);
+        imgMatched = 0;
+        super.close();
+    }
+
+    /**
+     * Replaces every occurrence of a byte sequence with another as bytes are written.
+     */
+    private static class ReplacingOutputStream extends FilterOutputStream {
+        private byte[] target;
+        private byte[] replacement;
+        private int[] failure;
+        private int matched = 0;
+
+        public ReplacingOutputStream(OutputStream out, byte[] target, byte[] replacement) {
+            super(out);
+            this.target = target;
+            this.replacement = replacement;
+
+            //Standard KMP failure function so overlapping partial matches are handled correctly
+            failure = new int[target.length];
+            for (int i = 1, k = 0; i < target.length; i++) {
+                while (k > 0 && target[i] != target[k]) {
+                    k = failure[k - 1];
+                }
+                if (target[i] == target[k]) {
+                    k++;
+                }
+                failure[i] = k;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            while (matched > 0 && (byte) b != target[matched]) {
+                //Release the bytes that can no longer be part of a match
+                int next = failure[matched - 1];
+                out.write(target, 0, matched - next);
+                matched = next;
+            }
+
+            if ((byte) b == target[matched]) {
+                matched++;
+                if (matched == target.length) {
+                    out.write(replacement);
+                    matched = 0;
+                }
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(target, 0, matched);
+            matched = 0;
+            super.close();
+        }
+    }
+}
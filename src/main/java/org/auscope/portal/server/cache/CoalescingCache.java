@@ -0,0 +1,133 @@
+package org.auscope.portal.server.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread safe read through cache (backed by an ExpiringCache) that coalesces concurrent loads of the same key.
+ *
+ * If a value is requested while another thread is already loading that same key, the request will wait for (and share)
+ * the result of the in flight load rather than starting its own ("single flight"). Failed loads are never cached.
+ *
+ * @param <K>
+ *            The key type
+ * @param <V>
+ *            The cached value type
+ */
+public class CoalescingCache<K, V> {
+
+    private ExpiringCache<K, V> cache;
+    private ConcurrentHashMap<K, FutureTask<V>> inFlight;
+
+    /**
+     * Creates a new cache bounded by entry count
+     *
+     * @param maxEntries
+     *            The maximum number of entries that will be kept
+     * @param ttlMillis
+     *            How long (in milliseconds) an entry can be served for after it is loaded
+     */
+    public CoalescingCache(long maxEntries, long ttlMillis) {
+        this(new ExpiringCache<K, V>(maxEntries, ttlMillis));
+    }
+
+    /**
+     * Creates a new cache that stores loaded values in the specified cache
+     *
+     * @param cache
+     *            Where loaded values will be stored
+     */
+    public CoalescingCache(ExpiringCache<K, V> cache) {
+        this.cache = cache;
+        this.inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    }
+
+    /**
+     * Gets the value cached against key. If it DNE (or has expired) it will be loaded with loader, unless another
+     * thread is already loading key in which case this thread will wait for that load to complete.
+     *
+     * @param key
+     *            The key to lookup
+     * @param loader
+     *            Used for loading the value if it isn't cached. Must not return null.
+     * @return
+     * @throws Exception
+     *             If the value had to be loaded and loading failed
+     */
+    public V get(K key, Callable<V> loader) throws Exception {
+        V value = cache.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        FutureTask<V> task = new FutureTask<V>(loader);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            return getResult(existing);
+        }
+
+        try {
+            task.run();
+            value = getResult(task);
+            //Cache before we stop being "in flight" so new requests always see one or the other
+            cache.put(key, value);
+            return value;
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Gets the value cached against key without loading it
+     *
+     * @param key
+     *            The key to lookup
+     * @return The cached value or null if it DNE (or has expired)
+     */
+    public V getIfPresent(K key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Caches value against key (replacing any existing value). Useful for refreshing values ahead of their expiry.
+     *
+     * @param key
+     * @param value
+     *            Must not be null
+     */
+    public void put(K key, V value) {
+        cache.put(key, value);
+    }
+
+    /**
+     * Removes any value cached against key
+     *
+     * @param key
+     */
+    public void remove(K key) {
+        cache.remove(key);
+    }
+
+    /**
+     * Removes every cached value (loads that are in flight are unaffected)
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Waits for future to complete, unwrapping any exception thrown by the underlying task
+     */
+    private static <T> T getResult(FutureTask<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package org.auscope.portal.server.cache;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A thread safe, disk backed, content addressed cache for immutable binary responses (such as NVCL imagery).
+ *
+ * Each response is stored once on disk in a file named after the SHA-256 hash of its content. The (hashed) request keys
+ * that map onto each file are held in an in memory least recently used index that is journalled to disk so the cache
+ * survives restarts. The total size of the stored content is bounded by a quota with the least recently used entries
+ * being evicted first.
+ *
+ * As content never changes for a given hash, the content hash is suitable for use as a strong ETag.
+ */
+public class DiskImageCache {
+
+    /**
+     * A single cached response. The backing file may be deleted (by eviction) at any time after this object is returned
+     * so callers should open the file as soon as possible.
+     */
+    public static class CachedImage {
+        private String contentHash;
+        private String contentType;
+        private long length;
+        private File file;
+
+        public CachedImage(String contentHash, String contentType, long length, File file) {
+            this.contentHash = contentHash;
+            this.contentType = contentType;
+            this.length = length;
+            this.file = file;
+        }
+
+        /**
+         * The SHA-256 hash (hex encoded) of the content
+         *
+         * @return
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * The content hash formatted as a strong HTTP ETag
+         *
+         * @return
+         */
+        public String getETag() {
+            return "\"" + contentHash + "\"";
+        }
+
+        /**
+         * The content type as a MIME string
+         *
+         * @return
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * The length of the content in bytes
+         *
+         * @return
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * The file containing the content
+         *
+         * @return
+         */
+        public File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * A cached response whose backing file was opened before it could be evicted. The content can be read from
+     * getInputStream regardless of any later eviction. Must be closed.
+     */
+    public static class OpenCachedImage extends CachedImage implements Closeable {
+        private InputStream inputStream;
+
+        public OpenCachedImage(CachedImage image, InputStream inputStream) {
+            super(image.getContentHash(), image.getContentType(), image.getLength(), image.getFile());
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * The content of this image (opened when it was cached)
+         *
+         * @return
+         */
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        /**
+         * Closes the content stream
+         */
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private static final String INDEX_FILE_NAME = "index.txt";
+    private static final String CONTENT_FILE_SUFFIX = ".bin";
+    private static final String TEMP_FILE_PREFIX = "tmp-";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_JOURNAL_COMPACT_LINES = 1000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private File directory;
+    private long maxBytes;
+    private long totalBytes = 0;
+    /** Maps hashed request keys to their cached content in least recently used order */
+    private LinkedHashMap<String, CachedImage> index;
+    /** Maps content hashes to the number of keys in index referencing that content */
+    private Map<String, Integer> contentReferences;
+    private Writer journal;
+    private int journalLines = 0;
+
+    /**
+     * Creates a new cache (or reopens an existing one) in the specified directory
+     *
+     * @param directory
+     *            Where the cached content and index will be stored. Will be created if it DNE.
+     * @param maxBytes
+     *            The maximum total size (in bytes) of all cached content
+     * @throws IOException
+     *             If the directory can't be created or the index can't be written
+     */
+    public DiskImageCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.index = new LinkedHashMap<String, CachedImage>(16, 0.75f, true);
+        this.contentReferences = new HashMap<String, Integer>();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        synchronized (this) {
+            loadIndex();
+            evict(null);
+            compactJournal();
+        }
+    }
+
+    /**
+     * Gets the content cached against key or null if it DNE
+     *
+     * @param key
+     * @return
+     */
+    public synchronized CachedImage get(String key) {
+        String keyHash = hashKey(key);
+        CachedImage image = index.get(keyHash);
+        if (image != null && !image.getFile().isFile()) {
+            removeKey(keyHash);
+            return null;
+        }
+
+        return image;
+    }
+
+    /**
+     * Reads data to completion and caches it against key (replacing any existing content). Adding content may cause
+     * the least recently used entries to be evicted. The most recently added entry is never evicted so a single entry
+     * that is larger than the quota will be kept until the next put.
+     *
+     * @param key
+     *            The key to cache the data against
+     * @param data
+     *            The content to cache. Will be closed by this method.
+     * @param contentType
+     *            The content type as a MIME string
+     * @return The newly cached content
+     * @throws IOException
+     */
+    public CachedImage put(String key, InputStream data, String contentType) throws IOException {
+        OpenCachedImage image = putAndOpen(key, data, contentType);
+        image.close();
+        return image;
+    }
+
+    /**
+     * Reads data to completion and caches it against key (as per put), returning the cached content already opened for
+     * reading. Unlike the file of a CachedImage, the returned stream stays readable even if the content is evicted
+     * (eg by a concurrent put) before it is read.
+     *
+     * @param key
+     *            The key to cache the data against
+     * @param data
+     *            The content to cache. Will be closed by this method.
+     * @param contentType
+     *            The content type as a MIME string
+     * @return The newly cached content. Must be closed by the caller.
+     * @throws IOException
+     */
+    public OpenCachedImage putAndOpen(String key, InputStream data, String contentType) throws IOException {
+        String keyHash = hashKey(key);
+
+        //Stream the content to a temporary file first so we aren't holding the lock while reading
+        MessageDigest digest = newDigest();
+        File tempFile = File.createTempFile(TEMP_FILE_PREFIX, CONTENT_FILE_SUFFIX, directory);
+        long length = 0;
+        OutputStream output = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = data.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+                output.write(buffer, 0, read);
+                length += read;
+            }
+        } catch (IOException ex) {
+            IOUtils.closeQuietly(output);
+            tempFile.delete();
+            throw ex;
+        } finally {
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(data);
+        }
+
+        String contentHash = toHex(digest.digest());
+        synchronized (this) {
+            File contentFile = contentFile(contentHash);
+            if (contentReferences.containsKey(contentHash) || contentFile.isFile()) {
+                tempFile.delete();
+            } else if (!tempFile.renameTo(contentFile)) {
+                tempFile.delete();
+                throw new IOException("Unable to move cached content to " + contentFile);
+            }
+
+            //Open the content before anything can evict it
+            InputStream content = new FileInputStream(contentFile);
+            CachedImage image = new CachedImage(contentHash, contentType, length, contentFile);
+            replaceKey(keyHash, image);
+            appendJournal(keyHash, image);
+            evict(keyHash);
+            return new OpenCachedImage(image, content);
+        }
+    }
+
+    /**
+     * Gets the number of keys in this cache
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Gets the total size (in bytes) of all distinct content in this cache
+     *
+     * @return
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Closes the index journal. The cache should not be used after calling this method.
+     */
+    public synchronized void close() {
+        IOUtils.closeQuietly(journal);
+        journal = null;
+    }
+
+    /**
+     * Maps keyHash onto image, releasing any content it was previously mapped to
+     */
+    private void replaceKey(String keyHash, CachedImage image) {
+        CachedImage existing = index.remove(keyHash);
+        index.put(keyHash, image);
+        Integer references = contentReferences.get(image.getContentHash());
+        if (references == null) {
+            contentReferences.put(image.getContentHash(), 1);
+            totalBytes += image.getLength();
+        } else {
+            contentReferences.put(image.getContentHash(), references + 1);
+        }
+
+        if (existing != null) {
+            releaseContent(existing);
+        }
+    }
+
+    private void removeKey(String keyHash) {
+        CachedImage existing = index.remove(keyHash);
+        if (existing != null) {
+            releaseContent(existing);
+        }
+    }
+
+    /**
+     * Decrements the reference count for image's content, deleting it from disk if it's no longer referenced
+     */
+    private void releaseContent(CachedImage image) {
+        Integer references = contentReferences.get(image.getContentHash());
+        if (references == null || references <= 1) {
+            contentReferences.remove(image.getContentHash());
+            totalBytes -= image.getLength();
+            if (!image.getFile().delete() && image.getFile().exists()) {
+                log.warn("Unable to delete evicted cache content " + image.getFile());
+            }
+        } else {
+            contentReferences.put(image.getContentHash(), references - 1);
+        }
+    }
+
+    /**
+     * Evicts the least recently used keys until the cache is within its quota. The key protectedKeyHash will never be evicted.
+     */
+    private void evict(String protectedKeyHash) {
+        Iterator<Map.Entry<String, CachedImage>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, CachedImage> entry = iterator.next();
+            if (entry.getKey().equals(protectedKeyHash)) {
+                continue;
+            }
+
+            iterator.remove();
+            releaseContent(entry.getValue());
+        }
+    }
+
+    /**
+     * Rebuilds the in memory index from the journal on disk. Later journal lines take precedence over earlier ones and
+     * entries whose content no longer exists are dropped. Any content files that aren't referenced are deleted.
+     */
+    private void loadIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (indexFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF8));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", 4);
+                    if (parts.length != 4) {
+                        continue; //skip malformed (possibly partially written) lines
+                    }
+
+                    File contentFile = contentFile(parts[1]);
+                    long length;
+                    try {
+                        length = Long.parseLong(parts[2]);
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+
+                    if (contentFile.isFile() && contentFile.length() == length) {
+                        replaceKey(parts[0], new CachedImage(parts[1], parts[3], length, contentFile));
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(CONTENT_FILE_SUFFIX)) {
+                    continue;
+                }
+
+                String contentHash = name.substring(0, name.length() - CONTENT_FILE_SUFFIX.length());
+                if (!contentReferences.containsKey(contentHash)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it only contains the current index (in least recently used order)
+     */
+    private void compactJournal() throws IOException {
+        IOUtils.closeQuietly(journal);
+
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        File tempFile = new File(directory, INDEX_FILE_NAME + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), UTF8);
+        try {
+            for (Map.Entry<String, CachedImage> entry : index.entrySet()) {
+                writeJournalLine(writer, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+
+        if (!indexFile.delete() && indexFile.exists()) {
+            throw new IOException("Unable to replace cache index " + indexFile);
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Unable to replace cache index " + indexFile);
+        }
+
+        journal = new OutputStreamWriter(new FileOutputStream(indexFile, true), UTF8);
+        journalLines = index.size();
+    }
+
+    private void appendJournal(String keyHash, CachedImage image) {
+        try {
+            if (journal == null) {
+                return;
+            }
+
+            if (journalLines > Math.max(MIN_JOURNAL_COMPACT_LINES, index.size() * 4)) {
+                compactJournal();
+            } else {
+                writeJournalLine(journal, keyHash, image);
+                journal.flush();
+                journalLines++;
+            }
+        } catch (IOException ex) {
+            //The in memory index is still valid, we just won't remember this entry after a restart
+            log.warn("Unable to write to cache index: " + ex.getMessage());
+            log.debug("Exception:", ex);
+        }
+    }
+
+    private static void writeJournalLine(Writer writer, String keyHash, CachedImage image) throws IOException {
+        String contentType = image.getContentType() == null ? "" : image.getContentType().replaceAll("[\t\r\n]", " ");
+        writer.write(keyHash + "\t" + image.getContentHash() + "\t" + image.getLength() + "\t" + contentType + "\n");
+    }
+
+    private File contentFile(String contentHash) {
+        return new File(directory, contentHash + CONTENT_FILE_SUFFIX);
+    }
+
+    private static String hashKey(String key) {
+        MessageDigest digest = newDigest();
+        return toHex(digest.digest(key.getBytes(UTF8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //Every JVM is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
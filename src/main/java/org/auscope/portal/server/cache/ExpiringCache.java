@@ -0,0 +1,186 @@
+package org.auscope.portal.server.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple thread safe in memory cache with least recently used eviction and a fixed time to live for each entry.
+ *
+ * The size of the cache is bounded by the total "weight" of its entries. By default every entry weighs 1 (making the
+ * bound a maximum entry count) but a Weigher can be supplied to bound the cache by (for example) approximate byte size.
+ *
+ * @param <K>
+ *            The key type
+ * @param <V>
+ *            The cached value type
+ */
+public class ExpiringCache<K, V> {
+
+    /**
+     * Calculates the relative weight of a cache entry
+     */
+    public interface Weigher<K, V> {
+        /**
+         * Returns the weight of the specified entry. Must be non negative.
+         *
+         * @param key
+         * @param value
+         * @return
+         */
+        long weigh(K key, V value);
+    }
+
+    private static class CacheEntry<V> {
+        private V value;
+        private long weight;
+        private long expiry;
+
+        public CacheEntry(V value, long weight, long expiry) {
+            this.value = value;
+            this.weight = weight;
+            this.expiry = expiry;
+        }
+    }
+
+    private long maxWeight;
+    private long ttlMillis;
+    private Weigher<K, V> weigher;
+    private long totalWeight = 0;
+    private LinkedHashMap<K, CacheEntry<V>> entries;
+
+    /**
+     * Creates a new cache bounded by entry count
+     *
+     * @param maxEntries
+     *            The maximum number of entries that will be kept
+     * @param ttlMillis
+     *            How long (in milliseconds) an entry can be served for after it is added
+     */
+    public ExpiringCache(long maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, null);
+    }
+
+    /**
+     * Creates a new cache bounded by total weight
+     *
+     * @param maxWeight
+     *            The maximum total weight of all entries
+     * @param ttlMillis
+     *            How long (in milliseconds) an entry can be served for after it is added
+     * @param weigher
+     *            Used for calculating the weight of each entry. If null, each entry will weigh 1.
+     */
+    public ExpiringCache(long maxWeight, long ttlMillis, Weigher<K, V> weigher) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the current time in milliseconds. Exposed for unit testing.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the value cached against key or null if it DNE (or has expired)
+     *
+     * @param key
+     * @return
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiry <= currentTimeMillis()) {
+            removeEntry(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /**
+     * Caches value against key (replacing any existing value). Values that are heavier than the entire cache will not
+     * be stored. Adding an entry may cause the least recently used entries to be evicted.
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void put(K key, V value) {
+        removeEntry(key);
+
+        long weight = weigher == null ? 1 : weigher.weigh(key, value);
+        if (weight > maxWeight) {
+            return;
+        }
+
+        entries.put(key, new CacheEntry<V>(value, weight, currentTimeMillis() + ttlMillis));
+        totalWeight += weight;
+        evict();
+    }
+
+    /**
+     * Removes any value cached against key
+     *
+     * @param key
+     */
+    public synchronized void remove(K key) {
+        removeEntry(key);
+    }
+
+    /**
+     * Removes every entry from this cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    /**
+     * Gets the number of entries in this cache (including any that have expired but are yet to be removed)
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total weight of all entries in this cache
+     *
+     * @return
+     */
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    private void removeEntry(K key) {
+        CacheEntry<V> existing = entries.remove(key);
+        if (existing != null) {
+            totalWeight -= existing.weight;
+        }
+    }
+
+    /**
+     * Removes all expired entries and then the least recently used entries until the cache is within its weight bound
+     */
+    private void evict() {
+        long now = currentTimeMillis();
+        Iterator<Map.Entry<K, CacheEntry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry<V> entry = iterator.next().getValue();
+            if (entry.expiry <= now || totalWeight > maxWeight) {
+                iterator.remove();
+                totalWeight -= entry.weight;
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.auscope.portal.server.domain.nvcldataservice;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents a NVCL CSV download response down sampled into fixed sized bins of X metres.
@@ -57,20 +56,27 @@ public class BinnedCSVResponse implements Serializable {
     public class Bin {
         private boolean numeric;
         private String name;
-        private List<Map<String, Integer>> stringValues;
-        private List<Double> numericValues;
-        private List<String> highStringValues;
-        private List<Double> startDepths;
+        private CategoricalColumnBuffer stringValues;
+        private DoubleColumnBuffer numericValues;
+        private DoubleColumnBuffer startDepths;
 
-        public Bin(String name, List<Double> startDepths, boolean numeric, List<Map<String, Integer>> stringValues, List<String> highStringValues, List<Double> numericValues) {
+        public Bin(String name, DoubleColumnBuffer startDepths, boolean numeric, CategoricalColumnBuffer stringValues, DoubleColumnBuffer numericValues) {
             super();
             this.name = name;
             this.numeric = numeric;
             this.stringValues = stringValues;
             this.startDepths = startDepths;
-            this.highStringValues = highStringValues;
             this.numericValues = numericValues;
         }
+
+        /**
+         * Creates a copy of source (that shares no state with it)
+         * @param source
+         */
+        public Bin(Bin source) {
+            this(source.name, new DoubleColumnBuffer(source.startDepths), source.numeric,
+                    new CategoricalColumnBuffer(source.stringValues), new DoubleColumnBuffer(source.numericValues));
+        }
         /**
          * The name of the scalar used to generate this bin
          * @return
@@ -82,14 +88,14 @@ public class BinnedCSVResponse implements Serializable {
          * Each item (n) corresponds to the Start depth in metres of the first sample used to make the n'th aggregate window
          * @return
          */
-        public List<Double> getStartDepths() {
+        public DoubleColumnBuffer getStartDepths() {
             return startDepths;
         }
         /**
          * Each item (n) corresponds to the Start depth in metres of the first sample used to make the n'th aggregate window
          * @param startDepths
          */
-        public void setStartDepths(List<Double> startDepths) {
+        public void setStartDepths(DoubleColumnBuffer startDepths) {
             this.startDepths = startDepths;
         }
         /**
@@ -111,26 +117,36 @@ public class BinnedCSVResponse implements Serializable {
         }
 
         /**
-         * Each item (n) corresponds to the counts of each unique string in the n'th aggregate window
+         * Each unique string value in this bin. The counts in stringValues are indexed by position in this list
          * @return
          */
-        public List<Map<String, Integer>> getStringValues() {
-            return stringValues;
+        public List<String> getStringDictionary() {
+            return stringValues.getDictionary();
         }
 
         /**
-         * Each item (n) corresponds to the counts of each unique string in the n'th aggregate window
-         * @param stringValues
+         * Each item (n) corresponds to the counts of each unique string (indexed by stringDictionary) in the n'th aggregate window
+         * @return
          */
-        public void setStringValues(List<Map<String, Integer>> stringValues) {
-            this.stringValues = stringValues;
+        public List<int[]> getStringValues() {
+            return stringValues.getCounts();
+        }
+
+        /**
+         * Gets the count of value in the n'th aggregate window
+         * @param n
+         * @param value
+         * @return
+         */
+        public int getStringCount(int n, String value) {
+            return stringValues.getCount(n, value);
         }
 
         /**
          * Each item (n) corresponds to the average numeric value in the n'th aggregate window
          * @return
          */
-        public List<Double> getNumericValues() {
+        public DoubleColumnBuffer getNumericValues() {
             return numericValues;
         }
 
@@ -138,7 +154,7 @@ public class BinnedCSVResponse implements Serializable {
          * Each item (n) corresponds to the average numeric value in the n'th aggregate window
          * @param numericValues
          */
-        public void setNumericValues(List<Double> numericValues) {
+        public void setNumericValues(DoubleColumnBuffer numericValues) {
             this.numericValues = numericValues;
         }
 
@@ -147,15 +163,7 @@ public class BinnedCSVResponse implements Serializable {
          * @return
          */
         public List<String> getHighStringValues() {
-            return highStringValues;
-        }
-
-        /**
-         * Each item (n) corresponds to the most common string value in the n'th aggregate window
-         * @param highStringValues
-         */
-        public void setHighStringValues(List<String> highStringValues) {
-            this.highStringValues = highStringValues;
+            return stringValues.getDominantValues();
         }
     }
 }
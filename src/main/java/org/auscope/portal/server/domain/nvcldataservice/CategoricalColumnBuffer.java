@@ -0,0 +1,178 @@
+package org.auscope.portal.server.domain.nvcldataservice;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A growable column of binned categorical (string) values.
+ *
+ * Each unique string is encoded once into a dictionary of int codes. Each bin is then stored as a run of counts indexed
+ * by code (trailing zero counts are omitted) along with the code of the most common value in that bin.
+ */
+public class CategoricalColumnBuffer implements Serializable {
+
+    private static final long serialVersionUID = 3172908833547720162L;
+
+    private List<String> dictionary;
+    private Map<String, Integer> codes;
+    private IntColumnBuffer dominantCodes;
+    private IntColumnBuffer counts;
+    private IntColumnBuffer offsets;
+
+    /**
+     * Creates a new empty buffer
+     */
+    public CategoricalColumnBuffer() {
+        this.dictionary = new ArrayList<String>();
+        this.codes = new HashMap<String, Integer>();
+        this.dominantCodes = new IntColumnBuffer();
+        this.counts = new IntColumnBuffer();
+        this.offsets = new IntColumnBuffer();
+    }
+
+    /**
+     * Creates a new buffer containing a copy of the bins (and dictionary) in source
+     *
+     * @param source
+     */
+    public CategoricalColumnBuffer(CategoricalColumnBuffer source) {
+        this.dictionary = new ArrayList<String>(source.dictionary);
+        this.codes = new HashMap<String, Integer>(source.codes);
+        this.dominantCodes = new IntColumnBuffer(source.dominantCodes);
+        this.counts = new IntColumnBuffer(source.counts);
+        this.offsets = new IntColumnBuffer(source.offsets);
+    }
+
+    /**
+     * Gets the code for the specified value, adding it to the dictionary if it doesn't already exist
+     *
+     * @param value
+     * @return
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Gets the code for the specified value or -1 if value has never been encoded
+     *
+     * @param value
+     * @return
+     */
+    public int getCode(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Appends a new bin to this buffer
+     *
+     * @param binCounts
+     *            The counts of each value in the bin indexed by code
+     * @param length
+     *            The number of codes to read from binCounts
+     * @param dominantCode
+     *            The code of the most common value in the bin
+     */
+    public void appendBin(int[] binCounts, int length, int dominantCode) {
+        while (length > 0 && binCounts[length - 1] == 0) {
+            length--;
+        }
+
+        offsets.append(counts.size());
+        counts.append(binCounts, 0, length);
+        dominantCodes.append(dominantCode);
+    }
+
+    /**
+     * The number of bins in this buffer
+     *
+     * @return
+     */
+    public int size() {
+        return dominantCodes.size();
+    }
+
+    /**
+     * Gets the count of value in the specified bin
+     *
+     * @param bin
+     *            The index of the bin
+     * @param value
+     *            The string value to count
+     * @return
+     */
+    public int getCount(int bin, String value) {
+        int code = getCode(value);
+        int start = offsets.getInt(bin);
+        int end = bin + 1 < offsets.size() ? offsets.getInt(bin + 1) : counts.size();
+        if (code < 0 || start + code >= end) {
+            return 0;
+        }
+        return counts.getInt(start + code);
+    }
+
+    /**
+     * Each unique string value in this column, indexed by code
+     *
+     * @return
+     */
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Each item (n) corresponds to the most common string value in the n'th bin
+     *
+     * @return
+     */
+    public List<String> getDominantValues() {
+        return new DominantValueList();
+    }
+
+    /**
+     * Each item (n) corresponds to the counts (indexed by dictionary code) of each string in the n'th bin
+     *
+     * @return
+     */
+    public List<int[]> getCounts() {
+        return new CountList();
+    }
+
+    private class DominantValueList extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            return dictionary.get(dominantCodes.getInt(index));
+        }
+
+        @Override
+        public int size() {
+            return dominantCodes.size();
+        }
+    }
+
+    private class CountList extends AbstractList<int[]> implements RandomAccess {
+        @Override
+        public int[] get(int index) {
+            int start = offsets.getInt(index);
+            int end = index + 1 < offsets.size() ? offsets.getInt(index + 1) : counts.size();
+            return counts.toIntArray(start, end);
+        }
+
+        @Override
+        public int size() {
+            return offsets.size();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.auscope.portal.server.domain.nvcldataservice;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A growable column of primitive doubles. Values are stored unboxed in a single backing array, the List view is
+ * provided so that the column can be serialised (or inspected) like any other list of Doubles.
+ *
+ * Only appending is supported.
+ */
+public class DoubleColumnBuffer extends AbstractList<Double> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = -2964317512346627811L;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private double[] values;
+    private int size;
+
+    /**
+     * Creates a new empty buffer with a default initial capacity
+     */
+    public DoubleColumnBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty buffer
+     *
+     * @param initialCapacity
+     *            The number of values that can be appended before the backing array must grow
+     */
+    public DoubleColumnBuffer(int initialCapacity) {
+        this.values = new double[Math.max(initialCapacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a new buffer containing a copy of the values in source
+     *
+     * @param source
+     */
+    public DoubleColumnBuffer(DoubleColumnBuffer source) {
+        this.values = Arrays.copyOf(source.values, Math.max(source.size, 1));
+        this.size = source.size;
+    }
+
+    /**
+     * Appends value to the end of this buffer
+     *
+     * @param value
+     */
+    public void append(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Gets the primitive value at the specified index
+     *
+     * @param index
+     * @return
+     */
+    public double getDouble(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns a copy of the values in this buffer trimmed to size
+     *
+     * @return
+     */
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public boolean add(Double value) {
+        append(value);
+        return true;
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,128 @@
+package org.auscope.portal.server.domain.nvcldataservice;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A growable column of primitive ints. Values are stored unboxed in a single backing array, the List view is
+ * provided so that the column can be serialised (or inspected) like any other list of Integers.
+ *
+ * Only appending is supported.
+ */
+public class IntColumnBuffer extends AbstractList<Integer> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 4871264458910763318L;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] values;
+    private int size;
+
+    /**
+     * Creates a new empty buffer with a default initial capacity
+     */
+    public IntColumnBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty buffer
+     *
+     * @param initialCapacity
+     *            The number of values that can be appended before the backing array must grow
+     */
+    public IntColumnBuffer(int initialCapacity) {
+        this.values = new int[Math.max(initialCapacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a new buffer containing a copy of the values in source
+     *
+     * @param source
+     */
+    public IntColumnBuffer(IntColumnBuffer source) {
+        this.values = Arrays.copyOf(source.values, Math.max(source.size, 1));
+        this.size = source.size;
+    }
+
+    /**
+     * Appends value to the end of this buffer
+     *
+     * @param value
+     */
+    public void append(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Appends length values from source (starting at offset) to the end of this buffer
+     *
+     * @param source
+     * @param offset
+     * @param length
+     */
+    public void append(int[] source, int offset, int length) {
+        if (size + length > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, size + length));
+        }
+        System.arraycopy(source, offset, values, size, length);
+        size += length;
+    }
+
+    /**
+     * Gets the primitive value at the specified index
+     *
+     * @param index
+     * @return
+     */
+    public int getInt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns a copy of the values in this buffer trimmed to size
+     *
+     * @return
+     */
+    public int[] toIntArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns a copy of the values in this buffer from index from (inclusive) to index to (exclusive)
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public int[] toIntArray(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("From: " + from + ", To: " + to + ", Size: " + size);
+        }
+        return Arrays.copyOfRange(values, from, to);
+    }
+
+    @Override
+    public boolean add(Integer value) {
+        append(value);
+        return true;
+    }
+
+    @Override
+    public Integer get(int index) {
+        return getInt(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,437 @@
+package org.auscope.portal.server.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.server.metrics.PortalMetrics;
+
+/**
+ * A HttpServiceCaller that coalesces identical concurrent requests.
+ *
+ * If a request is made while an identical request (same HTTP method, URL and body) is already in flight, the request
+ * will wait for (and share) the response of the in flight request rather than making its own ("single flight").
+ * Nothing is cached - once the in flight request completes, the next identical request will go upstream again.
+ *
+ * Only GET and POST requests whose responses are read as a String are coalesced. Streamed responses are passed
+ * straight through (sharing them would mean buffering responses that are streamed because they are large).
+ *
+ * If a HostCircuitBreaker is set, every upstream request (coalesced or not) is made through it. If a request deadline
+ * is set, any upstream request still waiting for its response at the deadline is aborted (failing with a
+ * SocketTimeoutException) so that the request thread is released. Both only cover the time taken to connect and receive
+ * the response headers - once a host has started responding, its body (streamed or read as a String) can take as long
+ * as it needs.
+ *
+ * If PortalMetrics are set, the latency, error rate and size of the responses of every upstream host are recorded.
+ */
+public class CoalescingHttpServiceCaller extends HttpServiceCaller {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private ConcurrentHashMap<String, FutureTask<String>> inFlight = new ConcurrentHashMap<String, FutureTask<String>>();
+    private HostCircuitBreaker circuitBreaker;
+    private long requestDeadline;
+    private ScheduledThreadPoolExecutor watchdog;
+    private PortalMetrics metrics;
+    /** Set while the current thread is making an upstream request (so nested calls aren't guarded twice) */
+    private ThreadLocal<Boolean> inUpstreamCall = new ThreadLocal<Boolean>();
+
+    /**
+     * @param connectionTimeOut
+     *            As per HttpServiceCaller
+     */
+    public CoalescingHttpServiceCaller(int connectionTimeOut) {
+        super(connectionTimeOut);
+    }
+
+    /**
+     * Sets the circuit breaker that upstream requests will be made through. If not set (the default) requests are made
+     * directly.
+     *
+     * @param circuitBreaker
+     */
+    public void setCircuitBreaker(HostCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Sets where the performance of upstream hosts will be recorded. If not set (the default) nothing is recorded.
+     *
+     * @param metrics
+     */
+    public void setMetrics(PortalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets how long (in milliseconds) an upstream request can wait for its response before it is aborted. If not set
+     * (or 0) requests are only limited by the connection timeout.
+     *
+     * @param requestDeadline
+     */
+    public synchronized void setRequestDeadline(long requestDeadline) {
+        this.requestDeadline = requestDeadline;
+        if (requestDeadline > 0 && watchdog == null) {
+            watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "upstream-request-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            //Nearly every request completes before its deadline so don't hold on to the cancelled aborts
+            watchdog.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * Stops the request deadline watchdog (if there is one)
+     */
+    public synchronized void close() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Wraps request so that method is aborted if request hasn't completed within requestDeadline
+     */
+    private <T> Callable<T> withDeadline(final HttpRequestBase method, final Callable<T> request,
+            final ScheduledExecutorService watchdog, final long deadline) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                ScheduledFuture<?> abort = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        method.abort();
+                    }
+                }, deadline, TimeUnit.MILLISECONDS);
+
+                T result;
+                try {
+                    result = request.call();
+                } catch (Exception ex) {
+                    if (abort.cancel(false)) {
+                        throw ex;
+                    }
+                    throw generateTimeoutException(method, deadline, ex);
+                }
+
+                //If the abort has already started, the response can't be used
+                if (!abort.cancel(false)) {
+                    throw generateTimeoutException(method, deadline, null);
+                }
+                return result;
+            }
+        };
+    }
+
+    private static SocketTimeoutException generateTimeoutException(HttpRequestBase method, long deadline,
+            Exception cause) {
+        SocketTimeoutException ex = new SocketTimeoutException(String.format("No response from %1$s within %2$dms",
+                method.getURI(), deadline));
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Wraps request so that its latency and outcome are recorded against host
+     */
+    private static <T> Callable<T> withMetrics(final String host, final Callable<T> request,
+            final PortalMetrics metrics) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    T result = request.call();
+                    success = true;
+                    return result;
+                } finally {
+                    metrics.recordUpstream(host, System.nanoTime() - start, !success);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps stream so that the number of bytes read from it are recorded against host (when it is closed)
+     */
+    private static InputStream withMetrics(final String host, InputStream stream, final PortalMetrics metrics) {
+        return new FilterInputStream(stream) {
+            private long bytes;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytes += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytes += skipped;
+                return skipped;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    metrics.recordUpstreamBytes(host, bytes);
+                }
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * Gets the host (and port) that method will be made to or null if it doesn't have one
+     */
+    private static String getHost(HttpRequestBase method) {
+        URI uri = method.getURI();
+        if (uri == null || uri.getHost() == null) {
+            return null;
+        }
+        return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * Makes request with the request deadline (if there is one) through the circuit breaker for method's host (if
+     * there is one)
+     *
+     * @param method
+     *            The upstream request
+     * @param request
+     *            Makes method
+     * @return The result of request
+     * @throws Exception
+     */
+    protected <T> T callUpstream(HttpRequestBase method, Callable<T> request) throws Exception {
+        if (inUpstreamCall.get() != null) {
+            return request.call();
+        }
+
+        ScheduledExecutorService currentWatchdog;
+        long deadline;
+        synchronized (this) {
+            currentWatchdog = watchdog;
+            deadline = requestDeadline;
+        }
+        if (currentWatchdog != null && deadline > 0) {
+            request = withDeadline(method, request, currentWatchdog, deadline);
+        }
+
+        String host = getHost(method);
+        if (metrics != null && host != null) {
+            request = withMetrics(host, request, metrics);
+        }
+
+        long start = System.nanoTime();
+        inUpstreamCall.set(Boolean.TRUE);
+        try {
+            if (circuitBreaker == null || host == null) {
+                return request.call();
+            }
+            return circuitBreaker.call(host, request);
+        } finally {
+            inUpstreamCall.remove();
+            PortalMetrics.addUpstreamTime(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Generates a key that is equal for identical requests.
+     *
+     * @param method
+     *            The request
+     * @return The key or null if method can't be coalesced
+     * @throws IOException
+     *             If the request body can't be read
+     */
+    protected static String generateRequestKey(HttpRequestBase method) throws IOException {
+        if (!"GET".equals(method.getMethod()) && !"POST".equals(method.getMethod())) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(method.getMethod()).append(' ').append(method.getURI());
+        if (method instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntity entity = ((HttpEntityEnclosingRequestBase) method).getEntity();
+            if (entity != null) {
+                //A body that can only be read once must be left for the actual request
+                if (!entity.isRepeatable()) {
+                    return null;
+                }
+
+                key.append('\n');
+                if (entity.getContentType() != null) {
+                    key.append(entity.getContentType().getValue());
+                }
+                key.append('\n');
+
+                try {
+                    for (byte b : MessageDigest.getInstance("SHA-1").digest(EntityUtils.toByteArray(entity))) {
+                        key.append(String.format("%02x", b));
+                    }
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Makes the actual request, returning as soon as the response headers have been received
+     */
+    protected HttpResponse requestHttpResponse(HttpRequestBase method) throws Exception {
+        return super.getMethodResponseAsHttpResponse(method);
+    }
+
+    /**
+     * Makes the actual (uncoalesced) request
+     */
+    protected String requestMethodResponseAsString(final HttpRequestBase method) throws Exception {
+        //Nested requests are counted by the outermost request
+        boolean nested = inUpstreamCall.get() != null;
+        HttpResponse httpResponse = getMethodResponseAsHttpResponse(method);
+
+        //The body is read outside of the request deadline
+        String response = null;
+        try {
+            HttpEntity entity = httpResponse.getEntity();
+            if (entity != null) {
+                response = EntityUtils.toString(entity, "UTF-8");
+            }
+        } finally {
+            method.releaseConnection();
+        }
+
+        String host = getHost(method);
+        if (metrics != null && host != null && response != null && !nested) {
+            metrics.recordUpstreamBytes(host, response.length());
+        }
+        return response;
+    }
+
+    /**
+     * As per HttpServiceCaller (the request is never coalesced)
+     */
+    @Override
+    public InputStream getMethodResponseAsStream(final HttpRequestBase method) throws Exception {
+        boolean nested = inUpstreamCall.get() != null;
+        InputStream stream = callUpstream(method, new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws Exception {
+                return CoalescingHttpServiceCaller.super.getMethodResponseAsStream(method);
+            }
+        });
+
+        String host = getHost(method);
+        if (metrics != null && host != null && stream != null && !nested) {
+            stream = withMetrics(host, stream, metrics);
+        }
+        return stream;
+    }
+
+    /**
+     * As per HttpServiceCaller (the request is never coalesced)
+     */
+    @Override
+    public HttpResponse getMethodResponseAsHttpResponse(final HttpRequestBase method) throws Exception {
+        return callUpstream(method, new Callable<HttpResponse>() {
+            @Override
+            public HttpResponse call() throws Exception {
+                return requestHttpResponse(method);
+            }
+        });
+    }
+
+    /**
+     * As per HttpServiceCaller except that if an identical request is already in flight, this will wait for (and
+     * return) its response instead of making a new request.
+     */
+    @Override
+    public String getMethodResponseAsString(final HttpRequestBase method) throws Exception {
+        String key = generateRequestKey(method);
+        if (key == null) {
+            return requestMethodResponseAsString(method);
+        }
+
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return requestMethodResponseAsString(method);
+            }
+        });
+        FutureTask<String> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            log.trace(String.format("Sharing in flight response for %1$s %2$s", method.getMethod(), method.getURI()));
+            long start = System.nanoTime();
+            try {
+                return getResult(existing);
+            } finally {
+                PortalMetrics.addUpstreamTime(System.nanoTime() - start);
+            }
+        }
+
+        try {
+            task.run();
+            return getResult(task);
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Waits for future to complete, unwrapping any exception thrown by the underlying task
+     */
+    private static <T> T getResult(FutureTask<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.auscope.portal.server.http;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Isolates the upstream hosts that the portal makes requests to from each other.
+ *
+ * Each host gets a bulkhead (a limit on how many requests can be made to it concurrently) and a circuit breaker. Once a
+ * host has failed failureThreshold times in a row its circuit "opens" and every request to it fails immediately for
+ * openMillis. After that a single probe request is let through ("half open") - if it succeeds the circuit closes again,
+ * otherwise it stays open for another openMillis.
+ *
+ * This means a single dead or overloaded service can only ever tie up a handful of request threads rather than
+ * starving every other layer.
+ */
+public class HostCircuitBreaker {
+
+    /**
+     * The default maximum number of concurrent requests to a single host. This leaves room for normal traffic alongside
+     * a parallel fan out (which is limited to the shared taskExecutor's threads plus the requesting thread).
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+    /** The default time (in milliseconds) a request will wait for its host's bulkhead */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 5 * 1000L;
+    /** The default number of consecutive failures that will open a host's circuit */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /** The default time (in milliseconds) a host's circuit stays open before it is probed */
+    public static final long DEFAULT_OPEN_TIME = 60 * 1000L;
+
+    /**
+     * Thrown (without contacting the host) when a host's circuit is open or its bulkhead is full
+     */
+    public static class HostUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public HostUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The bulkhead and circuit state of a single host
+     */
+    private static class HostState {
+        private Semaphore permits;
+        private int consecutiveFailures;
+        /** When the circuit last opened. 0 if the circuit is closed */
+        private long openedAt;
+        private boolean probing;
+
+        public HostState(int maxConcurrentRequests) {
+            this.permits = new Semaphore(maxConcurrentRequests);
+        }
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private int maxConcurrentRequests;
+    private long acquireTimeoutMillis;
+    private int failureThreshold;
+    private long openMillis;
+    private ConcurrentHashMap<String, HostState> hosts;
+
+    /**
+     * Creates a new instance with the default limits
+     */
+    public HostCircuitBreaker() {
+        this(DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_ACQUIRE_TIMEOUT, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param maxConcurrentRequests
+     *            The maximum number of concurrent requests to a single host
+     * @param acquireTimeoutMillis
+     *            How long (in milliseconds) a request will wait for its host's bulkhead before failing
+     * @param failureThreshold
+     *            The number of consecutive failures that will open a host's circuit
+     * @param openMillis
+     *            How long (in milliseconds) a host's circuit stays open before a probe request is let through
+     */
+    public HostCircuitBreaker(int maxConcurrentRequests, long acquireTimeoutMillis, int failureThreshold,
+            long openMillis) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.hosts = new ConcurrentHashMap<String, HostState>();
+    }
+
+    private HostState getState(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            HostState newState = new HostState(maxConcurrentRequests);
+            state = hosts.putIfAbsent(host, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Checks host's circuit, returning true if this request is the half open probe
+     */
+    private boolean checkCircuit(String host, HostState state) throws HostUnavailableException {
+        synchronized (state) {
+            if (state.openedAt == 0) {
+                return false;
+            }
+            if (state.probing || System.currentTimeMillis() - state.openedAt < openMillis) {
+                throw new HostUnavailableException(String.format(
+                        "%1$s is unavailable after %2$d consecutive failures", host, state.consecutiveFailures));
+            }
+            state.probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a request to host
+     */
+    private void recordResult(String host, HostState state, boolean probe, boolean success) {
+        synchronized (state) {
+            if (probe) {
+                state.probing = false;
+            }
+
+            if (success) {
+                if (state.openedAt != 0) {
+                    log.info(String.format("%1$s is available again - closing its circuit", host));
+                }
+                state.consecutiveFailures = 0;
+                state.openedAt = 0;
+            } else {
+                state.consecutiveFailures++;
+                if (probe || (state.openedAt == 0 && state.consecutiveFailures >= failureThreshold)) {
+                    if (state.openedAt == 0) {
+                        log.warn(String.format("%1$s failed %2$d times in a row - failing requests to it for %3$dms",
+                                host, state.consecutiveFailures, openMillis));
+                    }
+                    state.openedAt = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the specified exception (thrown by a request) indicates that the host is unhealthy
+     */
+    protected boolean isFailure(Exception ex) {
+        return ex instanceof IOException;
+    }
+
+    /**
+     * Makes a request to host through its bulkhead and circuit breaker.
+     *
+     * @param host
+     *            The host being requested (eg "example.com:8080")
+     * @param request
+     *            Makes the actual request
+     * @return The result of request
+     * @throws HostUnavailableException
+     *             If host's circuit is open or its bulkhead stays full for acquireTimeoutMillis
+     * @throws Exception
+     *             If request fails
+     */
+    public <T> T call(String host, Callable<T> request) throws Exception {
+        HostState state = getState(host);
+        boolean probe = checkCircuit(host, state);
+
+        boolean acquired = false;
+        try {
+            acquired = state.permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!acquired && probe) {
+                synchronized (state) {
+                    state.probing = false;
+                }
+            }
+        }
+        if (!acquired) {
+            throw new HostUnavailableException(String.format("%1$s already has %2$d requests in progress", host,
+                    maxConcurrentRequests));
+        }
+
+        boolean success = false;
+        try {
+            T result = request.call();
+            success = true;
+            return result;
+        } catch (Exception ex) {
+            if (!isFailure(ex)) {
+                success = true;
+            }
+            throw ex;
+        } finally {
+            state.permits.release();
+            recordResult(host, state, probe, success);
+        }
+    }
+
+    /**
+     * Returns true if requests to host are currently failing fast
+     *
+     * @param host
+     * @return
+     */
+    public boolean isOpen(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            return state.openedAt != 0;
+        }
+    }
+
+    /**
+     * Closes every circuit (the bulkheads are unaffected)
+     */
+    public void reset() {
+        for (HostState state : hosts.values()) {
+            synchronized (state) {
+                state.consecutiveFailures = 0;
+                state.openedAt = 0;
+            }
+        }
+    }
+}
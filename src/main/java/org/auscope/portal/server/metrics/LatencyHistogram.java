@@ -0,0 +1,136 @@
+package org.auscope.portal.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies (in the style of HdrHistogram).
+ *
+ * Latencies are recorded in microseconds into log linear buckets - every power of two is split into SUB_BUCKETS / 2
+ * equally sized buckets, so any recorded value is known to within about 3%. Recording is a handful of atomic
+ * increments so it is cheap enough to be used on every request.
+ *
+ * Reads are not atomic with respect to concurrent recording (a snapshot may be missing the latest few values).
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /** The largest latency (in microseconds) that can be distinguished - about 19 hours */
+    private static final long MAX_VALUE = (1L << 36) - 1;
+
+    private AtomicLongArray counts;
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong sum = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a new empty histogram
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+    }
+
+    /**
+     * Gets the index of the bucket that value belongs in
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        //value >>> shift is always in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+    }
+
+    /**
+     * Gets the largest value that belongs in the bucket at index
+     */
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a single latency
+     *
+     * @param nanos
+     *            The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE);
+
+        counts.incrementAndGet(getIndex(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long currentMax = max.get();
+        while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded latencies
+     *
+     * @return
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the largest recorded latency in microseconds
+     *
+     * @return
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean recorded latency in microseconds (0 if nothing has been recorded)
+     *
+     * @return
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Gets the latency (in microseconds) that percentile percent of recorded latencies are less than or equal to. The
+     * result is accurate to within the bucket size (about 3%).
+     *
+     * @param percentile
+     *            Between 0 and 100
+     * @return The latency or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,66 @@
+package org.auscope.portal.server.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.auscope.portal.server.metrics.PortalMetrics.RequestTimings;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Times every request made to a handler, recording its latency in PortalMetrics (against the request's servlet path
+ * eg "/doBoreholeFilter.do") and reporting the time spent waiting on upstream services in a Server-Timing header.
+ *
+ * The Server-Timing header is written once the handler completes (before the view is rendered) so it doesn't include
+ * any upstream time spent streaming a response to the client. Handlers that write (and commit) the response themselves
+ * won't get a header.
+ *
+ * A request counts as an error if its handler throws or if it returns a JSON response with "success" set to false (the
+ * portal controllers report most failures this way). Error statuses written directly to the response can't be read
+ * back under Servlet 2.5 so aren't counted.
+ */
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+
+    /** The name of the response header the request timings are written to */
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+    /** The model attribute that JSON responses report their success with */
+    public static final String SUCCESS_ATTRIBUTE = "success";
+
+    private PortalMetrics metrics;
+
+    /**
+     * @param metrics
+     *            Where request latencies will be recorded
+     */
+    public MetricsInterceptor(PortalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        metrics.beginRequest();
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+            ModelAndView modelAndView) {
+        RequestTimings timings = PortalMetrics.getCurrentRequest();
+        if (timings == null) {
+            return;
+        }
+
+        if (modelAndView != null && Boolean.FALSE.equals(modelAndView.getModel().get(SUCCESS_ATTRIBUTE))) {
+            timings.markFailed();
+        }
+        if (!response.isCommitted()) {
+            response.setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        metrics.endRequest(request.getServletPath(), ex != null);
+    }
+}
@@ -0,0 +1,321 @@
+package org.auscope.portal.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how the portal performs under production traffic - the latency of every endpoint, the latency, error rate
+ * and volume of every upstream host and the time spent transforming responses.
+ *
+ * Every request (see MetricsInterceptor) also accumulates the upstream and transform time spent on the request thread
+ * so that it can be reported back to the client in a Server-Timing header. This lets a slow response be attributed to
+ * either the portal or the remote service.
+ *
+ * Recording is lock free. Instances are thread safe.
+ */
+public class PortalMetrics {
+
+    /**
+     * The latency, error count and byte count of a single endpoint, host or transform
+     */
+    public static class Stats {
+        private LatencyHistogram latency = new LatencyHistogram();
+        private AtomicLong errors = new AtomicLong();
+        private AtomicLong bytes = new AtomicLong();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Converts these stats to a JSON friendly map (all times are in milliseconds)
+         */
+        private Map<String, Object> toMap(boolean includeBytes) {
+            long count = latency.getCount();
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("count", count);
+            map.put("errors", errors.get());
+            map.put("errorRate", count == 0 ? 0.0 : (double) errors.get() / count);
+            if (includeBytes) {
+                map.put("bytes", bytes.get());
+            }
+            map.put("mean", latency.getMean() / 1000.0);
+            map.put("p50", latency.getPercentile(50) / 1000.0);
+            map.put("p90", latency.getPercentile(90) / 1000.0);
+            map.put("p99", latency.getPercentile(99) / 1000.0);
+            map.put("max", latency.getMax() / 1000.0);
+            return map;
+        }
+    }
+
+    /**
+     * The time spent on a single request thread waiting on upstream services and transforming responses
+     */
+    public static class RequestTimings {
+        private PortalMetrics metrics;
+        private long start;
+        private long upstreamNanos;
+        private int upstreamRequests;
+        private long transformNanos;
+        private boolean failed;
+
+        private RequestTimings(PortalMetrics metrics) {
+            this.metrics = metrics;
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Gets the time (in nanoseconds) since the request started
+         *
+         * @return
+         */
+        public long getElapsedNanos() {
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * Gets the time (in nanoseconds) spent waiting on upstream services
+         *
+         * @return
+         */
+        public long getUpstreamNanos() {
+            return upstreamNanos;
+        }
+
+        /**
+         * Gets the number of upstream requests waited on
+         *
+         * @return
+         */
+        public int getUpstreamRequests() {
+            return upstreamRequests;
+        }
+
+        /**
+         * Gets the time (in nanoseconds) spent transforming responses
+         *
+         * @return
+         */
+        public long getTransformNanos() {
+            return transformNanos;
+        }
+
+        /**
+         * Whether the request has been marked as failed (even though its handler didn't throw)
+         *
+         * @return
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Marks the request as failed so it's counted as an error when it ends
+         */
+        public void markFailed() {
+            this.failed = true;
+        }
+
+        /**
+         * Generates the value of a Server-Timing header describing this request so far
+         *
+         * @return
+         */
+        public String toServerTiming() {
+            long elapsed = getElapsedNanos();
+            return String.format(Locale.ENGLISH,
+                    "upstream;dur=%1$.1f;desc=\"%2$d requests\", transform;dur=%3$.1f, portal;dur=%4$.1f",
+                    upstreamNanos / 1e6, upstreamRequests, transformNanos / 1e6,
+                    Math.max(0, elapsed - upstreamNanos - transformNanos) / 1e6);
+        }
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT_REQUEST = new ThreadLocal<RequestTimings>();
+
+    private ConcurrentHashMap<String, Stats> endpoints = new ConcurrentHashMap<String, Stats>();
+    private ConcurrentHashMap<String, Stats> hosts = new ConcurrentHashMap<String, Stats>();
+    private ConcurrentHashMap<String, Stats> transforms = new ConcurrentHashMap<String, Stats>();
+
+    private static Stats getStats(ConcurrentHashMap<String, Stats> map, String key) {
+        Stats stats = map.get(key);
+        if (stats == null) {
+            Stats newStats = new Stats();
+            stats = map.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Starts timing a request on the current thread
+     *
+     * @return The timings of the new request
+     */
+    public RequestTimings beginRequest() {
+        RequestTimings timings = new RequestTimings(this);
+        CURRENT_REQUEST.set(timings);
+        return timings;
+    }
+
+    /**
+     * Stops timing the request on the current thread (if there is one), recording its latency against endpoint
+     *
+     * @param endpoint
+     *            The endpoint that handled the request (eg "/doBoreholeFilter.do")
+     * @param error
+     *            Whether the request failed. Requests marked as failed (see RequestTimings.markFailed) always count as
+     *            an error.
+     */
+    public void endRequest(String endpoint, boolean error) {
+        RequestTimings timings = CURRENT_REQUEST.get();
+        if (timings == null) {
+            return;
+        }
+        CURRENT_REQUEST.remove();
+
+        Stats stats = getStats(endpoints, endpoint);
+        stats.latency.record(timings.getElapsedNanos());
+        if (error || timings.isFailed()) {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the timings of the request on the current thread
+     *
+     * @return The timings or null if no request is being timed on this thread
+     */
+    public static RequestTimings getCurrentRequest() {
+        return CURRENT_REQUEST.get();
+    }
+
+    /**
+     * Adds time spent waiting on an upstream service to the request on the current thread (if there is one)
+     *
+     * @param nanos
+     */
+    public static void addUpstreamTime(long nanos) {
+        RequestTimings timings = CURRENT_REQUEST.get();
+        if (timings != null) {
+            timings.upstreamNanos += nanos;
+            timings.upstreamRequests++;
+        }
+    }
+
+    /**
+     * Records a response transformation made on the current thread. Transformations are only recorded if they are made
+     * while a request is being timed on the current thread.
+     *
+     * @param transform
+     *            The name of the transformation (eg "gmlToHtml")
+     * @param nanos
+     *            How long the transformation took
+     */
+    public static void recordTransform(String transform, long nanos) {
+        RequestTimings timings = CURRENT_REQUEST.get();
+        if (timings != null) {
+            timings.transformNanos += nanos;
+            getStats(timings.metrics.transforms, transform).latency.record(nanos);
+        }
+    }
+
+    /**
+     * Records a single request to an upstream host
+     *
+     * @param host
+     *            The host (eg "example.com:8080")
+     * @param nanos
+     *            How long the host took to respond
+     * @param error
+     *            Whether the request failed
+     */
+    public void recordUpstream(String host, long nanos, boolean error) {
+        Stats stats = getStats(hosts, host);
+        stats.latency.record(nanos);
+        if (error) {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records bytes proxied from an upstream host
+     *
+     * @param host
+     *            The host (eg "example.com:8080")
+     * @param bytes
+     */
+    public void recordUpstreamBytes(String host, long bytes) {
+        getStats(hosts, host).bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Gets the stats for an endpoint
+     *
+     * @return The stats or null if nothing has been recorded for endpoint
+     */
+    public Stats getEndpointStats(String endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    /**
+     * Gets the stats for an upstream host
+     *
+     * @return The stats or null if nothing has been recorded for host
+     */
+    public Stats getUpstreamStats(String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Gets the stats for a transformation
+     *
+     * @return The stats or null if nothing has been recorded for transform
+     */
+    public Stats getTransformStats(String transform) {
+        return transforms.get(transform);
+    }
+
+    private static Map<String, Object> toMap(Map<String, Stats> map, boolean includeBytes) {
+        Map<String, Object> result = new TreeMap<String, Object>();
+        for (Map.Entry<String, Stats> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap(includeBytes));
+        }
+        return result;
+    }
+
+    /**
+     * Generates a JSON friendly summary of every recorded stat (all times are in milliseconds)
+     *
+     * @return
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("endpoints", toMap(endpoints, false));
+        summary.put("upstream", toMap(hosts, true));
+        summary.put("transforms", toMap(transforms, false));
+        return summary;
+    }
+
+    /**
+     * Discards every recorded stat
+     */
+    public void reset() {
+        endpoints.clear();
+        hosts.clear();
+        transforms.clear();
+    }
+}
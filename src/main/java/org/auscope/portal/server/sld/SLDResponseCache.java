@@ -0,0 +1,179 @@
+package org.auscope.portal.server.sld;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.auscope.portal.server.cache.CoalescingCache;
+
+/**
+ * Caches generated Styled Layer Descriptors (keyed by the parameters they were generated from) and serves them with a
+ * strong ETag.
+ *
+ * A WMS will request a style for every tile it renders. Cached styles are written straight from their encoded bytes
+ * and requests that present a matching If-None-Match header are answered with a 304 (Not Modified) without a body.
+ *
+ * Endpoints writing their styles through this cache must be listed in the etagFilter's excludedPaths (web.xml), the
+ * filter would otherwise replace the ETag with a hash of the body and the 304 would never be sent.
+ *
+ * A generator that can only produce a degraded style (eg because a lookup failed) can throw an UncacheableStyleException
+ * so that the style is served without being cached.
+ *
+ * Instances are thread safe and are intended to be owned by a single controller.
+ */
+public class SLDResponseCache {
+
+    /** The default maximum number of styles that will be cached */
+    public static final long DEFAULT_MAX_ENTRIES = 500;
+    /** The default time (in milliseconds) a style will be cached for */
+    public static final long DEFAULT_TTL = 30 * 60 * 1000L;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Thrown by a style generator when its style should be served but not cached
+     */
+    public static class UncacheableStyleException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private String style;
+
+        public UncacheableStyleException(String style) {
+            this.style = style;
+        }
+
+        public String getStyle() {
+            return style;
+        }
+    }
+
+    /**
+     * A style ready to be written to a response
+     */
+    private static class CachedStyle {
+        private byte[] bytes;
+        private String eTag;
+
+        public CachedStyle(String style) throws Exception {
+            this.bytes = style.getBytes(UTF8);
+
+            StringBuilder sb = new StringBuilder(42).append('"');
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            this.eTag = sb.append('"').toString();
+        }
+    }
+
+    private CoalescingCache<String, CachedStyle> cache;
+
+    /**
+     * Creates a new cache with DEFAULT_MAX_ENTRIES and DEFAULT_TTL
+     */
+    public SLDResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxEntries
+     *            The maximum number of styles that will be cached
+     * @param ttlMillis
+     *            How long (in milliseconds) a style will be cached for after it is generated
+     */
+    public SLDResponseCache(long maxEntries, long ttlMillis) {
+        this.cache = new CoalescingCache<String, CachedStyle>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Generates a cache key from a list of style parameters
+     *
+     * @param parameters
+     *            The parameters the style is generated from (can contain nulls)
+     * @return
+     */
+    public static String generateKey(Object... parameters) {
+        StringBuilder sb = new StringBuilder();
+        for (Object parameter : parameters) {
+            sb.append(parameter).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the If-None-Match header value matches eTag (using the weak comparison as per RFC 7232)
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the style cached against key to response (generating it if required). If the request already has the
+     * current version of the style, only a 304 (Not Modified) status is written.
+     *
+     * @param request
+     *            The request for the style
+     * @param response
+     *            Where the style will be written
+     * @param key
+     *            Identifies the style - see generateKey
+     * @param generator
+     *            Generates the style if it isn't cached. Can throw an UncacheableStyleException.
+     * @throws Exception
+     *             If the style can't be generated or written
+     */
+    public void writeStyle(HttpServletRequest request, HttpServletResponse response, String key,
+            final Callable<String> generator) throws Exception {
+        CachedStyle style;
+        try {
+            style = cache.get(key, new Callable<CachedStyle>() {
+                @Override
+                public CachedStyle call() throws Exception {
+                    return new CachedStyle(generator.call());
+                }
+            });
+        } catch (UncacheableStyleException ex) {
+            //Failed loads aren't cached so the next request will generate the style again
+            style = new CachedStyle(ex.getStyle());
+        }
+
+        response.setHeader("ETag", style.eTag);
+        //The style may be cached but it must be revalidated (styles change when the gsmlp namespaces are updated)
+        response.setHeader("Cache-Control", "no-cache");
+        if (matches(request.getHeader("If-None-Match"), style.eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType("text/xml");
+        response.setCharacterEncoding("UTF-8");
+        response.setContentLength(style.bytes.length);
+        OutputStream outputStream = response.getOutputStream();
+        outputStream.write(style.bytes);
+        outputStream.close();
+    }
+
+    /**
+     * Removes every cached style
+     */
+    public void clear() {
+        cache.clear();
+    }
+}
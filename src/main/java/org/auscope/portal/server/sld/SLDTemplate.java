@@ -0,0 +1,95 @@
+package org.auscope.portal.server.sld;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A precompiled text template for generating Styled Layer Descriptors (or fragments of them, eg a single Rule).
+ *
+ * Templates contain ${name} parameters. The template is split into its literal text and parameters once (on
+ * construction) so rendering is a single pass into a presized StringBuilder. Parameter values are inserted as is (they
+ * are typically XML fragments such as OGC filters) and may be used any number of times.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class SLDTemplate {
+
+    private static final Pattern PARAMETER_PATTERN = Pattern.compile("\\$\\{(\\w+)\\}");
+
+    /** literals[i] precedes parameters[i]. There is always one more literal than parameters */
+    private String[] literals;
+    private String[] parameters;
+    private int literalLength;
+
+    /**
+     * Compiles a new template
+     *
+     * @param template
+     *            The template text containing ${name} parameters
+     */
+    public SLDTemplate(String template) {
+        List<String> literalList = new ArrayList<String>();
+        List<String> parameterList = new ArrayList<String>();
+        Matcher matcher = PARAMETER_PATTERN.matcher(template);
+        int start = 0;
+        while (matcher.find()) {
+            literalList.add(template.substring(start, matcher.start()));
+            parameterList.add(matcher.group(1));
+            start = matcher.end();
+        }
+        literalList.add(template.substring(start));
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.parameters = parameterList.toArray(new String[parameterList.size()]);
+        for (String literal : literals) {
+            literalLength += literal.length();
+        }
+    }
+
+    /**
+     * Finds the value of parameter in nameValuePairs
+     */
+    private static Object getValue(String parameter, Object[] nameValuePairs) {
+        for (int i = 0; i < nameValuePairs.length - 1; i += 2) {
+            if (parameter.equals(nameValuePairs[i])) {
+                return nameValuePairs[i + 1];
+            }
+        }
+        throw new IllegalArgumentException(String.format("No value for template parameter '%1$s'", parameter));
+    }
+
+    /**
+     * Renders this template onto the end of sb
+     *
+     * @param sb
+     *            Where the rendered template will be appended
+     * @param nameValuePairs
+     *            Alternating parameter names and values eg ("color", "#FF0000", "filter", filter). Values are converted
+     *            using String.valueOf. Every parameter in the template must have a value.
+     * @return sb
+     */
+    public StringBuilder renderTo(StringBuilder sb, Object... nameValuePairs) {
+        for (int i = 0; i < parameters.length; i++) {
+            sb.append(literals[i]).append(getValue(parameters[i], nameValuePairs));
+        }
+        return sb.append(literals[parameters.length]);
+    }
+
+    /**
+     * Renders this template
+     *
+     * @param nameValuePairs
+     *            Alternating parameter names and values eg ("color", "#FF0000", "filter", filter). Values are converted
+     *            using String.valueOf. Every parameter in the template must have a value.
+     * @return
+     */
+    public String render(Object... nameValuePairs) {
+        int valueLength = 0;
+        for (int i = 1; i < nameValuePairs.length; i += 2) {
+            valueLength += nameValuePairs[i] == null ? 4 : nameValuePairs[i].toString().length();
+        }
+        return renderTo(new StringBuilder(literalLength + valueLength), nameValuePairs).toString();
+    }
+}
@@ -0,0 +1,57 @@
+package org.auscope.portal.server.web;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+/**
+ * A ShallowEtagHeaderFilter that can be bypassed for specific servlet paths.
+ *
+ * ShallowEtagHeaderFilter buffers the entire response body in memory so that it can hash it. That defeats endpoints that
+ * stream (potentially very large) responses straight through to the client, and it overwrites the ETag of endpoints that
+ * already generate (and check) their own. Those endpoints should be listed in the excludedPaths init-param, eg
+ *
+ * <pre>
+ * &lt;init-param&gt;
+ *     &lt;param-name&gt;excludedPaths&lt;/param-name&gt;
+ *     &lt;param-value&gt;/doMineFilter.do, /doNVCLFilter.do&lt;/param-value&gt;
+ * &lt;/init-param&gt;
+ * </pre>
+ */
+public class SelectiveEtagHeaderFilter extends ShallowEtagHeaderFilter {
+
+    private Set<String> excludedPaths = Collections.emptySet();
+
+    /**
+     * Sets the servlet paths (eg "/doMineFilter.do") whose responses will be written without an ETag (and without being
+     * buffered)
+     *
+     * @param excludedPaths
+     *            Comma, semicolon or whitespace separated list of servlet paths
+     */
+    public void setExcludedPaths(String excludedPaths) {
+        Set<String> paths = new HashSet<String>();
+        Collections.addAll(paths, StringUtils.tokenizeToStringArray(excludedPaths, ",; \t\r\n"));
+        this.excludedPaths = paths;
+    }
+
+    /**
+     * Gets the servlet paths whose responses will be written without an ETag
+     *
+     * @return
+     */
+    public Set<String> getExcludedPaths() {
+        return Collections.unmodifiableSet(excludedPaths);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
+        return excludedPaths.contains(request.getServletPath());
+    }
+}
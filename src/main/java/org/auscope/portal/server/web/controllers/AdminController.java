@@ -13,6 +13,7 @@ import org.auscope.portal.core.services.admin.EndpointAndSelector;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.view.JSONView;
+import org.auscope.portal.server.metrics.PortalMetrics;
 import org.auscope.portal.server.web.service.AuScopeAdminService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -39,14 +40,17 @@ public class AdminController {
     /** for checking config options */
     /** for actually performing diagnostics */
     private AuScopeAdminService adminService;
+    /** for reporting how production traffic performs */
+    private PortalMetrics metrics;
 
     /**
      * Creates a new instance of this class
      */
     @Autowired
     public AdminController(@Qualifier(value = "cswServiceList") ArrayList cswServiceList,
-            AuScopeAdminService adminService) {
+            AuScopeAdminService adminService, PortalMetrics metrics) {
         this.adminService = adminService;
+        this.metrics = metrics;
         this.cswServiceList = new ArrayList<CSWServiceItem>();
         for (int i = 0; i < cswServiceList.size(); i++) {
             this.cswServiceList.add((CSWServiceItem) cswServiceList.get(i));
@@ -73,6 +77,27 @@ public class AdminController {
 
     }
 
+    /**
+     * Reports the latency of every endpoint, the latency/error rate/volume of every upstream host and the time spent
+     * transforming responses, as recorded since startup (or the last reset). All times are in milliseconds.
+     *
+     * @param reset
+     *            If true, the recorded metrics will be discarded after they are reported
+     * @return
+     */
+    @RequestMapping("/getMetrics.diag")
+    public ModelAndView getMetrics(
+            @RequestParam(required = false, value = "reset", defaultValue = "false") boolean reset) {
+        ModelMap model = new ModelMap();
+        model.put("success", true);
+        model.putAll(metrics.getSummary());
+        if (reset) {
+            metrics.reset();
+        }
+
+        return new ModelAndView(new JSONView(), model);
+    }
+
     /**
      * Performs an external connectivity test through the HttpServiceCaller
      *
@@ -1,6 +1,5 @@
 package org.auscope.portal.server.web.controllers;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -14,7 +13,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.sf.json.JSONArray;
@@ -32,6 +33,8 @@ import org.auscope.portal.core.services.methodmakers.filter.IFilter;
 import org.auscope.portal.core.util.CSVUtil;
 import org.auscope.portal.core.util.FileIOUtil;
 import org.auscope.portal.server.domain.nvcldataservice.CSVDownloadResponse;
+import org.auscope.portal.server.sld.SLDResponseCache;
+import org.auscope.portal.server.sld.SLDTemplate;
 import org.auscope.portal.server.web.service.CapdfHydroGeoChemService;
 import org.auscope.portal.service.colorcoding.CapdfHydroChemColorCoding;
 import org.auscope.portal.service.colorcoding.ColorCodingConfig;
@@ -59,6 +62,50 @@ public class CapdfHydroGeoChemController extends BasePortalController {
     public static final String CAPDF_MEASUREMENTLIMIT = "public:measurement_limit";
     public final HashMap<String, String> AOI_TITLE_TO_LAYER_MAP;
 
+    /** A hydrogeochemistry style. Parameters: name, rules */
+    private static final SLDTemplate STYLE_TEMPLATE = new SLDTemplate("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<StyledLayerDescriptor version=\"1.0.0\" " +
+            "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
+            "xmlns=\"http://www.opengis.net/sld\" " +
+            "xmlns:public=\"http://capdf.csiro.au/\" " +
+            "xmlns:gml=\"http://www.opengis.net/gml\" " +
+            "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
+            "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
+            "xmlns:ows=\"http://www.opengis.net/ows\" " +
+            "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
+            "<NamedLayer>" +
+            "<Name>${name}</Name>" +
+            "<UserStyle>" +
+            "<Title>default Title</Title>" +
+            "<Abstract>default abstract</Abstract>" +
+            "<FeatureTypeStyle>" +
+            "${rules}" +
+            "</FeatureTypeStyle>" +
+            "</UserStyle>" +
+            "</NamedLayer>" +
+            "</StyledLayerDescriptor>");
+
+    /** A single rule for STYLE_TEMPLATE. Parameters: filter, color */
+    private static final SLDTemplate RULE_TEMPLATE = new SLDTemplate("<Rule>" +
+            "<Name>Hydrogeo Chemistry</Name>" +
+            "<Title>Hydrogeo Chemistry</Title>" +
+            "<Abstract>Light purple square boxes</Abstract>" +
+            "${filter}" +
+            "<PointSymbolizer>" +
+            "<Graphic>" +
+            "<Mark>" +
+            "<WellKnownName>square</WellKnownName>" +
+            "<Fill>" +
+            "<CssParameter name=\"fill\">${color}</CssParameter>" +
+            "</Fill>" +
+            "</Mark>" +
+            "<Size>6</Size>" +
+            "</Graphic>" +
+            "</PointSymbolizer>" +
+            "</Rule>");
+
+    private SLDResponseCache styleCache = new SLDResponseCache();
+
     @Autowired
     public CapdfHydroGeoChemController(CapdfHydroGeoChemService capdfHydroGeoChemService) {
         this.capdfHydroGeoChemService = capdfHydroGeoChemService;
@@ -419,39 +466,33 @@ public class CapdfHydroGeoChemController extends BasePortalController {
      */
     @RequestMapping("/getCapdfHydroGeoChemStyle.do")
     public void getCapdfHydroGeoChemStyle(
-            @RequestParam(required = false, value = "batchid") String batchid,
-            @RequestParam(required = false, value = "featureType") String featureType,
-            @RequestParam(required = false, value = "poi") String poi,
-            @RequestParam(required = false, value = "minMax") String minMax,
+            @RequestParam(required = false, value = "batchid") final String batchid,
+            @RequestParam(required = false, value = "featureType") final String featureType,
+            @RequestParam(required = false, value = "poi") final String poi,
+            @RequestParam(required = false, value = "minMax") final String minMax,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
 
-        //Vt: wms shouldn't need the bbox because it is tiled.
-        FilterBoundingBox bbox = null;
-
-        String style = "";
-
-        if (poi != null && !poi.isEmpty()) {
-            String[] splitMinMAx = minMax.split(",");
-            CapdfHydroChemColorCoding ccq = new CapdfHydroChemColorCoding(poi, Double.parseDouble(splitMinMAx[0]),
-                    Double.parseDouble(splitMinMAx[1]));
-            List<IFilter> stylefilterRules = this.capdfHydroGeoChemService.getHydroGeoChemFilterWithColorCoding(
-                    batchid, ccq); //VT:get filter from service
-            style = this.getColorCodedStyle(stylefilterRules, ccq.getColorCodingConfig(), featureType);
-        } else {
-            String stylefilterRules = this.capdfHydroGeoChemService.getHydroGeoChemFilter(batchid, bbox); //VT:get filter from service
-            style = this.getStyle(stylefilterRules, CAPDF_HYDROGEOCHEMTYPE, "#DB70B8");
-        }
-
-        response.setContentType("text/xml");
-
-        ByteArrayInputStream styleStream = new ByteArrayInputStream(
-                style.getBytes());
-        OutputStream outputStream = response.getOutputStream();
-
-        FileIOUtil.writeInputToOutputStream(styleStream, outputStream, 1024, false);
-
-        styleStream.close();
-        outputStream.close();
+        String cacheKey = SLDResponseCache.generateKey(batchid, featureType, poi, minMax);
+        styleCache.writeStyle(request, response, cacheKey, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                //Vt: wms shouldn't need the bbox because it is tiled.
+                FilterBoundingBox bbox = null;
+
+                if (poi != null && !poi.isEmpty()) {
+                    String[] splitMinMAx = minMax.split(",");
+                    CapdfHydroChemColorCoding ccq = new CapdfHydroChemColorCoding(poi,
+                            Double.parseDouble(splitMinMAx[0]), Double.parseDouble(splitMinMAx[1]));
+                    List<IFilter> stylefilterRules = capdfHydroGeoChemService.getHydroGeoChemFilterWithColorCoding(
+                            batchid, ccq); //VT:get filter from service
+                    return getColorCodedStyle(stylefilterRules, ccq.getColorCodingConfig(), featureType);
+                } else {
+                    String stylefilterRules = capdfHydroGeoChemService.getHydroGeoChemFilter(batchid, bbox); //VT:get filter from service
+                    return getStyle(stylefilterRules, CAPDF_HYDROGEOCHEMTYPE, "#DB70B8");
+                }
+            }
+        });
     }
 
     /**
@@ -466,50 +507,14 @@ public class CapdfHydroGeoChemController extends BasePortalController {
      * @return
      */
     public String getColorCodedStyle(List<IFilter> stylefilterRules, ColorCodingConfig ccc, String name) {
-
-        String style = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
-                "<StyledLayerDescriptor version=\"1.0.0\" " +
-                "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
-                "xmlns=\"http://www.opengis.net/sld\" " +
-                "xmlns:public=\"http://capdf.csiro.au/\" " +
-                "xmlns:gml=\"http://www.opengis.net/gml\" " +
-                "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
-                "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
-                "xmlns:ows=\"http://www.opengis.net/ows\" " +
-                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
-                "<NamedLayer>" +
-                "<Name>" + name + "</Name>" +
-                "<UserStyle>" +
-                "<Title>default Title</Title>" +
-                "<Abstract>default abstract</Abstract>" +
-                "<FeatureTypeStyle>";
-
+        StringBuilder rules = new StringBuilder();
         for (int i = 0; i < stylefilterRules.size(); i++) {
-
-            style += "<Rule>" +
-                    "<Name>Hydrogeo Chemistry</Name>" +
-                    "<Title>Hydrogeo Chemistry</Title>" +
-                    "<Abstract>Light purple square boxes</Abstract>" +
-                    stylefilterRules.get(i).getFilterStringAllRecords() +
-                    "<PointSymbolizer>" +
-                    "<Graphic>" +
-                    "<Mark>" +
-                    "<WellKnownName>square</WellKnownName>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + ccc.getColor(i) + "</CssParameter>" +
-                    "</Fill>" +
-                    "</Mark>" +
-                    "<Size>6</Size>" +
-                    "</Graphic>" +
-                    "</PointSymbolizer>" +
-                    "</Rule>";
+            RULE_TEMPLATE.renderTo(rules,
+                    "filter", stylefilterRules.get(i).getFilterStringAllRecords(),
+                    "color", ccc.getColor(i));
         }
 
-        style += "</FeatureTypeStyle>" +
-                "</UserStyle>" +
-                "</NamedLayer>" +
-                "</StyledLayerDescriptor>";
-
+        String style = STYLE_TEMPLATE.render("name", name, "rules", rules);
         logger.debug(style);
         return style;
     }
@@ -524,46 +529,9 @@ public class CapdfHydroGeoChemController extends BasePortalController {
      * @return String the style sld.
      */
     public String getStyle(String stylefilterRules, String name, String color) {
-
-        String style = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
-                "<StyledLayerDescriptor version=\"1.0.0\" " +
-                "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
-                "xmlns=\"http://www.opengis.net/sld\" " +
-                "xmlns:public=\"http://capdf.csiro.au/\" " +
-                "xmlns:gml=\"http://www.opengis.net/gml\" " +
-                "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
-                "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
-                "xmlns:ows=\"http://www.opengis.net/ows\" " +
-                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
-                "<NamedLayer>" +
-                "<Name>" + name + "</Name>" +
-                "<UserStyle>" +
-                "<Title>default Title</Title>" +
-                "<Abstract>default abstract</Abstract>" +
-                "<FeatureTypeStyle>" +
-                "<Rule>" +
-                "<Name>Hydrogeo Chemistry</Name>" +
-                "<Title>Hydrogeo Chemistry</Title>" +
-                "<Abstract>Light purple square boxes</Abstract>" +
-                stylefilterRules +
-                "<PointSymbolizer>" +
-                "<Graphic>" +
-                "<Mark>" +
-                "<WellKnownName>square</WellKnownName>" +
-                "<Fill>" +
-                "<CssParameter name=\"fill\">" + color + "</CssParameter>" +
-                "</Fill>" +
-                "</Mark>" +
-                "<Size>6</Size>" +
-                "</Graphic>" +
-                "</PointSymbolizer>" +
-                "</Rule>" +
-                "</FeatureTypeStyle>" +
-                "</UserStyle>" +
-                "</NamedLayer>" +
-                "</StyledLayerDescriptor>";
-
-        return style;
+        return STYLE_TEMPLATE.render(
+                "name", name,
+                "rules", RULE_TEMPLATE.render("filter", stylefilterRules, "color", color));
     }
 
 }
@@ -11,6 +11,8 @@ import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.responses.wfs.WFSCountResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.util.FileIOUtil;
+import org.auscope.portal.gsml.GeoJSONTranscoder;
+import org.auscope.portal.gsml.GridClusterer;
 import org.auscope.portal.server.web.controllers.downloads.EarthResourcesDownloadController;
 import org.auscope.portal.server.web.service.MineralOccurrenceService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +60,9 @@ public class EarthResourcesFilterController extends BasePortalController {
      *            the name of the mine to query for
      * @param request
      *            the HTTP client request
+     * @param outputFormat
+     *            [Optional] Set to GeoJSONTranscoder.OUTPUT_FORMAT to receive GeoJSON instead of GML
+     *            or GridClusterer.OUTPUT_FORMAT to receive GeoJSON clusters (when zoomed out)
      * @return a WFS response converted into KML
      * @throws Exception
      */
@@ -66,7 +71,8 @@ public class EarthResourcesFilterController extends BasePortalController {
             @RequestParam("serviceUrl") String serviceUrl,
             @RequestParam("mineName") String mineName,
             @RequestParam(required = false, value = "bbox") String bboxJson,
-            @RequestParam(required = false, value = "maxFeatures", defaultValue = "0") int maxFeatures)
+            @RequestParam(required = false, value = "maxFeatures", defaultValue = "0") int maxFeatures,
+            @RequestParam(required = false, value = "outputFormat") String outputFormat)
             throws Exception {
 
         //The presence of a bounding box causes us to assume we will be using this GML for visualizing on a map
@@ -74,9 +80,19 @@ public class EarthResourcesFilterController extends BasePortalController {
         FilterBoundingBox bbox = FilterBoundingBox.attemptParseFromJSON(bboxJson);
 
         try {
+            //Clusters count every feature in the view (the client's limit only applies to features it draws)
+            int requestMaxFeatures = GridClusterer.isCluster(outputFormat) ? GridClusterer.getMaxFeatures(bbox,
+                    maxFeatures) : maxFeatures;
             WFSResponse response = this.mineralOccurrenceService.getMinesGml(serviceUrl, mineName, bbox,
-                    maxFeatures);
-
+                    requestMaxFeatures);
+
+            if (GeoJSONTranscoder.isGeoJSON(outputFormat)) {
+                return new ModelAndView(new StreamingJSONView("geojson", new GeoJSONTranscoder(response.getData()),
+                        response.getMethod()));
+            } else if (GridClusterer.isCluster(outputFormat)) {
+                return new ModelAndView(new StreamingJSONView("geojson", GridClusterer.forView(
+                        new GeoJSONTranscoder(response.getData()), bbox), response.getMethod()));
+            }
             return generateNamedJSONResponseMAV(true, "gml", response.getData(), response.getMethod());
         } catch (Exception e) {
             log.warn(String.format("Error performing filter for '%1$s': %2$s", serviceUrl, e));
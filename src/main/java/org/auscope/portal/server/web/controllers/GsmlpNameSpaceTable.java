@@ -1,87 +1,336 @@
 package org.auscope.portal.server.web.controllers;
 
-import java.util.concurrent.ConcurrentMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.CSWCacheService;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
-import org.auscope.portal.core.util.DOMUtil;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource.OnlineResourceType;
+import org.auscope.portal.core.services.responses.csw.CSWRecord;
+import org.auscope.portal.server.cache.ExpiringCache;
+import org.auscope.portal.server.web.service.FanOut;
 
 
 /**
  * gsmlp namespace lookup table for the SF0 Borehole
  *
- * @author Lingbo Jiang 
+ * The namespace of a service is read from the root element of its WFS GetCapabilities response (the rest of the
+ * document is never downloaded). Once started, the namespace of every gsmlp:BoreholeView service in the CSW cache is
+ * (re)fetched in parallel in the background. Other services are fetched on demand and refreshed whenever they are
+ * looked up after their refresh interval has passed (the old namespace is served until the refresh completes).
+ * Failed lookups are negatively cached (the last known, or default, namespace is served until a retry is due).
+ *
+ * @author Lingbo Jiang
  *
  */
 
 public class GsmlpNameSpaceTable {
+    /** The namespace used for services that don't (or can't) report their own */
+    public static final String DEFAULT_GSMLP_NAMESPACE = "http://xmlns.geosciml.org/geosciml-portrayal/2.0";
+    /** The type name of the services whose namespaces are prefetched */
+    public static final String BOREHOLE_VIEW_TYPENAME = "gsmlp:BoreholeView";
+    /** The default time (in milliseconds) between refreshes of a service's namespace */
+    public static final long DEFAULT_REFRESH_INTERVAL = 30 * 60 * 1000L;
+    /** How long (in milliseconds) before a failed lookup will be retried */
+    public static final long NEGATIVE_TTL = 5 * 60 * 1000L;
+    /** How long (in milliseconds) a lookup of a service that has never been fetched will wait for the fetch */
+    public static final long MISS_WAIT = 3000L;
+    /** The maximum number of services whose namespaces will be kept */
+    public static final long MAX_SERVICES = 1000;
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * A (possibly failed) lookup and when it's due to be refreshed
+     */
+    private static class Entry {
+        private String nameSpace;
+        private long refreshTime;
+
+        public Entry(String nameSpace, long refreshTime) {
+            this.nameSpace = nameSpace;
+            this.refreshTime = refreshTime;
+        }
+    }
+
     protected HttpServiceCaller httpServiceCaller;
-    protected WFSGetFeatureMethodMaker wfsMethodMaker;    
-    private ConcurrentMap <String, String> gsmlpNameSpaceCache; 
-    private final Log log = LogFactory.getLog(getClass());  
+    protected WFSGetFeatureMethodMaker wfsMethodMaker;
+    private CSWCacheService cswService;
+    private long refreshInterval;
+    private ExpiringCache<String, Entry> gsmlpNameSpaceCache;
+    private ConcurrentMap<String, FutureTask<Void>> inFlight;
+    private Executor executor;
+    private ScheduledExecutorService scheduler;
+    private final Log log = LogFactory.getLog(getClass());
     /**
-     * Constructor Construct all the member variables.
-     * 
-     */    
+     * Constructor Construct all the member variables. Namespaces will only be fetched on demand (on the calling thread).
+     *
+     */
     public GsmlpNameSpaceTable() {
-        httpServiceCaller = new HttpServiceCaller(9000);
-        wfsMethodMaker = new WFSGetFeatureMethodMaker();
-        gsmlpNameSpaceCache = new ConcurrentHashMap<String, String>();
+        this(new HttpServiceCaller(9000), null, null, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Creates a new table. No prefetching will occur until start is called.
+     *
+     * @param httpServiceCaller
+     *            Used for requesting GetCapabilities
+     * @param cswService
+     *            [Optional] Used for finding the services to prefetch
+     * @param refreshInterval
+     *            How long (in milliseconds) between refreshes of a service's namespace
+     */
+    public GsmlpNameSpaceTable(HttpServiceCaller httpServiceCaller, CSWCacheService cswService, long refreshInterval) {
+        this(httpServiceCaller, cswService, null, refreshInterval);
+    }
+
+    /**
+     * Creates a new table. No prefetching will occur until start is called.
+     *
+     * @param httpServiceCaller
+     *            Used for requesting GetCapabilities
+     * @param cswService
+     *            [Optional] Used for finding the services to prefetch
+     * @param executor
+     *            [Optional] Used for fetching namespaces in the background (normally the shared taskExecutor). If null,
+     *            namespaces are fetched on the calling thread.
+     * @param refreshInterval
+     *            How long (in milliseconds) between refreshes of a service's namespace
+     */
+    public GsmlpNameSpaceTable(HttpServiceCaller httpServiceCaller, CSWCacheService cswService, Executor executor,
+            long refreshInterval) {
+        this.httpServiceCaller = httpServiceCaller;
+        this.wfsMethodMaker = new WFSGetFeatureMethodMaker();
+        this.cswService = cswService;
+        this.executor = executor;
+        this.refreshInterval = refreshInterval;
+        //Entries are kept long enough to be served (stale) while a few refreshes fail
+        this.gsmlpNameSpaceCache = new ExpiringCache<String, Entry>(MAX_SERVICES, Math.max(refreshInterval, NEGATIVE_TTL) * 4);
+        this.inFlight = new ConcurrentHashMap<String, FutureTask<Void>>();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Starts periodically prefetching the namespace of every gsmlp:BoreholeView service in the CSW cache. The CSW cache
+     * is checked at least every NEGATIVE_TTL so that services are prefetched soon after the CSW cache is populated.
+     */
+    public synchronized void start() {
+        if (scheduler != null || cswService == null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception ex) {
+                    //Don't let a failure cancel future refreshes
+                    log.warn("Error refreshing gsmlp namespaces", ex);
+                }
+            }
+        }, 0, Math.min(refreshInterval, NEGATIVE_TTL), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops any background fetching.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the URL of every gsmlp:BoreholeView service in the CSW cache
+     */
+    private Set<String> getServiceUrls() {
+        Set<String> urls = new LinkedHashSet<String>();
+        if (cswService == null) {
+            return urls;
+        }
+        for (CSWRecord record : cswService.getWFSRecords()) {
+            for (AbstractCSWOnlineResource resource : record.getOnlineResourcesByType(OnlineResourceType.WFS)) {
+                if (BOREHOLE_VIEW_TYPENAME.equals(resource.getName())) {
+                    urls.add(resource.getLinkage().toString());
+                }
+            }
+        }
+        return urls;
     }
+
+    /**
+     * Fetches the namespace of every gsmlp:BoreholeView service in the CSW cache that hasn't been fetched (or is due
+     * to be refreshed) in parallel. Blocks until every fetched service has responded.
+     */
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+        for (String url : getServiceUrls()) {
+            Entry entry = gsmlpNameSpaceCache.get(url);
+            if (entry == null || entry.refreshTime <= now) {
+                tasks.add(requestNameSpace(url));
+            }
+        }
+
+        for (FutureTask<Void> task : tasks) {
+            try {
+                FanOut.getResult(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                //Failures are logged (and cached) by the task
+            }
+        }
+    }
+
+    /**
+     * Fetches the namespace of serviceUrl in the background (unless it's already being fetched)
+     *
+     * @return The (possibly existing) fetch
+     */
+    private FutureTask<Void> requestNameSpace(final String serviceUrl) {
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                updateNameSpace(serviceUrl);
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                inFlight.remove(serviceUrl, this);
+            }
+        };
+
+        FutureTask<Void> existing = inFlight.putIfAbsent(serviceUrl, task);
+        if (existing != null) {
+            return existing;
+        }
+
+        FanOut.execute(executor, task);
+        return task;
+    }
+
+    /**
+     * Fetches the namespace of serviceUrl, caching the result (or failure)
+     */
+    private void updateNameSpace(String serviceUrl) {
+        try {
+            String nameSpace = getOnlineGsmlpNameSpace(serviceUrl);
+            gsmlpNameSpaceCache.put(serviceUrl, new Entry(nameSpace, System.currentTimeMillis() + refreshInterval));
+        } catch (Exception ex) {
+            log.warn(String.format("Get onlineGsmlpNameSpace for '%s' failed: %s", serviceUrl, ex));
+            log.debug("Exception: ", ex);
+            Entry previous = gsmlpNameSpaceCache.get(serviceUrl);
+            gsmlpNameSpaceCache.put(serviceUrl, new Entry(previous == null ? null : previous.nameSpace,
+                    System.currentTimeMillis() + NEGATIVE_TTL));
+        }
+    }
+
     /**
      * Get gsmlp namespace based on the serviceUrl
-     * 
+     *
+     * Known namespaces are returned immediately (a refresh will be started in the background if one is due). If
+     * serviceUrl has never been fetched, this will wait at most MISS_WAIT for it before returning the default
+     * namespace.
+     *
      * @param serviceUrl
      *            The serviceUrl
      * @return string of gsmlp namespace
-     */    
+     */
     public String getGsmlpNameSpace(String serviceUrl) {
-        String gsmlpNameSpace = gsmlpNameSpaceCache.get(serviceUrl);
-        if (gsmlpNameSpace == null) {
-            gsmlpNameSpace = getOnlineGsmlpNameSpace(serviceUrl);
-            gsmlpNameSpaceCache.put(serviceUrl, gsmlpNameSpace);            
+        Entry entry = gsmlpNameSpaceCache.get(serviceUrl);
+        if (entry == null) {
+            FutureTask<Void> task = requestNameSpace(serviceUrl);
+            try {
+                task.get(MISS_WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (TimeoutException ex) {
+                log.debug(String.format("Still waiting for the gsmlp namespace of '%s'", serviceUrl));
+            } catch (Exception ex) {
+                //Failures are logged (and cached) by the task
+            }
+            entry = gsmlpNameSpaceCache.get(serviceUrl);
+        } else if (entry.refreshTime <= System.currentTimeMillis()) {
+            requestNameSpace(serviceUrl);
         }
-        return gsmlpNameSpace;
+
+        return entry == null || entry.nameSpace == null ? DEFAULT_GSMLP_NAMESPACE : entry.nameSpace;
     }
     /**
-     * Clear cache of gsmlpNameSpaceCache 
+     * Clear cache of gsmlpNameSpaceCache (any prefetched services will be fetched again in the background)
      * @return void
-     */     
+     */
     public void clearCache() {
-        gsmlpNameSpaceCache.clear();        
+        gsmlpNameSpaceCache.clear();
+        for (String url : getServiceUrls()) {
+            requestNameSpace(url);
+        }
     }
-    
+
     /**
-     * Get gsmlp namespace from online request of the serviceUrl
-     * 
+     * Get gsmlp namespace from online request of the serviceUrl. Only the root element of the GetCapabilities response
+     * is read.
+     *
      * @param serviceUrl
      *            The serviceUrl
      * @return string of gsmlp namespace
-     */     
-    private String getOnlineGsmlpNameSpace(String serviceUrl) {
-        HttpRequestBase method = null;
-        String gsmlpNameSpace = "http://xmlns.geosciml.org/geosciml-portrayal/2.0";
+     * @throws Exception
+     */
+    private String getOnlineGsmlpNameSpace(String serviceUrl) throws Exception {
+        HttpRequestBase method = wfsMethodMaker.makeGetCapabilitiesMethod(serviceUrl);
+        InputStream responseStream = null;
         try {
-            method = wfsMethodMaker.makeGetCapabilitiesMethod(serviceUrl);
-            String responseString = httpServiceCaller.getMethodResponseAsString(method);
-            Document responseDoc = DOMUtil.buildDomFromString(responseString);
-            Element elem = responseDoc.getDocumentElement();
-            gsmlpNameSpace = elem.getAttribute("xmlns:gsmlp");             
-            //XPathExpression exprWFS_Cap = DOMUtil.compileXPathExpr("wfs:WFS_Capabilities");
-            //Element elem2 = (Element) exprWFS_Cap.evaluate(responseDoc, XPathConstants.STRING); 
-        }catch (Exception ex) {
-            log.warn(String.format("Get onlineGsmlpNameSpace for '%s' failed", serviceUrl));         
-        } finally {
-            if (method != null) {
-                method.releaseConnection();
+            responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(responseStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        String gsmlpNameSpace = reader.getNamespaceURI("gsmlp");
+                        return gsmlpNameSpace == null || gsmlpNameSpace.isEmpty() ? DEFAULT_GSMLP_NAMESPACE : gsmlpNameSpace;
+                    }
+                }
+                throw new IllegalStateException("Empty GetCapabilities response");
+            } finally {
+                reader.close();
             }
-        }        
-        return gsmlpNameSpace;
+        } finally {
+            //Abort rather than release so the rest of the (potentially large) document isn't downloaded
+            method.abort();
+            IOUtils.closeQuietly(responseStream);
+        }
     }
-    
-}
\ No newline at end of file
+
+}
@@ -1,14 +1,17 @@
 package org.auscope.portal.server.web.controllers;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Callable;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.auscope.portal.core.server.controllers.BasePortalController;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.util.FileIOUtil;
+import org.auscope.portal.server.sld.SLDResponseCache;
+import org.auscope.portal.server.sld.SLDTemplate;
 import org.auscope.portal.server.web.service.MineralOccurrenceService;
 import org.auscope.portal.server.web.service.MineralTenementService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,9 +26,61 @@ public class MineralTenementController extends BasePortalController {
 
     public static final String MINERAL_TENEMENT_TYPE = "mt:MineralTenement";
     public static final String MINERAL_TENEMENT_STATUS = "mt:MineralTenementStatus";
+
+    /** A mineral tenement polygon style. Parameters: name, abstract, rules */
+    private static final SLDTemplate POLYGON_STYLE_TEMPLATE = new SLDTemplate("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<StyledLayerDescriptor version=\"1.0.0\" " +
+            "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
+            "xmlns=\"http://www.opengis.net/sld\" " +
+            "xmlns:mt=\"http://xmlns.geoscience.gov.au/mineraltenementml/1.0\" " +
+            "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
+            "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
+            "xmlns:ows=\"http://www.opengis.net/ows\" " +
+            "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
+            "<NamedLayer>" +
+            "<Name>${name}</Name>" +
+            "<UserStyle>" +
+            "<Title>Default style</Title>" +
+            "<Abstract>${abstract}</Abstract>" +
+            "<FeatureTypeStyle>" +
+            "${rules}" +
+            "</FeatureTypeStyle>" +
+            "</UserStyle>" +
+            "</NamedLayer>" +
+            "</StyledLayerDescriptor>");
+
+    /** A single rule for POLYGON_STYLE_TEMPLATE. Parameters: title, abstract, filter, color, borderColor */
+    private static final SLDTemplate POLYGON_RULE_TEMPLATE = new SLDTemplate("<Rule>" +
+            "<Name>Polygon for mineral tenement</Name>" +
+            "<Title>${title}</Title>" +
+            "<Abstract>${abstract}</Abstract>" +
+            "${filter}" +
+            "<PolygonSymbolizer>" +
+            "<Fill>" +
+            "<CssParameter name=\"fill\">${color}</CssParameter>" +
+            "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
+            "</Fill>" +
+            "<Stroke>" +
+            "<CssParameter name=\"stroke\">${borderColor}</CssParameter>" +
+            "<CssParameter name=\"stroke-width\">1</CssParameter>" +
+            "</Stroke>" +
+            "</PolygonSymbolizer>" +
+            "</Rule>");
+
+    /** Matches features whose property starts with a value. Parameters: propertyName, value */
+    private static final SLDTemplate LIKE_FILTER_TEMPLATE = new SLDTemplate("<ogc:Filter>" +
+            "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
+            "<ogc:PropertyName>${propertyName}</ogc:PropertyName>" +
+            "<ogc:Literal>${value}*</ogc:Literal>" +
+            "</ogc:PropertyIsLike>" +
+            "</ogc:Filter>");
+
+    private SLDResponseCache styleCache;
+
     @Autowired
     public MineralTenementController(MineralTenementService mineralTenementService) {
         this.mineralTenementService = mineralTenementService;
+        this.styleCache = new SLDResponseCache();
     }
 
     @RequestMapping("/doMineralTenementDownload.do")
@@ -66,76 +121,45 @@ public class MineralTenementController extends BasePortalController {
     @RequestMapping("/getMineralTenementStyle.do")
     public void doMineFilterStyle(
             @RequestParam(required = false, value = "serviceUrl") String serviceUrl,
-            @RequestParam(required = false, value = "name") String name,
-            @RequestParam(required = false, value = "tenementType") String tenementType,
-            @RequestParam(required = false, value = "owner") String owner,
-            @RequestParam(required = false, value = "size") String size,
-            @RequestParam(required = false, value = "endDate") String endDate,
+            @RequestParam(required = false, value = "name") final String name,
+            @RequestParam(required = false, value = "tenementType") final String tenementType,
+            @RequestParam(required = false, value = "owner") final String owner,
+            @RequestParam(required = false, value = "size") final String size,
+            @RequestParam(required = false, value = "endDate") final String endDate,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
 
-        //Vt: wms shouldn't need the bbox because it is tiled.
-        FilterBoundingBox bbox = null;
-        String stylefilter = this.mineralTenementService.getMineralTenementWithStyling(name, tenementType, owner, size,
-                endDate); //VT:get filter from service
-
-        String filter = this.mineralTenementService.getMineralTenementFilter(name, tenementType, owner, size, endDate,
-                bbox); //VT:get filter from service
-
-        String style = this.getPolygonStyle(stylefilter, filter, MINERAL_TENEMENT_TYPE, "#00FF00", "#00FF00");
-
-        response.setContentType("text/xml");
-
-        ByteArrayInputStream styleStream = new ByteArrayInputStream(
-                style.getBytes());
-        OutputStream outputStream = response.getOutputStream();
-
-        FileIOUtil.writeInputToOutputStream(styleStream, outputStream, 1024, false);
-
-        styleStream.close();
-        outputStream.close();
+        String cacheKey = SLDResponseCache.generateKey("getMineralTenementStyle", name, tenementType, owner, size,
+                endDate);
+        styleCache.writeStyle(request, response, cacheKey, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                //Vt: wms shouldn't need the bbox because it is tiled.
+                FilterBoundingBox bbox = null;
+                String stylefilter = mineralTenementService.getMineralTenementWithStyling(name, tenementType, owner,
+                        size, endDate); //VT:get filter from service
+
+                String filter = mineralTenementService.getMineralTenementFilter(name, tenementType, owner, size,
+                        endDate, bbox); //VT:get filter from service
+
+                return getPolygonStyle(stylefilter, filter, MINERAL_TENEMENT_TYPE, "#00FF00", "#00FF00");
+            }
+        });
     }
 
     public String getPolygonStyle(String stylefilter, String filter, String name, String color, String borderColor) {
-
-        String style = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
-                "<StyledLayerDescriptor version=\"1.0.0\" " +
-                "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
-                "xmlns=\"http://www.opengis.net/sld\" " +
-                "xmlns:mt=\"http://xmlns.geoscience.gov.au/mineraltenementml/1.0\" " +
-                "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
-                "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
-                "xmlns:ows=\"http://www.opengis.net/ows\" " +
-                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
-                "<NamedLayer>" +
-                "<Name>" + name + "</Name>" +
-                "<UserStyle>" +
-                "<Title>Default style</Title>" +
-                "<Abstract>A green default style</Abstract>" +
-                "<FeatureTypeStyle>" +
-                
-                "<Rule>" +
-                "<Name>Polygon for mineral tenement</Name>" +
-                "<Title>Mineral Tenement</Title>" +
-                "<Abstract>50 percent transparent green fill with a red outline 1 pixel in width</Abstract>" +
-                filter +
-                "<PolygonSymbolizer>" +
-                "<Fill>" +
-                "<CssParameter name=\"fill\">" + color + "</CssParameter>" +
-                "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                "</Fill>" +
-                "<Stroke>" +
-                "<CssParameter name=\"stroke\">" + borderColor + "</CssParameter>" +
-                "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                "</Stroke>" +
-                "</PolygonSymbolizer>" +
-                "</Rule>" +
-
-                "</FeatureTypeStyle>" +
-                "</UserStyle>" +
-                "</NamedLayer>" +
-                "</StyledLayerDescriptor>";
-        return style;
+        StringBuilder rules = POLYGON_RULE_TEMPLATE.renderTo(new StringBuilder(),
+                "title", "Mineral Tenement",
+                "abstract", "50 percent transparent green fill with a red outline 1 pixel in width",
+                "filter", filter,
+                "color", color,
+                "borderColor", borderColor);
+        return POLYGON_STYLE_TEMPLATE.render(
+                "name", name,
+                "abstract", "A green default style",
+                "rules", rules);
     }
+
     /**
      * Handles getting the style of the color coding mineral tenement filter queries. (If the bbox elements are specified, they will limit the output response to 200 records
      * implicitly)
@@ -147,257 +171,59 @@ public class MineralTenementController extends BasePortalController {
     @RequestMapping("/getColorCodeMineralTenementStyle.do")
     public void doColorCodeMineralTenementStyle(
             @RequestParam(required = false, value = "serviceUrl") String serviceUrl,
-            @RequestParam(required = false, value = "ccProperty") String ccProperty,
+            @RequestParam(required = false, value = "ccProperty") final String ccProperty,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
-    	String ccPropertyCode = "";
-    	String style = "";
-    	switch (ccProperty) {
-    	case "TenementType" : 
-    		ccPropertyCode = MINERAL_TENEMENT_TYPE;
-    		style = this.getColorCodeTenementsTypeStyle(ccPropertyCode);
-    		break;
-    	case "TenementStatus": 
-    		ccPropertyCode = MINERAL_TENEMENT_STATUS;
-    		style = this.getColorCodeTenementsStatusStyle(MINERAL_TENEMENT_TYPE);
-    		break;
-    	default:
-    		break;    		
-    	}
-        response.setContentType("text/xml");
-
-        ByteArrayInputStream styleStream = new ByteArrayInputStream(
-                style.getBytes());
-        OutputStream outputStream = response.getOutputStream();
-
-        FileIOUtil.writeInputToOutputStream(styleStream, outputStream, 1024, false);
-
-        styleStream.close();
-        outputStream.close();
+        String cacheKey = SLDResponseCache.generateKey("getColorCodeMineralTenementStyle", ccProperty);
+        styleCache.writeStyle(request, response, cacheKey, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                switch (ccProperty) {
+                case "TenementType":
+                    return getColorCodeTenementsTypeStyle(MINERAL_TENEMENT_TYPE);
+                case "TenementStatus":
+                    return getColorCodeTenementsStatusStyle(MINERAL_TENEMENT_TYPE);
+                default:
+                    return "";
+                }
+            }
+        });
     }
-    public String getColorCodeTenementsTypeStyle(String name) {
 
-        String style = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
-                "<StyledLayerDescriptor version=\"1.0.0\" " +
-                "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
-                "xmlns=\"http://www.opengis.net/sld\" " +
-                "xmlns:mt=\"http://xmlns.geoscience.gov.au/mineraltenementml/1.0\" " +
-                "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
-                "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
-                "xmlns:ows=\"http://www.opengis.net/ows\" " +
-                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
-                "<NamedLayer>" +
-                "<Name>" + name + "</Name>" +
-                "<UserStyle>" +
-                "<Title>Default style</Title>" +
-                "<Abstract>A green default style</Abstract>" +
-                "<FeatureTypeStyle>" +
-                
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Exploration</Title>" +
-                    "<Abstract></Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:tenementType</ogc:PropertyName>" +
-                    "<ogc:Literal>Exploration*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#0000FF" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#0000FF" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +
-                    
-                    
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Prospecting</Title>" +
-                    "<Abstract></Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:tenementType</ogc:PropertyName>" +
-                    "<ogc:Literal>Prospecting*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#00FFFF" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#00FFFF" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +
-                    
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Miscellaneous</Title>" +
-                    "<Abstract></Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:tenementType</ogc:PropertyName>" +
-                    "<ogc:Literal>Miscellaneous*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#00FF00" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#00FF00" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +
-                    
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Mining Lease</Title>" +
-                    "<Abstract></Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:tenementType</ogc:PropertyName>" +
-                    "<ogc:Literal>Mining Lease*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#FFFF00" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#FFFF00" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +    
-                    
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Licence</Title>" +
-                    "<Abstract></Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:tenementType</ogc:PropertyName>" +
-                    "<ogc:Literal>Licence*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#FF0000" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#FF0000" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +                      
-                "</FeatureTypeStyle>" +
-                "</UserStyle>" +
-                "</NamedLayer>" +
-                "</StyledLayerDescriptor>";
-        return style;
+    /**
+     * Renders a polygon rule for each property value. Features are matched on their property value starting with
+     * values[i] and are filled with colors[i]
+     */
+    private static String getColorCodedStyle(String name, String propertyName, String[] titles, String[] abstracts,
+            String[] values, String[] colors) {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            POLYGON_RULE_TEMPLATE.renderTo(rules,
+                    "title", titles[i],
+                    "abstract", abstracts[i],
+                    "filter", LIKE_FILTER_TEMPLATE.render("propertyName", propertyName, "value", values[i]),
+                    "color", colors[i],
+                    "borderColor", colors[i]);
+        }
+        return POLYGON_STYLE_TEMPLATE.render(
+                "name", name,
+                "abstract", "A green default style",
+                "rules", rules);
     }
-    
-    public String getColorCodeTenementsStatusStyle(String name) {
 
-        String style = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
-                "<StyledLayerDescriptor version=\"1.0.0\" " +
-                "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" " +
-                "xmlns=\"http://www.opengis.net/sld\" " +
-                "xmlns:mt=\"http://xmlns.geoscience.gov.au/mineraltenementml/1.0\" " +
-                "xmlns:ogc=\"http://www.opengis.net/ogc\" " +
-                "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
-                "xmlns:ows=\"http://www.opengis.net/ows\" " +
-                "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"> " +
-                "<NamedLayer>" +
-                "<Name>" + name + "</Name>" +
-                "<UserStyle>" +
-                "<Title>Default style</Title>" +
-                "<Abstract>A green default style</Abstract>" +
-                "<FeatureTypeStyle>" +
-                
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Live</Title>" +
-                    "<Abstract>Tenement Status Blue</Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:status</ogc:PropertyName>" +
-                    "<ogc:Literal>LIVE*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#0000FF" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#0000FF" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +
-                    
-                    
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Current</Title>" +
-                    "<Abstract>Tenement Status Green</Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:status</ogc:PropertyName>" +
-                    "<ogc:Literal>CURRENT*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#00FF00" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#00FF00" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +
-                    
+    public String getColorCodeTenementsTypeStyle(String name) {
+        return getColorCodedStyle(name, "mt:tenementType",
+                new String[] {"Exploration", "Prospecting", "Miscellaneous", "Mining Lease", "Licence"},
+                new String[] {"", "", "", "", ""},
+                new String[] {"Exploration", "Prospecting", "Miscellaneous", "Mining Lease", "Licence"},
+                new String[] {"#0000FF", "#00FFFF", "#00FF00", "#FFFF00", "#FF0000"});
+    }
 
-                    "<Rule>" +
-                    "<Name>Polygon for mineral tenement</Name>" +
-                    "<Title>Pending</Title>" +
-                    "<Abstract>Tenement Status Red</Abstract>" +
-                    "<ogc:Filter>" +
-                    "<ogc:PropertyIsLike escapeChar=\"!\" wildCard=\"*\" matchCase=\"false\" singleChar=\"#\">" +
-                    "<ogc:PropertyName>mt:status</ogc:PropertyName>" +
-                    "<ogc:Literal>PENDING*</ogc:Literal>" +
-                    "</ogc:PropertyIsLike>" +
-                    "</ogc:Filter>" +
-                    "<PolygonSymbolizer>" +
-                    "<Fill>" +
-                    "<CssParameter name=\"fill\">" + "#FF0000" + "</CssParameter>" +
-                    "<CssParameter name=\"fill-opacity\">0.6</CssParameter>" +
-                    "</Fill>" +
-                    "<Stroke>" +
-                    "<CssParameter name=\"stroke\">" + "#FF0000" + "</CssParameter>" +
-                    "<CssParameter name=\"stroke-width\">1</CssParameter>" +
-                    "</Stroke>" +
-                    "</PolygonSymbolizer>" +
-                    "</Rule>" +                      
-                "</FeatureTypeStyle>" +
-                "</UserStyle>" +
-                "</NamedLayer>" +
-                "</StyledLayerDescriptor>";
-        return style;
-    }    
+    public String getColorCodeTenementsStatusStyle(String name) {
+        return getColorCodedStyle(name, "mt:status",
+                new String[] {"Live", "Current", "Pending"},
+                new String[] {"Tenement Status Blue", "Tenement Status Green", "Tenement Status Red"},
+                new String[] {"LIVE", "CURRENT", "PENDING"},
+                new String[] {"#0000FF", "#00FF00", "#FF0000"});
+    }
 }
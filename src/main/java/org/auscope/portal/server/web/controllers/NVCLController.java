@@ -1,13 +1,19 @@
 package org.auscope.portal.server.web.controllers;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.List;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.httpclient.HttpStatus;
@@ -19,6 +25,13 @@ import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.util.FileIOUtil;
 import org.auscope.portal.core.util.HttpUtil;
+import org.auscope.portal.gsml.GeoJSONTranscoder;
+import org.auscope.portal.gsml.GridClusterer;
+import org.auscope.portal.nvcl.ScalarCSVMerger;
+import org.auscope.portal.nvcl.TrayThumbnailRewriter;
+import org.auscope.portal.server.cache.DiskImageCache;
+import org.auscope.portal.server.cache.DiskImageCache.CachedImage;
+import org.auscope.portal.server.cache.DiskImageCache.OpenCachedImage;
 import org.auscope.portal.server.domain.nvcldataservice.AbstractStreamResponse;
 import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
 import org.auscope.portal.server.domain.nvcldataservice.CSVDownloadResponse;
@@ -34,6 +47,7 @@ import org.auscope.portal.server.domain.nvcldataservice.WFSStatusResponse;
 import org.auscope.portal.server.web.NVCLDataServiceMethodMaker;
 import org.auscope.portal.server.web.NVCLDataServiceMethodMaker.PlotScalarGraphType;
 import org.auscope.portal.server.web.service.BoreholeService;
+import org.auscope.portal.server.web.service.HyloggerBoreholeIndex;
 import org.auscope.portal.server.web.service.NVCL2_0_DataService;
 import org.auscope.portal.server.web.service.NVCLDataService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -55,8 +69,14 @@ public class NVCLController extends BasePortalController {
     private NVCLDataService dataService;
     private NVCL2_0_DataService dataService2_0;
     private CSWCacheService cswService;
+    private DiskImageCache imageCache;
+    private HyloggerBoreholeIndex hyloggerIndex;
 
     private int BUFFERSIZE = 1024 * 1024;
+    private int THUMBNAIL_BUFFERSIZE = 8 * 1024;
+
+    /** How long (in seconds) clients may cache NVCL imagery for. The imagery for a given request never changes. */
+    public static final int IMAGE_CACHE_MAX_AGE = 7 * 24 * 60 * 60;
 
     @Autowired
     public NVCLController(BoreholeService boreholeService,
@@ -71,6 +91,28 @@ public class NVCLController extends BasePortalController {
 
     }
 
+    /**
+     * Sets the cache used for storing NVCL imagery (mosaics and scalar plots). If not set, every image request will be
+     * proxied to the NVCL data service.
+     *
+     * @param imageCache
+     */
+    @Autowired(required = false)
+    public void setImageCache(DiskImageCache imageCache) {
+        this.imageCache = imageCache;
+    }
+
+    /**
+     * Sets the index used for looking up which boreholes have Hylogger data. If not set, the NVCL services will be
+     * queried for every onlyHylogger request.
+     *
+     * @param hyloggerIndex
+     */
+    @Autowired(required = false)
+    public void setHyloggerIndex(HyloggerBoreholeIndex hyloggerIndex) {
+        this.hyloggerIndex = hyloggerIndex;
+    }
+
     /**
      * Handles the borehole filter queries.
      *
@@ -254,8 +296,12 @@ public class NVCLController extends BasePortalController {
         List<String> hyloggerBoreholeIDs = null;
         if (onlyHylogger) {
             try {
-                hyloggerBoreholeIDs = this.boreholeService.discoverHyloggerBoreholeIDs(this.cswService,
-                        new CSWRecordsHostFilter(serviceUrl));
+                if (this.hyloggerIndex != null) {
+                    hyloggerBoreholeIDs = this.hyloggerIndex.getHyloggerBoreholeIDs(new CSWRecordsHostFilter(serviceUrl));
+                } else {
+                    hyloggerBoreholeIDs = this.boreholeService.discoverHyloggerBoreholeIDs(this.cswService,
+                            new CSWRecordsHostFilter(serviceUrl));
+                }
             } catch (Exception e) {
                 log.warn(String
                         .format("Error requesting list of hylogger borehole ID's from %1$s: %2$s", serviceUrl, e));
@@ -274,10 +320,22 @@ public class NVCLController extends BasePortalController {
             if (countOnly) {
                 int count = this.boreholeService.countAllBoreholes(serviceUrl, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, hyloggerBoreholeIDs);
                 return generateJSONResponseMAV(true, count, "");
+            } else if (GeoJSONTranscoder.isGeoJSON(outputFormat)) {
+                WFSResponse response = this.boreholeService.getAllBoreholes(serviceUrl, boreholeName, custodian,
+                        dateOfDrillingStart,dateOfDrillingEnd, maxFeatures, bbox, hyloggerBoreholeIDs, null);
+                return new ModelAndView(new StreamingJSONView("geojson", new GeoJSONTranscoder(response.getData()),
+                        response.getMethod()));
+            } else if (GridClusterer.isCluster(outputFormat)) {
+                //Clusters count every feature in the view (the client's limit only applies to features it draws)
+                WFSResponse response = this.boreholeService.getAllBoreholes(serviceUrl, boreholeName, custodian,
+                        dateOfDrillingStart,dateOfDrillingEnd, GridClusterer.getMaxFeatures(bbox, maxFeatures), bbox,
+                        hyloggerBoreholeIDs, null);
+                return new ModelAndView(new StreamingJSONView("geojson", GridClusterer.forView(
+                        new GeoJSONTranscoder(response.getData()), bbox), response.getMethod()));
             } else {
                 WFSResponse response = this.boreholeService.getAllBoreholes(serviceUrl, boreholeName, custodian,
                         dateOfDrillingStart,dateOfDrillingEnd, maxFeatures, bbox, hyloggerBoreholeIDs, outputFormat);
-                return generateNamedJSONResponseMAV(true, "gml", response.getData(), response.getMethod());
+                return StreamingJSONView.generateNamedJSONResponseMAV("gml", response.getData(), response.getMethod());
             }
         } catch (Exception e) {
             log.info("Error performing borehole filter: ", e);
@@ -384,9 +442,114 @@ public class NVCLController extends BasePortalController {
         }
     }
 
+    /**
+     * Utility function for writing cached imagery to servletResponse. The image will be sent with a strong ETag and if
+     * it matches the request's If-None-Match header, only a 304 response will be sent.
+     *
+     * @return false if the cached image is no longer available (nothing will be written in this case)
+     */
+    private boolean writeCachedImageResponse(HttpServletRequest request, HttpServletResponse servletResponse, CachedImage image)
+            throws IOException {
+        if (writeNotModifiedResponse(request, servletResponse, image)) {
+            return true;
+        }
+
+        InputStream imageInputStream = null;
+        try {
+            imageInputStream = new FileInputStream(image.getFile());
+        } catch (FileNotFoundException ex) {
+            return false; //It's been evicted since we looked it up
+        }
+
+        writeCachedImageContent(servletResponse, image, imageInputStream);
+        return true;
+    }
+
+    /**
+     * Utility function for answering a conditional request for image with a 304 response (if the client already has
+     * it). The image content isn't needed at all in this case.
+     *
+     * @return true if a 304 response was written
+     */
+    private boolean writeNotModifiedResponse(HttpServletRequest request, HttpServletResponse servletResponse, CachedImage image) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(image.getETag()) || ifNoneMatch.trim().equals("*"))) {
+            servletResponse.setHeader("ETag", image.getETag());
+            servletResponse.setHeader("Cache-Control", "public, max-age=" + IMAGE_CACHE_MAX_AGE);
+            servletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Utility function for writing the content of image (read from imageInputStream) to servletResponse along with its
+     * ETag. imageInputStream will be closed.
+     */
+    private void writeCachedImageContent(HttpServletResponse servletResponse, CachedImage image, InputStream imageInputStream)
+            throws IOException {
+        servletResponse.setHeader("ETag", image.getETag());
+        servletResponse.setHeader("Cache-Control", "public, max-age=" + IMAGE_CACHE_MAX_AGE);
+
+        OutputStream responseOutput = null;
+        try {
+            servletResponse.setContentType(image.getContentType());
+            servletResponse.setContentLength((int) image.getLength());
+            responseOutput = servletResponse.getOutputStream();
+
+            FileIOUtil.writeInputToOutputStream(imageInputStream, responseOutput, BUFFERSIZE, true);
+        } finally {
+            IOUtils.closeQuietly(imageInputStream);
+            if (responseOutput != null) {
+                responseOutput.close();
+            }
+        }
+    }
+
+    /**
+     * Utility function for writing the image cached against cacheKey to servletResponse.
+     *
+     * @return false if there is no cached image for cacheKey (nothing will be written in this case)
+     */
+    private boolean writeCachedImageResponse(HttpServletRequest request, HttpServletResponse servletResponse, String cacheKey)
+            throws IOException {
+        if (imageCache == null) {
+            return false;
+        }
+
+        CachedImage image = imageCache.get(cacheKey);
+        return image != null && writeCachedImageResponse(request, servletResponse, image);
+    }
+
+    /**
+     * Utility function for piping the contents of serviceResponse to servletResponse, caching it against cacheKey if it
+     * contains imagery. Non image responses (eg error pages) are never cached.
+     */
+    private void writeImageResponse(HttpServletRequest request, HttpServletResponse servletResponse,
+            AbstractStreamResponse serviceResponse, String cacheKey) throws IOException {
+        String contentType = serviceResponse.getContentType();
+        if (imageCache == null || contentType == null || !contentType.startsWith("image/")) {
+            writeStreamResponse(servletResponse, serviceResponse);
+            return;
+        }
+
+        //The image is written from the stream opened when it was cached, a concurrent eviction can't remove it first
+        OpenCachedImage image = imageCache.putAndOpen(cacheKey, serviceResponse.getResponse(), contentType);
+        try {
+            if (!writeNotModifiedResponse(request, servletResponse, image)) {
+                writeCachedImageContent(servletResponse, image, image.getInputStream());
+            }
+        } finally {
+            image.close();
+        }
+    }
+
     /**
      * Proxies a NVCL Mosaic request for mosaic imagery. Writes directly to the HttpServletResponse
      *
+     * Mosaic imagery is cached (if an image cache is available) and is sent with an ETag so clients can make
+     * conditional requests.
+     *
      * @param serviceUrl
      *            The URL of an NVCL Data service
      * @param logId
@@ -399,8 +562,14 @@ public class NVCLController extends BasePortalController {
             @RequestParam(required = false, value = "width") Integer width,
             @RequestParam(required = false, value = "startSampleNo") Integer startSampleNo,
             @RequestParam(required = false, value = "endSampleNo") Integer endSampleNo,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
 
+        String cacheKey = String.format("mosaic\n%1$s\n%2$s\n%3$s\n%4$s\n%5$s", serviceUrl, logId, width, startSampleNo, endSampleNo);
+        if (writeCachedImageResponse(request, response, cacheKey)) {
+            return;
+        }
+
         //Make our request
         MosaicResponse serviceResponse = null;
         try {
@@ -412,7 +581,7 @@ public class NVCLController extends BasePortalController {
             return;
         }
 
-        writeStreamResponse(response, serviceResponse);
+        writeImageResponse(request, response, serviceResponse, cacheKey);
     }
 
     /**
@@ -447,22 +616,21 @@ public class NVCLController extends BasePortalController {
 
         response.setContentType(serviceResponse.getContentType());
         //vt:we have to hack the response because the html response has relative url and when
-        //the result is proxied, the service url becomes portal's url.
-        String stringResponse = IOUtils.toString(serviceResponse.getResponse());
-        stringResponse = stringResponse.replace("./Display_Tray_Thumb.html", serviceUrl + "Display_Tray_Thumb.html");
-        if (!stringResponse.contains("style=\"max-width: 33%")) {
-            stringResponse = stringResponse.replace("<img",
-                    "<img style=\"max-width: 33%;height: auto;width: auto\\9;\" ");
+        //the result is proxied, the service url becomes portal's url. The page is patched as it streams through
+        OutputStream responseOutput = new TrayThumbnailRewriter(new BufferedOutputStream(response.getOutputStream()), serviceUrl);
+        try {
+            FileIOUtil.writeInputToOutputStream(serviceResponse.getResponse(), responseOutput, THUMBNAIL_BUFFERSIZE, true);
+        } finally {
+            responseOutput.close();
         }
-
-        FileIOUtil.writeInputToOutputStream(new ByteArrayInputStream(stringResponse.getBytes()),
-                response.getOutputStream(), BUFFERSIZE, true);
-
     }
 
     /**
      * Proxies a NVCL Plot Scalar request. Writes directly to the HttpServletResponse
      *
+     * Plot imagery is cached (if an image cache is available) and is sent with an ETag so clients can make
+     * conditional requests.
+     *
      * @param serviceUrl
      *            The URL of an NVCL Data service
      * @param logId
@@ -479,6 +647,7 @@ public class NVCLController extends BasePortalController {
             @RequestParam(required = false, value = "samplingInterval") Double samplingInterval,
             @RequestParam(required = false, value = "graphType") Integer graphTypeInt,
             @RequestParam(value = "legend", defaultValue = "0") Integer legend,
+            HttpServletRequest request,
             HttpServletResponse response) throws Exception {
 
         //Parse our graph type
@@ -501,6 +670,12 @@ public class NVCLController extends BasePortalController {
             }
         }
 
+        String cacheKey = String.format("plotscalar\n%1$s\n%2$s\n%3$s\n%4$s\n%5$s\n%6$s\n%7$s\n%8$s\n%9$s", serviceUrl, logId,
+                startDepth, endDepth, width, height, samplingInterval, graphType, legend);
+        if (writeCachedImageResponse(request, response, cacheKey)) {
+            return;
+        }
+
         //Make our request
         PlotScalarResponse serviceResponse = null;
         try {
@@ -514,7 +689,7 @@ public class NVCLController extends BasePortalController {
             return;
         }
 
-        writeStreamResponse(response, serviceResponse);
+        writeImageResponse(request, response, serviceResponse, cacheKey);
     }
 
     /**
@@ -552,36 +727,58 @@ public class NVCLController extends BasePortalController {
      *
      * @param serviceUrl
      *            The URL of an observation and measurements URL (obtained from a getDatasetCollection response)
-     * @param datasetId
-     *            The dataset to download
+     * @param logIds
+     *            The logs to download
+     * @param parallel
+     *            [Optional] If true, each log will be requested concurrently and the results merged by depth. Every log
+     *            is downloaded before any of the response is written.
      * @return
      */
     @RequestMapping("getNVCL2_0_CSVDownload.do")
     public void getNVCL2_0_CSVDownload(@RequestParam("serviceUrl") String serviceUrl,
             @RequestParam("logIds") String[] logIds,
+            @RequestParam(required = false, value = "parallel", defaultValue = "false") boolean parallel,
             HttpServletResponse response) throws Exception {
 
+        if (parallel && logIds.length > 1) {
+            //The download headers are only set once every log has been downloaded so that a failed download
+            //is reported as an error rather than saved as the CSV
+            ScalarCSVMerger merger = null;
+            try {
+                merger = dataService2_0.openNVCL2_0_CSVDownloadParallel(serviceUrl, logIds);
+            } catch (Exception ex) {
+                writeCSVDownloadError(serviceUrl, logIds, ex, response);
+                return;
+            }
+
+            response.setContentType("text/csv");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Content-Disposition", "attachment; filename=downloadScalar.csv");
+            try {
+                Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+                dataService2_0.writeMergedCSV(merger, writer);
+                writer.close();
+            } catch (IOException ex) {
+                //Don't let a partially merged CSV be saved as a successful download (if it's not too late)
+                log.warn(String.format("Error merging csv download for logIds '%1$s' from %2$s: %3$s",
+                        Arrays.toString(logIds), serviceUrl, ex));
+                if (!response.isCommitted()) {
+                    response.reset();
+                    response.sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+                    return;
+                }
+                throw ex;
+            }
+            return;
+        }
+
         //Make our request
         CSVDownloadResponse serviceResponse = null;
         try {
             serviceResponse = dataService2_0.getNVCL2_0_CSVDownload(serviceUrl, logIds);
         } catch (Exception ex) {
-            log.warn(String.format("Error requesting csw download for logId '%1$s' from %2$s: %3$s", logIds,
-                    serviceUrl, ex));
-            log.debug("Exception:", ex);
-            if (ex.getMessage().contains("404")) {
-                String htmlMessage = "<html><head><title>Error 404</title></head>"
-                        +
-                        "<body><h1>HTTP Status 404 - </h1><p>You could be seeing this error because the service does not support this operation</p>"
-                        +
-                        "</body></html>";
-
-                FileIOUtil.writeInputToOutputStream(new ByteArrayInputStream(htmlMessage.getBytes()),
-                        response.getOutputStream(), BUFFERSIZE, true);
-                return;
-            } else {
-                throw new ServletException(ex);
-            }
+            writeCSVDownloadError(serviceUrl, logIds, ex, response);
+            return;
         }
 
         response.setHeader("Content-Disposition", "attachment; filename=downloadScalar.csv");
@@ -589,21 +786,89 @@ public class NVCLController extends BasePortalController {
     }
 
     /**
-     * Proxies a CSV download request to a WFS from a NVCL 2.0 service. Parses the response into a series of 1m averaged bins.
+     * Reports a failed CSV download request. Services that don't support the operation get an explanatory 404 page,
+     * anything else is rethrown as a ServletException.
+     */
+    private void writeCSVDownloadError(String serviceUrl, String[] logIds, Exception ex, HttpServletResponse response)
+            throws IOException, ServletException {
+        log.warn(String.format("Error requesting csw download for logId '%1$s' from %2$s: %3$s", Arrays.toString(logIds),
+                serviceUrl, ex));
+        log.debug("Exception:", ex);
+        if (ex.getMessage() != null && ex.getMessage().contains("404")) {
+            String htmlMessage = "<html><head><title>Error 404</title></head>"
+                    +
+                    "<body><h1>HTTP Status 404 - </h1><p>You could be seeing this error because the service does not support this operation</p>"
+                    +
+                    "</body></html>";
+
+            FileIOUtil.writeInputToOutputStream(new ByteArrayInputStream(htmlMessage.getBytes()),
+                    response.getOutputStream(), BUFFERSIZE, true);
+        } else {
+            throw new ServletException(ex);
+        }
+    }
+
+    /**
+     * Proxies a CSV download request to a WFS from a NVCL 2.0 service. Parses the response into a series of averaged bins
+     * (1m by default). Bin sizes in NVCL2_0_DataService.PYRAMID_BIN_SIZES will be served from cache where possible.
      *
      * @param serviceUrl
      *            The URL of an observation and measurements URL (obtained from a getDatasetCollection response)
-     * @param datasetId
-     *            The dataset to download
+     * @param logIds
+     *            The logs to download
+     * @param binSize
+     *            [Optional] The size of each bin in metres
+     * @param parallel
+     *            [Optional] If true, each log that isn't cached will be requested concurrently
      * @return
      */
     @RequestMapping("getNVCL2_0_CSVDataBinned.do")
     public ModelAndView getNVCL2_0_CSVDataBinned(@RequestParam("serviceUrl") String serviceUrl,
-            @RequestParam("logIds") String[] logIds) throws Exception {
+            @RequestParam("logIds") String[] logIds,
+            @RequestParam(required = false, value = "binSize", defaultValue = "1.0") double binSize,
+            @RequestParam(required = false, value = "parallel", defaultValue = "false") boolean parallel) throws Exception {
+
+        //Make our request
+        try {
+            BinnedCSVResponse response = dataService2_0.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, binSize, parallel);
+
+            return generateJSONResponseMAV(true, Arrays.asList(response), "");
+
+        } catch (Exception ex) {
+            log.warn(String.format("Error requesting csv download for logId '%1$s' from %2$s: %3$s", logIds,serviceUrl, ex));
+            log.debug("Exception:", ex);
+            return generateJSONResponseMAV(false);
+        }
+    }
+
+    /**
+     * Proxies a CSV download request to a WFS from a NVCL 2.0 service. Each numeric scalar is downsampled to at most
+     * targetPoints points (using Largest-Triangle-Three-Buckets) so that deep holes can be plotted without sending every
+     * sample to the client. Non numeric scalars are parsed into a series of averaged bins (1m by default). If binSize
+     * is one of the bin pyramid resolutions (including the default) the logs are served from the bin pyramid cache.
+     *
+     * @param serviceUrl
+     *            The URL of an observation and measurements URL (obtained from a getDatasetCollection response)
+     * @param logIds
+     *            The logs to download
+     * @param targetPoints
+     *            [Optional] The maximum number of points to return for each numeric scalar
+     * @param binSize
+     *            [Optional] The size of each bin in metres (for non numeric scalars)
+     * @param parallel
+     *            [Optional] If true (and binSize isn't a bin pyramid resolution), each log will be requested concurrently
+     * @return
+     */
+    @RequestMapping("getNVCL2_0_CSVDataDownsampled.do")
+    public ModelAndView getNVCL2_0_CSVDataDownsampled(@RequestParam("serviceUrl") String serviceUrl,
+            @RequestParam("logIds") String[] logIds,
+            @RequestParam(required = false, value = "targetPoints", defaultValue = "500") int targetPoints,
+            @RequestParam(required = false, value = "binSize", defaultValue = "1.0") double binSize,
+            @RequestParam(required = false, value = "parallel", defaultValue = "false") boolean parallel) throws Exception {
 
         //Make our request
         try {
-            BinnedCSVResponse response = dataService2_0.getNVCL2_0_CSVBinned(serviceUrl, logIds);
+            BinnedCSVResponse response = dataService2_0.getNVCL2_0_CSVDownsampled(serviceUrl, logIds, targetPoints, binSize, parallel);
 
             return generateJSONResponseMAV(true, Arrays.asList(response), "");
 
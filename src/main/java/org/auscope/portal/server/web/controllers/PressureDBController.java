@@ -3,19 +3,20 @@ package org.auscope.portal.server.web.controllers;
 import java.io.IOException;
 
 import java.io.InputStream;
-import java.io.ByteArrayInputStream;
-import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.server.controllers.BasePortalController;
 import org.auscope.portal.pressuredb.AvailableOMResponse;
+import org.auscope.portal.server.sld.SLDResponseCache;
+import org.auscope.portal.server.sld.SLDTemplate;
 import org.auscope.portal.server.web.service.PressureDBService;
-import org.auscope.portal.core.util.FileIOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
@@ -45,6 +46,68 @@ public class PressureDBController extends BasePortalController {
     public HashMap<Integer, Integer> PRESSURE_DB_ELEVATION_MAP = new HashMap<Integer, Integer>();   
     public HashMap<String, String> PRESSURE_DB_POI_MAP;
 
+    /** A borehole style. Parameters: layerName, rules */
+    private static final SLDTemplate STYLE_TEMPLATE = new SLDTemplate("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<StyledLayerDescriptor version=\"1.0.0\" xmlns:gsmlp=\"http://xmlns.geosciml.org/geosciml-portrayal/2.0\" "
+            + "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" xmlns:sld=\"http://www.opengis.net/sld\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+            + "<NamedLayer>"
+            + "<Name>${layerName}</Name>"
+            + "<UserStyle>"
+            + "<Name>portal-style</Name>"
+            + "<Title>portal-style</Title>"
+            + "<Abstract>portal-style</Abstract>"
+            + "<IsDefault>1</IsDefault>"
+            + "<FeatureTypeStyle>"
+            + "${rules}"
+            + "</FeatureTypeStyle>"
+            + "</UserStyle>"
+            + "</NamedLayer>"
+            + "</StyledLayerDescriptor>");
+
+    /** The rule for uncolor coded boreholes. Parameters: geometryName, color */
+    private static final SLDTemplate BOREHOLE_RULE_TEMPLATE = new SLDTemplate("<Rule>"
+            + "<Name>Boreholes</Name>"
+            + "<PointSymbolizer>"
+            + "<Geometry><ogc:PropertyName>${geometryName}</ogc:PropertyName></Geometry>"
+            + "<Graphic>"
+            + "<Mark>"
+            + "<WellKnownName>square</WellKnownName>"
+            + "<Fill>"
+            + "<CssParameter name=\"fill\">${color}</CssParameter>"
+            + "</Fill>"
+            + "</Mark>"
+            + "<Size>8</Size>"
+            + "</Graphic>"
+            + "</PointSymbolizer>"
+            + "</Rule>");
+
+    /** A single color coding rule. Parameters: title, filter, color */
+    private static final SLDTemplate COLOR_CODED_RULE_TEMPLATE = new SLDTemplate("<Rule>"
+            + "<Name>Boreholes</Name>"
+            + "<Title>${title}</Title>"
+            + "<Abstract>Light purple square boxes</Abstract>"
+            + "<ogc:Filter>${filter}</ogc:Filter>"
+            + "<PointSymbolizer>"
+            + "<Graphic>"
+            + "<Mark>"
+            + "<WellKnownName>square</WellKnownName>"
+            + "<Fill>"
+            + "<CssParameter name=\"fill\">${color}</CssParameter>"
+            + "</Fill>"
+            + "</Mark>"
+            + "<Size>8</Size>"
+            + "</Graphic>"
+            + "</PointSymbolizer>"
+            + "</Rule>");
+
+    /** A binary comparison filter. Parameters: operator, propertyName, value */
+    private static final SLDTemplate COMPARISON_TEMPLATE = new SLDTemplate("<ogc:${operator} matchCase=\"false\" >"
+            + "<ogc:PropertyName>${propertyName}</ogc:PropertyName>"
+            + "<ogc:Literal>${value}</ogc:Literal>"
+            + "</ogc:${operator}>");
+
+    private SLDResponseCache styleCache = new SLDResponseCache();
+
     @Autowired
     public PressureDBController(PressureDBService pressureDBService) {
         this.pressureDBService = pressureDBService;
@@ -191,6 +254,7 @@ public class PressureDBController extends BasePortalController {
     }
     @RequestMapping("/doPressureDBFilterStyle.do")
     public void doPressureDBFilterStyle(
+            HttpServletRequest request,
             HttpServletResponse response,
             @RequestParam(required = false, value = "serviceUrl", defaultValue = "") String serviceUrl,
             @RequestParam(required = false, value = "boreholeName", defaultValue = "") String boreholeName,
@@ -201,231 +265,94 @@ public class PressureDBController extends BasePortalController {
             @RequestParam(required = false, value = "bbox") String bboxJson,
             @RequestParam(required = false, value = "serviceFilter", defaultValue = "") String serviceFilter,
             @RequestParam(required = false, value = "color", defaultValue = "") String color,
-            @RequestParam(required = false, value = "ccProperty", defaultValue = "") String ccProperty ,     
-            @RequestParam(required = false, value = "ccLevels", defaultValue = "9") int ccLevels )               
+            @RequestParam(required = false, value = "ccProperty", defaultValue = "") final String ccProperty ,
+            @RequestParam(required = false, value = "ccLevels", defaultValue = "9") final int ccLevels )
             throws Exception {
 
-        String style = "";
-        int propertyMode = 0;
-        switch (ccProperty) {
-        case "Length":
-            propertyMode = 1;
-            style = getColorCodedStyle("gsmlp:BoreholeView",
-                    "gsmlp:boreholeLength_m", ccLevels, propertyMode);
-            break;
-        case "Elevation":
-            propertyMode = 2;
-            style = getColorCodedStyle("gsmlp:BoreholeView",
-                    "gsmlp:elevation_m", ccLevels, propertyMode);
-            break;
-        default:
-            propertyMode = 0;
-            style = getStyle("gsmlp:BoreholeView", "gsmlp:shape", "#2242c7");
-            break;
-        }
-        
-        //String style = getColorCodedStyle("gsmlp:BoreholeView" , "gsmlp:elevation_m",ccLevels);        
-        
-        response.setContentType("text/xml");
-        ByteArrayInputStream styleStream = new ByteArrayInputStream(
-                style.getBytes());
-        OutputStream outputStream = response.getOutputStream();
-
-        FileIOUtil.writeInputToOutputStream(styleStream, outputStream, 1024,false);
-
-        styleStream.close();
-        outputStream.close();
-    } 
+        //The style only depends on the color coding (the filter parameters are applied by the WMS request)
+        String cacheKey = SLDResponseCache.generateKey(ccProperty, ccLevels);
+        styleCache.writeStyle(request, response, cacheKey, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                switch (ccProperty) {
+                case "Length":
+                    return getColorCodedStyle("gsmlp:BoreholeView", "gsmlp:boreholeLength_m", ccLevels, 1);
+                case "Elevation":
+                    return getColorCodedStyle("gsmlp:BoreholeView", "gsmlp:elevation_m", ccLevels, 2);
+                default:
+                    return getStyle("gsmlp:BoreholeView", "gsmlp:shape", "#2242c7");
+                }
+            }
+        });
+    }
 
     String getStyle(String layerName, String geometryName, String color) {
-    	
-    String style = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-            + "<StyledLayerDescriptor version=\"1.0.0\" xmlns:gsmlp=\"http://xmlns.geosciml.org/geosciml-portrayal/2.0\" "
-            + "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" xmlns:sld=\"http://www.opengis.net/sld\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
-            + "<NamedLayer>" + "<Name>"
-            + layerName
-            + "</Name>"
-            + "<UserStyle>"
-            + "<Name>portal-style</Name>"
-            + "<Title>portal-style</Title>"
-            + "<Abstract>portal-style</Abstract>"
-            + "<IsDefault>1</IsDefault>"
-            + "<FeatureTypeStyle>"
-            + "<Rule>"
-            + "<Name>Boreholes</Name>"
-            + "<PointSymbolizer>"
-            + "<Geometry><ogc:PropertyName>" + geometryName + "</ogc:PropertyName></Geometry>"
-            + "<Graphic>"
-            + "<Mark>"
-            + "<WellKnownName>square</WellKnownName>"
-            + "<Fill>"
-            + "<CssParameter name=\"fill\">"
-            + color
-            + "</CssParameter>"
-            + "</Fill>"
-            + "</Mark>"
-            + "<Size>8</Size>"
-            + "</Graphic>"
-            + "</PointSymbolizer>"
-            + "</Rule>"
-            + "</FeatureTypeStyle>"
-            + "</UserStyle>" + "</NamedLayer>" + "</StyledLayerDescriptor>";
+        return STYLE_TEMPLATE.render(
+                "layerName", layerName,
+                "rules", BOREHOLE_RULE_TEMPLATE.render("geometryName", geometryName, "color", color));
+    }
 
-    return style;
-	}    
     /**
     * Returns the style for color coding.
     * 
-    * @param stylefilterRules
-    *            - filter rules for color coding
-    * @param ccc
-    *            - ColorCodingConfig object
-    * @param name
+    * @param layerName
     *            - the name of the layer.
+    * @param propertyName
+    *            - the property being color coded
+    * @param ccLevels
+    *            - the number of color coding levels
+    * @param propertyMode
+    *            - 1 for length thresholds, otherwise elevation thresholds
     * @return
     */
-   public String getColorCodedStyle(String layerName,String propertyName,int ccLevels,int propertyMode) {
-	   String styleRules = getStyleRules(propertyName,ccLevels, propertyMode);
-       String style = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-    		   + "<StyledLayerDescriptor version=\"1.0.0\" xmlns:gsmlp=\"http://xmlns.geosciml.org/geosciml-portrayal/2.0\" "
-               + "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" xmlns:sld=\"http://www.opengis.net/sld\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
-               + "<NamedLayer>" 
-               + "<Name>" 
-               + layerName 
-               + "</Name>"
-               + "<UserStyle>"
-               + "<Name>portal-style</Name>"
-               + "<Title>portal-style</Title>"
-               + "<Abstract>portal-style</Abstract>"
-               + "<IsDefault>1</IsDefault>"
-               + "<FeatureTypeStyle>"   	
-               + styleRules
-               + "</FeatureTypeStyle>" 
-               + "</UserStyle>"
-               + "</NamedLayer>" 
-               + "</StyledLayerDescriptor>";
-       return style;
-   }
+    public String getColorCodedStyle(String layerName, String propertyName, int ccLevels, int propertyMode) {
+        return STYLE_TEMPLATE.render(
+                "layerName", layerName,
+                "rules", getStyleRules(propertyName, ccLevels, propertyMode));
+    }
+
+    /**
+     * Gets the color coding threshold at index i for propertyMode
+     */
+    private int getThreshold(int propertyMode, int i) {
+        return (propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP.get(i) : PRESSURE_DB_ELEVATION_MAP.get(i);
+    }
 
     public String getStyleRules(String propertyName, int numRules,
             int propertyMode) {
-        String styleRules = "";
-        String header = "";
-        String middle = "";
-        String tail = "";
         if (numRules > 9)
             numRules = 9;
+
+        StringBuilder styleRules = new StringBuilder();
         int i = 0;
-        header = "<Rule>" + "<Name>Boreholes</Name>"
-                + "<Title>Boreholes less than "
-                + Integer.toString((propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP
-                        .get(i) : PRESSURE_DB_ELEVATION_MAP.get(i))
-                + "</Title>"
-                + "<Abstract>Light purple square boxes</Abstract>"
-                + "<ogc:Filter>"
-                + "	<ogc:PropertyIsLessThan matchCase=\"false\" >"
-                + "<ogc:PropertyName>"
-                + propertyName
-                + "</ogc:PropertyName>"
-                + "<ogc:Literal>"
-                + Integer.toString((propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP
-                        .get(i) : PRESSURE_DB_ELEVATION_MAP.get(i))
-                + "</ogc:Literal>"
-                + "</ogc:PropertyIsLessThan>"
-                + "</ogc:Filter>"
-                + "<PointSymbolizer>"
-                + "<Graphic>"
-                + "<Mark>"
-                + "<WellKnownName>square</WellKnownName>"
-                + "<Fill>"
-                + "<CssParameter name=\"fill\">"
-                + PRESSURE_DB_COLOUR_MAP.get(i)
-                + "</CssParameter>"
-                + "</Fill>"
-                + "</Mark>"
-                + "<Size>8</Size>"
-                + "</Graphic>"
-                + "</PointSymbolizer>" + "</Rule>";
+        int threshold = getThreshold(propertyMode, i);
+        COLOR_CODED_RULE_TEMPLATE.renderTo(styleRules,
+                "title", "Boreholes less than " + threshold,
+                "filter", "\t" + COMPARISON_TEMPLATE.render("operator", "PropertyIsLessThan",
+                        "propertyName", propertyName, "value", threshold),
+                "color", PRESSURE_DB_COLOUR_MAP.get(i));
 
         for (i = 1; i < (numRules - 1); i++) {
-            int low = (propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP.get(i - 1)
-                    : PRESSURE_DB_ELEVATION_MAP.get(i - 1);
-            int high = (propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP.get(i)
-                    : PRESSURE_DB_ELEVATION_MAP.get(i);
-            middle += "<Rule>" + "<Name>Boreholes</Name>"
-                    + "<Title>Boreholes from "
-                    + Integer.toString(low)
-                    + "m to "
-                    + Integer.toString(high)
-                    + "m"
-                    + "</Title>"
-                    + "<Abstract>Light purple square boxes</Abstract>"
-                    + "<ogc:Filter>"
-                    + "<ogc:And>"
-                    + "<ogc:PropertyIsGreaterThanOrEqualTo matchCase=\"false\" >"
-                    + "<ogc:PropertyName>"
-                    + propertyName
-                    + "</ogc:PropertyName>"
-                    + "<ogc:Literal>"
-                    + Integer.toString(low)
-                    + "</ogc:Literal>"
-                    + "</ogc:PropertyIsGreaterThanOrEqualTo>"
-                    + "<ogc:PropertyIsLessThan matchCase=\"false\" >"
-                    + "<ogc:PropertyName>"
-                    + propertyName
-                    + "</ogc:PropertyName>"
-                    + "<ogc:Literal>"
-                    + Integer.toString(high)
-                    + "</ogc:Literal>"
-                    + "</ogc:PropertyIsLessThan>"
-                    + "</ogc:And>"
-                    + "</ogc:Filter>"
-                    + "<PointSymbolizer>"
-                    + "<Graphic>"
-                    + "<Mark>"
-                    + "<WellKnownName>square</WellKnownName>"
-                    + "<Fill>"
-                    + "<CssParameter name=\"fill\">"
-                    + PRESSURE_DB_COLOUR_MAP.get(i)
-                    + "</CssParameter>"
-                    + "</Fill>"
-                    + "</Mark>"
-                    + "<Size>8</Size>"
-                    + "</Graphic>"
-                    + "</PointSymbolizer>" + "</Rule>";
+            int low = getThreshold(propertyMode, i - 1);
+            int high = getThreshold(propertyMode, i);
+            COLOR_CODED_RULE_TEMPLATE.renderTo(styleRules,
+                    "title", "Boreholes from " + low + "m to " + high + "m",
+                    "filter", "<ogc:And>"
+                            + COMPARISON_TEMPLATE.render("operator", "PropertyIsGreaterThanOrEqualTo",
+                                    "propertyName", propertyName, "value", low)
+                            + COMPARISON_TEMPLATE.render("operator", "PropertyIsLessThan",
+                                    "propertyName", propertyName, "value", high)
+                            + "</ogc:And>",
+                    "color", PRESSURE_DB_COLOUR_MAP.get(i));
         }
-        tail = "<Rule>" + "<Name>Boreholes</Name>"
-                + "<Title>Boreholes greater than "
-                + Integer.toString((propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP
-                        .get(i - 1) : PRESSURE_DB_ELEVATION_MAP.get(i - 1))
-                + "</Title>"
-                + "<Abstract>Light purple square boxes</Abstract>"
-                + "<ogc:Filter>"
-                + "	<ogc:PropertyIsGreaterThanOrEqualTo matchCase=\"false\" >"
-                + "<ogc:PropertyName>"
-                + propertyName
-                + "</ogc:PropertyName>"
-                + "<ogc:Literal>"
-                + Integer.toString((propertyMode == 1) ? PRESSURE_DB_LENGTH_MAP
-                        .get(i - 1) : PRESSURE_DB_ELEVATION_MAP.get(i - 1))
-                + "</ogc:Literal>"
-                + "</ogc:PropertyIsGreaterThanOrEqualTo>"
-                + "</ogc:Filter>"
-                + "<PointSymbolizer>"
-                + "<Graphic>"
-                + "<Mark>"
-                + "<WellKnownName>square</WellKnownName>"
-                + "<Fill>"
-                + "<CssParameter name=\"fill\">"
-                + PRESSURE_DB_COLOUR_MAP.get(i)
-                + "</CssParameter>"
-                + "</Fill>"
-                + "</Mark>"
-                + "<Size>8</Size>"
-                + "</Graphic>"
-                + "</PointSymbolizer>" + "</Rule>";
-        styleRules = header + middle + tail;
-        return styleRules;
+
+        threshold = getThreshold(propertyMode, i - 1);
+        COLOR_CODED_RULE_TEMPLATE.renderTo(styleRules,
+                "title", "Boreholes greater than " + threshold,
+                "filter", "\t" + COMPARISON_TEMPLATE.render("operator", "PropertyIsGreaterThanOrEqualTo",
+                        "propertyName", propertyName, "value", threshold),
+                "color", PRESSURE_DB_COLOUR_MAP.get(i));
+        return styleRules.toString();
     }
     
 }
@@ -1,16 +1,22 @@
 package org.auscope.portal.server.web.controllers;
 
-import java.io.ByteArrayInputStream;
-import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.auscope.portal.core.server.controllers.BasePortalController;
 import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.csw.CSWRecordsHostFilter;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
-import org.auscope.portal.core.util.FileIOUtil;
+import org.auscope.portal.gsml.GeoJSONTranscoder;
+import org.auscope.portal.gsml.GridClusterer;
+import org.auscope.portal.server.sld.SLDResponseCache;
+import org.auscope.portal.server.web.service.BoreholeService;
+import org.auscope.portal.server.web.service.HyloggerBoreholeIndex;
+import org.auscope.portal.server.web.service.HyloggerBoreholeLookup;
 import org.auscope.portal.server.web.service.SF0BoreholeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -27,10 +33,17 @@ import org.springframework.web.servlet.ModelAndView;
 @Controller
 public class SF0BoreholeController extends BasePortalController {
 
+    /** The maximum number of generated styles that will be cached */
+    public static final long STYLE_CACHE_MAX_ENTRIES = 500;
+    /** How long (in milliseconds) a generated style will be cached for */
+    public static final long STYLE_CACHE_TTL = 30 * 60 * 1000L;
+
     private SF0BoreholeService boreholeService;
 
     private CSWCacheService cswService;
     private GsmlpNameSpaceTable gsmlpNameSpaceTable;
+    private HyloggerBoreholeIndex hyloggerIndex;
+    private SLDResponseCache styleCache;
 
     @Autowired
     public SF0BoreholeController(SF0BoreholeService sf0BoreholeService, CSWCacheService cswService) {
@@ -38,6 +51,29 @@ public class SF0BoreholeController extends BasePortalController {
         this.cswService = cswService;
         GsmlpNameSpaceTable _gsmlpNameSpaceTable = new GsmlpNameSpaceTable();
         this.gsmlpNameSpaceTable = _gsmlpNameSpaceTable;
+        this.styleCache = new SLDResponseCache(STYLE_CACHE_MAX_ENTRIES, STYLE_CACHE_TTL);
+    }
+
+    /**
+     * Sets the index used for looking up which boreholes have Hylogger data. If not set, the NVCL services will be
+     * queried whenever a style needs to be generated.
+     *
+     * @param hyloggerIndex
+     */
+    @Autowired(required = false)
+    public void setHyloggerIndex(HyloggerBoreholeIndex hyloggerIndex) {
+        this.hyloggerIndex = hyloggerIndex;
+    }
+
+    /**
+     * Sets the table used for looking up the gsmlp namespace of each service. If not set, a table that only fetches
+     * namespaces on demand will be used.
+     *
+     * @param gsmlpNameSpaceTable
+     */
+    @Autowired(required = false)
+    public void setGsmlpNameSpaceTable(GsmlpNameSpaceTable gsmlpNameSpaceTable) {
+        this.gsmlpNameSpaceTable = gsmlpNameSpaceTable;
     }
 
     /**
@@ -59,9 +95,20 @@ public class SF0BoreholeController extends BasePortalController {
 
         try {
             FilterBoundingBox box = FilterBoundingBox.attemptParseFromJSON(bbox);
+            boolean geoJSON = GeoJSONTranscoder.isGeoJSON(outputFormat);
+            boolean cluster = GridClusterer.isCluster(outputFormat);
+            //Clusters count every feature in the view (the client's limit only applies to features it draws)
+            int requestMaxFeatures = cluster ? GridClusterer.getMaxFeatures(box, maxFeatures) : maxFeatures;
             WFSResponse response = this.boreholeService.getAllBoreholes(serviceUrl, boreholeName, custodian,
-                    dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, box, outputFormat);
-            return generateNamedJSONResponseMAV(true, "gml", response.getData(), response.getMethod());
+                    dateOfDrillingStart, dateOfDrillingEnd, requestMaxFeatures, box, geoJSON || cluster ? null : outputFormat);
+            if (geoJSON) {
+                return new ModelAndView(new StreamingJSONView("geojson", new GeoJSONTranscoder(response.getData()),
+                        response.getMethod()));
+            } else if (cluster) {
+                return new ModelAndView(new StreamingJSONView("geojson", GridClusterer.forView(
+                        new GeoJSONTranscoder(response.getData()), box), response.getMethod()));
+            }
+            return StreamingJSONView.generateNamedJSONResponseMAV("gml", response.getData(), response.getMethod());
         } catch (Exception e) {
             return this.generateExceptionResponse(e, serviceUrl);
         }
@@ -79,67 +126,98 @@ public class SF0BoreholeController extends BasePortalController {
      */
     @RequestMapping("/doBoreholeViewFilterStyle.do")
     public void doFilterStyle(
+            HttpServletRequest request,
             HttpServletResponse response,
-            @RequestParam(required = false, value = "serviceUrl", defaultValue = "") String serviceUrl,
-            @RequestParam(required = false, value = "boreholeName", defaultValue = "") String boreholeName,
-            @RequestParam(required = false, value = "custodian", defaultValue = "") String custodian,
-            @RequestParam(required = false, value = "dateOfDrillingStart", defaultValue = "") String dateOfDrillingStart,
-            @RequestParam(required = false, value = "dateOfDrillingEnd", defaultValue = "") String dateOfDrillingEnd,
-            @RequestParam(required = false, value = "maxFeatures", defaultValue = "0") int maxFeatures,
+            @RequestParam(required = false, value = "serviceUrl", defaultValue = "") final String serviceUrl,
+            @RequestParam(required = false, value = "boreholeName", defaultValue = "") final String boreholeName,
+            @RequestParam(required = false, value = "custodian", defaultValue = "") final String custodian,
+            @RequestParam(required = false, value = "dateOfDrillingStart", defaultValue = "") final String dateOfDrillingStart,
+            @RequestParam(required = false, value = "dateOfDrillingEnd", defaultValue = "") final String dateOfDrillingEnd,
+            @RequestParam(required = false, value = "maxFeatures", defaultValue = "0") final int maxFeatures,
             @RequestParam(required = false, value = "bbox") String bboxJson,
             @RequestParam(required = false, value = "serviceFilter", defaultValue = "") String serviceFilter,
-            @RequestParam(required = false, value = "color", defaultValue = "") String color,
-            @RequestParam(required = false, value = "showNoneHylogged", defaultValue = "false") Boolean showNoneHylogged )            
+            @RequestParam(required = false, value = "color", defaultValue = "") final String color,
+            @RequestParam(required = false, value = "showNoneHylogged", defaultValue = "false") final Boolean showNoneHylogged )            
              
             throws Exception {
 
+        //The WMS will request this style for every tile it renders so generated styles are cached per endpoint.
+        //The namespace is part of the key because a service whose namespace hasn't been fetched yet is styled
+        //with the default namespace until it has
+        final String gsmlpNameSpace = gsmlpNameSpaceTable.getGsmlpNameSpace(serviceUrl);
+        String cacheKey = SLDResponseCache.generateKey(serviceUrl, gsmlpNameSpace, boreholeName, custodian,
+                dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, color, showNoneHylogged);
+        styleCache.writeStyle(request, response, cacheKey, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return generateStyle(serviceUrl, gsmlpNameSpace, boreholeName, custodian, dateOfDrillingStart,
+                        dateOfDrillingEnd, maxFeatures, color, showNoneHylogged);
+            }
+        });
+    }
+
+    /**
+     * Generates the SLD for doFilterStyle.
+     *
+     * Services using the gsmlp 4.0 namespace flag boreholes with Hylogger data directly. For all other services the
+     * Hylogger borehole ID's are looked up and compacted into ID ranges. AUS-2445 - GeoServer runs out of memory when
+     * filtering WMS requests by the full ID list of services with a lot of scanned boreholes (e.g. SA).
+     *
+     * If the Hylogger borehole ID's can't be looked up from every matching NVCL service, the style (without full Hylogger
+     * highlighting) is thrown as an UncacheableStyleException so that the lookup is retried by the next request.
+     */
+    private String generateStyle(String serviceUrl, String gsmlpNameSpace, String boreholeName, String custodian,
+            String dateOfDrillingStart, String dateOfDrillingEnd, int maxFeatures, String color, Boolean showNoneHylogged)
+            throws Exception {
         FilterBoundingBox bbox = null;
         //				FilterBoundingBox
         //				.attemptParseFromJSON(bboxJson);
 
-        List<String> hyloggerBoreholeIDs = null;
-        // AUS-2445
-        // RA: we can't show WMS for NVCL for now because the way GeoServer filter WMS isn't very efficient and
-        // it will cause services with a lot of scanned boreholes (e.g. SA) to run out of memory!
-        //		try {
-        //			// don't get hylogger IDs if this is only to populate the legend
-        //			if (!serviceUrl.isEmpty()) {
-        //				hyloggerBoreholeIDs = this.boreholeService
-        //						.discoverHyloggerBoreholeIDs(this.cswService,
-        //								new CSWRecordsHostFilter(serviceUrl));
-        //			}
-        //		} catch (Exception e) {
-        //			log.warn(String
-        //					.format("Error requesting list of hylogger borehole ID's from %1$s: %2$s",
-        //							serviceUrl, e));
-        //			log.debug("Exception:", e);
-        //		}
-
         String filter = this.boreholeService.getFilter(boreholeName,
                 custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, null, null);
 
-        Boolean justNVCL = showNoneHylogged;
-        
-        String hyloggerFilter = this.boreholeService.getFilter(boreholeName,
-                custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox,
-                hyloggerBoreholeIDs, justNVCL);
-        String gsmlpNameSpace = gsmlpNameSpaceTable.getGsmlpNameSpace(serviceUrl);
-        String style = this.boreholeService.getStyle(filter, (color.isEmpty() ? "#2242c7" : color), hyloggerFilter,
-                "#FF0000",gsmlpNameSpace);
-
-        response.setContentType("text/xml");
-
-        ByteArrayInputStream styleStream = new ByteArrayInputStream(
-                style.getBytes());
-        OutputStream outputStream = response.getOutputStream();
-
-        FileIOUtil.writeInputToOutputStream(styleStream, outputStream, 1024,
-                false);
+        String hyloggerFilter = "";
+        boolean lookupFailed = false;
+        if (BoreholeService.GSMLP_4_0_NAMESPACE.equals(gsmlpNameSpace)) {
+            Boolean justNVCL = showNoneHylogged;
+            hyloggerFilter = this.boreholeService.getFilter(boreholeName,
+                    custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox,
+                    null, justNVCL);
+        } else if (!serviceUrl.isEmpty()) {
+            // don't get hylogger IDs if this is only to populate the legend
+            List<String> hyloggerBoreholeIDs = null;
+            try {
+                HyloggerBoreholeLookup lookup = null;
+                if (this.hyloggerIndex != null) {
+                    lookup = this.hyloggerIndex.lookupHyloggerBoreholeIDs(new CSWRecordsHostFilter(serviceUrl));
+                } else {
+                    lookup = this.boreholeService.lookupHyloggerBoreholeIDs(this.cswService,
+                            new CSWRecordsHostFilter(serviceUrl));
+                }
+                hyloggerBoreholeIDs = lookup.getIds();
+                lookupFailed = !lookup.isComplete();
+            } catch (Exception e) {
+                log.warn(String.format("Error requesting list of hylogger borehole ID's from %1$s: %2$s",
+                        serviceUrl, e));
+                log.debug("Exception:", e);
+                lookupFailed = true;
+            }
+
+            if (hyloggerBoreholeIDs != null && !hyloggerBoreholeIDs.isEmpty()) {
+                hyloggerFilter = this.boreholeService.getCompactIDFilter(boreholeName,
+                        custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox,
+                        hyloggerBoreholeIDs, null);
+            }
+        }
 
-        styleStream.close();
-        outputStream.close();
+        String style = this.boreholeService.getStyle(filter, (color.isEmpty() ? "#2242c7" : color), hyloggerFilter,
+                "#FF0000", gsmlpNameSpace);
+        if (lookupFailed) {
+            throw new SLDResponseCache.UncacheableStyleException(style);
+        }
+        return style;
     }
-    
+
     /**
      * This controller method is for forcing the internal cache of GsmlpNameSpaceTable to invalidate and update.
      * 
@@ -151,6 +229,7 @@ public class SF0BoreholeController extends BasePortalController {
         try {
             if (gsmlpNameSpaceTable != null )
                 gsmlpNameSpaceTable.clearCache();                
+            styleCache.clear();
             return generateJSONResponseMAV(true);
         } catch (Exception e) {
             log.warn(String.format("Error updating GsmlpNS cache: %1$s", e));
@@ -0,0 +1,242 @@
+package org.auscope.portal.server.web.controllers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.auscope.portal.gsml.GeoJSONSource;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+
+/**
+ * A view for writing a (potentially very large) text response inside the standard portal JSON envelope, ie
+ * {"success":true,"data":{dataName:"..."},"msg":"","debugInfo":{...}}
+ *
+ * Unlike the regular JSON view (which builds a JSON object and then serialises it into another String) the data is
+ * JSON escaped on the fly straight to the servlet output. If the data is an InputStream (eg an upstream WFS response) it
+ * will never be held in memory at all - provided the endpoint is listed in the etagFilter's excludedPaths (web.xml),
+ * otherwise the filter buffers the whole response to hash it.
+ *
+ * The data can also be a GML FeatureCollection to be transcoded (or clustered) into a GeoJSON object (rather than a
+ * string).
+ */
+public class StreamingJSONView implements View {
+
+    /** The content type of the rendered response */
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private String dataName;
+    private String stringData;
+    private InputStream streamData;
+    private GeoJSONSource geoJSONData;
+    private HttpRequestBase debugMethod;
+
+    /**
+     * Creates a view that will write the specified String as the data
+     *
+     * @param dataName
+     *            The name of the data field
+     * @param data
+     *            The data to write
+     * @param debugMethod
+     *            [Optional] The request used to get data (used for generating debug info)
+     */
+    public StreamingJSONView(String dataName, String data, HttpRequestBase debugMethod) {
+        this.dataName = dataName;
+        this.stringData = data;
+        this.debugMethod = debugMethod;
+    }
+
+    /**
+     * Creates a view that will write the (UTF-8) content of the specified stream as the data. The stream will be closed
+     * (and debugMethod released) once rendering finishes.
+     *
+     * @param dataName
+     *            The name of the data field
+     * @param data
+     *            The data to write
+     * @param debugMethod
+     *            [Optional] The request used to get data (used for generating debug info)
+     */
+    public StreamingJSONView(String dataName, InputStream data, HttpRequestBase debugMethod) {
+        this.dataName = dataName;
+        this.streamData = data;
+        this.debugMethod = debugMethod;
+    }
+
+    /**
+     * Creates a view that will write GeoJSON (eg the transcoding of a GML FeatureCollection) as the data. The source
+     * will be closed (and debugMethod released) once rendering finishes.
+     *
+     * @param dataName
+     *            The name of the data field
+     * @param data
+     *            The GeoJSON to write
+     * @param debugMethod
+     *            [Optional] The request used to get data (used for generating debug info)
+     */
+    public StreamingJSONView(String dataName, GeoJSONSource data, HttpRequestBase debugMethod) {
+        this.dataName = dataName;
+        this.geoJSONData = data;
+        this.debugMethod = debugMethod;
+    }
+
+    /**
+     * Creates a ModelAndView that will render data using a StreamingJSONView. The model will match the model of
+     * BasePortalController.generateNamedJSONResponseMAV (but will not be used for rendering).
+     *
+     * @param dataName
+     *            The name of the data field
+     * @param data
+     *            The data to write
+     * @param debugMethod
+     *            [Optional] The request used to get data (used for generating debug info)
+     * @return
+     */
+    public static ModelAndView generateNamedJSONResponseMAV(String dataName, String data, HttpRequestBase debugMethod) {
+        ModelMap dataMap = new ModelMap();
+        dataMap.put(dataName, data);
+
+        ModelAndView mav = new ModelAndView(new StreamingJSONView(dataName, data, debugMethod));
+        mav.addObject("success", true);
+        mav.addObject("data", dataMap);
+        mav.addObject("msg", "");
+        return mav;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
+        response.setContentType(CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+
+        Reader data = stringData != null ? new StringReader(stringData)
+                : streamData != null ? new InputStreamReader(streamData, "UTF-8") : null;
+        try {
+            Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+            writer.write("{\"success\":true,\"data\":{");
+            writeString(writer, dataName);
+            writer.write(':');
+            if (geoJSONData != null) {
+                geoJSONData.transcode(writer);
+            } else if (data == null) {
+                writer.write("null");
+            } else {
+                writeString(writer, data);
+            }
+            writer.write("},\"msg\":\"\"");
+            writeDebugInfo(writer);
+            writer.write('}');
+            writer.flush();
+        } finally {
+            IOUtils.closeQuietly(data);
+            IOUtils.closeQuietly(geoJSONData);
+            if ((streamData != null || geoJSONData != null) && debugMethod != null) {
+                debugMethod.releaseConnection();
+            }
+        }
+    }
+
+    private void writeDebugInfo(Writer writer) throws IOException {
+        if (debugMethod == null) {
+            return;
+        }
+
+        String info = "";
+        if (debugMethod instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntity entity = ((HttpEntityEnclosingRequestBase) debugMethod).getEntity();
+            if (entity != null && entity.isRepeatable()) {
+                info = EntityUtils.toString(entity);
+            }
+        }
+
+        writer.write(",\"debugInfo\":{\"url\":");
+        writeString(writer, debugMethod.getURI().toString());
+        writer.write(",\"info\":");
+        writeString(writer, info);
+        writer.write('}');
+    }
+
+    private static void writeString(Writer writer, String s) throws IOException {
+        writeString(writer, new StringReader(s));
+    }
+
+    /**
+     * Writes the content of data as a quoted, escaped JSON string
+     */
+    private static void writeString(Writer writer, Reader data) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        char previous = 0;
+        writer.write('"');
+        for (int read = data.read(buffer); read >= 0; read = data.read(buffer)) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                String escaped = null;
+                switch (c) {
+                case '"':
+                    escaped = "\\\"";
+                    break;
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+                case '/':
+                    //Don't let a "</script>" in the data end an enclosing script block
+                    escaped = previous == '<' ? "\\/" : null;
+                    break;
+                case '\b':
+                    escaped = "\\b";
+                    break;
+                case '\f':
+                    escaped = "\\f";
+                    break;
+                case '\n':
+                    escaped = "\\n";
+                    break;
+                case '\r':
+                    escaped = "\\r";
+                    break;
+                case '\t':
+                    escaped = "\\t";
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        escaped = "\\u" + HEX_DIGITS.charAt((c >> 12) & 0xF) + HEX_DIGITS.charAt((c >> 8) & 0xF)
+                                + HEX_DIGITS.charAt((c >> 4) & 0xF) + HEX_DIGITS.charAt(c & 0xF);
+                    }
+                }
+                previous = c;
+
+                if (escaped != null) {
+                    writer.write(buffer, start, i - start);
+                    writer.write(escaped);
+                    start = i + 1;
+                }
+            }
+            writer.write(buffer, start, read - start);
+        }
+        writer.write('"');
+    }
+}
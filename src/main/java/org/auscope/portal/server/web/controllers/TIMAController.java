@@ -2,9 +2,10 @@ package org.auscope.portal.server.web.controllers;
 
 import org.auscope.portal.core.server.controllers.BasePortalController;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
-import org.auscope.portal.core.services.responses.wfs.WFSResponse;
+import org.auscope.portal.gsml.GeoJSONTranscoder;
 import org.auscope.portal.gsml.TIMAGeosampleFilter;
 import org.auscope.portal.server.web.service.WFSService;
+import org.auscope.portal.server.web.service.WFSStreamResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -47,19 +48,26 @@ public class TIMAController extends BasePortalController {
         //Build our filter details
         String filterString = generateGeoSampleFilter(sampleName, igsn, bboxJson);
 
-        //Make our request and get it transformed
-        WFSResponse response = null;
+        //Make our request (the response will be streamed straight to the client)
+        WFSStreamResponse response = null;
         try {
-            response = wfsService.getWfsResponse(serviceUrl, "tima:geosample_and_mineralogy", filterString,
+            response = wfsService.getWfsResponseAsStream(serviceUrl, "tima:geosample_and_mineralogy", filterString,
                     maxFeatures, null);
+            if (GeoJSONTranscoder.isGeoJSON(outputFormat)) {
+                return new ModelAndView(new StreamingJSONView("geojson", new GeoJSONTranscoder(response.getData()),
+                        response.getMethod()));
+            }
         } catch (Exception ex) {
+            if (response != null) {
+                response.getMethod().releaseConnection();
+            }
             log.warn(String.format("Unable to request/transform WFS response for '%1$s' from '%2$s': %3$s", sampleName,
                     serviceUrl, ex));
             log.debug("Exception: ", ex);
             return generateExceptionResponse(ex, serviceUrl);
         }
 
-        return generateNamedJSONResponseMAV(true, "gml", response.getData(), response.getMethod());
+        return new ModelAndView(new StreamingJSONView("gml", response.getData(), response.getMethod()));
     }
 
     /**
@@ -1,10 +1,21 @@
 package org.auscope.portal.server.web.service;
 
+import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -18,7 +29,6 @@ import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.methodmakers.filter.IFilter;
-import org.auscope.portal.core.services.namespaces.WFSNamespaceContext;
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource.OnlineResourceType;
 import org.auscope.portal.core.services.responses.csw.CSWRecord;
@@ -27,7 +37,11 @@ import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.util.DOMUtil;
 import org.auscope.portal.gsml.BoreholeFilter;
 import org.auscope.portal.nvcl.NVCLNamespaceContext;
+import org.auscope.portal.server.cache.CoalescingCache;
+import org.auscope.portal.server.cache.ExpiringCache;
+import org.auscope.portal.server.sld.SLDTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -45,14 +59,323 @@ public class BoreholeService extends BaseWFSService {
 
     // -------------------------------------------------------------- Constants
 
+    /** The default maximum number of gml:id values that will be included in a single WFS request */
+    public static final int DEFAULT_ID_BATCH_SIZE = 250;
+    /** The gsmlp namespace of services that flag boreholes with Hylogger data using gsmlp:nvclCollection */
+    public static final String GSMLP_4_0_NAMESPACE = "http://xmlns.geosciml.org/geosciml-portrayal/4.0";
+    /** The maximum (approximate) size in bytes of all cached feature responses */
+    public static final long RESPONSE_CACHE_MAX_BYTES = 64L * 1024L * 1024L;
+    /** The maximum (approximate) size in bytes of all cached feature counts */
+    public static final long COUNT_CACHE_MAX_BYTES = 4L * 1024L * 1024L;
+    /** How long (in milliseconds) a feature response or count will be cached for */
+    public static final long RESPONSE_CACHE_TTL = 5 * 60 * 1000L;
+    /** Bounding boxes are snapped outwards to a grid whose cells are this fraction of the box's largest side (rounded down to a power of 10) */
+    public static final double BBOX_GRID_FRACTION = 0.01;
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
     private final Log log = LogFactory.getLog(getClass());
 
     private String gsmlpNameSpace = null;
+
+    /** The rule for hylogged boreholes in STYLE_TEMPLATE. Parameters: filter, geometryName, color */
+    private static final SLDTemplate HYLOGGED_RULE_TEMPLATE = new SLDTemplate("<Rule>" +
+            "<Name>Hylogged</Name>" +
+            "<Title>Red Square</Title>" +
+            "<Abstract>portal-style</Abstract>" +
+            "${filter}" +
+            "<PointSymbolizer>" +
+            "<Geometry><ogc:PropertyName>${geometryName}</ogc:PropertyName></Geometry>" +
+            "<Graphic>" +
+            "<Mark>" +
+            "<WellKnownName>square</WellKnownName>" +
+            "<Fill>" +
+            "<CssParameter name=\"fill\">${color}</CssParameter>" +
+            "</Fill>" +
+            "</Mark>" +
+            "<Size>8</Size>" +
+            "</Graphic>" +
+            "</PointSymbolizer>" +
+            "</Rule>");
+
+    /** The SLD for getStyle. Parameters: gsmlpNameSpace, typeName, filter, geometryName, color, hyloggerRule */
+    private static final SLDTemplate STYLE_TEMPLATE = new SLDTemplate("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<StyledLayerDescriptor version=\"1.0.0\" xmlns:gsmlp=\"${gsmlpNameSpace}\" "
+            + "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" xmlns:sld=\"http://www.opengis.net/sld\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+            + "<NamedLayer>"
+            + "<Name>${typeName}</Name>"
+            + "<UserStyle>"
+            + "<Name>portal-style</Name>"
+            + "<Title>portal-style</Title>"
+            + "<Abstract>portal-style</Abstract>"
+            + "<IsDefault>1</IsDefault>"
+            + "<FeatureTypeStyle>"
+            + "<Rule>"
+            + "<Name>Boreholes</Name>"
+            + "${filter}"
+            + "<PointSymbolizer>"
+            + "<Geometry><ogc:PropertyName>${geometryName}</ogc:PropertyName></Geometry>"
+            + "<Graphic>"
+            + "<Mark>"
+            + "<WellKnownName>square</WellKnownName>"
+            + "<Fill>"
+            + "<CssParameter name=\"fill\">${color}</CssParameter>"
+            + "</Fill>"
+            + "</Mark>"
+            + "<Size>8</Size>"
+            + "</Graphic>"
+            + "</PointSymbolizer>"
+            + "</Rule>"
+            // Won't do this until SISS-1513 is fixed (a National Virtual Core Library rule like the hylogged rule).
+            + "${hyloggerRule}"
+            + "</FeatureTypeStyle>"
+            + "</UserStyle>"
+            + "</NamedLayer>"
+            + "</StyledLayerDescriptor>");
+    private int idBatchSize = DEFAULT_ID_BATCH_SIZE;
+    private Executor executor;
+    private CoalescingCache<String, WFSResponse> responseCache;
+    private CoalescingCache<String, Integer> countCache;
+    private TiledFeatureCache tiledFeatureCache;
     // ----------------------------------------------------------- Constructors
 
     @Autowired
     public BoreholeService(HttpServiceCaller serviceCaller, WFSGetFeatureMethodMaker methodMaker) {
         super(serviceCaller, methodMaker);
+
+        this.responseCache = new CoalescingCache<String, WFSResponse>(new ExpiringCache<String, WFSResponse>(
+                RESPONSE_CACHE_MAX_BYTES, RESPONSE_CACHE_TTL, new ExpiringCache.Weigher<String, WFSResponse>() {
+                    @Override
+                    public long weigh(String key, WFSResponse response) {
+                        return (key.length() + (response.getData() == null ? 0 : response.getData().length())) * 2L;
+                    }
+                }));
+        this.countCache = new CoalescingCache<String, Integer>(new ExpiringCache<String, Integer>(
+                COUNT_CACHE_MAX_BYTES, RESPONSE_CACHE_TTL, new ExpiringCache.Weigher<String, Integer>() {
+                    @Override
+                    public long weigh(String key, Integer count) {
+                        return key.length() * 2L + 16L;
+                    }
+                }));
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Sets the maximum number of gml:id values that will be included in a single WFS request. Larger restrictToIDList's
+     * will be split into several requests (made concurrently) whose responses are merged.
+     *
+     * @param idBatchSize
+     *            A non positive value disables batching
+     */
+    public void setIdBatchSize(int idBatchSize) {
+        this.idBatchSize = idBatchSize;
+    }
+
+    /**
+     * Sets the executor used for making batched requests (normally the shared taskExecutor). If null, batched requests
+     * will be made sequentially on the calling thread.
+     *
+     * @param executor
+     */
+    @Autowired(required = false)
+    public void setExecutor(@Qualifier("taskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the cache used for tiling bounding box queries. If set, getAllBoreholes requests with a bounding box will
+     * be assembled from (cached) grid tiles rather than requesting the bounding box itself.
+     *
+     * @param tiledFeatureCache
+     *            [Optional] If null, bounding box queries won't be tiled
+     */
+    @Autowired(required = false)
+    public void setTiledFeatureCache(TiledFeatureCache tiledFeatureCache) {
+        this.tiledFeatureCache = tiledFeatureCache;
+    }
+
+    /**
+     * Returns true if a query for the specified parameters should be assembled from tiles by tiledFeatureCache
+     */
+    protected boolean isTiled(FilterBoundingBox bbox, String outputFormat) {
+        return tiledFeatureCache != null && TiledFeatureCache.isTileable(bbox) && FeatureCollectionMerger.isMergeable(outputFormat);
+    }
+
+    /**
+     * Gets the features matching a query by assembling them from the (cached) tiles covering bbox. Should only be
+     * called if isTiled returns true.
+     *
+     * @param queryKey
+     *            Should be generated with generateCacheKey (without a bbox)
+     */
+    protected WFSResponse getTiledResponse(String queryKey, FilterBoundingBox bbox, int maxFeatures,
+            TiledFeatureCache.TileRequestMaker requestMaker) throws PortalServiceException {
+        return tiledFeatureCache.getFeatures(queryKey, bbox, maxFeatures, requestMaker);
+    }
+
+    /**
+     * Splits ids into distinct batches of at most idBatchSize (or returns null if ids doesn't need to be split)
+     */
+    private List<List<String>> batchIds(List<String> ids) {
+        if (ids == null || idBatchSize <= 0 || ids.size() <= idBatchSize) {
+            return null;
+        }
+
+        List<String> distinctIds = new ArrayList<String>(new LinkedHashSet<String>(ids));
+        List<List<String>> batches = new ArrayList<List<String>>();
+        for (int i = 0; i < distinctIds.size(); i += idBatchSize) {
+            batches.add(distinctIds.subList(i, Math.min(distinctIds.size(), i + idBatchSize)));
+        }
+        return batches.size() > 1 ? batches : null;
+    }
+
+    /**
+     * Expands bbox outwards so that its corners lie on a grid (whose cell size depends on the size of bbox). This lets
+     * requests for slightly different views (eg after a small pan) share cached responses.
+     *
+     * @param bbox
+     *            [Optional] The bounding box to snap
+     * @return A new snapped bounding box (or bbox if it can't be snapped)
+     */
+    protected static FilterBoundingBox snapToGrid(FilterBoundingBox bbox) {
+        if (bbox == null || bbox.getLowerCornerPoints() == null || bbox.getUpperCornerPoints() == null
+                || bbox.getLowerCornerPoints().length != bbox.getUpperCornerPoints().length) {
+            return bbox;
+        }
+
+        double[] lower = bbox.getLowerCornerPoints();
+        double[] upper = bbox.getUpperCornerPoints();
+        double extent = 0;
+        for (int i = 0; i < lower.length; i++) {
+            extent = Math.max(extent, Math.abs(upper[i] - lower[i]));
+        }
+        if (extent == 0 || Double.isNaN(extent) || Double.isInfinite(extent)) {
+            return bbox;
+        }
+
+        double cellSize = Math.pow(10, Math.floor(Math.log10(extent * BBOX_GRID_FRACTION)));
+        double[] snappedLower = new double[lower.length];
+        double[] snappedUpper = new double[upper.length];
+        for (int i = 0; i < lower.length; i++) {
+            snappedLower[i] = Math.floor(Math.min(lower[i], upper[i]) / cellSize) * cellSize;
+            snappedUpper[i] = Math.ceil(Math.max(lower[i], upper[i]) / cellSize) * cellSize;
+        }
+        return new FilterBoundingBox(bbox.getBboxSrs(), snappedLower, snappedUpper);
+    }
+
+    /**
+     * Returns the bounding box that a query limited to maxFeatures should be requested (and cached) with. Unlimited
+     * queries are snapped to a grid (see snapToGrid), which only adds the features just outside bbox. Limited queries
+     * use bbox as is - the extra features could displace features inside bbox from the truncated response.
+     *
+     * @param bbox
+     *            [Optional] The bounding box of the query
+     * @param maxFeatures
+     *            The maximum number of features the query will return (0 for unlimited)
+     * @return
+     */
+    protected static FilterBoundingBox getQueryBbox(FilterBoundingBox bbox, int maxFeatures) {
+        return maxFeatures > 0 ? bbox : snapToGrid(bbox);
+    }
+
+    /**
+     * Throws the OWS exception report in responseData (if it is one). Exception reports must never be returned (and
+     * cached) as a successful response.
+     */
+    protected static void checkForExceptionResponse(String responseData) throws Exception {
+        if (responseData == null) {
+            return;
+        }
+
+        String rootName = WFSService.getRootElementName(responseData);
+        if ("ExceptionReport".equals(rootName) || "ServiceExceptionReport".equals(rootName)) {
+            OWSExceptionParser.checkForExceptionResponse(responseData);
+        }
+    }
+
+    /**
+     * Generates a canonical cache key for a borehole query. restrictToIDList is reduced to a digest of its sorted
+     * distinct values (the order of ID's doesn't affect the query).
+     *
+     * @param queryName
+     *            Distinguishes queries that use the same parameters differently (eg the name of the filter class)
+     */
+    protected String generateCacheKey(String queryName, String serviceURL, String boreholeName, String custodian, String dateOfDrillingStart,
+            String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, List<String> restrictToIDList, String outputFormat)
+            throws Exception {
+        StringBuilder key = new StringBuilder();
+        for (String param : new String[] {queryName, serviceURL, getTypeName(), boreholeName, custodian, dateOfDrillingStart,
+                dateOfDrillingEnd, Integer.toString(maxFeatures), outputFormat}) {
+            key.append(param == null ? "" : param).append('\n');
+        }
+
+        if (bbox != null) {
+            key.append(bbox.getBboxSrs());
+            for (double point : bbox.getLowerCornerPoints()) {
+                key.append(',').append(point);
+            }
+            for (double point : bbox.getUpperCornerPoints()) {
+                key.append(',').append(point);
+            }
+        }
+        key.append('\n');
+
+        if (restrictToIDList != null) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String id : new TreeSet<String>(restrictToIDList)) {
+                digest.update(id.getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Reads the numberOfFeatures attribute from the root element of a WFS FeatureCollection (without parsing the
+     * rest of the document). Returns an empty string if it DNE.
+     */
+    private static String readNumberOfFeatures(String responseGml) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(responseGml));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (!"FeatureCollection".equals(reader.getLocalName())) {
+                        return "";
+                    }
+                    String number = reader.getAttributeValue(null, "numberOfFeatures");
+                    return number == null ? "" : number;
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Gets the response cached against key, otherwise loads (and caches) it using loader. Concurrent requests for the
+     * same key will share a single load. The loader should throw (see checkForExceptionResponse) rather than return a
+     * response that mustn't be cached.
+     *
+     * @param key
+     *            Should be generated with generateCacheKey
+     * @param loader
+     * @return
+     * @throws Exception
+     */
+    protected WFSResponse getCachedResponse(String key, Callable<WFSResponse> loader) throws Exception {
+        return responseCache.get(key, loader);
     }
 
     // --------------------------------------------------------- Public Methods
@@ -62,15 +385,79 @@ public class BoreholeService extends BaseWFSService {
      *
      * @param serviceURL
      * @param bbox
-     *            Set to the bounding box in which to fetch results, otherwise set it to null
+     *            Set to the bounding box in which to fetch results, otherwise set it to null. Unless maxFeatures is set,
+     *            it will be snapped outwards to a grid (or covered with tiles if a TiledFeatureCache is set) so that
+     *            similar requests can share cached responses.
      * @param restrictToIDList
-     *            [Optional] A list of gml:id values that the resulting filter should restrict its search space to
+     *            [Optional] A list of gml:id values that the resulting filter should restrict its search space to. Large
+     *            lists will be split across several concurrent requests whose (GML) responses will be merged.
      * @return
      * @throws Exception
      */
-    public WFSResponse getAllBoreholes(String serviceURL, String boreholeName, String custodian,
+    public WFSResponse getAllBoreholes(final String serviceURL, final String boreholeName, final String custodian,
+            final String dateOfDrillingStart, final String dateOfDrillingEnd, final int maxFeatures, FilterBoundingBox bbox,
+            final List<String> restrictToIDList, final String outputFormat) throws Exception {
+        if (isTiled(bbox, outputFormat) && batchIds(restrictToIDList) == null) {
+            String queryKey = generateCacheKey("BoreholeFilter", serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, null, restrictToIDList, outputFormat);
+            return getTiledResponse(queryKey, bbox, maxFeatures, new TiledFeatureCache.TileRequestMaker() {
+                @Override
+                public HttpRequestBase makeRequest(FilterBoundingBox tile) throws Exception {
+                    return generateAllBoreholesRequest(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, tile, restrictToIDList, outputFormat);
+                }
+            });
+        }
+
+        final FilterBoundingBox queryBbox = getQueryBbox(bbox, maxFeatures);
+        String key = generateCacheKey("BoreholeFilter", serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, restrictToIDList, outputFormat);
+        return getCachedResponse(key, new Callable<WFSResponse>() {
+            @Override
+            public WFSResponse call() throws Exception {
+                return requestAllBoreholesBatched(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, restrictToIDList, outputFormat);
+            }
+        });
+    }
+
+    /**
+     * Requests all boreholes matching the specified filter, splitting large ID lists into concurrent requests
+     */
+    private WFSResponse requestAllBoreholesBatched(final String serviceURL, final String boreholeName, final String custodian,
+            final String dateOfDrillingStart, final String dateOfDrillingEnd, final int maxFeatures, final FilterBoundingBox bbox,
+            List<String> restrictToIDList, final String outputFormat) throws Exception {
+        List<List<String>> batches = FeatureCollectionMerger.isMergeable(outputFormat) ? batchIds(restrictToIDList) : null;
+        if (batches == null) {
+            return requestAllBoreholes(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, restrictToIDList, outputFormat);
+        }
+
+        List<Callable<WFSResponse>> tasks = new ArrayList<Callable<WFSResponse>>(batches.size());
+        for (final List<String> batch : batches) {
+            tasks.add(new Callable<WFSResponse>() {
+                @Override
+                public WFSResponse call() throws Exception {
+                    return requestAllBoreholes(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, batch, outputFormat);
+                }
+            });
+        }
+
+        List<WFSResponse> responses = FanOut.invokeAll(executor, tasks);
+        List<String> responseData = new ArrayList<String>(responses.size());
+        for (WFSResponse response : responses) {
+            responseData.add(response.getData());
+        }
+
+        HttpRequestBase method = responses.get(0).getMethod();
+        try {
+            return new WFSResponse(FeatureCollectionMerger.mergeGml(responseData, maxFeatures), method);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+    }
+
+    /**
+     * Generates a request for all boreholes matching the specified filter
+     */
+    private HttpRequestBase generateAllBoreholesRequest(String serviceURL, String boreholeName, String custodian,
             String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, List<String> restrictToIDList, String outputFormat)
-            throws Exception {
+            throws URISyntaxException {
         String filterString;
         BoreholeFilter nvclFilter = new BoreholeFilter(boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd,restrictToIDList);
         if (bbox == null) {
@@ -79,12 +466,22 @@ public class BoreholeService extends BaseWFSService {
             filterString = nvclFilter.getFilterStringBoundingBox(bbox);
         }
 
+        // Create a GetFeature request with an empty filter - get all
+        return this.generateWFSRequest(serviceURL, getTypeName(), null, filterString, maxFeatures, null,
+                ResultType.Results, outputFormat);
+    }
+
+    /**
+     * Makes a single request for all boreholes matching the specified filter
+     */
+    private WFSResponse requestAllBoreholes(String serviceURL, String boreholeName, String custodian,
+            String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, List<String> restrictToIDList, String outputFormat)
+            throws Exception {
         HttpRequestBase method = null;
         try {
-            // Create a GetFeature request with an empty filter - get all
-            method = this.generateWFSRequest(serviceURL, getTypeName(), null, filterString, maxFeatures, null,
-                    ResultType.Results, outputFormat);
+            method = generateAllBoreholesRequest(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, restrictToIDList, outputFormat);
             String responseData = this.httpServiceCaller.getMethodResponseAsString(method);
+            checkForExceptionResponse(responseData);
 
             return new WFSResponse(responseData, method);
         } catch (Exception ex) {
@@ -97,13 +494,63 @@ public class BoreholeService extends BaseWFSService {
      *
      * @param serviceURL
      * @param bbox
-     *            Set to the bounding box in which to fetch results, otherwise set it to null
+     *            Set to the bounding box in which to fetch results, otherwise set it to null. Unless maxFeatures is set,
+     *            it will be snapped outwards to a grid so that similar requests can share cached counts.
      * @param restrictToIDList
-     *            [Optional] A list of gml:id values that the resulting filter should restrict its search space to
+     *            [Optional] A list of gml:id values that the resulting filter should restrict its search space to. Large
+     *            lists will be split across several concurrent requests whose counts will be summed.
      * @return
      * @throws Exception
      */
-    public int countAllBoreholes(String serviceURL, String boreholeName, String custodian,
+    public int countAllBoreholes(final String serviceURL, final String boreholeName, final String custodian,
+            final String dateOfDrillingStart, final String dateOfDrillingEnd, final int maxFeatures, FilterBoundingBox bbox,
+            final List<String> restrictToIDList) throws Exception {
+        final FilterBoundingBox queryBbox = getQueryBbox(bbox, maxFeatures);
+        String key = generateCacheKey("BoreholeFilter", serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, restrictToIDList, null);
+        return countCache.get(key, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return requestBoreholeCountBatched(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, restrictToIDList);
+            }
+        });
+    }
+
+    /**
+     * Counts all boreholes matching the specified filter, splitting large ID lists into concurrent requests
+     */
+    private int requestBoreholeCountBatched(final String serviceURL, final String boreholeName, final String custodian,
+            final String dateOfDrillingStart, final String dateOfDrillingEnd, final int maxFeatures, final FilterBoundingBox bbox,
+            List<String> restrictToIDList) throws Exception {
+        List<List<String>> batches = batchIds(restrictToIDList);
+        if (batches == null) {
+            return requestBoreholeCount(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, restrictToIDList);
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(batches.size());
+        for (final List<String> batch : batches) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return requestBoreholeCount(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, batch);
+                }
+            });
+        }
+
+        //The batches are distinct so their counts can be summed
+        int count = 0;
+        for (Integer batchCount : FanOut.invokeAll(executor, tasks)) {
+            count += batchCount;
+        }
+        if (maxFeatures > 0 && count > maxFeatures) {
+            count = maxFeatures;
+        }
+        return count;
+    }
+
+    /**
+     * Makes a single request counting all boreholes matching the specified filter
+     */
+    private int requestBoreholeCount(String serviceURL, String boreholeName, String custodian,
             String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, List<String> restrictToIDList)
             throws Exception {
         String filterString;
@@ -121,9 +568,7 @@ public class BoreholeService extends BaseWFSService {
                     ResultType.Hits, null);
             String responseGml = this.httpServiceCaller.getMethodResponseAsString(method);
 
-            Document doc = DOMUtil.buildDomFromString(responseGml, true);
-            String number = (String) DOMUtil.compileXPathExpr("wfs:FeatureCollection/@numberOfFeatures", new WFSNamespaceContext()).evaluate(doc, XPathConstants.STRING);
-            return Integer.parseInt(number);
+            return Integer.parseInt(readNumberOfFeatures(responseGml));
         } catch (Exception ex) {
             throw new PortalServiceException(method, ex);
         }
@@ -145,9 +590,9 @@ public class BoreholeService extends BaseWFSService {
             //Get our ID's
             NodeList publishedDatasets = (NodeList) DOMUtil.compileXPathExpr("/wfs:FeatureCollection/gml:featureMembers/" + NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME + "/nvcl:scannedBorehole", nc)
                                                             .evaluate(doc, XPathConstants.NODESET);
+            XPathExpression exprHref = DOMUtil.compileXPathExpr("@xlink:href", nc);
             for (int i = 0; i < publishedDatasets.getLength(); i++) {
-                Node holeIdentifier = (Node) DOMUtil.compileXPathExpr("@xlink:href", nc)
-                                                    .evaluate(publishedDatasets.item(i), XPathConstants.NODE);
+                Node holeIdentifier = (Node) exprHref.evaluate(publishedDatasets.item(i), XPathConstants.NODE);
                 if (holeIdentifier != null) {
                     String[] urnBlocks = holeIdentifier.getTextContent().split("/");
                     if (urnBlocks.length > 1) {
@@ -162,6 +607,23 @@ public class BoreholeService extends BaseWFSService {
         }
     }
 
+    /**
+     * Queries a single NVCL WFS for the PUBLISHED_DATASETS_TYPENAME feature type to generate a list of borehole ID's that
+     * represent every borehole with Hylogger data at that service.
+     *
+     * @param serviceUrl
+     *            The WFS endpoint advertising PUBLISHED_DATASETS_TYPENAME
+     * @return
+     * @throws PortalServiceException
+     *             If the service fails to return a valid response
+     * @throws URISyntaxException
+     */
+    public List<String> getHyloggerBoreholeIDs(String serviceUrl) throws PortalServiceException, URISyntaxException {
+        List<String> ids = new ArrayList<String>();
+        appendHyloggerBoreholeIDs(serviceUrl, NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME, ids);
+        return ids;
+    }
+
     /**
      * Goes to the CSWService to get all services that support the PUBLISHED_DATASETS_TYPENAME and queries them to generate a list of borehole ID's that
      * represent every borehole with Hylogger data.
@@ -175,21 +637,40 @@ public class BoreholeService extends BaseWFSService {
      * @throws Exception
      */
     public List<String> discoverHyloggerBoreholeIDs(CSWCacheService cswService, CSWRecordsFilterVisitor visitor) {
+        return lookupHyloggerBoreholeIDs(cswService, visitor).getIds();
+    }
+
+    /**
+     * Goes to the CSWService to get all services that support the PUBLISHED_DATASETS_TYPENAME and queries them to generate a list of borehole ID's that
+     * represent every borehole with Hylogger data.
+     *
+     * If any of the services queried fail to return valid responses they will be skipped and reported by the returned
+     * lookup (which will be incomplete).
+     *
+     * @param cswService
+     *            Will be used to find the appropriate service to query
+     * @param CSWRecordsFilterVisitor
+     *            A filter visitor used to perform filter operation on the online resource. Use null if not required
+     */
+    public HyloggerBoreholeLookup lookupHyloggerBoreholeIDs(CSWCacheService cswService, CSWRecordsFilterVisitor visitor) {
         List<String> ids = new ArrayList<String>();
+        List<String> failedServiceUrls = new ArrayList<String>();
 
-        for (CSWRecord record : cswService.getWFSRecords()) {
+        List<CSWRecord> records = cswService.getWFSRecords();
+        for (CSWRecord record : records) {
             for (AbstractCSWOnlineResource resource : record.getOnlineResourcesByType(visitor, OnlineResourceType.WFS)) {
                 if (resource.getName().equals(NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME)) {
                     try {
                         appendHyloggerBoreholeIDs(resource.getLinkage().toString(), resource.getName(), ids);
                     } catch (Exception ex) {
                         log.warn(String.format("Discovering boreholes at '%1$s' failed", resource.getLinkage()), ex);
+                        failedServiceUrls.add(resource.getLinkage().toString());
                     }
                 }
             }
         }
 
-        return ids;
+        return new HyloggerBoreholeLookup(ids, failedServiceUrls, records.isEmpty());
     }
 
     public String getFilter(String boreholeName, String custodian, String dateOfDrillingStart,String dateOfDrillingEnd,
@@ -217,92 +698,42 @@ public class BoreholeService extends BaseWFSService {
 
         return filterString;
     }
-    public String getStyle(String filter, String color, String hyloggerFilter, String hyloggerColor,String gsmlpNameSpace) {
-        setGsmlpNameSpace(gsmlpNameSpace);
-        return getStyle(filter, color, hyloggerFilter, hyloggerColor);
+    /**
+     * Gets the SLD for boreholes matching filter (and hylogged boreholes matching hyloggerFilter) using the specified
+     * gsmlp namespace.
+     *
+     * @param filter
+     *            The OGC filter for all boreholes
+     * @param color
+     *            The fill color for boreholes
+     * @param hyloggerFilter
+     *            [Optional] The OGC filter for hylogged boreholes
+     * @param hyloggerColor
+     *            The fill color for hylogged boreholes
+     * @param gsmlpNameSpace
+     *            [Optional] The gsmlp namespace of the service being styled
+     * @return
+     */
+    public String getStyle(String filter, String color, String hyloggerFilter, String hyloggerColor, String gsmlpNameSpace) {
+        String ruleForHylogged = "";
+        if (hyloggerFilter != null && hyloggerFilter.isEmpty() == false) { //For NVCL logged data, put red colour.
+            ruleForHylogged = HYLOGGED_RULE_TEMPLATE.render(
+                    "filter", hyloggerFilter,
+                    "geometryName", getGeometryName(),
+                    "color", hyloggerColor);
+        }
+
+        return STYLE_TEMPLATE.render(
+                "gsmlpNameSpace", gsmlpNameSpace == null ? getGsmlpNameSpace() : gsmlpNameSpace,
+                "typeName", getTypeName(),
+                "filter", filter,
+                "geometryName", getGeometryName(),
+                "color", color,
+                "hyloggerRule", ruleForHylogged);
     }
+
     public String getStyle(String filter, String color, String hyloggerFilter, String hyloggerColor) {
-    	String ruleForHylogged = "";
-    	if (getGsmlpNameSpace().equals("http://xmlns.geosciml.org/geosciml-portrayal/4.0") 
-    			&& hyloggerFilter.isEmpty() == false ) { //For NVCL logged data, apply gsmlp:nvclCollection check, and put red colour.
-        	ruleForHylogged = "<Rule>" +
-				"<Name>Hylogged</Name>" +
-				"<Title>Red Square</Title>" +
-				"<Abstract>portal-style</Abstract>" +
-				 hyloggerFilter +
-				"<PointSymbolizer>" +
-                "<Geometry><ogc:PropertyName>" + getGeometryName() + "</ogc:PropertyName></Geometry>" +
-				"<Graphic>" +
-				"<Mark>" +
-				"<WellKnownName>square</WellKnownName>" +
-				"<Fill>" +
-				"<CssParameter name=\"fill\">"+
-				hyloggerColor +
-				"</CssParameter>" +
-				"</Fill>" +
-				"</Mark>" +
-				"<Size>8</Size>" +
-				"</Graphic>" +
-				"</PointSymbolizer>" +
-				"</Rule>";
-    	}
-    	
-        String style = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-                + "<StyledLayerDescriptor version=\"1.0.0\" xmlns:gsmlp=\"" + getGsmlpNameSpace() + "\" "
-                + "xsi:schemaLocation=\"http://www.opengis.net/sld StyledLayerDescriptor.xsd\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" xmlns:sld=\"http://www.opengis.net/sld\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
-                + "<NamedLayer>" + "<Name>"
-                + getTypeName()
-                + "</Name>"
-                + "<UserStyle>"
-                + "<Name>portal-style</Name>"
-                + "<Title>portal-style</Title>"
-                + "<Abstract>portal-style</Abstract>"
-                + "<IsDefault>1</IsDefault>"
-                + "<FeatureTypeStyle>"
-                + "<Rule>"
-                + "<Name>Boreholes</Name>"
-                + filter
-                + "<PointSymbolizer>"
-                + "<Geometry><ogc:PropertyName>" + getGeometryName() + "</ogc:PropertyName></Geometry>"
-                + "<Graphic>"
-                + "<Mark>"
-                + "<WellKnownName>square</WellKnownName>"
-                + "<Fill>"
-                + "<CssParameter name=\"fill\">"
-                + color
-                + "</CssParameter>"
-                + "</Fill>"
-                + "</Mark>"
-                + "<Size>8</Size>"
-                + "</Graphic>"
-                + "</PointSymbolizer>"
-                + "</Rule>"
-                + ruleForHylogged 
-                // Won't do this until SISS-1513 is fixed.
-                //                + "<Rule>"
-                //                + "<Name>National Virtual Core Library</Name>"
-                //				+ hyloggerFilter
-                //				+ "<PointSymbolizer>"
-                //				+ "<Geometry><ogc:PropertyName>"
-                //				+ getGeometryName()
-                //				+ "</ogc:PropertyName></Geometry>"
-                //				+ "<Graphic>"
-                //				+ "<Mark>"
-                //				+ "<WellKnownName>square</WellKnownName>"
-                //				+ "<Fill>"
-                //				+ "<CssParameter name=\"fill\">"
-                //				+ hyloggerColor
-                //				+ "</CssParameter>"
-                //				+ "</Fill>"
-                //				+ "</Mark>"
-                //				+ "<Size>8</Size>"
-                //				+ "</Graphic>"
-                //				+ "</PointSymbolizer>"
-                //				+ "</Rule>"
-                + "</FeatureTypeStyle>"
-                + "</UserStyle>" + "</NamedLayer>" + "</StyledLayerDescriptor>";
-
-        return style;
+        return getStyle(filter, color, hyloggerFilter, hyloggerColor, null);
     }
 
     public String getTypeName() {
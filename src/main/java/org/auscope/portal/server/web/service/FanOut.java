@@ -0,0 +1,109 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Utility functions for running groups of independent tasks (typically upstream requests) on the portal's shared
+ * executor (the taskExecutor bean).
+ *
+ * The executor is shared and bounded so a task may be rejected, or left queued behind other work. A rejected task is
+ * run on the submitting thread and a queued task is run by whichever thread first waits on it with getResult. This
+ * means a fan out always makes progress, even if it is itself running on (and waiting for) a saturated executor.
+ */
+public final class FanOut {
+
+    private FanOut() {
+        //Utility class
+    }
+
+    /**
+     * Starts task on executor (or runs it on the calling thread if executor is null or rejects it)
+     *
+     * @param executor
+     *            [Optional] The executor to run task on
+     * @param task
+     *            The task to run
+     */
+    public static void execute(Executor executor, FutureTask<?> task) {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.run();
+        }
+    }
+
+    /**
+     * Starts each task on executor (see execute), returning a future for each of them (in order). Every future should
+     * be collected with getResult.
+     *
+     * @param executor
+     *            [Optional] The executor to run the tasks on
+     * @param tasks
+     *            The tasks to run
+     * @return
+     */
+    public static <T> List<FutureTask<T>> submitAll(Executor executor, List<? extends Callable<T>> tasks) {
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            futures.add(future);
+            execute(executor, future);
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for the result of future (running it on the calling thread if it hasn't been started yet), unwrapping any
+     * ExecutionException into the exception thrown by the task.
+     *
+     * @param future
+     *            A future started with execute or submitAll
+     * @return
+     * @throws Exception
+     *             The exception thrown by the task
+     */
+    public static <T> T getResult(FutureTask<T> future) throws Exception {
+        //Does nothing if the future has already been started by another thread
+        future.run();
+
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Runs each task on executor and returns their results in order. If any task fails, the first failure (in task
+     * order) will be thrown.
+     *
+     * @param executor
+     *            [Optional] The executor to run the tasks on
+     * @param tasks
+     *            The tasks to run
+     * @return
+     * @throws Exception
+     *             The first exception thrown by a task
+     */
+    public static <T> List<T> invokeAll(Executor executor, List<? extends Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (FutureTask<T> future : submitAll(executor, tasks)) {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+}
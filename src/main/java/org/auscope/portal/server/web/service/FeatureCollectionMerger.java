@@ -0,0 +1,234 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.server.metrics.PortalMetrics;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Utility for merging several WFS GetFeature responses (each the result of a request for a different subset of the same
+ * feature type) into a single response.
+ *
+ * Only GML responses can be merged. The features of every response are appended (in order) to the FeatureCollection
+ * of the first response; all other content (eg the root gml:boundedBy) is taken from the first response.
+ */
+public class FeatureCollectionMerger {
+
+    private static final String GML_NAMESPACE_PREFIX = "http://www.opengis.net/gml";
+    /** Matches the first element (skipping any XML declaration, comments or DTD) */
+    private static final Pattern ROOT_ELEMENT_PATTERN = Pattern.compile("<(?:[\\w.\\-]+:)?([\\w.\\-]+)[\\s/>]");
+
+    private FeatureCollectionMerger() {
+        //Utility class
+    }
+
+    /**
+     * Returns true if WFS responses in the specified output format can be merged by this class.
+     *
+     * @param outputFormat
+     *            [Optional] The outputFormat requested from the WFS (null indicates the WFS default)
+     * @return
+     */
+    public static boolean isMergeable(String outputFormat) {
+        if (outputFormat == null || outputFormat.isEmpty()) {
+            return true;
+        }
+        String lowerFormat = outputFormat.toLowerCase();
+        return lowerFormat.contains("gml") || lowerFormat.contains("xml");
+    }
+
+    /**
+     * Returns true if the root element of response is a FeatureCollection. This only inspects the start of response
+     * (it won't detect malformed XML).
+     *
+     * @param response
+     *            A raw WFS response
+     * @return
+     */
+    public static boolean isFeatureCollection(String response) {
+        Matcher matcher = ROOT_ELEMENT_PATTERN.matcher(response);
+        return matcher.find() && "FeatureCollection".equals(matcher.group(1));
+    }
+
+    private static boolean isGmlElement(Node node, String localName) {
+        return node.getNodeType() == Node.ELEMENT_NODE && localName.equals(node.getLocalName())
+                && node.getNamespaceURI() != null && node.getNamespaceURI().startsWith(GML_NAMESPACE_PREFIX);
+    }
+
+    /**
+     * Merges a list of GML FeatureCollection responses into a single FeatureCollection.
+     *
+     * If any response isn't a FeatureCollection (eg an OWS exception report) that response will be returned unchanged.
+     *
+     * @param responses
+     *            The raw GML responses. Must be non empty
+     * @param maxFeatures
+     *            If positive, the merged collection will be truncated to this many features
+     * @return
+     * @throws Exception
+     *             If any response isn't well formed XML
+     */
+    public static String mergeGml(List<String> responses, int maxFeatures) throws Exception {
+        return mergeGml(responses, maxFeatures, false);
+    }
+
+    /**
+     * Gets the gml:id (or fid) of a feature or null if it has neither
+     */
+    private static String getFeatureId(Node feature) {
+        Element element = (Element) feature;
+        for (int i = 0; i < element.getAttributes().getLength(); i++) {
+            Node attr = element.getAttributes().item(i);
+            if (isGmlAttribute(attr, "id")) {
+                return attr.getNodeValue();
+            }
+        }
+        return element.hasAttribute("fid") ? element.getAttribute("fid") : null;
+    }
+
+    private static boolean isGmlAttribute(Node node, String localName) {
+        return localName.equals(node.getLocalName()) && node.getNamespaceURI() != null
+                && node.getNamespaceURI().startsWith(GML_NAMESPACE_PREFIX);
+    }
+
+    /**
+     * Gets the feature held by a featureMember element (or null if it's empty or holds a reference)
+     */
+    private static Node getMemberFeature(Node featureMember) {
+        for (Node feature = featureMember.getFirstChild(); feature != null; feature = feature.getNextSibling()) {
+            if (feature.getNodeType() == Node.ELEMENT_NODE) {
+                return feature;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if feature should be merged, recording its ID in ids if ids is non null. Features without an ID
+     * are always merged.
+     */
+    private static boolean isDistinct(Node feature, Set<String> ids) {
+        if (ids == null || feature == null) {
+            return true;
+        }
+        String id = getFeatureId(feature);
+        return id == null || ids.add(id);
+    }
+
+    /**
+     * As per mergeGml(List, int) except that if distinctIds is true, any feature with the same gml:id (or fid) as an
+     * earlier feature will be dropped. Useful for merging responses to overlapping queries (eg requests for adjacent
+     * bounding boxes which may both return features that lie on their shared boundary).
+     *
+     * @param responses
+     *            The raw GML responses. Must be non empty
+     * @param maxFeatures
+     *            If positive, the merged collection will be truncated to this many features
+     * @param distinctIds
+     *            If true, features with duplicate ID's will be dropped
+     * @return
+     * @throws Exception
+     *             If any response isn't well formed XML
+     */
+    public static String mergeGml(List<String> responses, int maxFeatures, boolean distinctIds) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return doMergeGml(responses, maxFeatures, distinctIds);
+        } finally {
+            PortalMetrics.recordTransform("mergeGml", System.nanoTime() - start);
+        }
+    }
+
+    private static String doMergeGml(List<String> responses, int maxFeatures, boolean distinctIds) throws Exception {
+        Set<String> ids = distinctIds ? new HashSet<String>() : null;
+        Document[] docs = new Document[responses.size()];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = DOMUtil.buildDomFromString(responses.get(i));
+            if (!"FeatureCollection".equals(docs[i].getDocumentElement().getLocalName())) {
+                return responses.get(i);
+            }
+        }
+
+        Document merged = docs[0];
+        Element root = merged.getDocumentElement();
+
+        //Find where features live in the first response (WFS 1.1 allows both featureMember and featureMembers)
+        Element featureMembers = null;
+        int featureCount = 0;
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isGmlElement(child, "featureMember")) {
+                isDistinct(getMemberFeature(child), ids);
+                featureCount++;
+            } else if (isGmlElement(child, "featureMembers")) {
+                featureMembers = (Element) child;
+                for (Node feature = child.getFirstChild(); feature != null; feature = feature.getNextSibling()) {
+                    if (feature.getNodeType() == Node.ELEMENT_NODE) {
+                        isDistinct(feature, ids);
+                        featureCount++;
+                    }
+                }
+            }
+        }
+
+        for (int i = 1; i < docs.length; i++) {
+            for (Node child = docs[i].getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (maxFeatures > 0 && featureCount >= maxFeatures) {
+                    break;
+                }
+
+                if (isGmlElement(child, "featureMember")) {
+                    if (!isDistinct(getMemberFeature(child), ids)) {
+                        continue;
+                    }
+                    root.appendChild(merged.importNode(child, true));
+                    featureCount++;
+                } else if (isGmlElement(child, "featureMembers")) {
+                    if (featureMembers == null) {
+                        featureMembers = (Element) root.appendChild(merged.importNode(child, false));
+                    }
+                    for (Node feature = child.getFirstChild(); feature != null; feature = feature.getNextSibling()) {
+                        if (feature.getNodeType() != Node.ELEMENT_NODE) {
+                            continue;
+                        }
+                        if (maxFeatures > 0 && featureCount >= maxFeatures) {
+                            break;
+                        }
+                        if (!isDistinct(feature, ids)) {
+                            continue;
+                        }
+                        featureMembers.appendChild(merged.importNode(feature, true));
+                        featureCount++;
+                    }
+                }
+            }
+        }
+
+        //Keep the reported counts consistent with the merged features
+        if (root.hasAttribute("numberOfFeatures")) {
+            root.setAttribute("numberOfFeatures", Integer.toString(featureCount));
+        }
+        if (root.hasAttribute("numberReturned")) {
+            root.setAttribute("numberReturned", Integer.toString(featureCount));
+        }
+
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(merged), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.csw.CSWRecordsFilterVisitor;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource.OnlineResourceType;
+import org.auscope.portal.core.services.responses.csw.CSWRecord;
+import org.auscope.portal.nvcl.NVCLNamespaceContext;
+import org.auscope.portal.server.cache.CoalescingCache;
+
+/**
+ * An in memory index of the borehole ID's with Hylogger data at every NVCL service (ie every WFS in the CSW cache
+ * advertising PUBLISHED_DATASETS_TYPENAME).
+ *
+ * Once started, every indexed service is periodically re-queried in the background (in parallel) so that lookups can
+ * be answered without going to the services. Services that haven't been indexed yet (eg the CSW cache was empty at the
+ * last refresh) are queried on demand. The ID's for each service are stored as a sorted, distinct String array.
+ */
+public class HyloggerBoreholeIndex {
+
+    /** The maximum number of services that will be indexed */
+    public static final long MAX_SERVICES = 1000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private BoreholeService boreholeService;
+    private CSWCacheService cswService;
+    private long refreshInterval;
+    private CoalescingCache<String, String[]> index;
+    private Executor executor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new index. No background refreshing will occur until start is called.
+     *
+     * @param boreholeService
+     *            Used for querying each NVCL service
+     * @param cswService
+     *            Used for finding the NVCL services
+     * @param refreshInterval
+     *            How long (in milliseconds) between background refreshes. A service that fails to refresh will continue
+     *            to be served from the index for up to 4 refresh intervals.
+     */
+    public HyloggerBoreholeIndex(BoreholeService boreholeService, CSWCacheService cswService, long refreshInterval) {
+        this(boreholeService, cswService, null, refreshInterval);
+    }
+
+    /**
+     * Creates a new index. No background refreshing will occur until start is called.
+     *
+     * @param boreholeService
+     *            Used for querying each NVCL service
+     * @param cswService
+     *            Used for finding the NVCL services
+     * @param executor
+     *            [Optional] Used for querying the services in parallel during a refresh (normally the shared
+     *            taskExecutor). If null, services are queried one at a time.
+     * @param refreshInterval
+     *            How long (in milliseconds) between background refreshes. A service that fails to refresh will continue
+     *            to be served from the index for up to 4 refresh intervals.
+     */
+    public HyloggerBoreholeIndex(BoreholeService boreholeService, CSWCacheService cswService, Executor executor,
+            long refreshInterval) {
+        this.boreholeService = boreholeService;
+        this.cswService = cswService;
+        this.executor = executor;
+        this.refreshInterval = refreshInterval;
+        this.index = new CoalescingCache<String, String[]>(MAX_SERVICES, refreshInterval * 4);
+    }
+
+    /**
+     * Starts periodically refreshing this index in the background.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception ex) {
+                    //Don't let a failure cancel future refreshes
+                    log.warn("Error refreshing hylogger borehole index", ex);
+                }
+            }
+        }, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops any background refreshing.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the URL of every NVCL service in the CSW cache that matches visitor (in CSW record order)
+     */
+    private Set<String> getServiceUrls(CSWRecordsFilterVisitor visitor) {
+        Set<String> urls = new LinkedHashSet<String>();
+        for (CSWRecord record : cswService.getWFSRecords()) {
+            for (AbstractCSWOnlineResource resource : record.getOnlineResourcesByType(visitor, OnlineResourceType.WFS)) {
+                if (resource.getName().equals(NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME)) {
+                    urls.add(resource.getLinkage().toString());
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Queries a single NVCL service, returning its ID's as a sorted distinct array
+     */
+    private String[] queryService(String serviceUrl) throws Exception {
+        Set<String> ids = new TreeSet<String>(boreholeService.getHyloggerBoreholeIDs(serviceUrl));
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    /**
+     * Re-queries every NVCL service in the CSW cache (in parallel), replacing their entries in this index. Services
+     * that fail to respond will keep their existing entries. Blocks until every service has responded.
+     */
+    public void refresh() {
+        List<String> urls = new ArrayList<String>(getServiceUrls(null));
+        List<FutureTask<String[]>> tasks = new ArrayList<FutureTask<String[]>>(urls.size());
+        for (final String url : urls) {
+            FutureTask<String[]> task = new FutureTask<String[]>(new Callable<String[]>() {
+                @Override
+                public String[] call() throws Exception {
+                    return queryService(url);
+                }
+            });
+            tasks.add(task);
+            FanOut.execute(executor, task);
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                index.put(urls.get(i), FanOut.getResult(tasks.get(i)));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.warn(String.format("Refreshing hylogger boreholes at '%1$s' failed", urls.get(i)), ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the borehole ID's that represent every borehole with Hylogger data at the NVCL services matching visitor.
+     *
+     * If any of the services haven't been indexed and fail to respond they will be skipped.
+     *
+     * @param visitor
+     *            A filter visitor used to perform filter operation on the online resource. Use null if not required
+     * @return
+     */
+    public List<String> getHyloggerBoreholeIDs(CSWRecordsFilterVisitor visitor) {
+        return lookupHyloggerBoreholeIDs(visitor).getIds();
+    }
+
+    /**
+     * Looks up the borehole ID's that represent every borehole with Hylogger data at the NVCL services matching visitor.
+     *
+     * If any of the services haven't been indexed and fail to respond they will be skipped and reported by the returned
+     * lookup (which will be incomplete).
+     *
+     * @param visitor
+     *            A filter visitor used to perform filter operation on the online resource. Use null if not required
+     * @return
+     */
+    public HyloggerBoreholeLookup lookupHyloggerBoreholeIDs(CSWRecordsFilterVisitor visitor) {
+        List<String[]> matches = new ArrayList<String[]>();
+        List<String> failedServiceUrls = new ArrayList<String>();
+        int count = 0;
+        for (final String url : getServiceUrls(visitor)) {
+            try {
+                String[] ids = index.get(url, new Callable<String[]>() {
+                    @Override
+                    public String[] call() throws Exception {
+                        return queryService(url);
+                    }
+                });
+                matches.add(ids);
+                count += ids.length;
+            } catch (Exception ex) {
+                log.warn(String.format("Discovering boreholes at '%1$s' failed", url), ex);
+                failedServiceUrls.add(url);
+            }
+        }
+
+        //The index arrays are shared so they must never be exposed directly
+        List<String> ids = null;
+        if (matches.size() == 1) {
+            ids = Collections.unmodifiableList(Arrays.asList(matches.get(0)));
+        } else {
+            ids = new ArrayList<String>(count);
+            for (String[] match : matches) {
+                ids.addAll(Arrays.asList(match));
+            }
+        }
+        return new HyloggerBoreholeLookup(ids, failedServiceUrls, cswService.getWFSRecords().isEmpty());
+    }
+}
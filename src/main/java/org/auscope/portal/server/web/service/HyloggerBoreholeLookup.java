@@ -0,0 +1,58 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of looking up the borehole ID's with Hylogger data at a number of NVCL services.
+ *
+ * A lookup is incomplete if any of the services failed to respond (and weren't already indexed) or if the CSW cache
+ * hadn't loaded any services yet. The ID's of an incomplete lookup are still usable but shouldn't be cached.
+ */
+public class HyloggerBoreholeLookup {
+
+    private List<String> ids;
+    private List<String> failedServiceUrls;
+    private boolean cswCacheEmpty;
+
+    /**
+     * @param ids
+     *            The borehole ID's from every service that responded
+     * @param failedServiceUrls
+     *            The URL of every service that failed to respond
+     * @param cswCacheEmpty
+     *            True if the CSW cache had no services to look up
+     */
+    public HyloggerBoreholeLookup(List<String> ids, List<String> failedServiceUrls, boolean cswCacheEmpty) {
+        this.ids = ids;
+        this.failedServiceUrls = Collections.unmodifiableList(failedServiceUrls);
+        this.cswCacheEmpty = cswCacheEmpty;
+    }
+
+    /**
+     * Gets the borehole ID's from every service that responded
+     *
+     * @return
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the URL of every service that failed to respond (and had no indexed ID's to fall back on)
+     *
+     * @return
+     */
+    public List<String> getFailedServiceUrls() {
+        return failedServiceUrls;
+    }
+
+    /**
+     * Returns true if every matching service was looked up successfully
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return !cswCacheEmpty && failedServiceUrls.isEmpty();
+    }
+}
@@ -42,6 +42,7 @@ public class MineralOccurrenceService extends BaseWFSService {
     // ----------------------------------------------------- Instance variables
 
     private MineralOccurrencesResponseHandler mineralOccurrencesResponseHandler;
+    private TiledFeatureCache tiledFeatureCache;
 
     // ----------------------------------------------------------- Constructors
 
@@ -54,6 +55,29 @@ public class MineralOccurrenceService extends BaseWFSService {
 
     }
 
+    /**
+     * Sets the cache used for tiling bounding box queries. If set, mine and mineral occurrence GML requests with a
+     * bounding box will be assembled from (cached) grid tiles rather than requesting the bounding box itself.
+     *
+     * @param tiledFeatureCache
+     *            [Optional] If null, bounding box queries won't be tiled
+     */
+    @Autowired(required = false)
+    public void setTiledFeatureCache(TiledFeatureCache tiledFeatureCache) {
+        this.tiledFeatureCache = tiledFeatureCache;
+    }
+
+    /**
+     * Generates a key that uniquely identifies a query (other than its bounding box) to tiledFeatureCache
+     */
+    private static String generateTileQueryKey(String... params) {
+        StringBuilder key = new StringBuilder();
+        for (String param : params) {
+            key.append(param == null ? "" : param).append('\n');
+        }
+        return key.toString();
+    }
+
     /**
      * Utility for turning a filter and optional bounding box into a OGC filter string
      *
@@ -82,15 +106,27 @@ public class MineralOccurrenceService extends BaseWFSService {
      * @param mineName
      *            [Optional] The mine name to constrain the result set
      * @param bbox
-     *            [Optional] the spatial bounds to constrain the result set
+     *            [Optional] the spatial bounds to constrain the result set. Will be covered with (cached) tiles if a
+     *            TiledFeatureCache is set
      * @param maxFeatures
      *            The maximum number of features to request
      * @return
      * @throws PortalServiceException
      */
-    public WFSResponse getMinesGml(String serviceUrl, String mineName, FilterBoundingBox bbox,
-            int maxFeatures) throws PortalServiceException {
-        MineFilter filter = new MineFilter(mineName);
+    public WFSResponse getMinesGml(final String serviceUrl, String mineName, FilterBoundingBox bbox,
+            final int maxFeatures) throws PortalServiceException {
+        final MineFilter filter = new MineFilter(mineName);
+        if (tiledFeatureCache != null && TiledFeatureCache.isTileable(bbox)) {
+            String queryKey = generateTileQueryKey("Mine", serviceUrl, mineName, Integer.toString(maxFeatures));
+            return tiledFeatureCache.getFeatures(queryKey, bbox, maxFeatures, new TiledFeatureCache.TileRequestMaker() {
+                @Override
+                public HttpRequestBase makeRequest(FilterBoundingBox tile) throws Exception {
+                    return generateWFSRequest(serviceUrl, MINE_FEATURE_TYPE, null, generateFilterString(filter, tile),
+                            maxFeatures, null, ResultType.Results);
+                }
+            });
+        }
+
         String filterString = generateFilterString(filter, bbox);
 
         HttpRequestBase method = null;
@@ -173,27 +209,41 @@ public class MineralOccurrenceService extends BaseWFSService {
      * @param cutOffGrade
      * @param cutOffGradeUOM
      * @param bbox
-     *            [Optional] the spatial bounds to constrain the result set
+     *            [Optional] the spatial bounds to constrain the result set. Will be covered with (cached) tiles if a
+     *            TiledFeatureCache is set
      * @return
      * @throws URISyntaxException
      */
-    public WFSResponse getMineralOccurrenceGml(String serviceURL,
+    public WFSResponse getMineralOccurrenceGml(final String serviceURL,
             String commodityName,
             String measureType,
             String minOreAmount,
             String minOreAmountUOM,
             String minCommodityAmount,
             String minCommodityAmountUOM,
-            int maxFeatures,
+            final int maxFeatures,
             FilterBoundingBox bbox) throws PortalServiceException, URISyntaxException {
 
-        MineralOccurrenceFilter filter = new MineralOccurrenceFilter(commodityName,
+        final MineralOccurrenceFilter filter = new MineralOccurrenceFilter(commodityName,
                 measureType,
                 minOreAmount,
                 minOreAmountUOM,
                 minCommodityAmount,
                 minCommodityAmountUOM);
 
+        if (tiledFeatureCache != null && TiledFeatureCache.isTileable(bbox)) {
+            String queryKey = generateTileQueryKey("MineralOccurrence", serviceURL, commodityName, measureType,
+                    minOreAmount, minOreAmountUOM, minCommodityAmount, minCommodityAmountUOM,
+                    Integer.toString(maxFeatures));
+            return tiledFeatureCache.getFeatures(queryKey, bbox, maxFeatures, new TiledFeatureCache.TileRequestMaker() {
+                @Override
+                public HttpRequestBase makeRequest(FilterBoundingBox tile) throws Exception {
+                    return generateWFSRequest(serviceURL, MINERAL_OCCURRENCE_FEATURE_TYPE, null,
+                            generateFilterString(filter, tile), maxFeatures, null, ResultType.Results);
+                }
+            });
+        }
+
         String filterString = generateFilterString(filter, bbox);
 
         HttpRequestBase method = generateWFSRequest(serviceURL, MINERAL_OCCURRENCE_FEATURE_TYPE, null, filterString,
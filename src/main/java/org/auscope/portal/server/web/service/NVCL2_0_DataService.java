@@ -1,16 +1,21 @@
 package org.auscope.portal.server.web.service;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -19,7 +24,12 @@ import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
-import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.nvcl.LTTBDownsampler;
+import org.auscope.portal.nvcl.NVCLCollectionParser;
+import org.auscope.portal.nvcl.ScalarBinAggregator;
+import org.auscope.portal.nvcl.ScalarCSVMerger;
+import org.auscope.portal.server.cache.CoalescingCache;
+import org.auscope.portal.server.cache.ExpiringCache;
 import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
 import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
 import org.auscope.portal.server.domain.nvcldataservice.CSVDownloadResponse;
@@ -27,28 +37,127 @@ import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse
 import org.auscope.portal.server.domain.nvcldataservice.TrayThumbNailResponse;
 import org.auscope.portal.server.web.NVCL2_0_DataServiceMethodMaker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
 
 @Service
 public class NVCL2_0_DataService {
 
+    /** The bin sizes (in metres) that are pre aggregated for every log in the bin pyramid cache. Must be sorted. */
+    public static final double[] PYRAMID_BIN_SIZES = new double[] {0.5, 1.0, 5.0, 25.0, 100.0};
+    /** Approximate maximum size (in bytes) of the bin pyramid cache */
+    public static final long PYRAMID_CACHE_MAX_BYTES = 64L * 1024L * 1024L;
+    /** How long (in milliseconds) a log's bin pyramid will be cached for */
+    public static final long PYRAMID_CACHE_TTL = 60L * 60L * 1000L;
+    /** The maximum number of getLogCollection responses that will be cached */
+    public static final long METADATA_CACHE_MAX_ENTRIES = 1000;
+    /** How long (in milliseconds) a getLogCollection response will be cached for */
+    public static final long METADATA_CACHE_TTL = 15L * 60L * 1000L;
+
     private final Log log = LogFactory.getLog(getClass());
     private NVCL2_0_DataServiceMethodMaker nvclMethodMaker;
     private HttpServiceCaller httpServiceCaller;
+    private CoalescingCache<String, Bin[]> pyramidCache;
+    private CoalescingCache<String, List<GetLogCollectionResponse>> logCollectionCache;
+    private Executor executor;
 
     @Autowired
     public NVCL2_0_DataService(HttpServiceCaller httpServiceCaller,
             NVCL2_0_DataServiceMethodMaker nvclMethodMaker) {
         this.nvclMethodMaker = nvclMethodMaker;
         this.httpServiceCaller = httpServiceCaller;
+        this.pyramidCache = new CoalescingCache<String, Bin[]>(new ExpiringCache<String, Bin[]>(PYRAMID_CACHE_MAX_BYTES, PYRAMID_CACHE_TTL, new BinPyramidWeigher()));
+        this.logCollectionCache = new CoalescingCache<String, List<GetLogCollectionResponse>>(METADATA_CACHE_MAX_ENTRIES, METADATA_CACHE_TTL);
+    }
+
+    /**
+     * Sets the executor used for making parallel requests (normally the shared taskExecutor). If null, "parallel"
+     * requests will be made sequentially on the calling thread.
+     *
+     * @param executor
+     */
+    @Autowired(required = false)
+    public void setExecutor(@Qualifier("taskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Downloads the CSV for a single log into a temporary file so that the upstream connection is released as soon as
+     * the download completes. The file is deleted when the returned reader is closed.
+     */
+    private Reader downloadLogCSV(String downloadUrl, String logId) throws Exception {
+        HttpRequestBase method = nvclMethodMaker.getDownloadCSVMethod(downloadUrl, new String[] {logId});
+        final File file = File.createTempFile("nvcl-scalars-", ".csv");
+        try {
+            InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+            try {
+                OutputStream fileOutput = new FileOutputStream(file);
+                try {
+                    IOUtils.copy(responseStream, fileOutput);
+                } finally {
+                    fileOutput.close();
+                }
+            } finally {
+                IOUtils.closeQuietly(responseStream);
+            }
+
+            return new InputStreamReader(new FileInputStream(file) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        file.delete();
+                    }
+                }
+            }, "UTF-8");
+        } catch (Exception ex) {
+            file.delete();
+            throw ex;
+        }
     }
 
+    /**
+     * Makes a separate downloadscalars request for each log concurrently and returns a merger over the resulting CSV
+     * responses. Each response is downloaded in full (to a temporary file) before merging starts, so no upstream
+     * connection is held open while the merged CSV is consumed. The caller is responsible for closing the merger.
+     */
+    private ScalarCSVMerger openMergedCSV(String serviceUrl, String[] logIds) throws Exception {
+        final String downloadUrl = serviceUrl + "downloadscalars.html";
+        List<Callable<Reader>> tasks = new ArrayList<Callable<Reader>>(logIds.length);
+        for (final String logId : logIds) {
+            tasks.add(new Callable<Reader>() {
+                @Override
+                public Reader call() throws Exception {
+                    return downloadLogCSV(downloadUrl, logId);
+                }
+            });
+        }
+
+        //Wait for every download to complete. If any fail, make sure we close (and delete) every download that succeeded
+        List<Reader> readers = new ArrayList<Reader>(logIds.length);
+        Exception error = null;
+        for (FutureTask<Reader> future : FanOut.submitAll(executor, tasks)) {
+            try {
+                readers.add(FanOut.getResult(future));
+            } catch (Exception ex) {
+                if (error == null) {
+                    error = ex;
+                }
+            }
+        }
+
+        if (error != null) {
+            for (Reader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+            throw error;
+        }
 
+        return new ScalarCSVMerger(readers);
+    }
 
     /**
      * Makes a CSV download request from NVCL 2.0 service and returns the resulting data in a CSVDownloadResponse
@@ -74,18 +183,60 @@ public class NVCL2_0_DataService {
         return new CSVDownloadResponse(responseStream, contentHeader == null ? null : contentHeader.getValue());
     }
 
-    private String getMostCountedValue(HashMap<String, Integer> map) {
-        String largestValue = null;
-        int largestCount = Integer.MIN_VALUE;
+    /**
+     * Downloads each log from an NVCL 2.0 service with a separate (concurrent) request and returns a merger over the
+     * responses (merged by depth). The responses are downloaded in full to temporary files (rather than memory) before
+     * this method returns, so any upstream failure is thrown here rather than while the merged CSV is written.
+     *
+     * @param serviceUrl
+     *            The URL of an observation and measurements URL (obtained from a getDatasetCollection response)
+     * @param logIds
+     *            The logs to download
+     * @return A merger that must be closed by the caller (normally via writeMergedCSV)
+     * @throws Exception
+     */
+    public ScalarCSVMerger openNVCL2_0_CSVDownloadParallel(String serviceUrl, String[] logIds) throws Exception {
+        return openMergedCSV(serviceUrl, logIds);
+    }
 
-        for (Entry<String, Integer> entry : map.entrySet()) {
-            if (entry.getValue() > largestCount) {
-                largestCount = entry.getValue();
-                largestValue = entry.getKey();
+    /**
+     * Writes every row of merger to output as CSV (header first) and closes merger.
+     *
+     * @param merger
+     *            The merger to write (obtained from openNVCL2_0_CSVDownloadParallel)
+     * @param output
+     *            Where the merged CSV will be written. Will be flushed but not closed.
+     * @throws IOException
+     */
+    public void writeMergedCSV(ScalarCSVMerger merger, Writer output) throws IOException {
+        try {
+            CSVWriter writer = new CSVWriter(output, ',', CSVWriter.NO_QUOTE_CHARACTER);
+            writer.writeNext(merger.getHeader());
+            String[] row = null;
+            while ((row = merger.readNext()) != null) {
+                writer.writeNext(row);
             }
+            writer.flush();
+        } finally {
+            merger.close();
         }
+    }
 
-        return largestValue;
+    /**
+     * Downloads each log from an NVCL 2.0 service with a separate (concurrent) request and writes a CSV file to output
+     * containing the responses merged by depth. The responses are downloaded to temporary files (rather than memory)
+     * before the merged CSV is written.
+     *
+     * @param serviceUrl
+     *            The URL of an observation and measurements URL (obtained from a getDatasetCollection response)
+     * @param logIds
+     *            The logs to download
+     * @param output
+     *            Where the merged CSV will be written. Will be flushed but not closed.
+     * @throws Exception
+     */
+    public void writeNVCL2_0_CSVDownloadParallel(String serviceUrl, String[] logIds, Writer output) throws Exception {
+        writeMergedCSV(openMergedCSV(serviceUrl, logIds), output);
     }
 
     /**
@@ -109,139 +260,219 @@ public class NVCL2_0_DataService {
      * @throws Exception
      */
     public BinnedCSVResponse getNVCL2_0_CSVBinned(String serviceUrl, String[] logIds, double binSizeMetres) throws Exception {
-        final String MISSING_DATA_STRING = "null";
-        final int INITIAL_LIST_SIZE = 512;
         serviceUrl += "downloadscalars.html";
 
         HttpRequestBase method = nvclMethodMaker.getDownloadCSVMethod(serviceUrl, logIds);
         InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
-        CSVReader reader = null;
-        BinnedCSVResponse binnedResponse = new BinnedCSVResponse();
         try {
-            //Prepare parsing
-            reader = new CSVReader(new InputStreamReader(responseStream), ',', '\'', 0);
-            String[] headerLine = reader.readNext();
-            if (headerLine == null || headerLine.length <= 2) {
-                throw new IOException("No or malformed CSV header sent");
-            }
+            return ScalarBinAggregator.aggregate(new InputStreamReader(responseStream), binSizeMetres);
+        } finally {
+            IOUtils.closeQuietly(responseStream);
+        }
+    }
 
-            //Prepare our bins
-            Bin[] bins = new Bin[headerLine.length - 2];
-            List<HashMap<String, Integer>> valueCounts = new ArrayList<HashMap<String, Integer>>(bins.length);
-            double[] numericTotal = new double[bins.length];
-            int[] numericCount = new int[bins.length];
-            double currentBinStartDepth = -Double.MAX_VALUE;
-            int currentBinSize = 0;
-            for (int i = 0; i < bins.length; i++) {
-                bins[i] = binnedResponse.new Bin(headerLine[2 + i], new ArrayList<Double>(INITIAL_LIST_SIZE), true, new ArrayList<Map<String, Integer>>(INITIAL_LIST_SIZE), new ArrayList<String>(INITIAL_LIST_SIZE), new ArrayList<Double>(INITIAL_LIST_SIZE));
-                bins[i].setNumeric(true);
-                valueCounts.add(new HashMap<String, Integer>());
-            }
+    /**
+     * Gets binned data for the specified logs at binSizeMetres resolution. If binSizeMetres is one of PYRAMID_BIN_SIZES,
+     * each log will be binned at every pyramid resolution (with a single download) and cached so that later requests for
+     * any resolution of that log can be served from memory. Other bin sizes will always be requested from the service.
+     *
+     * @param serviceUrl
+     * @param logIds
+     * @param binSizeMetres
+     * @return
+     * @throws Exception
+     */
+    public BinnedCSVResponse getNVCL2_0_CSVBinnedCached(String serviceUrl, String[] logIds, double binSizeMetres) throws Exception {
+        return getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, binSizeMetres, false);
+    }
 
-            //Start parsing our data - loading it into bins
-            String[] dataLine = null;
-            while ((dataLine = reader.readNext()) != null) {
-                if (dataLine.length != headerLine.length) {
-                    continue; //skip malformed lines
-                }
+    /**
+     * Gets binned data for the specified logs at binSizeMetres resolution. If binSizeMetres is one of PYRAMID_BIN_SIZES,
+     * each log will be binned at every pyramid resolution (with a single download) and cached so that later requests for
+     * any resolution of that log can be served from memory. Logs that aren't cached yet are downloaded together with a
+     * single request. Other bin sizes will always be requested from the service. The returned bins are copies that can
+     * be safely modified.
+     *
+     * @param serviceUrl
+     * @param logIds
+     * @param binSizeMetres
+     * @param parallel
+     *            Only applies to non pyramid bin sizes. If true, each log will be requested separately and concurrently.
+     *            Otherwise the logs are requested all together.
+     * @return
+     * @throws Exception
+     */
+    public BinnedCSVResponse getNVCL2_0_CSVBinnedCached(final String serviceUrl, String[] logIds, double binSizeMetres, boolean parallel) throws Exception {
+        int level = Arrays.binarySearch(PYRAMID_BIN_SIZES, binSizeMetres);
+        if (level < 0) {
+            if (!parallel) {
+                return getNVCL2_0_CSVBinned(serviceUrl, logIds, binSizeMetres);
+            }
 
-                //If we've exceeded our current bin size - save the data and start a new bin
-                double depth = Double.parseDouble(dataLine[0]);
-                if (depth - currentBinStartDepth >= binSizeMetres) {
+            ScalarCSVMerger merger = openMergedCSV(serviceUrl, logIds);
+            try {
+                return ScalarBinAggregator.aggregate(merger, binSizeMetres);
+            } finally {
+                merger.close();
+            }
+        }
 
-                    if (currentBinStartDepth == -Double.MAX_VALUE) {
-                        currentBinStartDepth = depth;
-                    }
+        BinnedCSVResponse response = new BinnedCSVResponse();
+        Bin[][] pyramids = getBinPyramids(serviceUrl, logIds);
+        Bin[] bins = new Bin[logIds.length];
+        for (int i = 0; i < logIds.length; i++) {
+            bins[i] = response.new Bin(pyramids[i][level]);
+        }
+        response.setBinnedValues(bins);
+        response.setBinSize(binSizeMetres);
 
-                    for (int i = 0; i < bins.length; i++) {
-                        if (bins[i].isNumeric()) {
-                            if (numericCount[i] > 0) {
-                                bins[i].getNumericValues().add(numericTotal[i] / (double) numericCount[i]);
-                                bins[i].getStartDepths().add(currentBinStartDepth);
-                            }
-                        } else {
-                            String value = getMostCountedValue(valueCounts.get(i));
-                            if (value != null) {
-                                bins[i].getStartDepths().add(currentBinStartDepth);
-                                bins[i].getHighStringValues().add(value);
-                                bins[i].getStringValues().add(valueCounts.get(i));
-                            }
-                        }
-                    }
+        return response;
+    }
 
-                    //Reset our working bin data
-                    for (int i = 0; i < bins.length; i++) {
-                        valueCounts.set(i, new HashMap<String, Integer>());
-                        numericTotal[i] = 0.0;
-                        numericCount[i] = 0;
-                    }
+    /**
+     * Makes a CSV download request from an NVCL 2.0 service and downsamples each numeric scalar to at most targetPoints
+     * points using the Largest-Triangle-Three-Buckets algorithm. Non numeric scalars are binned into binSizeMetres bins
+     * (as per getNVCL2_0_CSVBinned).
+     *
+     * If binSizeMetres is one of PYRAMID_BIN_SIZES, the logs are read from the bin pyramid cache instead (see
+     * getNVCL2_0_CSVBinnedCached) and each numeric scalar is downsampled from its finest pyramid level.
+     *
+     * @param serviceUrl
+     * @param logIds
+     * @param targetPoints
+     *            The maximum number of points to return for each numeric scalar
+     * @param binSizeMetres
+     *            The size of each bin in metres (for non numeric scalars)
+     * @param parallel
+     *            Only applies to non pyramid bin sizes. If true, each log will be requested separately and concurrently
+     * @return
+     * @throws Exception
+     */
+    public BinnedCSVResponse getNVCL2_0_CSVDownsampled(String serviceUrl, String[] logIds, int targetPoints, double binSizeMetres, boolean parallel) throws Exception {
+        int level = Arrays.binarySearch(PYRAMID_BIN_SIZES, binSizeMetres);
+        if (level >= 0) {
+            BinnedCSVResponse response = new BinnedCSVResponse();
+            Bin[][] pyramids = getBinPyramids(serviceUrl, logIds);
+            Bin[] bins = new Bin[logIds.length];
+            for (int i = 0; i < logIds.length; i++) {
+                Bin finest = pyramids[i][0];
+                bins[i] = finest.isNumeric() ? LTTBDownsampler.downsample(response, finest, targetPoints) : response.new Bin(pyramids[i][level]);
+            }
+            response.setBinnedValues(bins);
+            response.setBinSize(binSizeMetres);
+            return response;
+        }
 
-                    currentBinStartDepth = depth;
-                    currentBinSize = 0;
-                }
+        if (parallel) {
+            ScalarCSVMerger merger = openMergedCSV(serviceUrl, logIds);
+            try {
+                return LTTBDownsampler.downsample(merger, targetPoints, binSizeMetres);
+            } finally {
+                merger.close();
+            }
+        }
 
-                //Build up our current bin
-                boolean dataAdded = false;
-                for (int i = 0; i < bins.length; i++) {
-                    String rawBinData = dataLine[2 + i];
-                    if (rawBinData == null || rawBinData.isEmpty() || rawBinData.equals(MISSING_DATA_STRING)) {
-                        continue; //skip missing data
-                    } else {
-                        dataAdded = true;
-                    }
+        HttpRequestBase method = nvclMethodMaker.getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);
+        InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+        try {
+            return LTTBDownsampler.downsample(new InputStreamReader(responseStream), targetPoints, binSizeMetres);
+        } finally {
+            IOUtils.closeQuietly(responseStream);
+        }
+    }
 
-                    if (bins[i].isNumeric()) {
-                        try {
-                            double newData = Double.parseDouble(rawBinData);
-                            numericCount[i]++;
-                            numericTotal[i] += newData;
-                        } catch (NumberFormatException nfe) {
-                            //OK - this column isn't actually numeric
-                            bins[i].setNumeric(false);
-                        }
-                    }
+    /**
+     * The key a log's bin pyramid is cached against
+     */
+    private static String getPyramidKey(String serviceUrl, String logId) {
+        return serviceUrl + "\n" + logId;
+    }
 
-                    if (!bins[i].isNumeric()) {
-                        Integer currentCount = valueCounts.get(i).get(rawBinData);
-                        if (currentCount == null) {
-                            valueCounts.get(i).put(rawBinData, 1);
-                        } else {
-                            valueCounts.get(i).put(rawBinData, currentCount + 1);
-                        }
-                    }
-                }
-                if (dataAdded) {
-                    currentBinSize++;
+    /**
+     * Gets the bin pyramid for each log (in order). Cached pyramids are returned straight away, the rest are downloaded
+     * together with a single request. A log that is already being downloaded (eg by another request) isn't downloaded
+     * again.
+     *
+     * The returned pyramids are the cached instances and must not be modified (or handed out).
+     */
+    private Bin[][] getBinPyramids(final String serviceUrl, String[] logIds) throws Exception {
+        Bin[][] pyramids = new Bin[logIds.length][];
+        List<Integer> misses = new ArrayList<Integer>();
+        final List<String> missingLogIds = new ArrayList<String>();
+        for (int i = 0; i < logIds.length; i++) {
+            pyramids[i] = pyramidCache.getIfPresent(getPyramidKey(serviceUrl, logIds[i]));
+            if (pyramids[i] == null) {
+                misses.add(i);
+                if (!missingLogIds.contains(logIds[i])) {
+                    missingLogIds.add(logIds[i]);
                 }
             }
+        }
 
-            //If we've got a partial bin at the end - let's include the data
-            if (currentBinSize > 0) {
-                for (int i = 0; i < bins.length; i++) {
-                    if (bins[i].isNumeric()) {
-                        if (numericCount[i] > 0) {
-                            bins[i].getNumericValues().add(numericTotal[i] / (double) numericCount[i]);
-                            bins[i].getStartDepths().add(currentBinStartDepth);
-                        }
-                    } else {
-                        String value = getMostCountedValue(valueCounts.get(i));
-                        if (value != null) {
-                            bins[i].getStartDepths().add(currentBinStartDepth);
-                            bins[i].getHighStringValues().add(value);
-                            bins[i].getStringValues().add(valueCounts.get(i));
-                        }
-                    }
-                }
+        //Every missing log is loaded from the same download. It's only made by the first loader that runs, loaders
+        //for logs that are in flight elsewhere are never run.
+        final FutureTask<Bin[][]> download = new FutureTask<Bin[][]>(new Callable<Bin[][]>() {
+            @Override
+            public Bin[][] call() throws Exception {
+                return downloadBinPyramids(serviceUrl, missingLogIds.toArray(new String[missingLogIds.size()]));
             }
+        });
+        for (int miss : misses) {
+            final int column = missingLogIds.indexOf(logIds[miss]);
+            pyramids[miss] = pyramidCache.get(getPyramidKey(serviceUrl, logIds[miss]), new Callable<Bin[]>() {
+                @Override
+                public Bin[] call() throws Exception {
+                    return FanOut.getResult(download)[column];
+                }
+            });
+        }
+        return pyramids;
+    }
 
-            binnedResponse.setBinnedValues(bins);
-            binnedResponse.setBinSize(binSizeMetres);
+    /**
+     * Downloads every log with a single request and bins each at every resolution in PYRAMID_BIN_SIZES. The service
+     * returns a column for each log in the requested order.
+     */
+    private Bin[][] downloadBinPyramids(String serviceUrl, String[] logIds) throws Exception {
+        HttpRequestBase method = nvclMethodMaker.getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);
+        InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+        BinnedCSVResponse[] levels = null;
+        try {
+            levels = ScalarBinAggregator.aggregate(new InputStreamReader(responseStream), PYRAMID_BIN_SIZES);
         } finally {
-            IOUtils.closeQuietly(reader);
             IOUtils.closeQuietly(responseStream);
         }
 
-        return binnedResponse;
+        Bin[][] pyramids = new Bin[logIds.length][levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i].getBinnedValues().length != logIds.length) {
+                throw new IOException(String.format("Expected %1$d scalars for logs %2$s but received %3$d", logIds.length, Arrays.toString(logIds), levels[i].getBinnedValues().length));
+            }
+            for (int j = 0; j < logIds.length; j++) {
+                pyramids[j][i] = levels[i].getBinnedValues()[j];
+            }
+        }
+
+        return pyramids;
+    }
+
+    /**
+     * Weighs a cached bin pyramid by the approximate size (in bytes) of its binned values
+     */
+    private static class BinPyramidWeigher implements ExpiringCache.Weigher<String, Bin[]> {
+        @Override
+        public long weigh(String key, Bin[] pyramid) {
+            long weight = key.length() * 2;
+            for (Bin bin : pyramid) {
+                weight += bin.getStartDepths().size() * 8L;
+                weight += bin.getNumericValues().size() * 8L;
+                weight += bin.getStringValues().size() * (8L + bin.getStringDictionary().size() * 4L);
+                for (String value : bin.getStringDictionary()) {
+                    weight += value.length() * 2;
+                }
+            }
+            return weight;
+        }
     }
 
     public TrayThumbNailResponse getTrayThumbNail(String dataSetId, String serviceUrl, String logId,
@@ -266,41 +497,34 @@ public class NVCL2_0_DataService {
      *            The unique dataset ID to query
      * @param forMosaicService
      *            [Optional] indicates if the getLogCollection service should generate a result specifically for the use of a Mosaic Service
+     * @return An unmodifiable list that may be shared with other callers (responses are cached for METADATA_CACHE_TTL)
      * @throws Exception
      */
-    public List<GetLogCollectionResponse> getLogCollection(String serviceUrl, String datasetId, Boolean forMosaicService)
+    public List<GetLogCollectionResponse> getLogCollection(final String serviceUrl, final String datasetId, final Boolean forMosaicService)
+            throws Exception {
+        String key = serviceUrl + "\n" + datasetId + "\n" + forMosaicService;
+        return logCollectionCache.get(key, new Callable<List<GetLogCollectionResponse>>() {
+            @Override
+            public List<GetLogCollectionResponse> call() throws Exception {
+                return Collections.unmodifiableList(requestLogCollection(serviceUrl, datasetId, forMosaicService));
+            }
+        });
+    }
+
+    /**
+     * Makes and parses a getLogCollection request to a NVCLDataService (bypassing the cache)
+     */
+    private List<GetLogCollectionResponse> requestLogCollection(String serviceUrl, String datasetId, Boolean forMosaicService)
             throws Exception {
         HttpRequestBase method = nvclMethodMaker.getLogCollectionMethod(serviceUrl, datasetId, forMosaicService);
 
-        //Make our request, parse it into a DOM document
+        //Make our request, parse it straight into our response objects
         InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
-        Document responseDoc = DOMUtil.buildDomFromStream(responseStream);
-
-        //Get our dataset nodes
-        XPathExpression expr = DOMUtil.compileXPathExpr("LogCollection/Log");
-        NodeList nodeList = (NodeList) expr.evaluate(responseDoc, XPathConstants.NODESET);
-
-        //Parse our response objects
-        List<GetLogCollectionResponse> responseObjs = new ArrayList<GetLogCollectionResponse>();
-        XPathExpression exprLogId = DOMUtil.compileXPathExpr("LogID");
-        XPathExpression exprLogName = DOMUtil.compileXPathExpr("LogName");
-        XPathExpression exprSampleCount = DOMUtil.compileXPathExpr("SampleCount");
-
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-
-            String logId = (String) exprLogId.evaluate(node, XPathConstants.STRING);
-            String logName = (String) exprLogName.evaluate(node, XPathConstants.STRING);
-            String sampleCountString = (String) exprSampleCount.evaluate(node, XPathConstants.STRING);
-            int sampleCount = 0;
-            if (sampleCountString != null && !sampleCountString.isEmpty()) {
-                sampleCount = Integer.parseInt(sampleCountString);
-            }
-
-            responseObjs.add(new GetLogCollectionResponse(logId, logName, sampleCount));
+        try {
+            return NVCLCollectionParser.parseLogCollection(responseStream, "LogName", false);
+        } finally {
+            IOUtils.closeQuietly(responseStream);
         }
-
-        return responseObjs;
     }
 
 }
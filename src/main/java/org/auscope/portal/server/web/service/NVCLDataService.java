@@ -1,12 +1,11 @@
 package org.auscope.portal.server.web.service;
 
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
@@ -15,7 +14,8 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
-import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.nvcl.NVCLCollectionParser;
+import org.auscope.portal.server.cache.CoalescingCache;
 import org.auscope.portal.server.domain.nvcldataservice.CSVDownloadResponse;
 import org.auscope.portal.server.domain.nvcldataservice.GetDatasetCollectionResponse;
 import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
@@ -29,9 +29,6 @@ import org.auscope.portal.server.web.NVCLDataServiceMethodMaker;
 import org.auscope.portal.server.web.NVCLDataServiceMethodMaker.PlotScalarGraphType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Service class for accessing an instance of a NVCLDataService web service.
@@ -43,11 +40,18 @@ import org.w3c.dom.NodeList;
 @Service
 public class NVCLDataService {
 
+    /** The maximum number of getDatasetCollection (and separately getLogCollection) responses that will be cached */
+    public static final long METADATA_CACHE_MAX_ENTRIES = 1000;
+    /** How long (in milliseconds) a getDatasetCollection/getLogCollection response will be cached for */
+    public static final long METADATA_CACHE_TTL = 15L * 60L * 1000L;
+
     private final Log log = LogFactory.getLog(getClass());
 
     private HttpServiceCaller httpServiceCaller;
     private NVCLDataServiceMethodMaker methodMaker;
     private WFSGetFeatureMethodMaker wfsMethodMaker;
+    private CoalescingCache<String, List<GetDatasetCollectionResponse>> datasetCollectionCache;
+    private CoalescingCache<String, List<GetLogCollectionResponse>> logCollectionCache;
 
     /**
      * Creates a new NVCLDataService with the specified dependencies
@@ -58,6 +62,8 @@ public class NVCLDataService {
         this.httpServiceCaller = httpServiceCaller;
         this.methodMaker = methodMaker;
         this.wfsMethodMaker = wfsMethodMaker;
+        this.datasetCollectionCache = new CoalescingCache<String, List<GetDatasetCollectionResponse>>(METADATA_CACHE_MAX_ENTRIES, METADATA_CACHE_TTL);
+        this.logCollectionCache = new CoalescingCache<String, List<GetLogCollectionResponse>>(METADATA_CACHE_MAX_ENTRIES, METADATA_CACHE_TTL);
     }
 
     /**
@@ -67,35 +73,34 @@ public class NVCLDataService {
      *            The NVCLDataService url
      * @param holeIdentifier
      *            The unique borehole ID to query
+     * @return An unmodifiable list that may be shared with other callers (responses are cached for METADATA_CACHE_TTL)
      * @throws Exception
      */
-    public List<GetDatasetCollectionResponse> getDatasetCollection(String serviceUrl, String holeIdentifier)
+    public List<GetDatasetCollectionResponse> getDatasetCollection(final String serviceUrl, final String holeIdentifier)
+            throws Exception {
+        String key = serviceUrl + "\n" + holeIdentifier;
+        return datasetCollectionCache.get(key, new Callable<List<GetDatasetCollectionResponse>>() {
+            @Override
+            public List<GetDatasetCollectionResponse> call() throws Exception {
+                return Collections.unmodifiableList(requestDatasetCollection(serviceUrl, holeIdentifier));
+            }
+        });
+    }
+
+    /**
+     * Makes and parses a getDatasetCollection request to a NVCLDataService (bypassing the cache)
+     */
+    private List<GetDatasetCollectionResponse> requestDatasetCollection(String serviceUrl, String holeIdentifier)
             throws Exception {
         HttpRequestBase method = methodMaker.getDatasetCollectionMethod(serviceUrl, holeIdentifier);
 
-        //Make our request, parse it into a DOM document
+        //Make our request, parse it straight into our response objects
         InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
-        Document responseDoc = DOMUtil.buildDomFromStream(responseStream);
-
-        //Get our dataset nodes
-        XPathExpression expr = DOMUtil.compileXPathExpr("DatasetCollection/Dataset");
-        NodeList nodeList = (NodeList) expr.evaluate(responseDoc, XPathConstants.NODESET);
-
-        //Parse our response objects
-        List<GetDatasetCollectionResponse> responseObjs = new ArrayList<GetDatasetCollectionResponse>();
-        XPathExpression exprDatasetId = DOMUtil.compileXPathExpr("DatasetID");
-        XPathExpression exprDatasetName = DOMUtil.compileXPathExpr("DatasetName");
-        XPathExpression exprOmUrl = DOMUtil.compileXPathExpr("OmUrl");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-
-            String datasetId = (String) exprDatasetId.evaluate(node, XPathConstants.STRING);
-            String datasetName = (String) exprDatasetName.evaluate(node, XPathConstants.STRING);
-            String omUrl = (String) exprOmUrl.evaluate(node, XPathConstants.STRING);
-            responseObjs.add(new GetDatasetCollectionResponse(datasetId, datasetName, omUrl));
+        try {
+            return NVCLCollectionParser.parseDatasetCollection(responseStream);
+        } finally {
+            IOUtils.closeQuietly(responseStream);
         }
-
-        return responseObjs;
     }
 
     /**
@@ -107,49 +112,40 @@ public class NVCLDataService {
      *            The unique dataset ID to query
      * @param forMosaicService
      *            [Optional] indicates if the getLogCollection service should generate a result specifically for the use of a Mosaic Service
+     * @return An unmodifiable list that may be shared with other callers (responses are cached for METADATA_CACHE_TTL)
      * @throws Exception
      */
-    public List<GetLogCollectionResponse> getLogCollection(String serviceUrl, String datasetId, Boolean forMosaicService)
+    public List<GetLogCollectionResponse> getLogCollection(final String serviceUrl, final String datasetId, final Boolean forMosaicService)
             throws Exception {
-        HttpRequestBase method = methodMaker.getLogCollectionMethod(serviceUrl, datasetId, forMosaicService);
-
-        //Make our request, parse it into a DOM document
-        InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
-        Document responseDoc = DOMUtil.buildDomFromStream(responseStream);
+        String key = serviceUrl + "\n" + datasetId + "\n" + forMosaicService;
+        return logCollectionCache.get(key, new Callable<List<GetLogCollectionResponse>>() {
+            @Override
+            public List<GetLogCollectionResponse> call() throws Exception {
+                return Collections.unmodifiableList(requestLogCollection(serviceUrl, datasetId, forMosaicService));
+            }
+        });
+    }
 
-        //Get our dataset nodes
-        XPathExpression expr = DOMUtil.compileXPathExpr("LogCollection/Log");
-        NodeList nodeList = (NodeList) expr.evaluate(responseDoc, XPathConstants.NODESET);
+    /**
+     * Makes and parses a getLogCollection request to a NVCLDataService (bypassing the cache)
+     */
+    private List<GetLogCollectionResponse> requestLogCollection(String serviceUrl, String datasetId, Boolean forMosaicService)
+            throws Exception {
+        HttpRequestBase method = methodMaker.getLogCollectionMethod(serviceUrl, datasetId, forMosaicService);
 
-        //Parse our response objects
-        List<GetLogCollectionResponse> responseObjs = new ArrayList<GetLogCollectionResponse>();
-        XPathExpression exprLogId = DOMUtil.compileXPathExpr("LogID");
-        XPathExpression exprLogName = null; //both logName and LogName get returned according to the value of forMosaicService
+        //both logName and LogName get returned according to the value of forMosaicService
+        String logNameElement = "logName";
         if (forMosaicService != null && forMosaicService.booleanValue()) {
-            exprLogName = DOMUtil.compileXPathExpr("LogName");
-        } else {
-            exprLogName = DOMUtil.compileXPathExpr("logName");
-        }
-        XPathExpression exprispublic = DOMUtil.compileXPathExpr("ispublic");
-        XPathExpression exprSampleCount = DOMUtil.compileXPathExpr("SampleCount");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-
-            String logId = (String) exprLogId.evaluate(node, XPathConstants.STRING);
-            String logName = (String) exprLogName.evaluate(node, XPathConstants.STRING);
-            String sampleCountString = (String) exprSampleCount.evaluate(node, XPathConstants.STRING);
-            String ispub = (String) exprispublic.evaluate(node, XPathConstants.STRING);
-
-            int sampleCount = 0;
-            if (sampleCountString != null && !sampleCountString.isEmpty()) {
-                sampleCount = Integer.parseInt(sampleCountString);
-            }
-            if(ispub==null || ispub.isEmpty() || ispub.equals("true")) {
-                responseObjs.add(new GetLogCollectionResponse(logId, logName, sampleCount));
-            }
+            logNameElement = "LogName";
         }
 
-        return responseObjs;
+        //Make our request, parse it straight into our response objects (skipping any non public logs)
+        InputStream responseStream = httpServiceCaller.getMethodResponseAsStream(method);
+        try {
+            return NVCLCollectionParser.parseLogCollection(responseStream, logNameElement, true);
+        } finally {
+            IOUtils.closeQuietly(responseStream);
+        }
     }
 
     /**
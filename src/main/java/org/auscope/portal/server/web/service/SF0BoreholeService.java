@@ -1,6 +1,8 @@
 package org.auscope.portal.server.web.service;
 
+import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
@@ -54,14 +56,41 @@ public class SF0BoreholeService extends BoreholeService {
      *
      * @param serviceURL
      * @param bbox
-     *            Set to the bounding box in which to fetch results, otherwise set it to null
+     *            Set to the bounding box in which to fetch results, otherwise set it to null. Unless maxFeatures is set,
+     *            it will be snapped outwards to a grid (or covered with tiles if a TiledFeatureCache is set) so that
+     *            similar requests can share cached responses.
      * @param restrictToIDList
      *            [Optional] A list of gml:id values that the resulting filter should restrict its search space to
      * @return
      * @throws Exception
      */
-    public WFSResponse getAllBoreholes(String serviceURL, String boreholeName, String custodian,
-            String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, String outputFormat) throws Exception {
+    public WFSResponse getAllBoreholes(final String serviceURL, final String boreholeName, final String custodian,
+            final String dateOfDrillingStart, final String dateOfDrillingEnd, final int maxFeatures, FilterBoundingBox bbox, final String outputFormat) throws Exception {
+        if (isTiled(bbox, outputFormat)) {
+            String queryKey = generateCacheKey("SF0BoreholeFilter", serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, null, null, outputFormat);
+            return getTiledResponse(queryKey, bbox, maxFeatures, new TiledFeatureCache.TileRequestMaker() {
+                @Override
+                public HttpRequestBase makeRequest(FilterBoundingBox tile) throws Exception {
+                    return generateAllBoreholesRequest(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, tile, outputFormat);
+                }
+            });
+        }
+
+        final FilterBoundingBox queryBbox = getQueryBbox(bbox, maxFeatures);
+        String key = generateCacheKey("SF0BoreholeFilter", serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, null, outputFormat);
+        return getCachedResponse(key, new Callable<WFSResponse>() {
+            @Override
+            public WFSResponse call() throws Exception {
+                return requestAllBoreholes(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, queryBbox, outputFormat);
+            }
+        });
+    }
+
+    /**
+     * Generates a request for all SF0 Boreholes matching the specified filter
+     */
+    private HttpRequestBase generateAllBoreholesRequest(String serviceURL, String boreholeName, String custodian,
+            String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, String outputFormat) throws URISyntaxException {
         String filterString;
         SF0BoreholeFilter sf0BoreholeFilter = new SF0BoreholeFilter(boreholeName, custodian, dateOfDrillingStart,dateOfDrillingEnd, null,null);
         if (bbox == null) {
@@ -70,12 +99,21 @@ public class SF0BoreholeService extends BoreholeService {
             filterString = sf0BoreholeFilter.getFilterStringBoundingBox(bbox);
         }
 
+        // Create a GetFeature request with an empty filter - get all
+        return this.generateWFSRequest(serviceURL, getTypeName(), null, filterString, maxFeatures, null,
+                ResultType.Results, outputFormat);
+    }
+
+    /**
+     * Makes a single request for all SF0 Boreholes matching the specified filter
+     */
+    private WFSResponse requestAllBoreholes(String serviceURL, String boreholeName, String custodian,
+            String dateOfDrillingStart,String dateOfDrillingEnd, int maxFeatures, FilterBoundingBox bbox, String outputFormat) throws Exception {
         HttpRequestBase method = null;
         try {
-            // Create a GetFeature request with an empty filter - get all
-            method = this.generateWFSRequest(serviceURL, getTypeName(), null, filterString, maxFeatures, null,
-                    ResultType.Results, outputFormat);
+            method = generateAllBoreholesRequest(serviceURL, boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, maxFeatures, bbox, outputFormat);
             String responseGml = this.httpServiceCaller.getMethodResponseAsString(method);
+            checkForExceptionResponse(responseGml);
 
             return new WFSResponse(responseGml, method);
         } catch (Exception ex) {
@@ -90,6 +128,21 @@ public class SF0BoreholeService extends BoreholeService {
         return generateFilterString(filter, bbox);
     }
 
+    /**
+     * As per getFilter except ids will be matched with a small number of ID range comparisons (rather than one gml:id
+     * comparison per ID). Intended for WMS styles restricted to large ID lists.
+     *
+     * @param ids
+     *            [Optional] A list of borehole ID's that the resulting filter should restrict its search space to
+     * @return
+     * @throws Exception
+     */
+    public String getCompactIDFilter(String boreholeName, String custodian, String dateOfDrillingStart, String dateOfDrillingEnd,
+            int maxFeatures, FilterBoundingBox bbox, List<String> ids, Boolean justNVCL) throws Exception {
+        SF0BoreholeFilter filter = new SF0BoreholeFilter(boreholeName, custodian, dateOfDrillingStart, dateOfDrillingEnd, ids, justNVCL, true);
+        return generateFilterString(filter, bbox);
+    }
+
     @Override
     public String getTypeName() {
         return "gsmlp:BoreholeView";
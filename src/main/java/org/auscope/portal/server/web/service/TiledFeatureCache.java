@@ -0,0 +1,316 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.auscope.portal.core.services.responses.wfs.WFSResponse;
+import org.auscope.portal.server.cache.CoalescingCache;
+import org.auscope.portal.server.cache.ExpiringCache;
+
+/**
+ * A cache of WFS GetFeature responses for bounding box queries that is shared by overlapping map views.
+ *
+ * Rather than requesting the (arbitrary) bounding box of a view, the view is covered with tiles from a fixed grid whose
+ * cell size depends on the size of the view (a "zoom level"). Each tile is requested (and cached) separately so a
+ * response can be assembled from cached tiles plus only the tiles that haven't been requested yet. Tile responses are
+ * merged with FeatureCollectionMerger (dropping features that are returned by more than one tile).
+ *
+ * As tiles extend past the edges of a view, responses may include features from just outside the requested bounding
+ * box. Tiles nearest the centre of the view are merged first so if maxFeatures truncates the response, features
+ * inside the view are favoured.
+ *
+ * Only GML responses can be tiled. A tile that isn't a FeatureCollection (eg an OWS exception report) will not be
+ * cached and will be returned in place of the merged response.
+ */
+public class TiledFeatureCache {
+
+    /** The default maximum (approximate) size in bytes of all cached tiles */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+    /** The default time (in milliseconds) a tile will be cached for */
+    public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+    /** At zoom level 0 a tile is this wide (in the units of the bounding box CRS). Each zoom level halves the width. */
+    public static final double ZOOM_0_TILE_SIZE = 360.0;
+    /** The maximum zoom level (stops degenerate bounding boxes generating tiny tiles) */
+    public static final int MAX_ZOOM = 24;
+
+    /**
+     * Makes a request for all features (matching some query) in a bounding box
+     */
+    public interface TileRequestMaker {
+        /**
+         * Makes a WFS GetFeature request for the features in bbox
+         *
+         * @param bbox
+         *            The bounding box to query
+         * @return
+         * @throws Exception
+         */
+        HttpRequestBase makeRequest(FilterBoundingBox bbox) throws Exception;
+    }
+
+    /**
+     * Thrown when a tile response can't (or shouldn't) be cached
+     */
+    private static class UncacheableTileException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private String response;
+
+        public UncacheableTileException(String response) {
+            this.response = response;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+    }
+
+    private HttpServiceCaller httpServiceCaller;
+    private CoalescingCache<String, String> tileCache;
+    private Executor executor;
+
+    /**
+     * Creates a new cache with the default size and TTL
+     *
+     * @param httpServiceCaller
+     *            Used for requesting tiles
+     */
+    public TiledFeatureCache(HttpServiceCaller httpServiceCaller) {
+        this(httpServiceCaller, DEFAULT_MAX_BYTES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param httpServiceCaller
+     *            Used for requesting tiles
+     * @param maxBytes
+     *            The maximum (approximate) size in bytes of all cached tiles
+     * @param ttlMillis
+     *            How long (in milliseconds) a tile will be cached for
+     */
+    public TiledFeatureCache(HttpServiceCaller httpServiceCaller, long maxBytes, long ttlMillis) {
+        this.httpServiceCaller = httpServiceCaller;
+        this.tileCache = new CoalescingCache<String, String>(new ExpiringCache<String, String>(maxBytes, ttlMillis,
+                new ExpiringCache.Weigher<String, String>() {
+                    @Override
+                    public long weigh(String key, String response) {
+                        return (key.length() + response.length()) * 2L;
+                    }
+                }));
+    }
+
+    /**
+     * Sets the executor used for requesting tiles (normally the shared taskExecutor). If null, tiles will be requested
+     * sequentially on the calling thread.
+     *
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Removes every cached tile
+     */
+    public void clear() {
+        tileCache.clear();
+    }
+
+    /**
+     * Returns true if bbox can be covered with tiles
+     *
+     * @param bbox
+     *            [Optional] A bounding box
+     * @return
+     */
+    public static boolean isTileable(FilterBoundingBox bbox) {
+        if (bbox == null || bbox.getLowerCornerPoints() == null || bbox.getUpperCornerPoints() == null
+                || bbox.getLowerCornerPoints().length != 2 || bbox.getUpperCornerPoints().length != 2) {
+            return false;
+        }
+
+        for (int i = 0; i < 2; i++) {
+            if (Double.isNaN(bbox.getLowerCornerPoints()[i]) || Double.isInfinite(bbox.getLowerCornerPoints()[i])
+                    || Double.isNaN(bbox.getUpperCornerPoints()[i]) || Double.isInfinite(bbox.getUpperCornerPoints()[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the zoom level of the tiles that will cover bbox. Tiles at this level are no wider than the largest side of
+     * bbox (and more than half as wide) so a bbox is covered by at most 3x3 tiles.
+     *
+     * @param bbox
+     *            Must be tileable
+     * @return
+     */
+    public static int getZoomLevel(FilterBoundingBox bbox) {
+        double[] lower = bbox.getLowerCornerPoints();
+        double[] upper = bbox.getUpperCornerPoints();
+        double extent = Math.max(Math.abs(upper[0] - lower[0]), Math.abs(upper[1] - lower[1]));
+        if (extent == 0) {
+            return MAX_ZOOM;
+        }
+
+        int zoom = (int) Math.ceil(Math.log(ZOOM_0_TILE_SIZE / extent) / Math.log(2));
+        return Math.min(MAX_ZOOM, zoom);
+    }
+
+    /**
+     * Gets the tiles that cover bbox, ordered by their distance from the centre of bbox
+     *
+     * @param bbox
+     *            Must be tileable
+     * @return
+     */
+    public static List<FilterBoundingBox> getTiles(FilterBoundingBox bbox) {
+        double tileSize = Math.scalb(ZOOM_0_TILE_SIZE, -getZoomLevel(bbox));
+        double[] lower = bbox.getLowerCornerPoints();
+        double[] upper = bbox.getUpperCornerPoints();
+        double minX = Math.min(lower[0], upper[0]);
+        double maxX = Math.max(lower[0], upper[0]);
+        double minY = Math.min(lower[1], upper[1]);
+        double maxY = Math.max(lower[1], upper[1]);
+        final double centreX = (minX + maxX) / 2;
+        final double centreY = (minY + maxY) / 2;
+
+        //A bbox that ends exactly on a tile boundary doesn't need the next tile
+        long firstX = (long) Math.floor(minX / tileSize);
+        long lastX = Math.max(firstX, (long) Math.ceil(maxX / tileSize) - 1);
+        long firstY = (long) Math.floor(minY / tileSize);
+        long lastY = Math.max(firstY, (long) Math.ceil(maxY / tileSize) - 1);
+
+        List<FilterBoundingBox> tiles = new ArrayList<FilterBoundingBox>();
+        for (long x = firstX; x <= lastX; x++) {
+            for (long y = firstY; y <= lastY; y++) {
+                tiles.add(new FilterBoundingBox(bbox.getBboxSrs(), new double[] {x * tileSize, y * tileSize},
+                        new double[] {(x + 1) * tileSize, (y + 1) * tileSize}));
+            }
+        }
+
+        Collections.sort(tiles, new Comparator<FilterBoundingBox>() {
+            @Override
+            public int compare(FilterBoundingBox a, FilterBoundingBox b) {
+                return Double.compare(distance(a), distance(b));
+            }
+
+            private double distance(FilterBoundingBox tile) {
+                double dx = (tile.getLowerCornerPoints()[0] + tile.getUpperCornerPoints()[0]) / 2 - centreX;
+                double dy = (tile.getLowerCornerPoints()[1] + tile.getUpperCornerPoints()[1]) / 2 - centreY;
+                return dx * dx + dy * dy;
+            }
+        });
+        return tiles;
+    }
+
+    /**
+     * Generates the key a tile is cached against
+     */
+    private static String generateTileKey(String queryKey, FilterBoundingBox tile) {
+        StringBuilder key = new StringBuilder(queryKey).append('\n').append(tile.getBboxSrs());
+        for (double point : tile.getLowerCornerPoints()) {
+            key.append(',').append(point);
+        }
+        for (double point : tile.getUpperCornerPoints()) {
+            key.append(',').append(point);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Requests a single tile (which won't be cached unless it's a FeatureCollection)
+     */
+    private String requestTile(TileRequestMaker requestMaker, FilterBoundingBox tile) throws Exception {
+        HttpRequestBase method = null;
+        String response;
+        try {
+            method = requestMaker.makeRequest(tile);
+            response = httpServiceCaller.getMethodResponseAsString(method);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+
+        if (!FeatureCollectionMerger.isFeatureCollection(response)) {
+            throw new UncacheableTileException(response);
+        }
+        return response;
+    }
+
+    /**
+     * Gets every feature matching a query in the tiles covering bbox. Tiles that aren't cached will be requested
+     * concurrently.
+     *
+     * @param queryKey
+     *            Uniquely identifies the query (everything but the bounding box) that requestMaker makes, including
+     *            the service URL, feature type and maxFeatures
+     * @param bbox
+     *            Must be tileable
+     * @param maxFeatures
+     *            If positive, the response will be truncated to this many features
+     * @param requestMaker
+     *            Makes the query for a single tile
+     * @return The merged tiles. The method of the response (for debugging purposes only) is the query for bbox, it
+     *         will not have been made.
+     * @throws PortalServiceException
+     */
+    public WFSResponse getFeatures(final String queryKey, FilterBoundingBox bbox, int maxFeatures,
+            final TileRequestMaker requestMaker) throws PortalServiceException {
+        HttpRequestBase method = null;
+        try {
+            method = requestMaker.makeRequest(bbox);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+
+        List<FutureTask<String>> futures = new ArrayList<FutureTask<String>>();
+        for (final FilterBoundingBox tile : getTiles(bbox)) {
+            FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return tileCache.get(generateTileKey(queryKey, tile), new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return requestTile(requestMaker, tile);
+                        }
+                    });
+                }
+            });
+            futures.add(future);
+            FanOut.execute(executor, future);
+        }
+
+        List<String> responses = new ArrayList<String>(futures.size());
+        for (FutureTask<String> future : futures) {
+            try {
+                responses.add(FanOut.getResult(future));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new PortalServiceException(method, ex);
+            } catch (UncacheableTileException ex) {
+                return new WFSResponse(ex.getResponse(), method);
+            } catch (PortalServiceException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new PortalServiceException(method, ex);
+            }
+        }
+
+        if (responses.size() == 1) {
+            return new WFSResponse(responses.get(0), method);
+        }
+        try {
+            return new WFSResponse(FeatureCollectionMerger.mergeGml(responses, maxFeatures, true), method);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package org.auscope.portal.server.web.service;
 
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.URISyntaxException;
 
+import org.apache.commons.io.IOUtils;
+
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
@@ -13,6 +17,7 @@ import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
 import org.auscope.portal.core.services.responses.wfs.WFSCountResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
+import org.auscope.portal.server.metrics.PortalMetrics;
 import org.auscope.portal.xslt.GmlToHtml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -26,6 +31,9 @@ import org.springframework.stereotype.Service;
 @Service
 public class WFSService extends BaseWFSService {
 
+    /** How many bytes at the start of a streamed response will be inspected for an OWS exception report */
+    private static final int EXCEPTION_SNIFF_BYTES = 4096;
+
     private GmlToHtml gmlToHtml;
 
     /**
@@ -60,12 +68,53 @@ public class WFSService extends BaseWFSService {
         }
     }
 
+    /**
+     * Returns the local name of the root element of the (possibly truncated) XML document xml or null if it can't be
+     * found
+     */
+    static String getRootElementName(String xml) {
+        for (int i = xml.indexOf('<'); i >= 0 && i < xml.length() - 1; i = xml.indexOf('<', i + 1)) {
+            if (!Character.isLetter(xml.charAt(i + 1))) {
+                continue; //processing instruction, comment or DTD
+            }
+
+            int end = i + 1;
+            while (end < xml.length() && !Character.isWhitespace(xml.charAt(end)) && xml.charAt(end) != '>'
+                    && xml.charAt(end) != '/') {
+                end++;
+            }
+            String name = xml.substring(i + 1, end);
+            return name.substring(name.indexOf(':') + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Inspects the start of stream for an OWS exception report (throwing it if found) without consuming any of stream.
+     *
+     * @return A stream that will return the entire content of stream
+     */
+    private static InputStream checkForExceptionResponse(InputStream stream) throws Exception {
+        PushbackInputStream pushbackStream = new PushbackInputStream(stream, EXCEPTION_SNIFF_BYTES);
+        byte[] head = new byte[EXCEPTION_SNIFF_BYTES];
+        int length = IOUtils.read(pushbackStream, head);
+        pushbackStream.unread(head, 0, length);
+
+        String rootName = getRootElementName(new String(head, 0, length, "UTF-8"));
+        if ("ExceptionReport".equals(rootName) || "ServiceExceptionReport".equals(rootName)) {
+            OWSExceptionParser.checkForExceptionResponse(IOUtils.toString(pushbackStream, "UTF-8"));
+        }
+        return pushbackStream;
+    }
+
     private WFSTransformedResponse doRequestAndHtmlTransform(HttpRequestBase method, String serviceUrl)
             throws PortalServiceException {
         try {
             String wfs = httpServiceCaller.getMethodResponseAsString(method);
             OWSExceptionParser.checkForExceptionResponse(wfs);
+            long start = System.nanoTime();
             String kml = gmlToHtml.convert(wfs, serviceUrl);
+            PortalMetrics.recordTransform("gmlToHtml", System.nanoTime() - start);
 
             return new WFSTransformedResponse(wfs, kml, method);
         } catch (Exception ex) {
@@ -120,6 +169,41 @@ public class WFSService extends BaseWFSService {
         return doRequest(method, wfsUrl);
     }
 
+    /**
+     * Makes a WFS GetFeature request constrained by the specified parameters
+     *
+     * The response is returned unread so that it can be streamed to the client. The caller is responsible for closing
+     * the returned stream.
+     *
+     * @param wfsUrl
+     *            the web feature service url
+     * @param featureType
+     *            the type name
+     * @param filterString
+     *            A OGC filter string to constrain the request
+     * @param maxFeatures
+     *            A maximum number of features to request
+     * @param srs
+     *            [Optional] The spatial reference system the response should be encoded to @param srsName - will use BaseWFSService.DEFAULT_SRS if unspecified
+     * @return
+     * @throws PortalServiceException
+     *             If the request fails or the WFS responds with an OWS exception
+     * @throws URISyntaxException
+     */
+    public WFSStreamResponse getWfsResponseAsStream(String wfsUrl, String featureType, String filterString,
+            Integer maxFeatures, String srs) throws PortalServiceException, URISyntaxException {
+        HttpRequestBase method = generateWFSRequest(wfsUrl, featureType, null, filterString, maxFeatures, srs,
+                ResultType.Results);
+        InputStream stream = null;
+        try {
+            stream = httpServiceCaller.getMethodResponseAsStream(method);
+            return new WFSStreamResponse(checkForExceptionResponse(stream), method);
+        } catch (Exception ex) {
+            IOUtils.closeQuietly(stream);
+            throw new PortalServiceException(method, ex);
+        }
+    }
+
     /**
      * Makes a WFS GetFeature request constrained by the specified parameters. Instead of returning the full response only the count of features will be
      * returned.
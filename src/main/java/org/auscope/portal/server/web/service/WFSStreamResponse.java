@@ -0,0 +1,44 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.InputStream;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Represents a WFS response whose data hasn't been read yet.
+ *
+ * The data stream must be closed (and the method released) by whoever consumes it.
+ */
+public class WFSStreamResponse {
+    private InputStream data;
+    private HttpRequestBase method;
+
+    /**
+     * @param data
+     *            The raw (unread) response
+     * @param method
+     *            The request that generated data
+     */
+    public WFSStreamResponse(InputStream data, HttpRequestBase method) {
+        this.data = data;
+        this.method = method;
+    }
+
+    /**
+     * Gets the raw (unread) response
+     *
+     * @return
+     */
+    public InputStream getData() {
+        return data;
+    }
+
+    /**
+     * Gets the request that generated data
+     *
+     * @return
+     */
+    public HttpRequestBase getMethod() {
+        return method;
+    }
+}
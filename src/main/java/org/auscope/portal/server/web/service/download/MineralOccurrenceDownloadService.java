@@ -1,11 +1,27 @@
 package org.auscope.portal.server.web.service.download;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.auscope.portal.core.configuration.ServiceConfiguration;
+import org.auscope.portal.core.configuration.ServiceConfigurationItem;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.BaseWFSService;
 import org.auscope.portal.core.services.PortalServiceException;
@@ -16,7 +32,9 @@ import org.auscope.portal.core.services.methodmakers.filter.IFilter;
 import org.auscope.portal.mineraloccurrence.MineFilter;
 import org.auscope.portal.mineraloccurrence.MineralOccurrenceFilter;
 import org.auscope.portal.mineraloccurrence.MiningActivityFilter;
+import org.auscope.portal.server.web.service.FeatureCollectionMerger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -34,6 +52,19 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
     public static final String MINERAL_OCCURRENCE_FEATURE_TYPE = "gsml:MappedFeature";
     public static final String MINING_ACTIVITY_FEATURE_TYPE = "er:MiningFeatureOccurrence";
     public static final int DEFAULT_TIMEOUT = 60 * 60 * 1000; //VT: we give 1 hour to download per service location
+    /** The default number of features requested per page from services that support paging */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    /** The maximum number of pages that will be requested concurrently (for a single download) */
+    public static final int MAX_PARALLEL_REQUESTS = 4;
+    /** The property every page is sorted by so that independently requested pages neither overlap nor skip features */
+    public static final String PAGE_SORT_PROPERTY = "@gml:id";
+
+    /** Matches the end of the query in a GetFeature POST body */
+    private static final Pattern QUERY_END_PATTERN = Pattern.compile("</(?:[\\w.\\-]+:)?Query>");
+
+    private ServiceConfiguration serviceConfiguration;
+    private Executor executor;
+    private int pageSize = DEFAULT_PAGE_SIZE;
 
     // ----------------------------------------------------------- Constructors
 
@@ -41,7 +72,38 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
     public MineralOccurrenceDownloadService(HttpServiceCaller httpServiceCaller,
             WFSGetFeatureMethodMaker methodMaker) {
         super(httpServiceCaller, methodMaker);
+    }
+
+    /**
+     * Sets the configuration used for identifying which services support paging (via startIndex). If not set, every
+     * download will be made with a single request.
+     *
+     * @param serviceConfiguration
+     */
+    @Autowired(required = false)
+    public void setServiceConfiguration(ServiceConfiguration serviceConfiguration) {
+        this.serviceConfiguration = serviceConfiguration;
+    }
 
+    /**
+     * Sets the executor used for requesting pages (normally the shared taskExecutor). If null, pages will be requested
+     * sequentially as they are read.
+     *
+     * @param executor
+     */
+    @Autowired(required = false)
+    public void setExecutor(@Qualifier("taskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the number of features requested per page from services that support paging
+     *
+     * @param pageSize
+     *            A non positive value disables paging
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
     }
 
     /**
@@ -64,6 +126,112 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
         return filterString;
     }
 
+    /**
+     * Sorts the features requested by method (a WFS 1.1.0 GetFeature request) by propertyName in ascending order. POST
+     * requests get an ogc:SortBy at the end of their query, GET requests get a sortBy parameter.
+     *
+     * @param method
+     *            The GetFeature request to modify
+     * @param propertyName
+     *            The property to sort by
+     * @throws IOException
+     *             If a POST request doesn't contain a query
+     * @throws URISyntaxException
+     */
+    static void addSortBy(HttpRequestBase method, String propertyName) throws IOException, URISyntaxException {
+        if (method instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntityEnclosingRequestBase post = (HttpEntityEnclosingRequestBase) method;
+            HttpEntity entity = post.getEntity();
+            String body = EntityUtils.toString(entity, "UTF-8");
+            Matcher matcher = QUERY_END_PATTERN.matcher(body);
+            if (!matcher.find()) {
+                throw new IOException("GetFeature request has no query to sort");
+            }
+
+            String sortBy = "<ogc:SortBy xmlns:ogc=\"http://www.opengis.net/ogc\"><ogc:SortProperty><ogc:PropertyName>"
+                    + propertyName + "</ogc:PropertyName><ogc:SortOrder>ASC</ogc:SortOrder></ogc:SortProperty></ogc:SortBy>";
+            StringEntity sortedEntity = new StringEntity(body.substring(0, matcher.start()) + sortBy
+                    + body.substring(matcher.start()), "UTF-8");
+            if (entity.getContentType() != null) {
+                sortedEntity.setContentType(entity.getContentType());
+            }
+            post.setEntity(sortedEntity);
+        } else {
+            URI uri = method.getURI();
+            method.setURI(new URI(uri.toString() + (uri.getRawQuery() == null ? "?" : "&") + "sortBy="
+                    + encode(propertyName)));
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns true if the specified service has been configured as supporting paging
+     */
+    private boolean isPaging(String serviceUrl) {
+        if (serviceConfiguration == null || pageSize <= 0) {
+            return false;
+        }
+        ServiceConfigurationItem item = serviceConfiguration.getServiceConfigurationItem(serviceUrl);
+        return item != null && item.doesPaging();
+    }
+
+    /**
+     * Makes a GetFeature request, returning the raw response as a stream.
+     *
+     * If the request is for every feature (no startIndex) from a service that supports paging, the total number of
+     * features is requested first and then the features are requested in pages of pageSize (several at a time). The
+     * pages are joined into a single FeatureCollection as they are read. Every page is sorted by PAGE_SORT_PROPERTY
+     * because a service is free to return features in a different order for each request.
+     */
+    private InputStream downloadFeatures(final String serviceUrl, final String featureType, final String filterString,
+            int maxFeatures, String startIndex, final String outputFormat) throws PortalServiceException,
+            URISyntaxException {
+        if (startIndex == null && isPaging(serviceUrl) && FeatureCollectionMerger.isMergeable(outputFormat)) {
+            HttpRequestBase method = generateWFSRequest(serviceUrl, featureType, null, filterString, maxFeatures,
+                    null, ResultType.Hits);
+            int total = getWfsFeatureCount(method).getNumberOfFeatures();
+            if (maxFeatures > 0 && total > maxFeatures) {
+                total = maxFeatures;
+            }
+
+            if (total > pageSize) {
+                List<Callable<String>> pages = new ArrayList<Callable<String>>();
+                for (int i = 0; i < total; i += pageSize) {
+                    final int pageStart = i;
+                    final int pageFeatures = Math.min(pageSize, total - i);
+                    pages.add(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            HttpRequestBase pageMethod = generateWFSRequest(serviceUrl, featureType, null,
+                                    filterString, pageFeatures, null, ResultType.Results, outputFormat,
+                                    Integer.toString(pageStart));
+                            addSortBy(pageMethod, PAGE_SORT_PROPERTY);
+                            return httpServiceCaller.getMethodResponseAsString(pageMethod);
+                        }
+                    });
+                }
+                log.debug(String.format("Requesting %1$d features from '%2$s' in %3$d pages", total, serviceUrl,
+                        pages.size()));
+                return new PagedFeatureCollectionInputStream(executor, pages, MAX_PARALLEL_REQUESTS, total);
+            }
+        }
+
+        HttpRequestBase method = generateWFSRequest(serviceUrl, featureType, null, filterString, maxFeatures, null,
+                ResultType.Results, outputFormat, startIndex);
+        try {
+            return httpServiceCaller.getMethodResponseAsStream(method);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex);
+        }
+    }
+
     /**
      * Gets the GML response for all mines matching the specified parameters
      *
@@ -83,14 +251,11 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
         MineFilter filter = new MineFilter(mineName);
         String filterString = generateFilterString(filter, bbox);
 
-        HttpRequestBase method = null;
         try {
-            method = generateWFSRequest(serviceUrl, MINE_FEATURE_TYPE, null, filterString, maxFeatures, null,
-                    ResultType.Results, outputFormat, startIndex);
-            return httpServiceCaller.getMethodResponseAsStream(method);
-
-        } catch (Exception ex) {
-            throw new PortalServiceException(method, "Error when attempting to download Mines GML", ex);
+            return downloadFeatures(serviceUrl, MINE_FEATURE_TYPE, filterString, maxFeatures, startIndex,
+                    outputFormat);
+        } catch (URISyntaxException ex) {
+            throw new PortalServiceException("Error when attempting to download Mines GML", ex);
         }
     }
 
@@ -131,14 +296,8 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
 
         String filterString = generateFilterString(filter, bbox);
 
-        HttpRequestBase method = generateWFSRequest(serviceURL, MINERAL_OCCURRENCE_FEATURE_TYPE, null, filterString,
-                maxFeatures, null, ResultType.Results, null, startIndex);
-        try {
-            return httpServiceCaller.getMethodResponseAsStream(method);
-
-        } catch (Exception ex) {
-            throw new PortalServiceException(method, ex);
-        }
+        return downloadFeatures(serviceURL, MINERAL_OCCURRENCE_FEATURE_TYPE, filterString, maxFeatures, startIndex,
+                null);
     }
 
     /**
@@ -176,13 +335,8 @@ public class MineralOccurrenceDownloadService extends BaseWFSService {
                 producedMaterial, cutOffGrade, production);
         String filterString = generateFilterString(filter, bbox);
 
-        HttpRequestBase method = generateWFSRequest(serviceURL, MINING_ACTIVITY_FEATURE_TYPE, null, filterString,
-                maxFeatures, null, ResultType.Results, null, startIndex);
-        try {
-            return httpServiceCaller.getMethodResponseAsStream(method);
-        } catch (Exception ex) {
-            throw new PortalServiceException(method, ex);
-        }
+        return downloadFeatures(serviceURL, MINING_ACTIVITY_FEATURE_TYPE, filterString, maxFeatures, startIndex,
+                null);
     }
 
 }
@@ -0,0 +1,213 @@
+package org.auscope.portal.server.web.service.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
+import org.auscope.portal.server.web.service.FanOut;
+
+/**
+ * An InputStream that joins a series of WFS GetFeature pages (each the result of a request with a different startIndex)
+ * into a single FeatureCollection.
+ *
+ * Pages are requested concurrently (at most concurrency pages are requested or held in memory at once) but are always
+ * returned in order. The root element and any content outside of the features (eg gml:boundedBy) are taken from the
+ * first page, with its numberOfFeatures/numberReturned attributes set to the combined number of features.
+ *
+ * Only GML responses can be joined. If a page can't be requested (or is an OWS exception report) reading will fail with
+ * an IOException.
+ */
+public class PagedFeatureCollectionInputStream extends InputStream {
+
+    /** Matches the first element containing features (WFS 1.x featureMember(s) and WFS 2.0 member) */
+    private static final Pattern MEMBER_PATTERN = Pattern
+            .compile("<((?:[\\w.\\-]+:)?(featureMembers|featureMember|member))[\\s/>]");
+    private static final Pattern COUNT_PATTERN = Pattern.compile("\\b(numberOfFeatures|numberReturned)=\"[^\"]*\"");
+
+    private Executor executor;
+    private List<Callable<String>> pages;
+    private int concurrency;
+    private int numberOfFeatures;
+
+    private LinkedList<FutureTask<String>> requested = new LinkedList<FutureTask<String>>();
+    private int nextRequest = 0;
+    private int nextPage = 0;
+    private String footer = null;
+    private byte[] buffer = null;
+    private int position = 0;
+
+    /**
+     * @param executor
+     *            [Optional] Used for requesting pages. If null, each page will be requested on the reading thread as it's
+     *            needed
+     * @param pages
+     *            Each task will request a single page. Must be non empty
+     * @param concurrency
+     *            The maximum number of pages that will be requested (or held) at once
+     * @param numberOfFeatures
+     *            The combined number of features in every page
+     */
+    public PagedFeatureCollectionInputStream(Executor executor, List<Callable<String>> pages, int concurrency,
+            int numberOfFeatures) {
+        this.executor = executor;
+        this.pages = pages;
+        this.concurrency = Math.max(1, concurrency);
+        this.numberOfFeatures = numberOfFeatures;
+
+        requestPages();
+    }
+
+    /**
+     * Requests pages until concurrency pages are outstanding (or there are no more pages)
+     */
+    private void requestPages() {
+        while (requested.size() < concurrency && nextRequest < pages.size()) {
+            FutureTask<String> future = new FutureTask<String>(pages.get(nextRequest++));
+            requested.add(future);
+            if (executor != null) {
+                FanOut.execute(executor, future);
+            }
+        }
+    }
+
+    /**
+     * Finds the content of page that contains features
+     *
+     * @return The start (inclusive) and end (exclusive) of the features or null if page contains no features
+     */
+    protected static int[] findFeatures(String page) {
+        Matcher matcher = MEMBER_PATTERN.matcher(page);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        String qName = matcher.group(1);
+        int end = page.lastIndexOf("</" + qName + ">");
+        if (end < 0) {
+            return null;
+        }
+
+        //featureMembers holds every feature so only its content is used
+        if ("featureMembers".equals(matcher.group(2))) {
+            return new int[] {page.indexOf('>', matcher.start()) + 1, end};
+        }
+        return new int[] {matcher.start(), end + qName.length() + 3};
+    }
+
+    private String awaitPage() throws IOException {
+        if (requested.isEmpty()) {
+            throw new IOException("Stream closed");
+        }
+        FutureTask<String> future = requested.removeFirst();
+        try {
+            return FanOut.getResult(future);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for page " + (nextPage + 1), ex);
+        } catch (Exception ex) {
+            throw new IOException("Unable to request page " + (nextPage + 1), ex);
+        }
+    }
+
+    /**
+     * Finds the features in page (checking for an OWS exception report if there are none)
+     */
+    private int[] findPageFeatures(String page) throws IOException {
+        int[] features = findFeatures(page);
+        if (features == null) {
+            try {
+                OWSExceptionParser.checkForExceptionResponse(page);
+            } catch (Exception ex) {
+                throw new IOException("Unable to request page " + (nextPage + 1), ex);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Loads the next page (or the footer) into buffer
+     *
+     * @return false if there is nothing left to read
+     */
+    private boolean nextBuffer() throws IOException {
+        String content;
+        if (nextPage < pages.size()) {
+            String page = awaitPage();
+            int[] features = findPageFeatures(page);
+            if (nextPage == 0) {
+                if (features == null) {
+                    //Nothing to join, just return the first page as is
+                    content = page;
+                    nextPage = pages.size();
+                    footer = "";
+                    close();
+                } else {
+                    Matcher matcher = COUNT_PATTERN.matcher(page.substring(0, features[0]));
+                    content = matcher.replaceAll("$1=\"" + numberOfFeatures + "\"")
+                            + page.substring(features[0], features[1]);
+                    footer = page.substring(features[1]);
+                }
+            } else {
+                content = features == null ? "" : page.substring(features[0], features[1]);
+            }
+            nextPage++;
+            requestPages();
+        } else if (footer != null) {
+            content = footer;
+            footer = null;
+        } else {
+            return false;
+        }
+
+        buffer = content.getBytes("UTF-8");
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (buffer == null || position >= buffer.length) {
+            if (!nextBuffer()) {
+                return -1;
+            }
+        }
+
+        int count = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer == null ? 0 : buffer.length - position;
+    }
+
+    /**
+     * Cancels any outstanding page requests
+     */
+    @Override
+    public void close() {
+        for (FutureTask<String> future : requested) {
+            future.cancel(true);
+        }
+        requested.clear();
+        nextRequest = pages.size();
+    }
+}
@@ -308,12 +308,13 @@ Ext.define('auscope.layer.querier.wfs.knownlayerfactories.NVCLFactory', {
                                         }
                                         // Request plot data from server
                                         Ext.Ajax.request({
-                                             url: 'getNVCL2_0_CSVDataBinned.do',
+                                             url: 'getNVCL2_0_CSVDataDownsampled.do',
                                              scope : this,
                                              timeout : 60000,
                                              params: {
                                                  serviceUrl: nvclDataServiceUrl,
-                                                 logIds : logIds
+                                                 logIds : logIds,
+                                                 targetPoints : 500
                                              },
                                              callback : function(options, success, response) {
                                                  if (success) {
@@ -334,12 +335,15 @@ Ext.define('auscope.layer.querier.wfs.knownlayerfactories.NVCLFactory', {
                                                                      
                                                                      bv[dataType].forEach(function(val, idx, arr) {
                                                                          
-                                                                         // "stringValues" ==> units are called "Sample Count" and "numericValues" ==> "Meter Average"
+                                                                         // "stringValues" ==> units are called "Sample Count" and "numericValues" ==> "Sample Value"
                                                                          if (dataType=="stringValues") {
                                                                      
-                                                                             // Using entries(), make a name,value list, then use that to add to 'data_bin[metric_name]'
-                                                                             d3.entries(val).forEach(function(meas) {                                                                                 
-                                                                                 var key=meas.key+"_"+metric_name;
+                                                                             // 'val' holds the sample counts for this bin, indexed by the class names in 'bv.stringDictionary'
+                                                                             val.forEach(function(count, code) {
+                                                                                 if (count === 0) {
+                                                                                     return;
+                                                                                 }
+                                                                                 var key=bv.stringDictionary[code]+"_"+metric_name;
                                                                                  if (!(key in data_bin[metric_name])) {
                                                                                      data_bin[metric_name][key] = [];
                                                                                      if (!(metric_name in yaxis_labels)) {
@@ -349,7 +353,7 @@ Ext.define('auscope.layer.querier.wfs.knownlayerfactories.NVCLFactory', {
                                                                                  }
                                                                                  
                                                                                  // Depth is 'x' and 'y' is our measured value 
-                                                                                 data_bin[metric_name][key].push({"x":parseFloat(bv.startDepths[idx]), "y":parseFloat(meas.value)});
+                                                                                 data_bin[metric_name][key].push({"x":parseFloat(bv.startDepths[idx]), "y":count});
                                                                                  has_data=true;
                                                                            
                                                                              });
@@ -357,7 +361,7 @@ Ext.define('auscope.layer.querier.wfs.knownlayerfactories.NVCLFactory', {
                                                                              if (!(metric_name in data_bin[metric_name])) {
                                                                                  data_bin[metric_name][metric_name] = [];
                                                                                  if (!(metric_name in yaxis_labels)) {
-                                                                                     yaxis_labels[metric_name] = "Meter Average";
+                                                                                     yaxis_labels[metric_name] = "Sample Value";
                                                                                      yaxis_keys.push(metric_name);
                                                                                  }
                                                                              }
@@ -0,0 +1,102 @@
+package org.auscope.portal.gsml;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.test.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GeoJSONTranscoder
+ */
+public class TestGeoJSONTranscoder extends PortalTestClass {
+
+    private static final String BOREHOLE_COLLECTION = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsmlp=\"http://xmlns.geosciml.org/geosciml-portrayal/2.0\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" numberOfFeatures=\"2\">"
+            + "<gml:boundedBy><gml:Envelope><gml:lowerCorner>1 2</gml:lowerCorner><gml:upperCorner>3 4</gml:upperCorner></gml:Envelope></gml:boundedBy>"
+            + "<gml:featureMember><gsmlp:BoreholeView gml:id=\"gsmlp.boreholeview.1\">"
+            + "<gsmlp:purpose>Hole &quot;A&quot;</gsmlp:purpose>"
+            + "<gsmlp:identifier xlink:href=\"http://example.com/1\"/>"
+            + "<gsmlp:nvclCollection>true</gsmlp:nvclCollection>"
+            + "<gsmlp:shape><gml:Point srsName=\"urn:ogc:def:crs:EPSG::4326\"><gml:pos>-27.5 135.25</gml:pos></gml:Point></gsmlp:shape>"
+            + "<gml:name>first</gml:name><gml:name>second</gml:name>"
+            + "</gsmlp:BoreholeView></gml:featureMember>"
+            + "<gml:featureMember><gsmlp:BoreholeView gml:id=\"gsmlp.boreholeview.2\">"
+            + "<gsmlp:shape><gml:Point srsName=\"EPSG:4326\"><gml:coordinates>136.5,-28.75</gml:coordinates></gml:Point></gsmlp:shape>"
+            + "<gsmlp:extent><gml:Polygon><gml:exterior><gml:LinearRing><gml:posList>1 2 3 4 1 2</gml:posList></gml:LinearRing></gml:exterior></gml:Polygon></gsmlp:extent>"
+            + "</gsmlp:BoreholeView></gml:featureMember>"
+            + "</wfs:FeatureCollection>";
+
+    private static String transcode(GeoJSONTranscoder transcoder, int expectedCount) throws Exception {
+        StringWriter writer = new StringWriter();
+        try {
+            Assert.assertEquals(expectedCount, transcoder.transcode(writer));
+        } finally {
+            transcoder.close();
+        }
+
+        JSONObject json = JSONObject.fromObject(writer.toString());
+        Assert.assertEquals("FeatureCollection", json.getString("type"));
+        Assert.assertEquals(expectedCount, json.getJSONArray("features").size());
+        return writer.toString();
+    }
+
+    /**
+     * Tests that features are transcoded with their point geometry and leaf properties
+     */
+    @Test
+    public void testTranscodeBoreholes() throws Exception {
+        JSONArray features = JSONObject.fromObject(transcode(new GeoJSONTranscoder(BOREHOLE_COLLECTION), 2))
+                .getJSONArray("features");
+
+        JSONObject feature = features.getJSONObject(0);
+        Assert.assertEquals("Feature", feature.getString("type"));
+        Assert.assertEquals("gsmlp.boreholeview.1", feature.getString("id"));
+        JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(135.25, coordinates.getDouble(0), 0.0); //URN srsName's are lat/lon
+        Assert.assertEquals(-27.5, coordinates.getDouble(1), 0.0);
+
+        JSONObject properties = feature.getJSONObject("properties");
+        Assert.assertEquals("Hole \"A\"", properties.getString("purpose"));
+        Assert.assertEquals("http://example.com/1", properties.getString("identifier"));
+        Assert.assertEquals("true", properties.getString("nvclCollection"));
+        Assert.assertEquals(JSONArray.fromObject(new String[] {"first", "second"}), properties.getJSONArray("name"));
+        Assert.assertFalse(properties.has("pos"));
+
+        feature = features.getJSONObject(1);
+        Assert.assertEquals("gsmlp.boreholeview.2", feature.getString("id"));
+        coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(136.5, coordinates.getDouble(0), 0.0);
+        Assert.assertEquals(-28.75, coordinates.getDouble(1), 0.0);
+        Assert.assertTrue(feature.getJSONObject("properties").isEmpty());
+    }
+
+    /**
+     * Tests transcoding a (complex) ERML mine response from a stream
+     */
+    @Test
+    public void testTranscodeMines() throws Exception {
+        String gml = ResourceUtil.loadResourceAsString("org/auscope/portal/erml/mine/mineGetFeatureResponse.xml");
+        String geoJson = transcode(new GeoJSONTranscoder(new ByteArrayInputStream(gml.getBytes("UTF-8"))), 2);
+        Assert.assertTrue(geoJson.length() < gml.length() / 2);
+        Assert.assertTrue(geoJson.contains("\"coordinates\":[135.1068262,-27.3076358]"));
+
+        JSONObject feature = JSONObject.fromObject(geoJson).getJSONArray("features").getJSONObject(0);
+        Assert.assertEquals("er.miningfeatureoccurrence.mine.95", feature.getString("id"));
+        Assert.assertEquals("abandoned", feature.getJSONObject("properties").getString("status"));
+    }
+
+    /**
+     * Tests that anything other than a FeatureCollection is rejected before any output
+     */
+    @Test(expected = XMLStreamException.class)
+    public void testNotFeatureCollection() throws Exception {
+        new GeoJSONTranscoder("<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"/>");
+    }
+}
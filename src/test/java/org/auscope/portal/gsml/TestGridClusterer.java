@@ -0,0 +1,125 @@
+package org.auscope.portal.gsml;
+
+import java.io.StringWriter;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GridClusterer
+ */
+public class TestGridClusterer extends PortalTestClass {
+
+    private static final String MINE_COLLECTION = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er=\"urn:cgi:xmlns:GGIC:EarthResource:1.1\">"
+            + "<gml:featureMember><er:Mine gml:id=\"mine.1\"><er:name>first</er:name>"
+            + "<er:location><gml:Point srsName=\"EPSG:4326\"><gml:pos>135.1 -27.1</gml:pos></gml:Point></er:location></er:Mine></gml:featureMember>"
+            + "<gml:featureMember><er:Mine gml:id=\"mine.2\">"
+            + "<er:location><gml:Point srsName=\"EPSG:4326\"><gml:pos>135.3 -27.3</gml:pos></gml:Point></er:location></er:Mine></gml:featureMember>"
+            + "<gml:featureMember><er:Mine gml:id=\"mine.3\">"
+            + "<er:location><gml:Point srsName=\"EPSG:4326\"><gml:pos>140 -30</gml:pos></gml:Point></er:location></er:Mine></gml:featureMember>"
+            + "<gml:featureMember><er:Mine gml:id=\"mine.4\"><er:name>unlocated</er:name></er:Mine></gml:featureMember>"
+            + "</wfs:FeatureCollection>";
+
+    /**
+     * Tests that features are aggregated into grid cells with a count, centroid and representative ID
+     */
+    @Test
+    public void testCluster() throws Exception {
+        GridClusterer clusterer = new GridClusterer(new GeoJSONTranscoder(MINE_COLLECTION), 1.0);
+        StringWriter writer = new StringWriter();
+        try {
+            Assert.assertEquals(2, clusterer.transcode(writer));
+        } finally {
+            clusterer.close();
+        }
+
+        JSONObject json = JSONObject.fromObject(writer.toString());
+        Assert.assertEquals("FeatureCollection", json.getString("type"));
+        Assert.assertTrue(json.getBoolean("clustered"));
+        Assert.assertEquals(1, json.getInt("unlocated"));
+        Assert.assertFalse(json.getBoolean("truncated"));
+
+        JSONArray features = json.getJSONArray("features");
+        Assert.assertEquals(2, features.size());
+
+        JSONObject cluster = features.getJSONObject(0);
+        Assert.assertEquals("mine.1", cluster.getString("id"));
+        Assert.assertEquals(2, cluster.getJSONObject("properties").getInt("count"));
+        Assert.assertEquals("mine.1", cluster.getJSONObject("properties").getString("representativeId"));
+        JSONArray coordinates = cluster.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(135.2, coordinates.getDouble(0), 0.0001);
+        Assert.assertEquals(-27.2, coordinates.getDouble(1), 0.0001);
+
+        cluster = features.getJSONObject(1);
+        Assert.assertEquals(1, cluster.getJSONObject("properties").getInt("count"));
+        Assert.assertEquals("mine.3", cluster.getJSONObject("properties").getString("representativeId"));
+    }
+
+    /**
+     * Tests that only zoomed out views are clustered and that the cell size depends only on the zoom level
+     */
+    @Test
+    public void testForView() throws Exception {
+        FilterBoundingBox australia = new FilterBoundingBox("EPSG:4326", new double[] {110, -45},
+                new double[] {155, -10});
+        FilterBoundingBox pannedAustralia = new FilterBoundingBox("EPSG:4326", new double[] {112, -44},
+                new double[] {157, -9});
+        FilterBoundingBox town = new FilterBoundingBox("EPSG:4326", new double[] {135, -28},
+                new double[] {135.1, -27.9});
+
+        Assert.assertTrue(GridClusterer.isClustered(null));
+        Assert.assertTrue(GridClusterer.isClustered(australia));
+        Assert.assertFalse(GridClusterer.isClustered(town));
+        Assert.assertEquals(GridClusterer.getCellSize(australia), GridClusterer.getCellSize(pannedAustralia), 0);
+        Assert.assertEquals(360.0 / 8 / GridClusterer.GRID_CELLS, GridClusterer.getCellSize(australia), 0);
+
+        GeoJSONTranscoder transcoder = new GeoJSONTranscoder(MINE_COLLECTION);
+        try {
+            Assert.assertSame(transcoder, GridClusterer.forView(transcoder, town));
+            Assert.assertTrue(GridClusterer.forView(transcoder, australia) instanceof GridClusterer);
+        } finally {
+            transcoder.close();
+        }
+    }
+
+    /**
+     * Tests that clusters built from a full page of limited features are reported as truncated
+     */
+    @Test
+    public void testTruncated() throws Exception {
+        StringWriter writer = new StringWriter();
+        GridClusterer clusterer = new GridClusterer(new GeoJSONTranscoder(MINE_COLLECTION), 1.0, 4);
+        try {
+            clusterer.transcode(writer);
+        } finally {
+            clusterer.close();
+        }
+        Assert.assertTrue(JSONObject.fromObject(writer.toString()).getBoolean("truncated"));
+
+        writer = new StringWriter();
+        clusterer = new GridClusterer(new GeoJSONTranscoder(MINE_COLLECTION), 1.0, 5);
+        try {
+            clusterer.transcode(writer);
+        } finally {
+            clusterer.close();
+        }
+        Assert.assertFalse(JSONObject.fromObject(writer.toString()).getBoolean("truncated"));
+    }
+
+    /**
+     * Tests that clustered views ignore the client's feature limit
+     */
+    @Test
+    public void testGetMaxFeatures() {
+        FilterBoundingBox town = new FilterBoundingBox("EPSG:4326", new double[] {135, -28},
+                new double[] {135.1, -27.9});
+
+        Assert.assertEquals(GridClusterer.MAX_CLUSTERED_FEATURES, GridClusterer.getMaxFeatures(null, 200));
+        Assert.assertEquals(200, GridClusterer.getMaxFeatures(town, 200));
+    }
+}
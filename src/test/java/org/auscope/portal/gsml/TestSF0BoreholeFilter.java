@@ -0,0 +1,105 @@
+package org.auscope.portal.gsml;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for SF0BoreholeFilter
+ */
+public class TestSF0BoreholeFilter extends PortalTestClass {
+
+    private static final String ID_FUNCTION = "<ogc:Function name=\"id\"></ogc:Function>";
+
+    private static int countOccurrences(String s, String substring) {
+        int count = 0;
+        for (int i = s.indexOf(substring); i >= 0; i = s.indexOf(substring, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String suffixFunction(int prefixLength) {
+        return "<ogc:Function name=\"parseLong\"><ogc:Function name=\"strSubstringStart\">" + ID_FUNCTION
+                + "<ogc:Literal>" + prefixLength + "</ogc:Literal></ogc:Function></ogc:Function>";
+    }
+
+    /**
+     * Tests that an ID list is restricted using one gml:id comparison per ID by default
+     */
+    @Test
+    public void testIDList() {
+        List<String> ids = Arrays.asList("WTB5", "WTB6");
+        String filter = new SF0BoreholeFilter(null, null, null, null, ids, null).getFilterStringAllRecords();
+
+        Assert.assertTrue(filter.contains("gsml.borehole.WTB5"));
+        Assert.assertTrue(filter.contains("gsml.borehole.WTB6"));
+        Assert.assertFalse(filter.contains("PropertyIsBetween"));
+    }
+
+    /**
+     * Tests that contiguous numeric ID suffixes are compacted into ranges
+     */
+    @Test
+    public void testCompactIDList() {
+        List<String> ids = Arrays.asList("WTB7", "WTB5", "WTB6", "WTB9", "GSDD006", "GSDD007", "WTB12", "ABC", "");
+        String filter = new SF0BoreholeFilter(null, null, null, null, ids, null, true).getFilterStringAllRecords();
+
+        Assert.assertFalse(filter.contains("GmlObjectId"));
+
+        //WTB5-WTB7 and WTB9 share a group, GSDD006-GSDD007 is another (zero padded so a different prefix length)
+        Assert.assertEquals(2, countOccurrences(filter, "<ogc:PropertyIsBetween>"));
+        Assert.assertTrue(filter.contains("<ogc:Literal>\\Qgsml.borehole.WTB\\E[0-9]{1}</ogc:Literal>"));
+        Assert.assertTrue(filter.contains("<ogc:PropertyIsBetween>" + suffixFunction("gsml.borehole.WTB".length())
+                + "<ogc:LowerBoundary><ogc:Literal>5</ogc:Literal></ogc:LowerBoundary>"
+                + "<ogc:UpperBoundary><ogc:Literal>7</ogc:Literal></ogc:UpperBoundary></ogc:PropertyIsBetween>"));
+        Assert.assertTrue(filter.contains("<ogc:PropertyIsEqualTo>" + suffixFunction("gsml.borehole.WTB".length())
+                + "<ogc:Literal>9</ogc:Literal></ogc:PropertyIsEqualTo>"));
+        Assert.assertTrue(filter.contains("<ogc:Literal>\\Qgsml.borehole.GSDD\\E[0-9]{3}</ogc:Literal>"));
+        Assert.assertTrue(filter.contains("<ogc:PropertyIsBetween>" + suffixFunction("gsml.borehole.GSDD".length())
+                + "<ogc:LowerBoundary><ogc:Literal>6</ogc:Literal></ogc:LowerBoundary>"
+                + "<ogc:UpperBoundary><ogc:Literal>7</ogc:Literal></ogc:UpperBoundary></ogc:PropertyIsBetween>"));
+
+        //ID's that can't be grouped are compared directly
+        Assert.assertTrue(filter.contains("<ogc:PropertyIsEqualTo>" + ID_FUNCTION
+                + "<ogc:Literal>gsml.borehole.WTB12</ogc:Literal></ogc:PropertyIsEqualTo>"));
+        Assert.assertTrue(filter.contains("<ogc:PropertyIsEqualTo>" + ID_FUNCTION
+                + "<ogc:Literal>gsml.borehole.ABC</ogc:Literal></ogc:PropertyIsEqualTo>"));
+        Assert.assertFalse(filter.contains("<ogc:Literal>gsml.borehole.</ogc:Literal>"));
+    }
+
+    /**
+     * Tests that a large contiguous ID list compacts to a constant size filter
+     */
+    @Test
+    public void testCompactLargeIDList() {
+        String[] ids = new String[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "SA" + (10000 + i);
+        }
+        String filter = new SF0BoreholeFilter(null, null, null, null, Arrays.asList(ids), null, true)
+                .getFilterStringAllRecords();
+
+        Assert.assertEquals(1, countOccurrences(filter, "<ogc:PropertyIsBetween>"));
+        Assert.assertTrue(filter.contains("<ogc:LowerBoundary><ogc:Literal>10000</ogc:Literal></ogc:LowerBoundary>"));
+        Assert.assertTrue(filter.contains("<ogc:UpperBoundary><ogc:Literal>19999</ogc:Literal></ogc:UpperBoundary>"));
+        Assert.assertTrue(filter.length() < 1000);
+    }
+
+    /**
+     * Tests that XML special characters in compacted ID's are escaped
+     */
+    @Test
+    public void testCompactIDListEscaped() {
+        List<String> ids = Arrays.asList("A&B1", "A&B2", "<x>\"'");
+        String filter = new SF0BoreholeFilter(null, null, null, null, ids, null, true).getFilterStringAllRecords();
+
+        Assert.assertTrue(filter.contains("<ogc:Literal>\\Qgsml.borehole.A&amp;B\\E[0-9]{1}</ogc:Literal>"));
+        Assert.assertTrue(filter.contains("<ogc:Literal>gsml.borehole.&lt;x&gt;&quot;&apos;</ogc:Literal>"));
+        Assert.assertFalse(filter.contains("A&B"));
+        Assert.assertFalse(filter.contains("<x>"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.auscope.portal.nvcl;
+
+import java.io.StringReader;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
+import org.auscope.portal.server.domain.nvcldataservice.CategoricalColumnBuffer;
+import org.auscope.portal.server.domain.nvcldataservice.DoubleColumnBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for LTTBDownsampler
+ */
+public class TestLTTBDownsampler extends PortalTestClass {
+
+    private static DoubleColumnBuffer buffer(double... values) {
+        DoubleColumnBuffer buffer = new DoubleColumnBuffer(values.length);
+        for (double value : values) {
+            buffer.append(value);
+        }
+        return buffer;
+    }
+
+    /**
+     * Tests that series no larger than the threshold are returned unchanged
+     */
+    @Test
+    public void testSmallSeries() {
+        DoubleColumnBuffer x = buffer(0, 1, 2, 3);
+        DoubleColumnBuffer y = buffer(5, 6, 7, 8);
+
+        Assert.assertArrayEquals(new int[] {0, 1, 2, 3}, LTTBDownsampler.largestTriangleThreeBuckets(x, y, 4));
+        Assert.assertArrayEquals(new int[] {0, 1, 2, 3}, LTTBDownsampler.largestTriangleThreeBuckets(x, y, 10));
+        Assert.assertArrayEquals(new int[] {0, 1, 2, 3}, LTTBDownsampler.largestTriangleThreeBuckets(x, y, 2));
+    }
+
+    /**
+     * Tests that the end points and the peaks of a series are preserved
+     */
+    @Test
+    public void testPeaksPreserved() {
+        DoubleColumnBuffer x = buffer(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        DoubleColumnBuffer y = buffer(0, 0, 0, 10, 0, 0, 0, -10, 0, 0);
+
+        int[] indexes = LTTBDownsampler.largestTriangleThreeBuckets(x, y, 4);
+        Assert.assertArrayEquals(new int[] {0, 3, 7, 9}, indexes);
+    }
+
+    /**
+     * Tests that numeric columns are downsampled while non numeric columns are binned
+     */
+    @Test
+    public void testDownsample() throws Exception {
+        StringBuilder csv = new StringBuilder("StartDepth,EndDepth,value,class\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append(i + ".0," + i + ".0," + (i % 7) + "," + (i < 50 ? "A" : "B") + "\n");
+        }
+
+        BinnedCSVResponse response = LTTBDownsampler.downsample(new StringReader(csv.toString()), 20, 10.0);
+        Assert.assertEquals(10.0, response.getBinSize(), 0.0001);
+        Assert.assertEquals(2, response.getBinnedValues().length);
+
+        Bin numeric = response.getBinnedValues()[0];
+        Assert.assertTrue(numeric.isNumeric());
+        Assert.assertEquals(20, numeric.getNumericValues().size());
+        Assert.assertEquals(20, numeric.getStartDepths().size());
+        Assert.assertEquals(0.0, numeric.getStartDepths().getDouble(0), 0.0001);
+        Assert.assertEquals(99.0, numeric.getStartDepths().getDouble(19), 0.0001);
+        Assert.assertEquals(1.0, numeric.getNumericValues().getDouble(19), 0.0001);
+        Assert.assertEquals(0, numeric.getStringValues().size());
+
+        Bin categorical = response.getBinnedValues()[1];
+        Assert.assertFalse(categorical.isNumeric());
+        Assert.assertEquals(10, categorical.getStartDepths().size());
+        Assert.assertEquals(10, categorical.getStringCount(0, "A"));
+        Assert.assertEquals(10, categorical.getStringCount(9, "B"));
+    }
+
+    /**
+     * Tests that an already binned numeric column can be downsampled
+     */
+    @Test
+    public void testDownsampleBin() {
+        BinnedCSVResponse response = new BinnedCSVResponse();
+        Bin bin = response.new Bin("value", buffer(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), true, new CategoricalColumnBuffer(),
+                buffer(0, 0, 0, 10, 0, 0, 0, -10, 0, 0));
+
+        Bin downsampled = LTTBDownsampler.downsample(new BinnedCSVResponse(), bin, 4);
+        Assert.assertEquals("value", downsampled.getName());
+        Assert.assertTrue(downsampled.isNumeric());
+        Assert.assertEquals(4, downsampled.getStartDepths().size());
+        Assert.assertEquals(7.0, downsampled.getStartDepths().getDouble(2), 0.0001);
+        Assert.assertEquals(-10.0, downsampled.getNumericValues().getDouble(2), 0.0001);
+        Assert.assertEquals(10, bin.getStartDepths().size());
+    }
+}
@@ -0,0 +1,113 @@
+package org.auscope.portal.nvcl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.test.ResourceUtil;
+import org.auscope.portal.server.domain.nvcldataservice.GetDatasetCollectionResponse;
+import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for NVCLCollectionParser
+ */
+public class TestNVCLCollectionParser extends PortalTestClass {
+
+    private static InputStream toStream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    /**
+     * Tests parsing of a getDatasetCollection response
+     */
+    @Test
+    public void testParseDatasetCollection() throws Exception {
+        InputStream xml = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/NVCL_GetDatasetCollectionResponse.xml");
+        List<GetDatasetCollectionResponse> response = NVCLCollectionParser.parseDatasetCollection(xml);
+
+        Assert.assertEquals(2, response.size());
+        Assert.assertEquals("6dd70215-fe38-457c-be42-3b165fd98c7", response.get(0).getDatasetId());
+        Assert.assertEquals("WTB5", response.get(0).getDatasetName());
+        Assert.assertEquals("http://example1/geoserverBH/", response.get(0).getOmUrl());
+        Assert.assertEquals("7de74515-ae48-4aac-cd43-3bb45dd78cc", response.get(1).getDatasetId());
+        Assert.assertEquals("Name#2", response.get(1).getDatasetName());
+        Assert.assertEquals("http://example2/geoserverBH/", response.get(1).getOmUrl());
+    }
+
+    /**
+     * Tests that the log name element can be selected (the service varies it based on the mosaicsvc parameter)
+     */
+    @Test
+    public void testParseLogCollectionLogName() throws Exception {
+        String resource = "org/auscope/portal/nvcl/NVCL_GetLogCollectionResponse.xml";
+
+        List<GetLogCollectionResponse> response = NVCLCollectionParser.parseLogCollection(ResourceUtil.loadResourceAsStream(resource), "LogName", true);
+        Assert.assertEquals(2, response.size());
+        Assert.assertEquals("logid-1", response.get(0).getLogId());
+        Assert.assertEquals("logname-1", response.get(0).getLogName());
+        Assert.assertEquals(45, response.get(0).getSampleCount());
+        Assert.assertEquals("logid-2", response.get(1).getLogId());
+        Assert.assertEquals("", response.get(1).getLogName());
+        Assert.assertEquals(0, response.get(1).getSampleCount());
+
+        response = NVCLCollectionParser.parseLogCollection(ResourceUtil.loadResourceAsStream(resource), "logName", true);
+        Assert.assertEquals(2, response.size());
+        Assert.assertEquals("", response.get(0).getLogName());
+        Assert.assertEquals("logname-2", response.get(1).getLogName());
+    }
+
+    /**
+     * Tests that non public logs are only skipped when requested
+     */
+    @Test
+    public void testParseLogCollectionPublicOnly() throws Exception {
+        String xml = "<LogCollection>"
+                + "<Log><LogID>a</LogID><ispublic>true</ispublic></Log>"
+                + "<Log><LogID>b</LogID><ispublic>false</ispublic></Log>"
+                + "<Log><LogID>c</LogID><ispublic></ispublic></Log>"
+                + "<Log><LogID>d</LogID></Log>"
+                + "</LogCollection>";
+
+        List<GetLogCollectionResponse> response = NVCLCollectionParser.parseLogCollection(toStream(xml), "LogName", true);
+        Assert.assertEquals(3, response.size());
+        Assert.assertEquals("a", response.get(0).getLogId());
+        Assert.assertEquals("c", response.get(1).getLogId());
+        Assert.assertEquals("d", response.get(2).getLogId());
+
+        response = NVCLCollectionParser.parseLogCollection(toStream(xml), "LogName", false);
+        Assert.assertEquals(4, response.size());
+    }
+
+    /**
+     * Tests that field values match their XPath string values (first element wins, descendant text is concatenated)
+     * and that elements outside of the expected structure are ignored
+     */
+    @Test
+    public void testParseStructure() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><LogCollection>"
+                + "<!-- comment --><Log><LogID>first</LogID><LogID>second</LogID>"
+                + "<LogName>A <b>bold</b> &amp; <![CDATA[<raw>]]></LogName><Other><LogID>nested</LogID></Other></Log>"
+                + "<NotALog><LogID>ignored</LogID></NotALog>"
+                + "</LogCollection>";
+
+        List<GetLogCollectionResponse> response = NVCLCollectionParser.parseLogCollection(toStream(xml), "LogName", false);
+        Assert.assertEquals(1, response.size());
+        Assert.assertEquals("first", response.get(0).getLogId());
+        Assert.assertEquals("A bold & <raw>", response.get(0).getLogName());
+
+        Assert.assertEquals(0, NVCLCollectionParser.parseLogCollection(toStream("<DatasetCollection><Log><LogID>a</LogID></Log></DatasetCollection>"), "LogName", false).size());
+    }
+
+    /**
+     * Tests that malformed responses fail
+     */
+    @Test(expected = XMLStreamException.class)
+    public void testMalformed() throws Exception {
+        NVCLCollectionParser.parseDatasetCollection(toStream("<DatasetCollection><Dataset></DatasetCollection>"));
+    }
+}
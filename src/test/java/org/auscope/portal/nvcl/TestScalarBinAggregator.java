@@ -0,0 +1,115 @@
+package org.auscope.portal.nvcl;
+
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.test.ResourceUtil;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for ScalarBinAggregator
+ */
+public class TestScalarBinAggregator extends PortalTestClass {
+
+    /**
+     * Tests that numeric samples are averaged into bins of the requested size
+     */
+    @Test
+    public void testNumericBins() {
+        ScalarBinAggregator aggregator = new ScalarBinAggregator(new String[] {"a", "b"}, 2.0);
+
+        aggregator.addSample(0.0, new String[] {"1", "null"}, 0);
+        aggregator.addSample(1.0, new String[] {"3", "null"}, 0);
+        aggregator.addSample(2.0, new String[] {"", "5"}, 0);
+        aggregator.addSample(3.5, new String[] {"10", null}, 0);
+        aggregator.addSample(4.0, new String[] {"20", "7"}, 0);
+
+        BinnedCSVResponse response = aggregator.toResponse();
+        Assert.assertEquals(2.0, response.getBinSize(), 0.0001);
+
+        Bin a = response.getBinnedValues()[0];
+        Assert.assertTrue(a.isNumeric());
+        Assert.assertEquals(3, a.getNumericValues().size());
+        Assert.assertEquals(2.0, a.getNumericValues().getDouble(0), 0.0001);
+        Assert.assertEquals(10.0, a.getNumericValues().getDouble(1), 0.0001);
+        Assert.assertEquals(20.0, a.getNumericValues().getDouble(2), 0.0001);
+        Assert.assertArrayEquals(new double[] {0.0, 2.0, 4.0}, a.getStartDepths().toDoubleArray(), 0.0001);
+
+        Bin b = response.getBinnedValues()[1];
+        Assert.assertTrue(b.isNumeric());
+        Assert.assertArrayEquals(new double[] {5.0, 7.0}, b.getNumericValues().toDoubleArray(), 0.0001);
+        Assert.assertArrayEquals(new double[] {2.0, 4.0}, b.getStartDepths().toDoubleArray(), 0.0001);
+    }
+
+    /**
+     * Tests that a large number of samples grows the column buffers correctly
+     */
+    @Test
+    public void testManySamples() {
+        final int sampleCount = 10000;
+        ScalarBinAggregator aggregator = new ScalarBinAggregator(new String[] {"a"}, 1.0);
+        for (int i = 0; i < sampleCount; i++) {
+            aggregator.addSample(i * 0.5, new String[] {Integer.toString(i % 2)}, 0);
+        }
+
+        Bin bin = aggregator.toResponse().getBinnedValues()[0];
+        Assert.assertEquals(sampleCount / 2, bin.getNumericValues().size());
+        Assert.assertEquals(sampleCount / 2, bin.getStartDepths().size());
+        for (int i = 0; i < bin.getNumericValues().size(); i++) {
+            Assert.assertEquals(0.5, bin.getNumericValues().getDouble(i), 0.0001);
+            Assert.assertEquals(i, bin.getStartDepths().getDouble(i), 0.0001);
+        }
+    }
+
+    /**
+     * Tests that non numeric columns are dictionary encoded with the dominant value tracked per bin
+     */
+    @Test
+    public void testCategoricalBins() {
+        ScalarBinAggregator aggregator = new ScalarBinAggregator(new String[] {"a"}, 1.0);
+
+        aggregator.addSample(0.0, new String[] {"QUARTZ"}, 0);
+        aggregator.addSample(0.2, new String[] {"MICA"}, 0);
+        aggregator.addSample(0.4, new String[] {"MICA"}, 0);
+        aggregator.addSample(1.0, new String[] {"QUARTZ"}, 0);
+        aggregator.addSample(2.0, new String[] {"CLAY"}, 0);
+        aggregator.addSample(2.5, new String[] {"QUARTZ"}, 0);
+
+        Bin bin = aggregator.toResponse().getBinnedValues()[0];
+        Assert.assertFalse(bin.isNumeric());
+        Assert.assertEquals(Arrays.asList("QUARTZ", "MICA", "CLAY"), bin.getStringDictionary());
+        Assert.assertEquals(Arrays.asList("MICA", "QUARTZ", "CLAY"), bin.getHighStringValues());
+        Assert.assertEquals(3, bin.getStringValues().size());
+        Assert.assertArrayEquals(new int[] {1, 2}, bin.getStringValues().get(0));
+        Assert.assertArrayEquals(new int[] {1}, bin.getStringValues().get(1));
+        Assert.assertArrayEquals(new int[] {1, 0, 1}, bin.getStringValues().get(2));
+        Assert.assertEquals(2, bin.getStringCount(0, "MICA"));
+        Assert.assertEquals(0, bin.getStringCount(1, "CLAY"));
+        Assert.assertEquals(0, bin.getStringCount(1, "GOLD"));
+    }
+
+    /**
+     * Tests parsing a raw downloadscalars CSV response using a non default bin size
+     */
+    @Test
+    public void testAggregateCSV() throws Exception {
+        BinnedCSVResponse response = ScalarBinAggregator.aggregate(new InputStreamReader(ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar.csv")), 5.0);
+
+        Assert.assertEquals(3, response.getBinnedValues().length);
+
+        Bin grp = response.getBinnedValues()[0];
+        Assert.assertFalse(grp.isNumeric());
+        Assert.assertEquals(1, grp.getStartDepths().size());
+        Assert.assertEquals("SULPHIDE", grp.getHighStringValues().get(0));
+        Assert.assertEquals(7, grp.getStringCount(0, "SULPHATE"));
+
+        Bin number = response.getBinnedValues()[2];
+        Assert.assertTrue(number.isNumeric());
+        Assert.assertEquals(1, number.getNumericValues().size());
+        Assert.assertEquals(3.6, number.getNumericValues().getDouble(0), 0.0001);
+    }
+}
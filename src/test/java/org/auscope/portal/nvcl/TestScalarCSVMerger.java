@@ -0,0 +1,88 @@
+package org.auscope.portal.nvcl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for ScalarCSVMerger
+ */
+public class TestScalarCSVMerger extends PortalTestClass {
+
+    /**
+     * Tests that rows are merge joined by depth with missing values filled in
+     */
+    @Test
+    public void testMerge() throws Exception {
+        Reader log1 = new StringReader("StartDepth,EndDepth,a\n1.0,1.0,10\n2.0,2.0,20\n4.0,4.0,40\n");
+        Reader log2 = new StringReader("StartDepth,EndDepth,b,c\n0.5,0.5,x,y\n2.0,2.0,z,w\nmalformed\n3.0,3.0,p,q\n");
+
+        ScalarCSVMerger merger = new ScalarCSVMerger(Arrays.asList(log1, log2));
+        try {
+            Assert.assertArrayEquals(new String[] {"StartDepth", "EndDepth", "a", "b", "c"}, merger.getHeader());
+            Assert.assertArrayEquals(new String[] {"0.5", "0.5", "null", "x", "y"}, merger.readNext());
+            Assert.assertArrayEquals(new String[] {"1.0", "1.0", "10", "null", "null"}, merger.readNext());
+            Assert.assertArrayEquals(new String[] {"2.0", "2.0", "20", "z", "w"}, merger.readNext());
+            Assert.assertArrayEquals(new String[] {"3.0", "3.0", "null", "p", "q"}, merger.readNext());
+            Assert.assertArrayEquals(new String[] {"4.0", "4.0", "40", "null", "null"}, merger.readNext());
+            Assert.assertNull(merger.readNext());
+        } finally {
+            merger.close();
+        }
+    }
+
+    /**
+     * Tests that a source with a missing header is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testMalformedHeader() throws Exception {
+        Reader log1 = new StringReader("StartDepth,EndDepth,a\n1.0,1.0,10\n");
+        Reader log2 = new StringReader("");
+
+        new ScalarCSVMerger(Arrays.asList(log1, log2));
+    }
+
+    /**
+     * Tests that a malformed depth is reported as an IOException and that every source is closed
+     */
+    @Test
+    public void testMalformedDepthClosesSources() throws Exception {
+        final boolean[] closed = new boolean[2];
+        Reader log1 = new StringReader("StartDepth,EndDepth,a\n1.0,1.0,10\n") {
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        Reader log2 = new StringReader("StartDepth,EndDepth,b\nnotadepth,1.0,10\n") {
+            @Override
+            public void close() {
+                closed[1] = true;
+                super.close();
+            }
+        };
+
+        try {
+            new ScalarCSVMerger(Arrays.asList(log1, log2));
+            Assert.fail("Expected an IOException");
+        } catch (IOException ex) {
+            Assert.assertTrue(closed[0]);
+            Assert.assertTrue(closed[1]);
+        }
+    }
+
+    /**
+     * Tests that an empty list of sources is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testNoSources() throws Exception {
+        new ScalarCSVMerger(new ArrayList<Reader>());
+    }
+}
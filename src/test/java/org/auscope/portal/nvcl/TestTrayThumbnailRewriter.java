@@ -0,0 +1,65 @@
+package org.auscope.portal.nvcl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for TrayThumbnailRewriter
+ */
+public class TestTrayThumbnailRewriter extends PortalTestClass {
+
+    private static final String SERVICE_URL = "http://example.com/NVCLDataServices/";
+
+    /**
+     * Writes html through a new rewriter in chunks of chunkSize bytes
+     */
+    private static String rewrite(String html, int chunkSize) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TrayThumbnailRewriter rewriter = new TrayThumbnailRewriter(output, SERVICE_URL);
+        byte[] bytes = html.getBytes("UTF-8");
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            rewriter.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        rewriter.close();
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * Tests that links and img tags are rewritten regardless of how the page is split across writes
+     */
+    @Test
+    public void testRewrite() throws IOException {
+        String html = "<html><body><a href=\"./Display_Tray_Thumb.html?logid=1&sampleno=0\"><img src=\"./Display_Tray_Thumb.html?x=1\" /></a>"
+                + "<p>..//Display_Tray_Thumb.htm <im <<img alt=\"tést\"></p></body></html>";
+        String expected = "<html><body><a href=\"" + SERVICE_URL + "Display_Tray_Thumb.html?logid=1&sampleno=0\">"
+                + "<img style=\"max-width: 33%;height: auto;width: auto\\9;\" src=\"" + SERVICE_URL + "Display_Tray_Thumb.html?x=1\" /></a>"
+                + "<p>..//Display_Tray_Thumb.htm <im <<img style=\"max-width: 33%;height: auto;width: auto\\9;\" alt=\"tést\"></p></body></html>";
+
+        for (int chunkSize : new int[] {1, 2, 3, 7, 1024}) {
+            Assert.assertEquals(expected, rewrite(html, chunkSize));
+        }
+    }
+
+    /**
+     * Tests that img tags that are already styled are left alone
+     */
+    @Test
+    public void testAlreadyStyled() throws IOException {
+        String html = "<img style=\"max-width: 33%;height: auto;\" src=\"a.jpg\">";
+        Assert.assertEquals(html, rewrite(html, 3));
+    }
+
+    /**
+     * Tests that partial matches at the end of the page are still written
+     */
+    @Test
+    public void testPartialMatchAtEnd() throws IOException {
+        Assert.assertEquals("text ./Display_Tray", rewrite("text ./Display_Tray", 4));
+        Assert.assertEquals("text <im", rewrite("text <im", 4));
+        Assert.assertEquals("text <img src=\"unclosed", rewrite("text <img src=\"unclosed", 4));
+    }
+}
@@ -0,0 +1,131 @@
+package org.auscope.portal.server.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for CoalescingCache
+ */
+public class TestCoalescingCache extends PortalTestClass {
+
+    /**
+     * A loader that counts how many times it has been invoked
+     */
+    private static class CountingLoader implements Callable<String> {
+        private AtomicInteger calls = new AtomicInteger();
+        private String value;
+
+        public CountingLoader(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            return value;
+        }
+    }
+
+    /**
+     * Tests that loaded values are cached
+     */
+    @Test
+    public void testReadThrough() throws Exception {
+        CoalescingCache<String, String> cache = new CoalescingCache<String, String>(10, 60000);
+        CountingLoader loader = new CountingLoader("value");
+
+        Assert.assertEquals("value", cache.get("key", loader));
+        Assert.assertEquals("value", cache.get("key", loader));
+        Assert.assertEquals(1, loader.calls.get());
+
+        cache.remove("key");
+        Assert.assertEquals("value", cache.get("key", loader));
+        Assert.assertEquals(2, loader.calls.get());
+    }
+
+    /**
+     * Tests that failed loads are rethrown unwrapped and never cached
+     */
+    @Test
+    public void testFailureNotCached() throws Exception {
+        CoalescingCache<String, String> cache = new CoalescingCache<String, String>(10, 60000);
+        final IllegalStateException error = new IllegalStateException("upstream");
+
+        try {
+            cache.get("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw error;
+                }
+            });
+            Assert.fail("Exception should have been thrown");
+        } catch (IllegalStateException ex) {
+            Assert.assertSame(error, ex);
+        }
+
+        CountingLoader loader = new CountingLoader("value");
+        Assert.assertEquals("value", cache.get("key", loader));
+        Assert.assertEquals(1, loader.calls.get());
+    }
+
+    /**
+     * Tests that concurrent requests for the same key share a single load
+     */
+    @Test
+    public void testConcurrentLoadsCoalesced() throws Exception {
+        final CoalescingCache<String, String> cache = new CoalescingCache<String, String>(10, 60000);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                loading.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return "value";
+            }
+        };
+
+        final int threadCount = 5;
+        final List<String> results = new ArrayList<String>();
+        final CountDownLatch finished = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        String result = cache.get("key", loader);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception ex) {
+                        //results will be short
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        //Give the other threads a chance to pile up behind the first load
+        Assert.assertTrue(loading.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        release.countDown();
+
+        Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(threadCount, results.size());
+        for (String result : results) {
+            Assert.assertEquals("value", result);
+        }
+        Assert.assertEquals(1, calls.get());
+    }
+}
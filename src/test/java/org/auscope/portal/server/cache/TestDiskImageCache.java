@@ -0,0 +1,158 @@
+package org.auscope.portal.server.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.cache.DiskImageCache.CachedImage;
+import org.auscope.portal.server.cache.DiskImageCache.OpenCachedImage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for DiskImageCache
+ */
+public class TestDiskImageCache extends PortalTestClass {
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = File.createTempFile("disk-image-cache", "");
+        cacheDir.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    private static CachedImage put(DiskImageCache cache, String key, String content) throws IOException {
+        return cache.put(key, new ByteArrayInputStream(content.getBytes("UTF-8")), "image/png");
+    }
+
+    /**
+     * Tests that content can be cached and read back
+     */
+    @Test
+    public void testPutGet() throws IOException {
+        DiskImageCache cache = new DiskImageCache(cacheDir, 100);
+        try {
+            Assert.assertNull(cache.get("a"));
+
+            CachedImage image = put(cache, "a", "0123456789");
+            Assert.assertEquals(10, image.getLength());
+            Assert.assertEquals("image/png", image.getContentType());
+            Assert.assertEquals("\"" + image.getContentHash() + "\"", image.getETag());
+            Assert.assertEquals("0123456789", FileUtils.readFileToString(image.getFile(), "UTF-8"));
+
+            CachedImage cached = cache.get("a");
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(image.getETag(), cached.getETag());
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * Tests that identical content is only stored once
+     */
+    @Test
+    public void testContentAddressed() throws IOException {
+        DiskImageCache cache = new DiskImageCache(cacheDir, 100);
+        try {
+            CachedImage a = put(cache, "a", "0123456789");
+            CachedImage b = put(cache, "b", "0123456789");
+            CachedImage c = put(cache, "c", "abcdefghij");
+
+            Assert.assertEquals(a.getETag(), b.getETag());
+            Assert.assertFalse(a.getETag().equals(c.getETag()));
+            Assert.assertEquals(3, cache.size());
+            Assert.assertEquals(20, cache.getTotalBytes());
+
+            //Replacing a key's content shouldn't affect other keys sharing the old content
+            put(cache, "a", "zzzzzzzzzz");
+            Assert.assertTrue(b.getFile().isFile());
+            Assert.assertEquals(30, cache.getTotalBytes());
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * Tests that the least recently used content is evicted when the quota is exceeded
+     */
+    @Test
+    public void testLruEviction() throws IOException {
+        DiskImageCache cache = new DiskImageCache(cacheDir, 25);
+        try {
+            CachedImage a = put(cache, "a", "aaaaaaaaaa");
+            put(cache, "b", "bbbbbbbbbb");
+            Assert.assertNotNull(cache.get("a")); //b is now the least recently used
+            put(cache, "c", "cccccccccc");
+
+            Assert.assertNotNull(cache.get("a"));
+            Assert.assertNull(cache.get("b"));
+            Assert.assertNotNull(cache.get("c"));
+            Assert.assertEquals(20, cache.getTotalBytes());
+            Assert.assertTrue(a.getFile().isFile());
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * Tests that content returned by putAndOpen can still be read after it has been evicted
+     */
+    @Test
+    public void testPutAndOpenEvicted() throws IOException {
+        DiskImageCache cache = new DiskImageCache(cacheDir, 15);
+        try {
+            OpenCachedImage image = cache.putAndOpen("a", new ByteArrayInputStream("aaaaaaaaaa".getBytes("UTF-8")),
+                    "image/png");
+            try {
+                put(cache, "b", "bbbbbbbbbb");
+                Assert.assertNull(cache.get("a"));
+
+                Assert.assertEquals(10, image.getLength());
+                Assert.assertEquals("aaaaaaaaaa", IOUtils.toString(image.getInputStream(), "UTF-8"));
+            } finally {
+                image.close();
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * Tests that the cache contents survive being reopened
+     */
+    @Test
+    public void testReopen() throws IOException {
+        DiskImageCache cache = new DiskImageCache(cacheDir, 100);
+        CachedImage image = put(cache, "a", "0123456789");
+        put(cache, "b", "abcdefghij");
+        cache.close();
+
+        //Simulate some content going missing
+        new File(cacheDir, cache.get("b").getContentHash() + ".bin").delete();
+
+        cache = new DiskImageCache(cacheDir, 100);
+        try {
+            CachedImage reopened = cache.get("a");
+            Assert.assertNotNull(reopened);
+            Assert.assertEquals(image.getETag(), reopened.getETag());
+            Assert.assertEquals("image/png", reopened.getContentType());
+            Assert.assertNull(cache.get("b"));
+            Assert.assertEquals(1, cache.size());
+            Assert.assertEquals(10, cache.getTotalBytes());
+        } finally {
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.auscope.portal.server.cache;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for ExpiringCache
+ */
+public class TestExpiringCache extends PortalTestClass {
+
+    /**
+     * An ExpiringCache whose clock can be controlled
+     */
+    private static class TestableCache<K, V> extends ExpiringCache<K, V> {
+        private long now = 0;
+
+        public TestableCache(long maxWeight, long ttlMillis, Weigher<K, V> weigher) {
+            super(maxWeight, ttlMillis, weigher);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    /**
+     * Tests that entries are no longer returned once their TTL has elapsed
+     */
+    @Test
+    public void testExpiry() {
+        TestableCache<String, String> cache = new TestableCache<String, String>(10, 100, null);
+
+        cache.put("a", "1");
+        cache.now = 50;
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals("2", cache.get("b"));
+
+        cache.now = 100;
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("2", cache.get("b"));
+        Assert.assertEquals(1, cache.size());
+
+        cache.now = 150;
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that the least recently used entries are evicted when the cache is full
+     */
+    @Test
+    public void testLruEviction() {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 10000);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.get("a")); //b is now the least recently used
+        cache.put("c", "3");
+
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("3", cache.get("c"));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    /**
+     * Tests that the cache is bounded by the total weight of its entries
+     */
+    @Test
+    public void testWeightBound() {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10, 10000, new ExpiringCache.Weigher<String, String>() {
+            @Override
+            public long weigh(String key, String value) {
+                return value.length();
+            }
+        });
+
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        Assert.assertEquals(8, cache.getTotalWeight());
+
+        cache.put("c", "ccccc");
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(9, cache.getTotalWeight());
+
+        //Values heavier than the entire cache are never stored
+        cache.put("d", "ddddddddddd");
+        Assert.assertNull(cache.get("d"));
+        Assert.assertEquals("bbbb", cache.get("b"));
+
+        cache.put("b", "b");
+        Assert.assertEquals(6, cache.getTotalWeight());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getTotalWeight());
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,252 @@
+package org.auscope.portal.server.http;
+
+import java.io.ByteArrayInputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.metrics.PortalMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for CoalescingHttpServiceCaller
+ */
+public class TestCoalescingHttpServiceCaller extends PortalTestClass {
+
+    /**
+     * Doesn't make any requests - instead counts them and blocks until released
+     */
+    private static class BlockingServiceCaller extends CoalescingHttpServiceCaller {
+        private AtomicInteger requests = new AtomicInteger();
+        private CountDownLatch started = new CountDownLatch(1);
+        private CountDownLatch release = new CountDownLatch(1);
+        private Exception error;
+
+        public BlockingServiceCaller() {
+            super(1000);
+        }
+
+        @Override
+        protected String requestMethodResponseAsString(HttpRequestBase method) throws Exception {
+            requests.incrementAndGet();
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            if (error != null) {
+                throw error;
+            }
+            return "response " + requests.get();
+        }
+    }
+
+    private static HttpPost post(String url, String body) throws Exception {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(body));
+        return post;
+    }
+
+    /**
+     * Starts count concurrent requests for method, releasing the service caller once they are all waiting
+     */
+    private static List<Future<String>> requestConcurrently(final BlockingServiceCaller serviceCaller,
+            final HttpRequestBase method, int count) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < count; i++) {
+                results.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return serviceCaller.getMethodResponseAsString(method);
+                    }
+                }));
+            }
+
+            Assert.assertTrue(serviceCaller.started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100); //Give every request time to join the in flight request
+            serviceCaller.release.countDown();
+            for (Future<String> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    //Checked by the caller
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that identical requests generate identical keys (and different requests don't)
+     */
+    @Test
+    public void testGenerateRequestKey() throws Exception {
+        String url = "http://example.com/wfs?service=WFS";
+        Assert.assertEquals(CoalescingHttpServiceCaller.generateRequestKey(new HttpGet(url)),
+                CoalescingHttpServiceCaller.generateRequestKey(new HttpGet(url)));
+        Assert.assertEquals(CoalescingHttpServiceCaller.generateRequestKey(post(url, "<a/>")),
+                CoalescingHttpServiceCaller.generateRequestKey(post(url, "<a/>")));
+
+        Assert.assertFalse(CoalescingHttpServiceCaller.generateRequestKey(post(url, "<a/>")).equals(
+                CoalescingHttpServiceCaller.generateRequestKey(post(url, "<b/>"))));
+        Assert.assertFalse(CoalescingHttpServiceCaller.generateRequestKey(new HttpGet(url)).equals(
+                CoalescingHttpServiceCaller.generateRequestKey(new HttpGet(url + "&a=b"))));
+        Assert.assertNull(CoalescingHttpServiceCaller.generateRequestKey(new HttpDelete(url)));
+    }
+
+    /**
+     * Tests that concurrent identical requests share a single upstream request
+     */
+    @Test
+    public void testCoalesceRequests() throws Exception {
+        BlockingServiceCaller serviceCaller = new BlockingServiceCaller();
+        for (Future<String> result : requestConcurrently(serviceCaller, post("http://example.com/wfs", "<a/>"), 5)) {
+            Assert.assertEquals("response 1", result.get());
+        }
+        Assert.assertEquals(1, serviceCaller.requests.get());
+
+        //Nothing is cached once the request completes
+        Assert.assertEquals("response 2", serviceCaller.getMethodResponseAsString(post("http://example.com/wfs", "<a/>")));
+    }
+
+    /**
+     * Tests that a failed request fails every waiting request
+     */
+    @Test
+    public void testCoalesceError() throws Exception {
+        BlockingServiceCaller serviceCaller = new BlockingServiceCaller();
+        serviceCaller.error = new Exception("upstream error");
+        for (Future<String> result : requestConcurrently(serviceCaller, new HttpGet("http://example.com/wfs"), 3)) {
+            try {
+                result.get();
+                Assert.fail("Expected the upstream error");
+            } catch (Exception ex) {
+                Assert.assertEquals("upstream error", ex.getCause().getMessage());
+            }
+        }
+        Assert.assertEquals(1, serviceCaller.requests.get());
+    }
+
+    /**
+     * Tests that a request that hasn't responded by the request deadline is aborted
+     */
+    @Test
+    public void testRequestDeadline() throws Exception {
+        CoalescingHttpServiceCaller serviceCaller = new CoalescingHttpServiceCaller(1000);
+        serviceCaller.setRequestDeadline(100);
+        try {
+            final HttpGet method = new HttpGet("http://example.com/wfs");
+            try {
+                serviceCaller.callUpstream(method, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        for (int i = 0; i < 50 && !method.isAborted(); i++) {
+                            Thread.sleep(100);
+                        }
+                        throw new Exception("aborted");
+                    }
+                });
+                Assert.fail("Expected a timeout");
+            } catch (SocketTimeoutException ex) {
+                Assert.assertTrue(method.isAborted());
+            }
+
+            //Requests that respond in time are unaffected
+            Assert.assertEquals("response", serviceCaller.callUpstream(new HttpGet("http://example.com/wfs"),
+                    new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return "response";
+                        }
+                    }));
+        } finally {
+            serviceCaller.close();
+        }
+    }
+
+    /**
+     * Tests that upstream requests (and their failures) are recorded against their host
+     */
+    /**
+     * Tests that the request deadline stops applying once the response headers have arrived (ie a slow body isn't
+     * aborted)
+     */
+    @Test
+    public void testRequestDeadlineExcludesBody() throws Exception {
+        final HttpGet method = new HttpGet("http://example.com/wfs");
+        CoalescingHttpServiceCaller serviceCaller = new CoalescingHttpServiceCaller(1000) {
+            @Override
+            protected HttpResponse requestHttpResponse(HttpRequestBase request) throws Exception {
+                HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+                response.setEntity(new InputStreamEntity(new ByteArrayInputStream("slow response".getBytes("UTF-8")) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return method.isAborted() ? -1 : super.read(b, off, 1);
+                    }
+                }, -1));
+                return response;
+            }
+        };
+        serviceCaller.setRequestDeadline(100);
+        try {
+            Assert.assertEquals("slow response", serviceCaller.getMethodResponseAsString(method));
+            Assert.assertFalse(method.isAborted());
+        } finally {
+            serviceCaller.close();
+        }
+    }
+
+    @Test
+    public void testUpstreamMetrics() throws Exception {
+        CoalescingHttpServiceCaller serviceCaller = new CoalescingHttpServiceCaller(1000);
+        PortalMetrics metrics = new PortalMetrics();
+        serviceCaller.setMetrics(metrics);
+
+        Assert.assertEquals("response", serviceCaller.callUpstream(new HttpGet("http://example.com:8080/wfs"),
+                new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return "response";
+                    }
+                }));
+        try {
+            serviceCaller.callUpstream(new HttpGet("http://example.com:8080/wfs"), new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new Exception("upstream error");
+                }
+            });
+            Assert.fail("Expected the upstream error");
+        } catch (Exception ex) {
+            Assert.assertEquals("upstream error", ex.getMessage());
+        }
+
+        PortalMetrics.Stats stats = metrics.getUpstreamStats("example.com:8080");
+        Assert.assertEquals(2, stats.getLatency().getCount());
+        Assert.assertEquals(1, stats.getErrors());
+    }
+}
@@ -0,0 +1,210 @@
+package org.auscope.portal.server.http;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.http.HostCircuitBreaker.HostUnavailableException;
+import org.auscope.portal.server.web.service.FanOut;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for HostCircuitBreaker
+ */
+public class TestHostCircuitBreaker extends PortalTestClass {
+
+    /**
+     * A request that counts how many times it has been made and then fails with error (if set)
+     */
+    private static class CountingRequest implements Callable<String> {
+        private AtomicInteger calls = new AtomicInteger();
+        private Exception error;
+
+        public CountingRequest(Exception error) {
+            this.error = error;
+        }
+
+        @Override
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            if (error != null) {
+                throw error;
+            }
+            return "response";
+        }
+    }
+
+    private static void assertFails(HostCircuitBreaker breaker, String host, Callable<String> request,
+            Class<? extends Exception> expected) {
+        try {
+            breaker.call(host, request);
+            Assert.fail("Expected " + expected.getSimpleName());
+        } catch (Exception ex) {
+            Assert.assertEquals(expected, ex.getClass());
+        }
+    }
+
+    /**
+     * Tests that consecutive failures open a host's circuit (without affecting other hosts)
+     */
+    @Test
+    public void testOpenAfterFailures() throws Exception {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(4, 1000, 2, 60000);
+        CountingRequest failing = new CountingRequest(new ConnectException());
+        CountingRequest working = new CountingRequest(null);
+
+        assertFails(breaker, "dead.host", failing, ConnectException.class);
+        Assert.assertFalse(breaker.isOpen("dead.host"));
+        assertFails(breaker, "dead.host", failing, ConnectException.class);
+        Assert.assertTrue(breaker.isOpen("dead.host"));
+
+        //Fails fast without making a request
+        assertFails(breaker, "dead.host", working, HostUnavailableException.class);
+        Assert.assertEquals(0, working.calls.get());
+        Assert.assertEquals(2, failing.calls.get());
+
+        Assert.assertEquals("response", breaker.call("other.host", working));
+
+        breaker.reset();
+        Assert.assertEquals("response", breaker.call("dead.host", working));
+    }
+
+    /**
+     * Tests that errors that don't indicate an unhealthy host never open a circuit
+     */
+    @Test
+    public void testNonIOErrors() throws Exception {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(4, 1000, 1, 60000);
+        CountingRequest request = new CountingRequest(new IllegalArgumentException());
+
+        assertFails(breaker, "host", request, IllegalArgumentException.class);
+        assertFails(breaker, "host", request, IllegalArgumentException.class);
+        Assert.assertFalse(breaker.isOpen("host"));
+        Assert.assertEquals(2, request.calls.get());
+    }
+
+    /**
+     * Tests that once an open circuit's time elapses a single probe is let through which either closes or reopens it
+     */
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(4, 1000, 1, 50);
+        CountingRequest failing = new CountingRequest(new ConnectException());
+        CountingRequest working = new CountingRequest(null);
+
+        assertFails(breaker, "host", failing, ConnectException.class);
+        Thread.sleep(100);
+        assertFails(breaker, "host", failing, ConnectException.class); //The probe
+        assertFails(breaker, "host", working, HostUnavailableException.class); //Reopened by the failed probe
+        Assert.assertEquals(2, failing.calls.get());
+
+        Thread.sleep(100);
+        Assert.assertEquals("response", breaker.call("host", working));
+        Assert.assertFalse(breaker.isOpen("host"));
+        Assert.assertEquals("response", breaker.call("host", working));
+    }
+
+    /**
+     * Tests that requests fail once a host's bulkhead is full
+     */
+    @Test
+    public void testBulkhead() throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 50, 5, 60000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return breaker.call("slow.host", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            started.countDown();
+                            release.await(5, TimeUnit.SECONDS);
+                            return "slow";
+                        }
+                    });
+                }
+            });
+
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            CountingRequest request = new CountingRequest(null);
+            assertFails(breaker, "slow.host", request, HostUnavailableException.class);
+            Assert.assertEquals(0, request.calls.get());
+            Assert.assertEquals("response", breaker.call("other.host", request));
+
+            release.countDown();
+            Assert.assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("response", breaker.call("slow.host", request));
+
+            //A full bulkhead says nothing about the health of the host
+            Assert.assertFalse(breaker.isOpen("slow.host"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a parallel fan out against a single host (on a pool the size of the shared taskExecutor) leaves room
+     * in the default bulkhead for other users' requests to that host
+     */
+    @Test
+    public void testFanOutLeavesRoomForOtherRequests() throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(HostCircuitBreaker.DEFAULT_MAX_CONCURRENT_REQUESTS,
+                50, 5, 60000);
+        final int poolSize = 5; //As per the taskExecutor bean
+        final CountDownLatch started = new CountDownLatch(poolSize);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ExecutorService sharedPool = Executors.newFixedThreadPool(poolSize);
+        ExecutorService requestThread = Executors.newSingleThreadExecutor();
+        try {
+            final List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return breaker.call("nvcl.host", new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                started.countDown();
+                                release.await(5, TimeUnit.SECONDS);
+                                return "log";
+                            }
+                        });
+                    }
+                });
+            }
+            Future<List<String>> fanOut = requestThread.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return FanOut.invokeAll(sharedPool, tasks);
+                }
+            });
+
+            //Every pool thread is now holding a permit for nvcl.host
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            CountingRequest request = new CountingRequest(null);
+            Assert.assertEquals("response", breaker.call("nvcl.host", request));
+            Assert.assertEquals(1, request.calls.get());
+
+            release.countDown();
+            Assert.assertEquals(8, fanOut.get(5, TimeUnit.SECONDS).size());
+        } finally {
+            release.countDown();
+            requestThread.shutdown();
+            sharedPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.auscope.portal.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Unit tests for LatencyHistogram, PortalMetrics and MetricsInterceptor
+ */
+public class TestPortalMetrics extends PortalTestClass {
+
+    private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
+    private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+    /**
+     * Tests that percentiles are reported to within the histogram's precision
+     */
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 1);
+        Assert.assertEquals(500000, histogram.getPercentile(50), 500000 * 0.04);
+        Assert.assertEquals(990000, histogram.getPercentile(99), 990000 * 0.04);
+        Assert.assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Tests that a request's upstream and transform time is written as a Server-Timing header and its latency is
+     * recorded against its endpoint
+     */
+    @Test
+    public void testInterceptor() throws Exception {
+        PortalMetrics metrics = new PortalMetrics();
+        MetricsInterceptor interceptor = new MetricsInterceptor(metrics);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getServletPath();
+                will(returnValue("/doBoreholeFilter.do"));
+                allowing(mockResponse).isCommitted();
+                will(returnValue(false));
+                oneOf(mockResponse).setHeader(with(equal(MetricsInterceptor.SERVER_TIMING_HEADER)),
+                        with(any(String.class)));
+            }
+        });
+
+        Assert.assertTrue(interceptor.preHandle(mockRequest, mockResponse, null));
+        PortalMetrics.addUpstreamTime(TimeUnit.MILLISECONDS.toNanos(20));
+        PortalMetrics.recordTransform("gmlToHtml", TimeUnit.MILLISECONDS.toNanos(3));
+        Assert.assertTrue(PortalMetrics.getCurrentRequest().toServerTiming().startsWith(
+                "upstream;dur=20.0;desc=\"1 requests\", transform;dur=3.0, portal;dur="));
+        interceptor.postHandle(mockRequest, mockResponse, null, null);
+        interceptor.afterCompletion(mockRequest, mockResponse, null, null);
+
+        Assert.assertNull(PortalMetrics.getCurrentRequest());
+        Assert.assertEquals(1, metrics.getEndpointStats("/doBoreholeFilter.do").getLatency().getCount());
+        Assert.assertEquals(0, metrics.getEndpointStats("/doBoreholeFilter.do").getErrors());
+        Assert.assertEquals(1, metrics.getTransformStats("gmlToHtml").getLatency().getCount());
+
+        //Nothing is recorded outside of a request
+        PortalMetrics.recordTransform("gmlToHtml", TimeUnit.MILLISECONDS.toNanos(3));
+        Assert.assertEquals(1, metrics.getTransformStats("gmlToHtml").getLatency().getCount());
+    }
+
+    /**
+     * Tests that a request is counted as an error if its handler throws or returns an unsuccessful JSON response
+     */
+    @Test
+    public void testInterceptorErrors() throws Exception {
+        PortalMetrics metrics = new PortalMetrics();
+        MetricsInterceptor interceptor = new MetricsInterceptor(metrics);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getServletPath();
+                will(returnValue("/getNVCLLogs.do"));
+                allowing(mockResponse).isCommitted();
+                will(returnValue(false));
+                allowing(mockResponse).setHeader(with(equal(MetricsInterceptor.SERVER_TIMING_HEADER)),
+                        with(any(String.class)));
+            }
+        });
+
+        //Successful JSON response
+        ModelAndView mav = new ModelAndView();
+        mav.addObject(MetricsInterceptor.SUCCESS_ATTRIBUTE, true);
+        interceptor.preHandle(mockRequest, mockResponse, null);
+        interceptor.postHandle(mockRequest, mockResponse, null, mav);
+        interceptor.afterCompletion(mockRequest, mockResponse, null, null);
+        Assert.assertEquals(0, metrics.getEndpointStats("/getNVCLLogs.do").getErrors());
+
+        //Unsuccessful JSON response
+        mav = new ModelAndView();
+        mav.addObject(MetricsInterceptor.SUCCESS_ATTRIBUTE, false);
+        interceptor.preHandle(mockRequest, mockResponse, null);
+        interceptor.postHandle(mockRequest, mockResponse, null, mav);
+        interceptor.afterCompletion(mockRequest, mockResponse, null, null);
+        Assert.assertEquals(1, metrics.getEndpointStats("/getNVCLLogs.do").getErrors());
+
+        //Handler threw
+        interceptor.preHandle(mockRequest, mockResponse, null);
+        interceptor.afterCompletion(mockRequest, mockResponse, null, new Exception());
+        Assert.assertEquals(2, metrics.getEndpointStats("/getNVCLLogs.do").getErrors());
+        Assert.assertEquals(3, metrics.getEndpointStats("/getNVCLLogs.do").getLatency().getCount());
+    }
+}
@@ -0,0 +1,142 @@
+package org.auscope.portal.server.sld;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for SLDResponseCache
+ */
+public class TestSLDResponseCache extends PortalTestClass {
+
+    private static final String STYLE = "<StyledLayerDescriptor/>";
+
+    /** SHA-1 of STYLE */
+    private static final String ETAG = "\"65cf958d566527207857b87c83a8a67306309f79\"";
+
+    private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
+    private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+    /**
+     * Returns STYLE, counting how many times it has been generated
+     */
+    private static class CountingGenerator implements Callable<String> {
+        private AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            return STYLE;
+        }
+    }
+
+    /**
+     * Tests that a generated style is written with its ETag and is only generated once
+     */
+    @Test
+    public void testWriteStyle() throws Exception {
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(STYLE.length());
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(STYLE.length());
+        SLDResponseCache cache = new SLDResponseCache(10, 60000);
+        CountingGenerator generator = new CountingGenerator();
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                exactly(2).of(mockResponse).setHeader("ETag", ETAG);
+                exactly(2).of(mockResponse).setHeader("Cache-Control", "no-cache");
+                exactly(2).of(mockResponse).setContentType("text/xml");
+                exactly(2).of(mockResponse).setCharacterEncoding("UTF-8");
+                exactly(2).of(mockResponse).setContentLength(STYLE.length());
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream1));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream2));
+            }
+        });
+
+        String key = SLDResponseCache.generateKey("a", null, 1);
+        cache.writeStyle(mockRequest, mockResponse, key, generator);
+        cache.writeStyle(mockRequest, mockResponse, key, generator);
+
+        Assert.assertEquals(1, generator.calls.get());
+        Assert.assertArrayEquals(STYLE.getBytes("UTF-8"), outputStream1.toByteArray());
+        Assert.assertArrayEquals(STYLE.getBytes("UTF-8"), outputStream2.toByteArray());
+    }
+
+    /**
+     * Tests that a request with a matching If-None-Match header gets a 304 without a body
+     */
+    @Test
+    public void testNotModified() throws Exception {
+        SLDResponseCache cache = new SLDResponseCache(10, 60000);
+        CountingGenerator generator = new CountingGenerator();
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue("\"other\", W/" + ETAG));
+
+                oneOf(mockResponse).setHeader("ETag", ETAG);
+                oneOf(mockResponse).setHeader("Cache-Control", "no-cache");
+                oneOf(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            }
+        });
+
+        cache.writeStyle(mockRequest, mockResponse, SLDResponseCache.generateKey("a"), generator);
+        Assert.assertEquals(1, generator.calls.get());
+    }
+
+    /**
+     * Tests that a style thrown as an UncacheableStyleException is written but generated again by the next request
+     */
+    @Test
+    public void testUncacheableStyle() throws Exception {
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(STYLE.length());
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(STYLE.length());
+        SLDResponseCache cache = new SLDResponseCache(10, 60000);
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> generator = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw new SLDResponseCache.UncacheableStyleException(STYLE);
+            }
+        };
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                exactly(2).of(mockResponse).setHeader("ETag", ETAG);
+                exactly(2).of(mockResponse).setHeader("Cache-Control", "no-cache");
+                exactly(2).of(mockResponse).setContentType("text/xml");
+                exactly(2).of(mockResponse).setCharacterEncoding("UTF-8");
+                exactly(2).of(mockResponse).setContentLength(STYLE.length());
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream1));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream2));
+            }
+        });
+
+        String key = SLDResponseCache.generateKey("a");
+        cache.writeStyle(mockRequest, mockResponse, key, generator);
+        cache.writeStyle(mockRequest, mockResponse, key, generator);
+
+        Assert.assertEquals(2, calls.get());
+        Assert.assertArrayEquals(STYLE.getBytes("UTF-8"), outputStream1.toByteArray());
+        Assert.assertArrayEquals(STYLE.getBytes("UTF-8"), outputStream2.toByteArray());
+    }
+}
@@ -0,0 +1,40 @@
+package org.auscope.portal.server.sld;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for SLDTemplate
+ */
+public class TestSLDTemplate extends PortalTestClass {
+
+    /**
+     * Tests that parameters are substituted (including repeated parameters and parameters at either end)
+     */
+    @Test
+    public void testRender() {
+        SLDTemplate template = new SLDTemplate("${filter}<Fill>${color}</Fill><Stroke>${color}</Stroke>${end}");
+
+        Assert.assertEquals("<ogc:Filter/><Fill>#FF0000</Fill><Stroke>#FF0000</Stroke>1",
+                template.render("color", "#FF0000", "filter", "<ogc:Filter/>", "end", 1));
+        Assert.assertEquals("prefix:null<Fill>a</Fill><Stroke>a</Stroke>",
+                template.renderTo(new StringBuilder("prefix:"), "color", "a", "filter", null, "end", "").toString());
+    }
+
+    /**
+     * Tests that templates without parameters render as is
+     */
+    @Test
+    public void testNoParameters() {
+        Assert.assertEquals("<Rule>$</Rule>", new SLDTemplate("<Rule>$</Rule>").render());
+    }
+
+    /**
+     * Tests that every parameter must be given a value
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameter() {
+        new SLDTemplate("<Fill>${color}</Fill>").render("colour", "#FF0000");
+    }
+}
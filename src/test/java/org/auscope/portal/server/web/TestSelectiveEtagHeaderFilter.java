@@ -0,0 +1,129 @@
+package org.auscope.portal.server.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONObject;
+
+import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.web.controllers.StreamingJSONView;
+import org.hamcrest.Matchers;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for SelectiveEtagHeaderFilter
+ */
+public class TestSelectiveEtagHeaderFilter extends PortalTestClass {
+
+    private static final String DATA = "<gml:FeatureCollection>\"data\"</gml:FeatureCollection>";
+
+    private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
+    private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+    private ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream();
+    private SelectiveEtagHeaderFilter filter;
+
+    @Before
+    public void setup() {
+        filter = new SelectiveEtagHeaderFilter();
+        filter.setExcludedPaths(" /doMineFilter.do,\n /doNVCLFilter.do ");
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getAttribute(with(any(String.class)));
+                will(returnValue(null));
+                allowing(mockRequest).setAttribute(with(any(String.class)), with(any(Object.class)));
+                allowing(mockRequest).removeAttribute(with(any(String.class)));
+            }
+        });
+    }
+
+    /**
+     * Renders a StreamingJSONView through the filter, asserting whether the view is given the actual response
+     */
+    private String renderThroughFilter(final boolean expectUnbuffered) throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType(StreamingJSONView.CONTENT_TYPE);
+                oneOf(mockResponse).setCharacterEncoding("UTF-8");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+            }
+        });
+
+        filter.doFilter(mockRequest, mockResponse, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                    ServletException {
+                Assert.assertEquals(expectUnbuffered, response == mockResponse);
+                try {
+                    new StreamingJSONView("gml", new ByteArrayInputStream(DATA.getBytes("UTF-8")), null).render(null,
+                            (HttpServletRequest) request, (HttpServletResponse) response);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ServletException(e);
+                }
+            }
+        });
+
+        String json = new String(outputStream.toByteArray(), "UTF-8");
+        Assert.assertEquals(DATA, JSONObject.fromObject(json).getJSONObject("data").getString("gml"));
+        return json;
+    }
+
+    /**
+     * Tests the parsing of the excludedPaths init-param
+     */
+    @Test
+    public void testSetExcludedPaths() {
+        Assert.assertEquals(2, filter.getExcludedPaths().size());
+        Assert.assertTrue(filter.getExcludedPaths().contains("/doMineFilter.do"));
+        Assert.assertTrue(filter.getExcludedPaths().contains("/doNVCLFilter.do"));
+    }
+
+    /**
+     * Tests that a streamed response to an excluded path is written straight to the client without an ETag
+     */
+    @Test
+    public void testExcludedPathIsStreamed() throws Exception {
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getServletPath();
+                will(returnValue("/doMineFilter.do"));
+                never(mockResponse).setHeader(with(equal("ETag")), with(any(String.class)));
+            }
+        });
+
+        renderThroughFilter(true);
+    }
+
+    /**
+     * Tests that every other response is still buffered and given an ETag
+     */
+    @Test
+    public void testOtherPathsGetEtag() throws Exception {
+        context.checking(new Expectations() {
+            {
+                allowing(mockRequest).getServletPath();
+                will(returnValue("/doMineFilterCount.do"));
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+                oneOf(mockResponse).setHeader(with(equal("ETag")), with(Matchers.startsWith("\"")));
+                oneOf(mockResponse).setContentLength(with(any(Integer.class)));
+            }
+        });
+
+        renderThroughFilter(false);
+    }
+}
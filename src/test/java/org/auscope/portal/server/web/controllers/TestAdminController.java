@@ -3,12 +3,14 @@ package org.auscope.portal.server.web.controllers;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.auscope.portal.core.services.admin.AdminDiagnosticResponse;
 import org.auscope.portal.core.services.admin.EndpointAndSelector;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.metrics.PortalMetrics;
 import org.auscope.portal.server.web.service.AuScopeAdminService;
 import org.jmock.Expectations;
 import org.junit.Assert;
@@ -27,6 +29,7 @@ public class TestAdminController extends PortalTestClass {
     private AuScopeAdminService mockService;
     private CSWServiceItem mockServiceItem;
     private ArrayList<CSWServiceItem> cswServiceList;
+    private PortalMetrics metrics;
     private AdminController controller;
 
     @Before
@@ -36,7 +39,8 @@ public class TestAdminController extends PortalTestClass {
         cswServiceList = new ArrayList<CSWServiceItem>();
         cswServiceList.add(mockServiceItem);
 
-        controller = new AdminController(cswServiceList, mockService);
+        metrics = new PortalMetrics();
+        controller = new AdminController(cswServiceList, mockService, metrics);
     }
 
     /**
@@ -123,4 +127,28 @@ public class TestAdminController extends PortalTestClass {
         Assert.assertNotNull(mav);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
     }
+
+    /**
+     * Tests that recorded metrics are reported (and optionally reset)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetMetrics() throws Exception {
+        metrics.recordUpstream("example.com", 5000000, false);
+        metrics.recordUpstream("example.com", 15000000, true);
+        metrics.recordUpstreamBytes("example.com", 1024);
+
+        ModelAndView mav = controller.getMetrics(true);
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+        Map<String, Map<String, Object>> upstream = (Map<String, Map<String, Object>>) mav.getModel().get("upstream");
+        Map<String, Object> host = upstream.get("example.com");
+        Assert.assertEquals(2L, host.get("count"));
+        Assert.assertEquals(1L, host.get("errors"));
+        Assert.assertEquals(1024L, host.get("bytes"));
+        Assert.assertEquals(15.0, (Double) host.get("max"), 0.01);
+
+        mav = controller.getMetrics(false);
+        Assert.assertTrue(((Map<?, ?>) mav.getModel().get("upstream")).isEmpty());
+    }
 }
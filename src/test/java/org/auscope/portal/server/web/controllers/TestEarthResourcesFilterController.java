@@ -9,6 +9,7 @@ import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.test.ResourceUtil;
+import org.auscope.portal.gsml.GridClusterer;
 import org.auscope.portal.server.web.service.MineralOccurrenceService;
 import org.jmock.Expectations;
 import org.junit.Assert;
@@ -81,12 +82,37 @@ public class TestEarthResourcesFilterController extends PortalTestClass {
             }
         });
 
-        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0);
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0, null);
 
         //Ensure that we get a response that says failure
         testMAVResponse(modelAndView, new Boolean(false), null);
     }
 
+    /**
+     * Tests that a clustered mine filter ignores the client's feature limit (so that the cluster counts are complete)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDoMineFilterClusterIgnoresMaxFeatures() throws Exception {
+        final String mineName = "testMine";
+        final String serviceURL = "http://testblah.com";
+        final HttpRequestBase mockMethod = context.mock(HttpRequestBase.class);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mineralOccurrenceService).getMinesGml(serviceURL, mineName, null,
+                        GridClusterer.MAX_CLUSTERED_FEATURES);
+                will(returnValue(new WFSResponse(
+                        "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"/>", mockMethod)));
+            }
+        });
+
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 200,
+                GridClusterer.OUTPUT_FORMAT);
+        Assert.assertTrue(modelAndView.getView() instanceof StreamingJSONView);
+    }
+
     /**
      * Test doing a mine filter and getting all mines
      *
@@ -108,7 +134,7 @@ public class TestEarthResourcesFilterController extends PortalTestClass {
             }
         });
 
-        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0);
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0, null);
 
         //Ensure that we get a response that says failure
         testMAVResponse(modelAndView, new Boolean(false), null);
@@ -136,7 +162,7 @@ public class TestEarthResourcesFilterController extends PortalTestClass {
         });
 
         //call with updateCSWRecords dud url
-        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0);
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0, null);
 
         //Ensure that we get a valid response
         testMAVResponse(modelAndView, new Boolean(true), expectedGML);
@@ -164,7 +190,7 @@ public class TestEarthResourcesFilterController extends PortalTestClass {
         });
 
         //call with updateCSWRecords dud url
-        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0);
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0, null);
 
         //Ensure that we get a valid response
         testMAVResponse(modelAndView, new Boolean(true), expectedGML);
@@ -183,7 +209,7 @@ public class TestEarthResourcesFilterController extends PortalTestClass {
         });
 
         //call with updateCSWRecords dud url
-        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0);
+        ModelAndView modelAndView = this.earthResourcesFilterController.doMineFilter(serviceURL, mineName, null, 0, null);
 
         //Ensure that we get a valid response
         testMAVResponse(modelAndView, new Boolean(false), null);
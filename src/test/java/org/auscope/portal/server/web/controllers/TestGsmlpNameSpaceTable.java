@@ -0,0 +1,106 @@
+package org.auscope.portal.server.web.controllers;
+
+import java.io.ByteArrayInputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
+import org.auscope.portal.core.services.responses.csw.CSWRecord;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.web.service.BoreholeService;
+import org.jmock.Expectations;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for GsmlpNameSpaceTable
+ */
+public class TestGsmlpNameSpaceTable extends PortalTestClass {
+
+    /** Only the root element is well formed - the rest of the document should never be read */
+    private static final String CAPABILITIES = "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gsmlp=\""
+            + BoreholeService.GSMLP_4_0_NAMESPACE + "\"><ows:ServiceIdentification>&&&";
+
+    private HttpServiceCaller mockServiceCaller = context.mock(HttpServiceCaller.class);
+    private CSWCacheService mockCSWService = context.mock(CSWCacheService.class);
+    private GsmlpNameSpaceTable table;
+
+    private String url1 = "http://sf0.1/wfs";
+
+    @Before
+    public void setUp() throws Exception {
+        table = new GsmlpNameSpaceTable(mockServiceCaller, mockCSWService, 60000);
+
+        final CSWRecord record = new CSWRecord("service1", "id1", "", "", new AbstractCSWOnlineResource[] {
+                new CSWOnlineResourceImpl(new URL("http://other.1/wfs"), "wfs", "dne", "description"),
+                new CSWOnlineResourceImpl(new URL(url1), "wfs", GsmlpNameSpaceTable.BOREHOLE_VIEW_TYPENAME, "description")}, null);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockCSWService).getWFSRecords();
+                will(returnValue(Arrays.asList(record)));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        table.close();
+    }
+
+    /**
+     * Tests that a namespace is read from the root element on demand and then served from the table
+     */
+    @Test
+    public void testLookupOnDemand() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpRequestBase.class)));
+                will(returnValue(new ByteArrayInputStream(CAPABILITIES.getBytes())));
+            }
+        });
+
+        Assert.assertEquals(BoreholeService.GSMLP_4_0_NAMESPACE, table.getGsmlpNameSpace("http://other.2/wfs"));
+        Assert.assertEquals(BoreholeService.GSMLP_4_0_NAMESPACE, table.getGsmlpNameSpace("http://other.2/wfs"));
+    }
+
+    /**
+     * Tests that failed lookups return the default namespace and aren't retried immediately
+     */
+    @Test
+    public void testNegativeCaching() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpRequestBase.class)));
+                will(throwException(new ConnectException()));
+            }
+        });
+
+        Assert.assertEquals(GsmlpNameSpaceTable.DEFAULT_GSMLP_NAMESPACE, table.getGsmlpNameSpace("http://other.2/wfs"));
+        Assert.assertEquals(GsmlpNameSpaceTable.DEFAULT_GSMLP_NAMESPACE, table.getGsmlpNameSpace("http://other.2/wfs"));
+    }
+
+    /**
+     * Tests that a refresh prefetches the gsmlp:BoreholeView services in the CSW cache (once per refresh interval)
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpRequestBase.class)));
+                will(returnValue(new ByteArrayInputStream(CAPABILITIES.getBytes())));
+            }
+        });
+
+        table.refresh();
+        table.refresh();
+        Assert.assertEquals(BoreholeService.GSMLP_4_0_NAMESPACE, table.getGsmlpNameSpace(url1));
+    }
+}
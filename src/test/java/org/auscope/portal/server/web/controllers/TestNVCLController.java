@@ -1,15 +1,20 @@
 package org.auscope.portal.server.web.controllers;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.net.ConnectException;
 import java.net.URI;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.services.CSWCacheService;
@@ -18,6 +23,7 @@ import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
 import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.cache.DiskImageCache;
 import org.auscope.portal.server.domain.nvcldataservice.CSVDownloadResponse;
 import org.auscope.portal.server.domain.nvcldataservice.GetDatasetCollectionResponse;
 import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
@@ -29,6 +35,7 @@ import org.auscope.portal.server.domain.nvcldataservice.WFSDownloadResponse;
 import org.auscope.portal.server.domain.nvcldataservice.WFSStatusResponse;
 import org.auscope.portal.server.web.NVCLDataServiceMethodMaker.PlotScalarGraphType;
 import org.auscope.portal.server.web.service.BoreholeService;
+import org.auscope.portal.server.web.service.HyloggerBoreholeIndex;
 import org.auscope.portal.server.web.service.NVCL2_0_DataService;
 import org.auscope.portal.server.web.service.NVCLDataService;
 import org.jmock.Expectations;
@@ -45,6 +52,9 @@ import org.springframework.web.servlet.ModelAndView;
 @SuppressWarnings("rawtypes")
 public class TestNVCLController extends PortalTestClass {
 
+    /** The mock http request. */
+    private HttpServletRequest mockHttpRequest;
+
     /** The mock http response. */
     private HttpServletResponse mockHttpResponse;
 
@@ -68,6 +78,7 @@ public class TestNVCLController extends PortalTestClass {
      */
     @Before
     public void setUp() {
+        this.mockHttpRequest = context.mock(HttpServletRequest.class);
         this.mockHttpResponse = context.mock(HttpServletResponse.class);
         this.mockBoreholeService = context.mock(BoreholeService.class);
         this.mockCSWService = context.mock(CSWCacheService.class);
@@ -165,6 +176,36 @@ public class TestNVCLController extends PortalTestClass {
         Assert.assertEquals(nvclWfsResponse, data.get("gml"));
     }
 
+    /**
+     * Tests that hylogger filter uses the hylogger index (instead of querying the services) when one is available.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testHyloggerFilterIndexed() throws Exception {
+        final String serviceUrl = "http://fake.com/wfs";
+        final int maxFeatures = 10;
+        final List<String> restrictedIds = Arrays.asList("ID1", "ID2");
+        final HyloggerBoreholeIndex mockIndex = context.mock(HyloggerBoreholeIndex.class);
+        final int count = 2;
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockIndex).getHyloggerBoreholeIDs(with(any(CSWRecordsFilterVisitor.class)));
+                will(returnValue(restrictedIds));
+
+                oneOf(mockBoreholeService).countAllBoreholes(serviceUrl, "", "", "", "", maxFeatures, null, restrictedIds);
+                will(returnValue(count));
+            }
+        });
+
+        this.nvclController.setHyloggerIndex(mockIndex);
+        ModelAndView response = this.nvclController.doBoreholeFilter(serviceUrl, "", "", "", "", maxFeatures, null, true, null, true);
+        Assert.assertTrue((Boolean) response.getModel().get("success"));
+        Assert.assertEquals(count, response.getModel().get("data"));
+    }
+
     /**
      * Tests that hylogger filter uses the correct functions when the underlying hylogger lookup fails.
      *
@@ -367,7 +408,7 @@ public class TestNVCLController extends PortalTestClass {
             }
         });
 
-        this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpResponse);
+        this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpRequest, mockHttpResponse);
         Assert.assertArrayEquals(data, outputStream.toByteArray());
     }
 
@@ -393,7 +434,97 @@ public class TestNVCLController extends PortalTestClass {
             }
         });
 
-        this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpResponse);
+        this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpRequest, mockHttpResponse);
+    }
+
+    /**
+     * Tests that mosaic imagery is cached, served with a strong ETag and that conditional requests receive a 304
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetMosaicCached() throws Exception {
+        final String serviceUrl = "http://example/url";
+        final String logId = "unique-id";
+        final Integer width = 1;
+        final Integer start = 2;
+        final Integer end = 3;
+        final byte[] data = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        final String contentType = "image/jpeg";
+        final String cacheControl = "public, max-age=" + NVCLController.IMAGE_CACHE_MAX_AGE;
+        final MosaicResponse mockMosaicResponse = context.mock(MosaicResponse.class);
+
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(data.length);
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(data.length);
+
+        //The ETag should be the SHA-256 hash of the content
+        StringBuilder hash = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hash.append(String.format("%02x", b));
+        }
+        final String eTag = "\"" + hash + "\"";
+
+        File cacheDir = File.createTempFile("nvcl-image-cache", "");
+        cacheDir.delete();
+        DiskImageCache imageCache = new DiskImageCache(cacheDir, 1024 * 1024);
+        try {
+            this.nvclController.setImageCache(imageCache);
+
+            //The first request will go to the service (only once)
+            context.checking(new Expectations() {
+                {
+                    oneOf(mockDataService).getMosaic(serviceUrl, logId, width, start, end);
+                    will(returnValue(mockMosaicResponse));
+                    allowing(mockMosaicResponse).getContentType();
+                    will(returnValue(contentType));
+                    allowing(mockMosaicResponse).getResponse();
+                    will(returnValue(inputStream));
+
+                    oneOf(mockHttpRequest).getHeader("If-None-Match");
+                    will(returnValue(null));
+                    oneOf(mockHttpResponse).setHeader("ETag", eTag);
+                    oneOf(mockHttpResponse).setHeader("Cache-Control", cacheControl);
+                    oneOf(mockHttpResponse).setContentType(contentType);
+                    oneOf(mockHttpResponse).setContentLength(data.length);
+                    oneOf(mockHttpResponse).getOutputStream();
+                    will(returnValue(outputStream1));
+                }
+            });
+            this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpRequest, mockHttpResponse);
+            Assert.assertArrayEquals(data, outputStream1.toByteArray());
+
+            //The second request will be served from the cache
+            context.checking(new Expectations() {
+                {
+                    oneOf(mockHttpRequest).getHeader("If-None-Match");
+                    will(returnValue(null));
+                    oneOf(mockHttpResponse).setHeader("ETag", eTag);
+                    oneOf(mockHttpResponse).setHeader("Cache-Control", cacheControl);
+                    oneOf(mockHttpResponse).setContentType(contentType);
+                    oneOf(mockHttpResponse).setContentLength(data.length);
+                    oneOf(mockHttpResponse).getOutputStream();
+                    will(returnValue(outputStream2));
+                }
+            });
+            this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpRequest, mockHttpResponse);
+            Assert.assertArrayEquals(data, outputStream2.toByteArray());
+
+            //A conditional request will get a 304
+            context.checking(new Expectations() {
+                {
+                    oneOf(mockHttpRequest).getHeader("If-None-Match");
+                    will(returnValue(eTag));
+                    oneOf(mockHttpResponse).setHeader("ETag", eTag);
+                    oneOf(mockHttpResponse).setHeader("Cache-Control", cacheControl);
+                    oneOf(mockHttpResponse).setStatus(HttpStatus.SC_NOT_MODIFIED);
+                }
+            });
+            this.nvclController.getNVCLMosaic(serviceUrl, logId, width, start, end, mockHttpRequest, mockHttpResponse);
+        } finally {
+            imageCache.close();
+            FileUtils.deleteDirectory(cacheDir);
+        }
     }
 
     /**
@@ -437,7 +568,7 @@ public class TestNVCLController extends PortalTestClass {
         });
 
         this.nvclController.getNVCLPlotScalar(serviceUrl, logId, startDepth, endDepth, width, height, samplingInterval,
-                graphTypeInt, 0, mockHttpResponse);
+                graphTypeInt, 0, mockHttpRequest, mockHttpResponse);
         Assert.assertArrayEquals(data, outputStream.toByteArray());
     }
 
@@ -469,7 +600,7 @@ public class TestNVCLController extends PortalTestClass {
         });
 
         this.nvclController.getNVCLPlotScalar(serviceUrl, logId, startDepth, endDepth, width, height, samplingInterval,
-                graphTypeInt, 0, mockHttpResponse);
+                graphTypeInt, 0, mockHttpRequest, mockHttpResponse);
     }
 
     /**
@@ -510,6 +641,52 @@ public class TestNVCLController extends PortalTestClass {
         Assert.assertArrayEquals(data, outputStream.toByteArray());
     }
 
+    /**
+     * Tests a failed parallel CSV download is reported without the download headers (so the error page isn't saved as
+     * the CSV)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCSVDownloadParallelError() throws Exception {
+        final String serviceUrl = "http://example/url";
+        final String[] logIds = new String[] {"id1", "id2"};
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(1024);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mock2_0_DataService).openNVCL2_0_CSVDownloadParallel(serviceUrl, logIds);
+                will(throwException(new Exception("Server returned HTTP 404")));
+
+                oneOf(mockHttpResponse).getOutputStream();
+                will(returnValue(outputStream));
+            }
+        });
+
+        this.nvclController.getNVCL2_0_CSVDownload(serviceUrl, logIds, true, mockHttpResponse);
+        Assert.assertTrue(new String(outputStream.toByteArray()).contains("Error 404"));
+    }
+
+    /**
+     * Tests a failed parallel CSV download whose exception has no message is rethrown
+     *
+     * @throws Exception
+     */
+    @Test(expected = ServletException.class)
+    public void testCSVDownloadParallelErrorNoMessage() throws Exception {
+        final String serviceUrl = "http://example/url";
+        final String[] logIds = new String[] {"id1", "id2"};
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mock2_0_DataService).openNVCL2_0_CSVDownloadParallel(serviceUrl, logIds);
+                will(throwException(new Exception()));
+            }
+        });
+
+        this.nvclController.getNVCL2_0_CSVDownload(serviceUrl, logIds, true, mockHttpResponse);
+    }
+
     /**
      * Tests a TSG download calls the underlying service correctly
      *
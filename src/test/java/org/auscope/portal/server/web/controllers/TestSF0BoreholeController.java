@@ -1,15 +1,31 @@
 package org.auscope.portal.server.web.controllers;
 
+import java.net.ConnectException;
 import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.csw.CSWRecordsHostFilter;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
+import org.auscope.portal.core.services.responses.csw.CSWRecord;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
+import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
 import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.nvcl.NVCLNamespaceContext;
+import org.auscope.portal.server.web.service.BoreholeService;
+import org.auscope.portal.server.web.service.HyloggerBoreholeIndex;
+import org.auscope.portal.server.web.service.HyloggerBoreholeLookup;
 import org.auscope.portal.server.web.service.SF0BoreholeService;
 import org.jmock.Expectations;
 import org.junit.Assert;
@@ -85,4 +101,195 @@ public class TestSF0BoreholeController extends PortalTestClass {
         Assert.assertNotNull(data);
         Assert.assertEquals(sf0BoreholeWfsResponse, data.get("gml"));
     }
+
+    /**
+     * Tests that styles for services without gsmlp:nvclCollection highlight Hylogger boreholes using a compact ID
+     * filter and that the generated style is cached
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testFilterStyleHyloggerCompact() throws Exception {
+        final String serviceUrl = "http://fake.com/wfs";
+        final String gsmlpNameSpace = "http://xmlns.geosciml.org/geosciml-portrayal/2.0";
+        final List<String> hyloggerIDs = Arrays.asList("1", "2", "3");
+        final String style = "<StyledLayerDescriptor/>";
+        final HttpServletRequest mockRequest = context.mock(HttpServletRequest.class, "mockRequest");
+        final HttpServletResponse mockResponse = context.mock(HttpServletResponse.class, "mockResponse");
+        final GsmlpNameSpaceTable mockNameSpaceTable = context.mock(GsmlpNameSpaceTable.class);
+        final HyloggerBoreholeIndex mockHyloggerIndex = context.mock(HyloggerBoreholeIndex.class);
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(style.length());
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(style.length());
+
+        this.sf0BoreholeController.setGsmlpNameSpaceTable(mockNameSpaceTable);
+        this.sf0BoreholeController.setHyloggerIndex(mockHyloggerIndex);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockSF0BoreholeService).getFilter("", "", "", "", 0, null, null, null);
+                will(returnValue("filter"));
+
+                exactly(2).of(mockNameSpaceTable).getGsmlpNameSpace(serviceUrl);
+                will(returnValue(gsmlpNameSpace));
+
+                oneOf(mockHyloggerIndex).lookupHyloggerBoreholeIDs(with(any(CSWRecordsHostFilter.class)));
+                will(returnValue(new HyloggerBoreholeLookup(hyloggerIDs, new ArrayList<String>(), false)));
+
+                oneOf(mockSF0BoreholeService).getCompactIDFilter("", "", "", "", 0, null, hyloggerIDs, null);
+                will(returnValue("hyloggerFilter"));
+
+                oneOf(mockSF0BoreholeService).getStyle("filter", "#2242c7", "hyloggerFilter", "#FF0000", gsmlpNameSpace);
+                will(returnValue(style));
+
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                allowing(mockResponse).setHeader(with(any(String.class)), with(any(String.class)));
+                allowing(mockResponse).setContentType("text/xml");
+                allowing(mockResponse).setCharacterEncoding("UTF-8");
+                allowing(mockResponse).setContentLength(style.length());
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream1));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream2));
+            }
+        });
+
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+
+        Assert.assertArrayEquals(style.getBytes(), outputStream1.toByteArray());
+        Assert.assertArrayEquals(style.getBytes(), outputStream2.toByteArray());
+    }
+
+    /**
+     * Tests that a style generated after an NVCL service failed to report its Hylogger boreholes is served but not
+     * cached
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testFilterStyleHyloggerLookupFailed() throws Exception {
+        final String serviceUrl = "http://fake.com/wfs";
+        final String nvclUrl = "http://fake.com/nvcl/wfs";
+        final String gsmlpNameSpace = "http://xmlns.geosciml.org/geosciml-portrayal/2.0";
+        final String style = "<StyledLayerDescriptor/>";
+        final HttpServletRequest mockRequest = context.mock(HttpServletRequest.class, "mockRequest");
+        final HttpServletResponse mockResponse = context.mock(HttpServletResponse.class, "mockResponse");
+        final GsmlpNameSpaceTable mockNameSpaceTable = context.mock(GsmlpNameSpaceTable.class);
+        final BoreholeService mockNVCLBoreholeService = context.mock(BoreholeService.class, "mockNVCLBoreholeService");
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(style.length());
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(style.length());
+        final CSWRecord nvclRecord = new CSWRecord("nvcl", "id1", "", "", new AbstractCSWOnlineResource[] {
+                new CSWOnlineResourceImpl(new URL(nvclUrl), "wfs", NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME, "description")}, null);
+
+        this.sf0BoreholeController.setGsmlpNameSpaceTable(mockNameSpaceTable);
+        this.sf0BoreholeController.setHyloggerIndex(new HyloggerBoreholeIndex(mockNVCLBoreholeService, mockCSWService, 60000));
+
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(mockSF0BoreholeService).getFilter("", "", "", "", 0, null, null, null);
+                will(returnValue("filter"));
+
+                exactly(2).of(mockNameSpaceTable).getGsmlpNameSpace(serviceUrl);
+                will(returnValue(gsmlpNameSpace));
+
+                allowing(mockCSWService).getWFSRecords();
+                will(returnValue(Arrays.asList(nvclRecord)));
+
+                //The index skips the failed service, the style must not be cached until it responds
+                exactly(2).of(mockNVCLBoreholeService).getHyloggerBoreholeIDs(nvclUrl);
+                will(throwException(new PortalServiceException("", new ConnectException())));
+
+                exactly(2).of(mockSF0BoreholeService).getStyle("filter", "#2242c7", "", "#FF0000", gsmlpNameSpace);
+                will(returnValue(style));
+
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                allowing(mockResponse).setHeader(with(any(String.class)), with(any(String.class)));
+                allowing(mockResponse).setContentType("text/xml");
+                allowing(mockResponse).setCharacterEncoding("UTF-8");
+                allowing(mockResponse).setContentLength(style.length());
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream1));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream2));
+            }
+        });
+
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+
+        Assert.assertArrayEquals(style.getBytes(), outputStream1.toByteArray());
+        Assert.assertArrayEquals(style.getBytes(), outputStream2.toByteArray());
+    }
+
+    /**
+     * Tests that a style generated while a service's gsmlp namespace was still unknown (and so defaulted) isn't served
+     * from the cache once the namespace is known
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testFilterStyleNameSpaceInCacheKey() throws Exception {
+        final String serviceUrl = "http://fake.com/wfs";
+        final String defaultStyle = "<StyledLayerDescriptor>default</StyledLayerDescriptor>";
+        final String style4_0 = "<StyledLayerDescriptor>4.0</StyledLayerDescriptor>";
+        final HttpServletRequest mockRequest = context.mock(HttpServletRequest.class, "mockRequest");
+        final HttpServletResponse mockResponse = context.mock(HttpServletResponse.class, "mockResponse");
+        final GsmlpNameSpaceTable mockNameSpaceTable = context.mock(GsmlpNameSpaceTable.class);
+        final HyloggerBoreholeIndex mockHyloggerIndex = context.mock(HyloggerBoreholeIndex.class);
+        final ByteBufferedServletOutputStream outputStream1 = new ByteBufferedServletOutputStream(defaultStyle.length());
+        final ByteBufferedServletOutputStream outputStream2 = new ByteBufferedServletOutputStream(style4_0.length());
+
+        this.sf0BoreholeController.setGsmlpNameSpaceTable(mockNameSpaceTable);
+        this.sf0BoreholeController.setHyloggerIndex(mockHyloggerIndex);
+
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(mockSF0BoreholeService).getFilter("", "", "", "", 0, null, null, null);
+                will(returnValue("filter"));
+
+                //The first lookup times out with the default namespace
+                oneOf(mockNameSpaceTable).getGsmlpNameSpace(serviceUrl);
+                will(returnValue(GsmlpNameSpaceTable.DEFAULT_GSMLP_NAMESPACE));
+                oneOf(mockNameSpaceTable).getGsmlpNameSpace(serviceUrl);
+                will(returnValue(BoreholeService.GSMLP_4_0_NAMESPACE));
+
+                oneOf(mockHyloggerIndex).lookupHyloggerBoreholeIDs(with(any(CSWRecordsHostFilter.class)));
+                will(returnValue(new HyloggerBoreholeLookup(new ArrayList<String>(), new ArrayList<String>(), false)));
+                oneOf(mockSF0BoreholeService).getStyle("filter", "#2242c7", "", "#FF0000",
+                        GsmlpNameSpaceTable.DEFAULT_GSMLP_NAMESPACE);
+                will(returnValue(defaultStyle));
+
+                oneOf(mockSF0BoreholeService).getFilter("", "", "", "", 0, null, null, false);
+                will(returnValue("nvclFilter"));
+                oneOf(mockSF0BoreholeService).getStyle("filter", "#2242c7", "nvclFilter", "#FF0000",
+                        BoreholeService.GSMLP_4_0_NAMESPACE);
+                will(returnValue(style4_0));
+
+                allowing(mockRequest).getHeader("If-None-Match");
+                will(returnValue(null));
+
+                allowing(mockResponse).setHeader(with(any(String.class)), with(any(String.class)));
+                allowing(mockResponse).setContentType("text/xml");
+                allowing(mockResponse).setCharacterEncoding("UTF-8");
+                allowing(mockResponse).setContentLength(with(any(Integer.class)));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream1));
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream2));
+            }
+        });
+
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+        this.sf0BoreholeController.doFilterStyle(mockRequest, mockResponse, serviceUrl, "", "", "", "", 0, null, "", "", false);
+
+        Assert.assertArrayEquals(defaultStyle.getBytes(), outputStream1.toByteArray());
+        Assert.assertArrayEquals(style4_0.getBytes(), outputStream2.toByteArray());
+    }
 }
@@ -0,0 +1,105 @@
+package org.auscope.portal.server.web.controllers;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONObject;
+
+import org.apache.http.client.methods.HttpGet;
+import org.auscope.portal.gsml.GeoJSONTranscoder;
+import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Unit tests for StreamingJSONView
+ */
+@SuppressWarnings("rawtypes")
+public class TestStreamingJSONView extends PortalTestClass {
+
+    private static final String DATA = "<gml:FeatureCollection a=\"b\">\n\t\\ café   \u0001</script></gml:FeatureCollection>";
+
+    private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
+    private HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+    private String render(StreamingJSONView view) throws Exception {
+        final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(DATA.length());
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockResponse).setContentType(StreamingJSONView.CONTENT_TYPE);
+                oneOf(mockResponse).setCharacterEncoding("UTF-8");
+                oneOf(mockResponse).getOutputStream();
+                will(returnValue(outputStream));
+            }
+        });
+
+        view.render(null, mockRequest, mockResponse);
+        return new String(outputStream.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Tests that String data is correctly escaped into the JSON envelope
+     */
+    @Test
+    public void testRenderString() throws Exception {
+        ModelAndView mav = StreamingJSONView.generateNamedJSONResponseMAV("gml", DATA, new HttpGet("http://example.com/wfs?a=b"));
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+        Assert.assertEquals(DATA, ((Map) mav.getModel().get("data")).get("gml"));
+
+        String json = render((StreamingJSONView) mav.getView());
+        Assert.assertFalse(json.contains("</script>"));
+
+        JSONObject obj = JSONObject.fromObject(json);
+        Assert.assertTrue(obj.getBoolean("success"));
+        Assert.assertEquals(DATA, obj.getJSONObject("data").getString("gml"));
+        Assert.assertEquals("", obj.getString("msg"));
+        Assert.assertEquals("http://example.com/wfs?a=b", obj.getJSONObject("debugInfo").getString("url"));
+    }
+
+    /**
+     * Tests that stream data is correctly escaped into the JSON envelope
+     */
+    @Test
+    public void testRenderStream() throws Exception {
+        //Ensure the escaping works across buffer boundaries
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            data.append(DATA);
+        }
+
+        String json = render(new StreamingJSONView("gml", new ByteArrayInputStream(data.toString().getBytes("UTF-8")), null));
+
+        JSONObject obj = JSONObject.fromObject(json);
+        Assert.assertTrue(obj.getBoolean("success"));
+        Assert.assertEquals(data.toString(), obj.getJSONObject("data").getString("gml"));
+        Assert.assertFalse(obj.has("debugInfo"));
+    }
+
+    /**
+     * Tests that GML is transcoded into the data field as a GeoJSON object
+     */
+    @Test
+    public void testRenderGeoJSON() throws Exception {
+        String gml = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\">"
+                + "<gml:featureMember><a:feature xmlns:a=\"urn:a\" gml:id=\"f1\"><a:name>test</a:name>"
+                + "<a:shape><gml:Point><gml:pos>1.5 2.5</gml:pos></gml:Point></a:shape></a:feature></gml:featureMember>"
+                + "</wfs:FeatureCollection>";
+
+        String json = render(new StreamingJSONView("geojson", new GeoJSONTranscoder(gml), null));
+
+        JSONObject obj = JSONObject.fromObject(json);
+        Assert.assertTrue(obj.getBoolean("success"));
+        JSONObject feature = obj.getJSONObject("data").getJSONObject("geojson").getJSONArray("features")
+                .getJSONObject(0);
+        Assert.assertEquals("f1", feature.getString("id"));
+        Assert.assertEquals("test", feature.getJSONObject("properties").getString("name"));
+        Assert.assertEquals(1.5, feature.getJSONObject("geometry").getJSONArray("coordinates").getDouble(0), 0.0);
+    }
+}
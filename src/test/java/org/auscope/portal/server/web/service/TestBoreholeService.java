@@ -1,5 +1,6 @@
 package org.auscope.portal.server.web.service;
 
+import java.net.URI;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
@@ -7,6 +8,7 @@ import java.util.List;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.csw.CSWRecordsHostFilter;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
@@ -237,6 +239,225 @@ public class TestBoreholeService extends PortalTestClass {
         Assert.assertEquals(24, count);
     }
 
+    /**
+     * Generates a minimal WFS 1.1 FeatureCollection containing a borehole for each id
+     */
+    private static String generateFeatureCollection(String... ids) {
+        StringBuilder sb = new StringBuilder("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" numberOfFeatures=\"" + ids.length + "\"><gml:featureMembers>");
+        for (String id : ids) {
+            sb.append("<gsml:Borehole gml:id=\"" + id + "\"/>");
+        }
+        sb.append("</gml:featureMembers></wfs:FeatureCollection>");
+        return sb.toString();
+    }
+
+    /**
+     * Tests that large ID lists are split into several requests whose responses are merged
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetRestrictedBoreholesBatched() throws Exception {
+        final String serviceURL = "http://example.com";
+        final int maxFeatures = 45;
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final String filter1 = new BoreholeFilter("", "", "", "", Arrays.asList("id1", "id2")).getFilterStringAllRecords();
+        final String filter2 = new BoreholeFilter("", "", "", "", Arrays.asList("id3")).getFilterStringAllRecords();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(equal(filter1)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Results)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(equal(filter2)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Results)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod2));
+
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue(generateFeatureCollection("id1", "id2")));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod2);
+                will(returnValue(generateFeatureCollection("id3")));
+            }
+        });
+
+        service.setIdBatchSize(2);
+        service.setExecutor(null);
+        WFSResponse response = service.getAllBoreholes(serviceURL, "", "", "", "", maxFeatures, null,
+                Arrays.asList("id1", "id2", "id1", "id3"), null);
+        Assert.assertSame(mockMethod, response.getMethod());
+        Assert.assertThat(response.getData(), Matchers.containsString("numberOfFeatures=\"3\""));
+        int id1 = response.getData().indexOf("gml:id=\"id1\"");
+        int id2 = response.getData().indexOf("gml:id=\"id2\"");
+        int id3 = response.getData().indexOf("gml:id=\"id3\"");
+        Assert.assertTrue(id1 >= 0 && id1 < id2 && id2 < id3);
+    }
+
+    /**
+     * Tests that large ID lists are split into several count requests whose counts are summed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCountRestrictedBoreholesBatched() throws Exception {
+        final String serviceURL = "http://example.com";
+        final int maxFeatures = 0;
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final String filter1 = new BoreholeFilter("", "", "", "", Arrays.asList("id1", "id2")).getFilterStringAllRecords();
+        final String filter2 = new BoreholeFilter("", "", "", "", Arrays.asList("id3")).getFilterStringAllRecords();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(equal(filter1)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Hits)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(equal(filter2)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Hits)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod2));
+
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" numberOfFeatures=\"2\"/>"));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod2);
+                will(returnValue("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" numberOfFeatures=\"1\"/>"));
+            }
+        });
+
+        service.setIdBatchSize(2);
+        int count = service.countAllBoreholes(serviceURL, "", "", "", "", maxFeatures, null, Arrays.asList("id1", "id2", "id3"));
+        Assert.assertEquals(3, count);
+    }
+
+    /**
+     * Tests that counts are cached against a canonical form of their query (ID order and small bbox changes are ignored)
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testCountBoreholesCached() throws Exception {
+        final String serviceURL = "http://example.com";
+        final int maxFeatures = 0;
+        final FilterBoundingBox bbox1 = new FilterBoundingBox("EPSG:4326", new double[] {110.013, -44.02}, new double[] {154.51, -9.96});
+        final FilterBoundingBox bbox2 = new FilterBoundingBox("EPSG:4326", new double[] {110.05, -44.09}, new double[] {154.59, -9.91});
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(any(String.class)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Hits)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod));
+
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" numberOfFeatures=\"7\"/>"));
+            }
+        });
+
+        Assert.assertEquals(7, service.countAllBoreholes(serviceURL, "", "", "", "", maxFeatures, bbox1, Arrays.asList("id1", "id2")));
+        Assert.assertEquals(7, service.countAllBoreholes(serviceURL, "", "", "", "", maxFeatures, bbox2, Arrays.asList("id2", "id1")));
+    }
+
+    /**
+     * Tests that feature responses are cached and that different queries aren't confused
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testGetAllBoreholesCached() throws Exception {
+        final String serviceURL = "http://example.com";
+        final int maxFeatures = 10;
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(any(String.class)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Results)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(any(String.class)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Results)), with(equal("csv")), with(equal((String) null)));
+                will(returnValue(mockMethod2));
+
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue("gml"));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(mockMethod2);
+                will(returnValue("csv"));
+            }
+        });
+
+        Assert.assertEquals("gml", service.getAllBoreholes(serviceURL, "name", "", "", "", maxFeatures, null, null, null).getData());
+        Assert.assertEquals("csv", service.getAllBoreholes(serviceURL, "name", "", "", "", maxFeatures, null, null, "csv").getData());
+        Assert.assertEquals("gml", service.getAllBoreholes(serviceURL, "name", "", "", "", maxFeatures, null, null, null).getData());
+    }
+
+    /**
+     * Tests that bounding boxes are snapped outwards to a grid relative to their size
+     */
+    @Test
+    public void testSnapToGrid() {
+        FilterBoundingBox bbox = new FilterBoundingBox("EPSG:4326", new double[] {110.013, -44.02}, new double[] {154.51, -9.96});
+        FilterBoundingBox snapped = BoreholeService.snapToGrid(bbox);
+
+        Assert.assertEquals("EPSG:4326", snapped.getBboxSrs());
+        Assert.assertArrayEquals(new double[] {110.0, -44.1}, snapped.getLowerCornerPoints(), 1e-9);
+        Assert.assertArrayEquals(new double[] {154.6, -9.9}, snapped.getUpperCornerPoints(), 1e-9);
+
+        Assert.assertNull(BoreholeService.snapToGrid(null));
+    }
+
+    /**
+     * Tests that only queries without a feature limit are snapped (snapping a limited query could change its results)
+     */
+    @Test
+    public void testGetQueryBbox() {
+        FilterBoundingBox bbox = new FilterBoundingBox("EPSG:4326", new double[] {110.013, -44.02}, new double[] {154.51, -9.96});
+
+        Assert.assertSame(bbox, BoreholeService.getQueryBbox(bbox, 10));
+        Assert.assertArrayEquals(new double[] {110.0, -44.1}, BoreholeService.getQueryBbox(bbox, 0).getLowerCornerPoints(), 1e-9);
+        Assert.assertNull(BoreholeService.getQueryBbox(null, 0));
+    }
+
+    /**
+     * Tests that an OWS exception report is thrown (and not cached) rather than being returned as the response
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testGetAllBoreholesOWSErrorNotCached() throws Exception {
+        final String serviceURL = "http://example.com";
+        final int maxFeatures = 0;
+        final String exceptionReport = "<?xml version=\"1.0\"?><ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"><ows:Exception exceptionCode=\"NoApplicableCode\"><ows:ExceptionText>error</ows:ExceptionText></ows:Exception></ows:ExceptionReport>";
+
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(mockMethodMaker).makePostMethod(with(equal(serviceURL)), with(equal("gsml:Borehole")),
+                        with(any(String.class)), with(equal(maxFeatures)), with(any(String.class)),
+                        with(equal(ResultType.Results)), with(equal((String) null)), with(equal((String) null)));
+                will(returnValue(mockMethod));
+
+                exactly(2).of(mockHttpServiceCaller).getMethodResponseAsString(mockMethod);
+                will(returnValue(exceptionReport));
+
+                allowing(mockMethod).getURI();
+                will(returnValue(new URI(serviceURL)));
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.getAllBoreholes(serviceURL, "name", "", "", "", maxFeatures, null, null, null);
+                Assert.fail("Expected the exception report to be thrown");
+            } catch (PortalServiceException ex) {
+                //expected
+            }
+        }
+    }
+
     /**
      * Tests that the service correctly parses a response from an NVCL WFS.
      *
@@ -0,0 +1,97 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for FanOut
+ */
+public class TestFanOut extends PortalTestClass {
+
+    private static List<Callable<String>> makeTasks(final List<String> threadNames, String... results) {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (final String result : results) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    threadNames.add(Thread.currentThread().getName());
+                    if (result == null) {
+                        throw new IllegalStateException("failed");
+                    }
+                    return result;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Tests that results are returned in task order
+     */
+    @Test
+    public void testInvokeAll() throws Exception {
+        List<String> threadNames = new ArrayList<String>();
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), FanOut.invokeAll(null, makeTasks(threadNames, "a", "b", "c")));
+        Assert.assertEquals(3, threadNames.size());
+    }
+
+    /**
+     * Tests that the first failure is rethrown (unwrapped)
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testInvokeAllFailure() throws Exception {
+        FanOut.invokeAll(null, makeTasks(new ArrayList<String>(), "a", null, "c"));
+    }
+
+    /**
+     * Tests that tasks rejected by a saturated executor are run on the calling thread
+     */
+    @Test
+    public void testRejectedTasksRunOnCaller() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+
+        List<String> threadNames = new ArrayList<String>();
+        Assert.assertEquals(Arrays.asList("a", "b"), FanOut.invokeAll(rejecting, makeTasks(threadNames, "a", "b")));
+        Assert.assertEquals(Arrays.asList(Thread.currentThread().getName(), Thread.currentThread().getName()),
+                threadNames);
+    }
+
+    /**
+     * Tests that tasks left queued (eg behind other work on the shared executor) are run by the waiting thread rather
+     * than blocking it
+     */
+    @Test(timeout = 5000)
+    public void testQueuedTasksRunOnCaller() throws Exception {
+        final List<Runnable> queue = new ArrayList<Runnable>();
+        Executor neverRuns = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        };
+
+        List<String> threadNames = new ArrayList<String>();
+        Assert.assertEquals(Arrays.asList("a", "b"), FanOut.invokeAll(neverRuns, makeTasks(threadNames, "a", "b")));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(2, threadNames.size());
+
+        //The executor eventually getting to the tasks must not run them again
+        for (Runnable queued : queue) {
+            queued.run();
+        }
+        Assert.assertEquals(2, threadNames.size());
+    }
+}
@@ -0,0 +1,95 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Arrays;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for FeatureCollectionMerger
+ */
+public class TestFeatureCollectionMerger extends PortalTestClass {
+
+    private static final String COLLECTION_START = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:gsml=\"urn:cgi:xmlns:CGI:GeoSciML:2.0\" numberOfFeatures=\"2\">"
+            + "<gml:boundedBy><gml:Null>unknown</gml:Null></gml:boundedBy>";
+    private static final String COLLECTION_END = "</wfs:FeatureCollection>";
+
+    private static String featureMember(String id) {
+        return "<gml:featureMember><gsml:Borehole gml:id=\"" + id + "\"/></gml:featureMember>";
+    }
+
+    /**
+     * Tests which output formats can be merged
+     */
+    @Test
+    public void testIsMergeable() {
+        Assert.assertTrue(FeatureCollectionMerger.isMergeable(null));
+        Assert.assertTrue(FeatureCollectionMerger.isMergeable(""));
+        Assert.assertTrue(FeatureCollectionMerger.isMergeable("text/xml; subtype=gml/3.1.1"));
+        Assert.assertTrue(FeatureCollectionMerger.isMergeable("GML2"));
+        Assert.assertFalse(FeatureCollectionMerger.isMergeable("csv"));
+        Assert.assertFalse(FeatureCollectionMerger.isMergeable("application/json"));
+    }
+
+    /**
+     * Tests that featureMember elements are merged and truncated to maxFeatures
+     */
+    @Test
+    public void testMergeFeatureMember() throws Exception {
+        String a = COLLECTION_START + featureMember("a1") + featureMember("a2") + COLLECTION_END;
+        String b = COLLECTION_START + featureMember("b1") + featureMember("b2") + COLLECTION_END;
+
+        String merged = FeatureCollectionMerger.mergeGml(Arrays.asList(a, b), 3);
+        Assert.assertTrue(merged.contains("numberOfFeatures=\"3\""));
+        Assert.assertTrue(merged.contains("gml:id=\"a1\""));
+        Assert.assertTrue(merged.contains("gml:id=\"a2\""));
+        Assert.assertTrue(merged.contains("gml:id=\"b1\""));
+        Assert.assertFalse(merged.contains("gml:id=\"b2\""));
+        Assert.assertEquals(merged.indexOf("<gml:boundedBy"), merged.lastIndexOf("<gml:boundedBy"));
+
+        merged = FeatureCollectionMerger.mergeGml(Arrays.asList(a, b), 0);
+        Assert.assertTrue(merged.contains("numberOfFeatures=\"4\""));
+        Assert.assertTrue(merged.contains("gml:id=\"b2\""));
+    }
+
+    /**
+     * Tests that features with duplicate ID's are dropped when merging distinct features
+     */
+    @Test
+    public void testMergeDistinct() throws Exception {
+        String a = COLLECTION_START + featureMember("a1") + featureMember("shared") + COLLECTION_END;
+        String b = COLLECTION_START + featureMember("shared") + featureMember("b1") + COLLECTION_END;
+
+        String merged = FeatureCollectionMerger.mergeGml(Arrays.asList(a, b), 0, true);
+        Assert.assertTrue(merged.contains("numberOfFeatures=\"3\""));
+        Assert.assertEquals(merged.indexOf("gml:id=\"shared\""), merged.lastIndexOf("gml:id=\"shared\""));
+        Assert.assertTrue(merged.contains("gml:id=\"b1\""));
+
+        merged = FeatureCollectionMerger.mergeGml(Arrays.asList(a, b), 0, false);
+        Assert.assertTrue(merged.contains("numberOfFeatures=\"4\""));
+    }
+
+    /**
+     * Tests detecting FeatureCollection responses
+     */
+    @Test
+    public void testIsFeatureCollection() {
+        Assert.assertTrue(FeatureCollectionMerger.isFeatureCollection("<?xml version=\"1.0\"?><!-- comment -->"
+                + COLLECTION_START + COLLECTION_END));
+        Assert.assertTrue(FeatureCollectionMerger.isFeatureCollection("<FeatureCollection/>"));
+        Assert.assertFalse(FeatureCollectionMerger.isFeatureCollection("<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"/>"));
+        Assert.assertFalse(FeatureCollectionMerger.isFeatureCollection("not xml"));
+    }
+
+    /**
+     * Tests that a response that isn't a FeatureCollection is returned as is
+     */
+    @Test
+    public void testMergeException() throws Exception {
+        String a = COLLECTION_START + featureMember("a1") + COLLECTION_END;
+        String error = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"><ows:Exception exceptionCode=\"NoApplicableCode\"/></ows:ExceptionReport>";
+
+        Assert.assertSame(error, FeatureCollectionMerger.mergeGml(Arrays.asList(a, error), 0));
+    }
+}
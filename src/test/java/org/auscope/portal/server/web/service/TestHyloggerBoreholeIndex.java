@@ -0,0 +1,145 @@
+package org.auscope.portal.server.web.service;
+
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import org.auscope.portal.core.services.CSWCacheService;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.csw.CSWRecordsHostFilter;
+import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
+import org.auscope.portal.core.services.responses.csw.CSWRecord;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.nvcl.NVCLNamespaceContext;
+import org.jmock.Expectations;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for HyloggerBoreholeIndex
+ */
+public class TestHyloggerBoreholeIndex extends PortalTestClass {
+
+    private BoreholeService mockBoreholeService = context.mock(BoreholeService.class);
+    private CSWCacheService mockCSWService = context.mock(CSWCacheService.class);
+    private HyloggerBoreholeIndex index;
+
+    private String url1 = "http://nvcl.1/wfs";
+    private String url2 = "http://nvcl.2/wfs";
+
+    @Before
+    public void setUp() throws Exception {
+        index = new HyloggerBoreholeIndex(mockBoreholeService, mockCSWService, 60000);
+
+        final CSWRecord record1 = new CSWRecord("service1", "id1", "", "", new AbstractCSWOnlineResource[] {
+                new CSWOnlineResourceImpl(new URL("http://other.1/wfs"), "wfs", "dne", "description"),
+                new CSWOnlineResourceImpl(new URL(url1), "wfs", NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME, "description")}, null);
+        final CSWRecord record2 = new CSWRecord("service2", "id2", "", "", new AbstractCSWOnlineResource[] {
+                new CSWOnlineResourceImpl(new URL(url2), "wfs", NVCLNamespaceContext.PUBLISHED_DATASETS_TYPENAME, "description")}, null);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockCSWService).getWFSRecords();
+                will(returnValue(Arrays.asList(record1, record2)));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        index.close();
+    }
+
+    /**
+     * Tests that unindexed services are queried on demand and then served from the index
+     */
+    @Test
+    public void testLookupOnDemand() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(returnValue(Arrays.asList("c", "a", "b", "a")));
+            }
+        });
+
+        List<String> ids = index.getHyloggerBoreholeIDs(new CSWRecordsHostFilter("nvcl.1"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), ids);
+
+        ids = index.getHyloggerBoreholeIDs(new CSWRecordsHostFilter("nvcl.1"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), ids);
+    }
+
+    /**
+     * Tests that a refresh queries every service and that failures keep the previously indexed ID's
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(returnValue(Arrays.asList("a", "b")));
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url2);
+                will(returnValue(Arrays.asList("c")));
+
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(throwException(new PortalServiceException("", new ConnectException())));
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url2);
+                will(returnValue(Arrays.asList("d")));
+            }
+        });
+
+        index.refresh();
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), index.getHyloggerBoreholeIDs(null));
+
+        index.refresh();
+        Assert.assertEquals(Arrays.asList("a", "b", "d"), index.getHyloggerBoreholeIDs(null));
+    }
+
+    /**
+     * Tests that services failing to respond on demand are skipped
+     */
+    @Test
+    public void testLookupError() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(throwException(new PortalServiceException("", new ConnectException())));
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url2);
+                will(returnValue(Arrays.asList("c")));
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList("c"), index.getHyloggerBoreholeIDs(null));
+    }
+
+    /**
+     * Tests that a lookup reports the services that failed to respond (and weren't indexed) as incomplete
+     */
+    @Test
+    public void testLookupIncomplete() throws Exception {
+        context.checking(new Expectations() {
+            {
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(throwException(new PortalServiceException("", new ConnectException())));
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url2);
+                will(returnValue(Arrays.asList("c")));
+
+                oneOf(mockBoreholeService).getHyloggerBoreholeIDs(url1);
+                will(returnValue(Arrays.asList("a")));
+            }
+        });
+
+        HyloggerBoreholeLookup lookup = index.lookupHyloggerBoreholeIDs(null);
+        Assert.assertFalse(lookup.isComplete());
+        Assert.assertEquals(Arrays.asList(url1), lookup.getFailedServiceUrls());
+        Assert.assertEquals(Arrays.asList("c"), lookup.getIds());
+
+        lookup = index.lookupHyloggerBoreholeIDs(null);
+        Assert.assertTrue(lookup.isComplete());
+        Assert.assertEquals(Arrays.asList("a", "c"), lookup.getIds());
+    }
+}
@@ -1,13 +1,20 @@
 package org.auscope.portal.server.web.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.test.ResourceUtil;
 import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse;
+import org.auscope.portal.server.domain.nvcldataservice.BinnedCSVResponse.Bin;
+import org.auscope.portal.server.domain.nvcldataservice.GetLogCollectionResponse;
 import org.auscope.portal.server.web.NVCL2_0_DataServiceMethodMaker;
 import org.jmock.Expectations;
 import org.junit.Assert;
@@ -73,8 +80,8 @@ public class TestNVCL2_0_DataService extends PortalTestClass {
         Assert.assertEquals(108.004341125488, (Double)response.getBinnedValues()[1].getStartDepths().get(1), 0.0000001);
 
         Assert.assertEquals("SULPHATE", response.getBinnedValues()[0].getHighStringValues().get(0));
-        Assert.assertEquals(3, (int) response.getBinnedValues()[0].getStringValues().get(0).get("SULPHATE"));
-        Assert.assertEquals(1, (int) response.getBinnedValues()[0].getStringValues().get(0).get("INVALID"));
+        Assert.assertEquals(3, response.getBinnedValues()[0].getStringCount(0, "SULPHATE"));
+        Assert.assertEquals(1, response.getBinnedValues()[0].getStringCount(0, "INVALID"));
         Assert.assertEquals(2.0, (Double)response.getBinnedValues()[2].getNumericValues().get(0), 0.001);
     }
 
@@ -135,4 +142,306 @@ public class TestNVCL2_0_DataService extends PortalTestClass {
         Assert.assertEquals(0, response.getBinnedValues()[1].getNumericValues().size());
         Assert.assertEquals(0, response.getBinnedValues()[2].getNumericValues().size());
     }
+
+    /**
+     * Tests that the bin pyramid for a log is only requested once and then served from the cache for every pyramid resolution
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVBinnedCached() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final String[] logIds = new String[] {"id1"};
+
+        final InputStream responseStream = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar-single.csv");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(responseStream));
+            }
+        });
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, 1.0);
+        Assert.assertEquals(1.0, response.getBinSize(), 0.0001);
+        Assert.assertEquals(1, response.getBinnedValues().length);
+        Assert.assertEquals("Number", response.getBinnedValues()[0].getName());
+        Assert.assertEquals(2, response.getBinnedValues()[0].getNumericValues().size());
+        Assert.assertEquals(2.0, response.getBinnedValues()[0].getNumericValues().getDouble(0), 0.001);
+
+        response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, 5.0);
+        Assert.assertEquals(5.0, response.getBinSize(), 0.0001);
+        Assert.assertEquals(1, response.getBinnedValues()[0].getNumericValues().size());
+        Assert.assertEquals(3.6, response.getBinnedValues()[0].getNumericValues().getDouble(0), 0.001);
+    }
+
+    /**
+     * Tests that logs missing from the bin pyramid cache are downloaded together with a single request (and split per
+     * log) while cached logs are served straight from the cache
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVBinnedCachedMissesSingleRequest() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final InputStream log1 = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar-single.csv");
+        final InputStream logs = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar.csv");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id1"});will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id0", "id2", "id3"});will(returnValue(mockMethod2));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(log1));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod2);will(returnValue(logs));
+            }
+        });
+
+        dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, new String[] {"id1"}, 1.0);
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, new String[] {"id0", "id1", "id2", "id3", "id0"}, 1.0);
+        Assert.assertEquals(5, response.getBinnedValues().length);
+        Assert.assertEquals("Grp1_uTSAV", response.getBinnedValues()[0].getName());
+        Assert.assertEquals("Number", response.getBinnedValues()[1].getName());
+        Assert.assertEquals("Min1_sTSAV", response.getBinnedValues()[2].getName());
+        Assert.assertEquals("Number", response.getBinnedValues()[3].getName());
+        Assert.assertEquals("Grp1_uTSAV", response.getBinnedValues()[4].getName());
+        Assert.assertEquals(2.0, response.getBinnedValues()[1].getNumericValues().getDouble(0), 0.001);
+
+        //Every log is now cached
+        response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, new String[] {"id3", "id2", "id1", "id0"}, 5.0);
+        Assert.assertEquals("Number", response.getBinnedValues()[0].getName());
+        Assert.assertEquals("Min1_sTSAV", response.getBinnedValues()[1].getName());
+        Assert.assertEquals(3.6, response.getBinnedValues()[2].getNumericValues().getDouble(0), 0.001);
+        Assert.assertEquals("Grp1_uTSAV", response.getBinnedValues()[3].getName());
+    }
+
+    /**
+     * Tests that modifying the bins returned for a cached log doesn't affect the cached pyramid
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVBinnedCachedCopies() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final String[] logIds = new String[] {"id1"};
+
+        final InputStream responseStream = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar-single.csv");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(responseStream));
+            }
+        });
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, 1.0);
+        Bin bin = response.getBinnedValues()[0];
+        bin.getNumericValues().append(99.0);
+        bin.getStartDepths().append(999.0);
+        bin.setNumeric(false);
+
+        response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, 1.0);
+        Assert.assertNotSame(bin, response.getBinnedValues()[0]);
+        Assert.assertTrue(response.getBinnedValues()[0].isNumeric());
+        Assert.assertEquals(2, response.getBinnedValues()[0].getNumericValues().size());
+        Assert.assertEquals(2, response.getBinnedValues()[0].getStartDepths().size());
+    }
+
+    /**
+     * Tests that a parallel CSV download requests each log separately and merges the responses by depth
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteNVCL2_0_CSVDownloadParallel() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final InputStream log1 = new ByteArrayInputStream("StartDepth,EndDepth,a\n1.0,1.0,10\n2.0,2.0,20\n".getBytes());
+        final InputStream log2 = new ByteArrayInputStream("StartDepth,EndDepth,b\n2.0,2.0,x\n3.0,3.0,y\n".getBytes());
+
+        dataService.setExecutor(null);
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id1"});will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id2"});will(returnValue(mockMethod2));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(log1));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod2);will(returnValue(log2));
+            }
+        });
+
+        StringWriter output = new StringWriter();
+        dataService.writeNVCL2_0_CSVDownloadParallel(serviceUrl, new String[] {"id1", "id2"}, output);
+
+        Assert.assertEquals("StartDepth,EndDepth,a,b\n1.0,1.0,10,null\n2.0,2.0,20,x\n3.0,3.0,null,y\n", output.toString());
+    }
+
+    /**
+     * Tests that a parallel CSV download has finished with (and closed) every upstream response before any of the
+     * merged CSV is written
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteNVCL2_0_CSVDownloadParallelReleasesResponses() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final List<InputStream> closed = new ArrayList<InputStream>();
+        final InputStream log1 = new ByteArrayInputStream("StartDepth,EndDepth,a\n1.0,1.0,10\n".getBytes()) {
+            @Override
+            public void close() throws IOException {
+                closed.add(this);
+            }
+        };
+        final InputStream log2 = new ByteArrayInputStream("StartDepth,EndDepth,b\n1.0,1.0,x\n".getBytes()) {
+            @Override
+            public void close() throws IOException {
+                closed.add(this);
+            }
+        };
+
+        dataService.setExecutor(null);
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id1"});will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id2"});will(returnValue(mockMethod2));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(log1));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod2);will(returnValue(log2));
+            }
+        });
+
+        StringWriter output = new StringWriter() {
+            @Override
+            public void write(String str, int off, int len) {
+                Assert.assertEquals(2, closed.size());
+                super.write(str, off, len);
+            }
+        };
+        dataService.writeNVCL2_0_CSVDownloadParallel(serviceUrl, new String[] {"id1", "id2"}, output);
+
+        Assert.assertEquals("StartDepth,EndDepth,a,b\n1.0,1.0,10,x\n", output.toString());
+    }
+
+    /**
+     * Tests that a parallel binned request for a non pyramid bin size requests each log separately and bins the merged result
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVBinnedParallel() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final HttpRequestBase mockMethod2 = context.mock(HttpRequestBase.class, "mockMethod2");
+        final InputStream log1 = new ByteArrayInputStream("StartDepth,EndDepth,a\n1.0,1.0,10\n2.0,2.0,20\n".getBytes());
+        final InputStream log2 = new ByteArrayInputStream("StartDepth,EndDepth,b\n2.0,2.0,x\n3.0,3.0,y\n".getBytes());
+
+        dataService.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id1"});will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", new String[] {"id2"});will(returnValue(mockMethod2));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(log1));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod2);will(returnValue(log2));
+            }
+        });
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, new String[] {"id1", "id2"}, 10.0, true);
+        Assert.assertEquals(2, response.getBinnedValues().length);
+        Assert.assertEquals("a", response.getBinnedValues()[0].getName());
+        Assert.assertEquals(15.0, response.getBinnedValues()[0].getNumericValues().getDouble(0), 0.001);
+        Assert.assertEquals("b", response.getBinnedValues()[1].getName());
+        Assert.assertEquals(1, response.getBinnedValues()[1].getStringCount(0, "x"));
+        Assert.assertEquals(1, response.getBinnedValues()[1].getStringCount(0, "y"));
+    }
+
+    /**
+     * Tests that numeric scalars are downsampled to the target point count while non numeric scalars are binned (for a
+     * bin size that isn't in the bin pyramid)
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVDownsampled() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final String[] logIds = new String[] {"id1", "id2", "id3"};
+
+        final InputStream responseStream = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar.csv");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(responseStream));
+            }
+        });
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVDownsampled(serviceUrl, logIds, 5, 0.25, false);
+        Assert.assertEquals(3, response.getBinnedValues().length);
+
+        Assert.assertFalse(response.getBinnedValues()[0].isNumeric());
+        Assert.assertEquals(3, response.getBinnedValues()[0].getStringCount(0, "SULPHATE"));
+
+        Assert.assertTrue(response.getBinnedValues()[2].isNumeric());
+        Assert.assertEquals(5, response.getBinnedValues()[2].getNumericValues().size());
+        Assert.assertEquals(5, response.getBinnedValues()[2].getStartDepths().size());
+    }
+
+    /**
+     * Tests that downsampling a pyramid bin size uses (and populates) the bin pyramid cache
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetNVCL2_0_CSVDownsampledFromPyramid() throws Exception {
+        final String serviceUrl = "http://example/url/wfs";
+        final String[] logIds = new String[] {"id1"};
+
+        final InputStream responseStream = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/downloadscalar-single.csv");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDownloadCSVMethod(serviceUrl + "downloadscalars.html", logIds);will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(responseStream));
+            }
+        });
+
+        BinnedCSVResponse response = dataService.getNVCL2_0_CSVDownsampled(serviceUrl, logIds, 3, 1.0, false);
+        Assert.assertEquals(1, response.getBinnedValues().length);
+        Assert.assertEquals("Number", response.getBinnedValues()[0].getName());
+        Assert.assertTrue(response.getBinnedValues()[0].isNumeric());
+        Assert.assertEquals(2, response.getBinnedValues()[0].getNumericValues().size());
+        Assert.assertEquals(2, response.getBinnedValues()[0].getStartDepths().size());
+
+        //The log is now cached
+        response = dataService.getNVCL2_0_CSVBinnedCached(serviceUrl, logIds, 5.0);
+        Assert.assertEquals(3.6, response.getBinnedValues()[0].getNumericValues().getDouble(0), 0.001);
+    }
+
+    /**
+     * Tests that repeated getLogCollection requests are served from the cache
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetLogCollectionCached() throws Exception {
+        final String serviceUrl = "http://example/url";
+        final String datasetId = "datasetId";
+        final InputStream responseStream = ResourceUtil.loadResourceAsStream("org/auscope/portal/nvcl/NVCL_GetLogCollectionResponse.xml");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getLogCollectionMethod(serviceUrl, datasetId, true);will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);will(returnValue(responseStream));
+            }
+        });
+
+        List<GetLogCollectionResponse> response = dataService.getLogCollection(serviceUrl, datasetId, true);
+        Assert.assertEquals(2, response.size());
+        Assert.assertEquals("logid-1", response.get(0).getLogId());
+        Assert.assertEquals("logname-1", response.get(0).getLogName());
+        Assert.assertSame(response, dataService.getLogCollection(serviceUrl, datasetId, true));
+    }
 }
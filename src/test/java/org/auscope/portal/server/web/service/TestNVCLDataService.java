@@ -650,4 +650,41 @@ public class TestNVCLDataService extends PortalTestClass {
         Assert.assertSame(responseStream, response.getResponse());
         Assert.assertEquals(contentType, response.getContentType());
     }
+
+    /**
+     * Tests that repeated getDatasetCollection/getLogCollection requests are served from the cache
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCollectionsCached() throws Exception {
+        final String serviceUrl = "http://example/url";
+        final String holeIdentifier = "holeIdentifier";
+        final String datasetId = "datasetId";
+        final ByteArrayInputStream datasetStream = new ByteArrayInputStream(ResourceUtil
+                .loadResourceAsString("org/auscope/portal/nvcl/NVCL_GetDatasetCollectionResponse.xml").getBytes());
+        final ByteArrayInputStream logStream = new ByteArrayInputStream(ResourceUtil
+                .loadResourceAsString("org/auscope/portal/nvcl/NVCL_GetLogCollectionResponse.xml").getBytes());
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).getDatasetCollectionMethod(serviceUrl, holeIdentifier);
+                will(returnValue(mockMethod));
+                oneOf(mockMethodMaker).getLogCollectionMethod(serviceUrl, datasetId, true);
+                will(returnValue(mockMethod));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(datasetStream));
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(logStream));
+            }
+        });
+
+        List<GetDatasetCollectionResponse> datasets = dataService.getDatasetCollection(serviceUrl, holeIdentifier);
+        Assert.assertEquals(2, datasets.size());
+        Assert.assertSame(datasets, dataService.getDatasetCollection(serviceUrl, holeIdentifier));
+
+        List<GetLogCollectionResponse> logs = dataService.getLogCollection(serviceUrl, datasetId, true);
+        Assert.assertEquals(2, logs.size());
+        Assert.assertSame(logs, dataService.getLogCollection(serviceUrl, datasetId, true));
+    }
 }
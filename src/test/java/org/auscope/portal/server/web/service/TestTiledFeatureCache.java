@@ -0,0 +1,111 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.List;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
+import org.auscope.portal.core.services.responses.wfs.WFSResponse;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for TiledFeatureCache
+ */
+public class TestTiledFeatureCache extends PortalTestClass {
+
+    private static final String COLLECTION = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er=\"urn:er\" numberOfFeatures=\"1\">"
+            + "<gml:featureMember><er:MiningFeatureOccurrence gml:id=\"shared\"/></gml:featureMember>"
+            + "</wfs:FeatureCollection>";
+    private static final String ERROR = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"><ows:Exception exceptionCode=\"NoApplicableCode\"/></ows:ExceptionReport>";
+
+    private HttpServiceCaller mockServiceCaller = context.mock(HttpServiceCaller.class);
+    private TiledFeatureCache cache;
+
+    /**
+     * Makes a request whose URL contains the corners of the requested bbox
+     */
+    private TiledFeatureCache.TileRequestMaker requestMaker = new TiledFeatureCache.TileRequestMaker() {
+        @Override
+        public HttpRequestBase makeRequest(FilterBoundingBox bbox) throws Exception {
+            return new HttpGet(String.format("http://example.com/wfs?bbox=%1$s,%2$s,%3$s,%4$s",
+                    bbox.getLowerCornerPoints()[0], bbox.getLowerCornerPoints()[1],
+                    bbox.getUpperCornerPoints()[0], bbox.getUpperCornerPoints()[1]));
+        }
+    };
+
+    private static FilterBoundingBox bbox(double minX, double minY, double maxX, double maxY) {
+        return new FilterBoundingBox("EPSG:4326", new double[] {minX, minY}, new double[] {maxX, maxY});
+    }
+
+    @Before
+    public void setUp() {
+        cache = new TiledFeatureCache(mockServiceCaller);
+        cache.setExecutor(null);
+    }
+
+    /**
+     * Tests that a bbox is covered by grid aligned tiles (nearest to the centre of bbox first)
+     */
+    @Test
+    public void testGetTiles() {
+        Assert.assertEquals(5, TiledFeatureCache.getZoomLevel(bbox(110, -40, 130, -20)));
+
+        List<FilterBoundingBox> tiles = TiledFeatureCache.getTiles(bbox(110, -40, 130, -20));
+        Assert.assertEquals(9, tiles.size());
+        Assert.assertArrayEquals(new double[] {112.5, -33.75}, tiles.get(0).getLowerCornerPoints(), 0.0);
+        Assert.assertArrayEquals(new double[] {123.75, -22.5}, tiles.get(0).getUpperCornerPoints(), 0.0);
+        Assert.assertEquals("EPSG:4326", tiles.get(0).getBboxSrs());
+
+        //A bbox that is exactly a tile is covered by that tile alone
+        tiles = TiledFeatureCache.getTiles(bbox(0, 0, 11.25, 11.25));
+        Assert.assertEquals(1, tiles.size());
+        Assert.assertArrayEquals(new double[] {11.25, 11.25}, tiles.get(0).getUpperCornerPoints(), 0.0);
+
+        Assert.assertFalse(TiledFeatureCache.isTileable(null));
+        Assert.assertFalse(TiledFeatureCache.isTileable(bbox(Double.NaN, 0, 1, 1)));
+    }
+
+    /**
+     * Tests that overlapping views are assembled from cached tiles (and features shared by tiles are only returned
+     * once)
+     */
+    @Test
+    public void testGetFeaturesCached() throws Exception {
+        context.checking(new Expectations() {
+            {
+                exactly(9).of(mockServiceCaller).getMethodResponseAsString(with(any(HttpRequestBase.class)));
+                will(returnValue(COLLECTION));
+            }
+        });
+
+        WFSResponse response = cache.getFeatures("query", bbox(110, -40, 130, -20), 0, requestMaker);
+        Assert.assertTrue(response.getData().contains("numberOfFeatures=\"1\""));
+        Assert.assertEquals(response.getData().indexOf("gml:id=\"shared\""), response.getData().lastIndexOf("gml:id=\"shared\""));
+        Assert.assertEquals("http://example.com/wfs?bbox=110.0,-40.0,130.0,-20.0", response.getMethod().getURI().toString());
+
+        //A small pan is served entirely from the cache
+        response = cache.getFeatures("query", bbox(111, -39, 131, -19), 0, requestMaker);
+        Assert.assertTrue(response.getData().contains("gml:id=\"shared\""));
+    }
+
+    /**
+     * Tests that a tile that isn't a FeatureCollection is returned (and not cached)
+     */
+    @Test
+    public void testGetFeaturesException() throws Exception {
+        context.checking(new Expectations() {
+            {
+                exactly(2).of(mockServiceCaller).getMethodResponseAsString(with(any(HttpRequestBase.class)));
+                will(returnValue(ERROR));
+            }
+        });
+
+        Assert.assertEquals(ERROR, cache.getFeatures("query", bbox(0, 0, 11.25, 11.25), 0, requestMaker).getData());
+        Assert.assertEquals(ERROR, cache.getFeatures("query", bbox(0, 0, 11.25, 11.25), 0, requestMaker).getData());
+    }
+}
@@ -1,8 +1,10 @@
 package org.auscope.portal.server.web.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.ConnectException;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
@@ -251,6 +253,66 @@ public class TestWFSService extends PortalTestClass {
         }
     }
 
+    /**
+     * Tests that streamed responses are returned unconsumed
+     */
+    @Test
+    public void testGetWfsResponseAsStream() throws Exception {
+        final String responseString = "<?xml version=\"1.0\"?><!-- comment --><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"/>";
+        final String filterString = "<ogc:filter/>"; //we aren't testing the validity of this
+        final String serviceUrl = "http://service/wfs";
+        final String srsName = "srsName";
+        final int maxFeatures = 12321;
+        final String typeName = "type:Name";
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(new ByteArrayInputStream(responseString.getBytes("UTF-8"))));
+
+                oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures, srsName,
+                        ResultType.Results, null, null);
+                will(returnValue(mockMethod));
+            }
+        });
+
+        WFSStreamResponse response = service.getWfsResponseAsStream(serviceUrl, typeName, filterString, maxFeatures, srsName);
+        Assert.assertSame(mockMethod, response.getMethod());
+        Assert.assertEquals(responseString, IOUtils.toString(response.getData(), "UTF-8"));
+    }
+
+    /**
+     * Tests that streamed responses fail if an OWS exception response is returned
+     */
+    @Test
+    public void testGetWfsResponseAsStreamOWSException() throws Exception {
+        final String responseString = "<?xml version=\"1.0\"?><ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\" version=\"1.0.0\"><ows:Exception exceptionCode=\"NoApplicableCode\"><ows:ExceptionText>error</ows:ExceptionText></ows:Exception></ows:ExceptionReport>";
+        final String filterString = "<ogc:filter/>"; //we aren't testing the validity of this
+        final String serviceUrl = "http://service/wfs";
+        final String srsName = "srsName";
+        final int maxFeatures = 12321;
+        final String typeName = "type:Name";
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(new ByteArrayInputStream(responseString.getBytes("UTF-8"))));
+
+                oneOf(mockMethodMaker).makePostMethod(serviceUrl, typeName, filterString, maxFeatures, srsName,
+                        ResultType.Results, null, null);
+                will(returnValue(mockMethod));
+            }
+        });
+
+        try {
+            service.getWfsResponseAsStream(serviceUrl, typeName, filterString, maxFeatures, srsName);
+            Assert.fail("Exception should have been thrown");
+        } catch (PortalServiceException ex) {
+            Assert.assertTrue(ex.getCause() instanceof OWSException);
+            Assert.assertSame(mockMethod, ex.getRootMethod());
+        }
+    }
+
     /**
      * Tests the 'single feature' request transformation
      */
@@ -0,0 +1,150 @@
+package org.auscope.portal.server.web.service.download;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.auscope.portal.core.configuration.ServiceConfiguration;
+import org.auscope.portal.core.configuration.ServiceConfigurationItem;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
+import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for MineralOccurrenceDownloadService
+ */
+public class TestMineralOccurrenceDownloadService extends PortalTestClass {
+
+    private static final String PAGING_URL = "http://paging.example.com/wfs";
+    private static final String OTHER_URL = "http://example.com/wfs";
+
+    private HttpServiceCaller mockHttpServiceCaller = context.mock(HttpServiceCaller.class);
+    private WFSGetFeatureMethodMaker mockMethodMaker = context.mock(WFSGetFeatureMethodMaker.class);
+    private HttpRequestBase mockHitsMethod = context.mock(HttpRequestBase.class, "mockHitsMethod");
+    private HttpRequestBase mockMethod1 = context.mock(HttpRequestBase.class, "mockMethod1");
+
+    private MineralOccurrenceDownloadService service;
+
+    private static String page(String... ids) {
+        StringBuilder sb = new StringBuilder(
+                "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er=\"urn:er\" numberOfFeatures=\""
+                        + ids.length + "\">");
+        for (String id : ids) {
+            sb.append("<gml:featureMember><er:MiningFeatureOccurrence gml:id=\"" + id
+                    + "\"/></gml:featureMember>");
+        }
+        return sb.append("</wfs:FeatureCollection>").toString();
+    }
+
+    private static HttpPost pageMethod() throws Exception {
+        HttpPost method = new HttpPost(PAGING_URL);
+        method.setEntity(new StringEntity("<wfs:GetFeature xmlns:wfs=\"http://www.opengis.net/wfs\"><wfs:Query typeName=\""
+                + MineralOccurrenceDownloadService.MINE_FEATURE_TYPE + "\"><ogc:Filter/></wfs:Query></wfs:GetFeature>",
+                "UTF-8"));
+        return method;
+    }
+
+    private static String sortBy(String propertyName) {
+        return "<ogc:SortBy xmlns:ogc=\"http://www.opengis.net/ogc\"><ogc:SortProperty><ogc:PropertyName>" + propertyName
+                + "</ogc:PropertyName><ogc:SortOrder>ASC</ogc:SortOrder></ogc:SortProperty></ogc:SortBy>";
+    }
+
+    @Before
+    public void setUp() {
+        service = new MineralOccurrenceDownloadService(mockHttpServiceCaller, mockMethodMaker);
+        service.setExecutor(null);
+        service.setPageSize(2);
+        service.setServiceConfiguration(new ServiceConfiguration(Arrays.asList(new ServiceConfigurationItem(
+                "paging", PAGING_URL, true))));
+    }
+
+    /**
+     * Tests that downloads from a paging service are split into (sorted) pages after a hits request
+     */
+    @Test
+    public void testDownloadMinesPaged() throws Exception {
+        final HttpPost pageMethod1 = pageMethod();
+        final HttpPost pageMethod2 = pageMethod();
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(PAGING_URL)),
+                        with(equal(MineralOccurrenceDownloadService.MINE_FEATURE_TYPE)), with(any(String.class)),
+                        with(equal(0)), with(any(String.class)), with(equal(ResultType.Hits)),
+                        with(aNull(String.class)), with(aNull(String.class)));
+                will(returnValue(mockHitsMethod));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockHitsMethod);
+                will(returnValue(new ByteArrayInputStream(page().replace("numberOfFeatures=\"0\"",
+                        "numberOfFeatures=\"3\"").getBytes())));
+
+                oneOf(mockMethodMaker).makePostMethod(with(equal(PAGING_URL)),
+                        with(equal(MineralOccurrenceDownloadService.MINE_FEATURE_TYPE)), with(any(String.class)),
+                        with(equal(2)), with(any(String.class)), with(equal(ResultType.Results)),
+                        with(aNull(String.class)), with(equal("0")));
+                will(returnValue(pageMethod1));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(pageMethod1);
+                will(returnValue(page("a", "b")));
+
+                oneOf(mockMethodMaker).makePostMethod(with(equal(PAGING_URL)),
+                        with(equal(MineralOccurrenceDownloadService.MINE_FEATURE_TYPE)), with(any(String.class)),
+                        with(equal(1)), with(any(String.class)), with(equal(ResultType.Results)),
+                        with(aNull(String.class)), with(equal("2")));
+                will(returnValue(pageMethod2));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsString(pageMethod2);
+                will(returnValue(page("c")));
+            }
+        });
+
+        String gml = IOUtils.toString(service.downloadMinesGml(PAGING_URL, "", null, 0, null, null), "UTF-8");
+        Assert.assertEquals(page("a", "b", "c"), gml);
+
+        //Without a sort the service could order each page's request differently
+        String sortBy = sortBy(MineralOccurrenceDownloadService.PAGE_SORT_PROPERTY);
+        Assert.assertTrue(EntityUtils.toString(pageMethod1.getEntity()).contains(sortBy + "</wfs:Query>"));
+        Assert.assertTrue(EntityUtils.toString(pageMethod2.getEntity()).contains(sortBy + "</wfs:Query>"));
+    }
+
+    /**
+     * Tests that GET requests are sorted with a sortBy parameter
+     */
+    @Test
+    public void testAddSortByGet() throws Exception {
+        HttpGet method = new HttpGet(PAGING_URL + "?typeName=er:MiningFeatureOccurrence");
+        MineralOccurrenceDownloadService.addSortBy(method, "@gml:id");
+        Assert.assertEquals(PAGING_URL + "?typeName=er:MiningFeatureOccurrence&sortBy=%40gml%3Aid",
+                method.getURI().toString());
+    }
+
+    /**
+     * Tests that downloads from services that aren't configured for paging use a single request
+     */
+    @Test
+    public void testDownloadMinesNotPaged() throws Exception {
+        final String gml = page("a", "b", "c");
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockMethodMaker).makePostMethod(with(equal(OTHER_URL)),
+                        with(equal(MineralOccurrenceDownloadService.MINE_FEATURE_TYPE)), with(any(String.class)),
+                        with(equal(0)), with(any(String.class)), with(equal(ResultType.Results)),
+                        with(aNull(String.class)), with(aNull(String.class)));
+                will(returnValue(mockMethod1));
+                oneOf(mockHttpServiceCaller).getMethodResponseAsStream(mockMethod1);
+                will(returnValue(new ByteArrayInputStream(gml.getBytes())));
+            }
+        });
+
+        Assert.assertEquals(gml,
+                IOUtils.toString(service.downloadMinesGml(OTHER_URL, "", null, 0, null, null), "UTF-8"));
+    }
+}
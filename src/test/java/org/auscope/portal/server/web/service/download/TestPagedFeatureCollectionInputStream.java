@@ -0,0 +1,102 @@
+package org.auscope.portal.server.web.service.download;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for PagedFeatureCollectionInputStream
+ */
+public class TestPagedFeatureCollectionInputStream extends PortalTestClass {
+
+    private static final String COLLECTION_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er=\"urn:er\" numberOfFeatures=\"2\">"
+            + "<gml:boundedBy><gml:Null>unknown</gml:Null></gml:boundedBy>";
+    private static final String COLLECTION_END = "</wfs:FeatureCollection>";
+
+    private static String featureMember(String id) {
+        return "<gml:featureMember><er:Mine gml:id=\"" + id + "\"><er:member>x</er:member></er:Mine></gml:featureMember>";
+    }
+
+    private static List<Callable<String>> pages(final String... pages) {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (final String page : pages) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return page;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Tests that featureMember pages are joined (in order) into a single collection
+     */
+    @Test
+    public void testJoinFeatureMember() throws Exception {
+        List<Callable<String>> pages = pages(COLLECTION_START + featureMember("a") + featureMember("b") + COLLECTION_END,
+                COLLECTION_START + featureMember("c") + featureMember("d") + COLLECTION_END,
+                COLLECTION_START + featureMember("e") + COLLECTION_END);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            String joined = IOUtils.toString(new PagedFeatureCollectionInputStream(executor, pages, 2, 5), "UTF-8");
+            Assert.assertEquals(COLLECTION_START.replace("numberOfFeatures=\"2\"", "numberOfFeatures=\"5\"")
+                    + featureMember("a") + featureMember("b") + featureMember("c") + featureMember("d")
+                    + featureMember("e") + COLLECTION_END, joined);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that featureMembers pages are joined into the first page's featureMembers
+     */
+    @Test
+    public void testJoinFeatureMembers() throws Exception {
+        List<Callable<String>> pages = pages(
+                COLLECTION_START + "<gml:featureMembers><er:Mine gml:id=\"a\"/></gml:featureMembers>" + COLLECTION_END,
+                COLLECTION_START + "<gml:featureMembers><er:Mine gml:id=\"b\"/></gml:featureMembers>" + COLLECTION_END);
+
+        String joined = IOUtils.toString(new PagedFeatureCollectionInputStream(null, pages, 4, 2), "UTF-8");
+        Assert.assertEquals(COLLECTION_START
+                + "<gml:featureMembers><er:Mine gml:id=\"a\"/><er:Mine gml:id=\"b\"/></gml:featureMembers>"
+                + COLLECTION_END, joined);
+    }
+
+    /**
+     * Tests that a failed page request fails the read
+     */
+    @Test(expected = IOException.class)
+    public void testPageError() throws Exception {
+        List<Callable<String>> pages = pages(COLLECTION_START + featureMember("a") + COLLECTION_END);
+        pages.add(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IOException("Connection refused");
+            }
+        });
+
+        IOUtils.toString(new PagedFeatureCollectionInputStream(null, pages, 2, 2), "UTF-8");
+    }
+
+    /**
+     * Tests that an OWS exception report in a page fails the read
+     */
+    @Test(expected = IOException.class)
+    public void testPageOWSException() throws Exception {
+        List<Callable<String>> pages = pages(COLLECTION_START + featureMember("a") + COLLECTION_END,
+                "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"><ows:Exception exceptionCode=\"NoApplicableCode\"><ows:ExceptionText>Error</ows:ExceptionText></ows:Exception></ows:ExceptionReport>");
+
+        IOUtils.toString(new PagedFeatureCollectionInputStream(null, pages, 2, 2), "UTF-8");
+    }
+}